@@ -5,15 +5,18 @@
  */
 package jp.ac.muroran_it.csse.deviceclient;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,8 +27,62 @@ public class DeviceClient {
     /** ソケット */
     private Socket socket;
 
-    /** リスナー群 */
-    private CopyOnWriteArrayList<DeviceListener> listeners = new CopyOnWriteArrayList<DeviceListener>();
+    /** リスナー群 (変更のたびに配列を作り直し、配信は配列を直接走査する) */
+    private volatile PrimitiveDeviceListener[] listeners = new PrimitiveDeviceListener[0];
+
+    /** 接続中のデバイス番号 */
+    private volatile int device = -1;
+
+    /** 受信に用いるランタイム (nullの場合は接続ごとに受信スレッドを持つ) */
+    private final DeviceRuntime runtime;
+
+    /** ランタイムで受信するときの受信バッファ (ランタイムのスレッドのみが使う) */
+    private final ByteBuffer receiveBuffer;
+
+    /** サブクラスが {@link #processDeviceEvent(DeviceEvent)} をオーバーライドしているか */
+    private final boolean deviceEventHooked;
+
+    /** ボタンイベントのデータ長 (ボタンID + 時刻) */
+    private static final int BUTTON_EVENT_SIZE = 1 + 8;
+
+    /** ベクトルイベントのデータ長 (x, y, z + 時刻) */
+    private static final int VECTOR_EVENT_SIZE = 8 * 3 + 8;
+
+    /**
+     * 接続ごとに受信スレッドを持つリモートデバイスを生成するコンストラクタ。
+     */
+    public DeviceClient() {
+        this(null);
+    }
+
+    /**
+     * ランタイムのスレッドで受信するリモートデバイスを生成するコンストラクタ。
+     * @param runtime ランタイム。nullの場合は接続ごとに受信スレッドを持つ。
+     */
+    public DeviceClient(DeviceRuntime runtime) {
+        this.runtime = runtime;
+        this.receiveBuffer = runtime != null ? ByteBuffer.allocateDirect(4096) : null;
+        this.deviceEventHooked = overridesProcessDeviceEvent(getClass());
+    }
+
+    /**
+     * クラスが {@link #processDeviceEvent(DeviceEvent)} をオーバーライドしているかの判定。
+     * @param type クラス。
+     * @return オーバーライドしている場合 (判定できない場合を含む) はtrue。
+     */
+    private static boolean overridesProcessDeviceEvent(Class<?> type) {
+        for (Class<?> c = type; c != DeviceClient.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("processDeviceEvent", DeviceEvent.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // スーパークラスを調べる
+            } catch (SecurityException e) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     /**
      * デバイスサーバへ接続。
@@ -37,6 +94,11 @@ public class DeviceClient {
     public boolean connect(String serverName, int portNumber, final int id) {
         // 既に接続済みであれば、先に切断しておく
         disconnect();
+        device = id;
+
+        if (runtime != null) {
+            return connectRuntime(serverName, portNumber, id);
+        }
 
         try {
             // デバイスサーバに接続
@@ -53,29 +115,26 @@ public class DeviceClient {
                         output.writeByte(id);
 
                         // デバイス情報の受信
-                        DataInputStream input = new DataInputStream(socket.getInputStream());
+                        DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
                         // ソケットが閉じられるまで受信し続ける
                         while (true) {
                             // イベントタイプの受信
                             int eventType = input.readUnsignedByte();
-                            // イベントタイプで本体の受信を振り分け
-                            DeviceEvent event = null;
+                            // イベントタイプで本体の受信を振り分け、リスナー群に配信
                             switch (eventType) {
                                 case 0:
-                                    event = recievePressedEvent(input);  // デバイスプレスイベント
+                                    recievePressedEvent(input);  // デバイスプレスイベント
                                     break;
                                 case 1:
-                                    event = recieveReleasedEvent(input); // デバイスリリースイベント
+                                    recieveReleasedEvent(input); // デバイスリリースイベント
                                     break;
                                 case 2:
-                                    event = recieveMovedEvent(input);    // デバイスムーブイベント
+                                    recieveMovedEvent(input);    // デバイスムーブイベント
                                     break;
                                 case 3:
-                                    event = recieveSwayedEvent(input);   // デバイススウェイイベント
+                                    recieveSwayedEvent(input);   // デバイススウェイイベント
                                     break;
                             }
-                            // イベントをリスナー群に配信
-                            processDeviceEvent(event);
                         }
                     } catch (IOException e) {
                         Logger.getLogger(DeviceClient.class.getName()).log(Level.SEVERE, null, e);
@@ -109,51 +168,168 @@ public class DeviceClient {
     }
 
     /**
-     * 指定した入力ストリームからのデバイスプレスイベントの受信。
+     * ランタイムで受信する接続。
+     * @param serverName デバイスサーバのホスト名。
+     * @param portNumber デバイスサーバのポート番号。
+     * @param id デバイス番号。
+     * @return デバイスサーバへ接続できた場合はtrue。
+     */
+    private boolean connectRuntime(String serverName, int portNumber, int id) {
+        SocketChannel channel = null;
+        try {
+            // デバイスサーバに接続し、デバイスIDを送信
+            channel = SocketChannel.open(new InetSocketAddress(serverName, portNumber));
+            ByteBuffer select = ByteBuffer.allocate(1);
+            select.put((byte) id).flip();
+            while (select.hasRemaining()) {
+                channel.write(select);
+            }
+            channel.configureBlocking(false);
+            receiveBuffer.clear();
+            socket = channel.socket();
+            final SocketChannel ch = channel;
+            runtime.register(channel, new DeviceRuntime.ReadHandler() {
+                @Override
+                public void readable() {
+                    receive(ch);
+                }
+            });
+        } catch (IOException e) {
+            // 接続失敗、ホストが見付からない、入出力エラー
+            Logger.getLogger(DeviceClient.class.getName()).log(Level.SEVERE, null, e);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    Logger.getLogger(DeviceClient.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+            socket = null;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * ランタイムのスレッドでの受信。他の接続の受信を待たせないよう、1回だけ読み込む。
+     * @param channel 接続。
+     */
+    private void receive(SocketChannel channel) {
+        try {
+            if (channel.read(receiveBuffer) < 0) {
+                throw new EOFException();
+            }
+            receiveBuffer.flip();
+            while (receiveBuffer.hasRemaining()) {
+                int start = receiveBuffer.position();
+                int eventType = receiveBuffer.get(start) & 0xff;
+                int size;
+                switch (eventType) {
+                    case 0:
+                    case 1:
+                        size = BUTTON_EVENT_SIZE;
+                        break;
+                    case 2:
+                    case 3:
+                        size = VECTOR_EVENT_SIZE;
+                        break;
+                    default:
+                        // 未知のイベントタイプは読み飛ばす
+                        receiveBuffer.position(start + 1);
+                        continue;
+                }
+                if (receiveBuffer.remaining() < 1 + size) {
+                    break;
+                }
+                receiveBuffer.position(start + 1);
+                // イベントをリスナー群に配信
+                switch (eventType) {
+                    case 0: {
+                        int buttonID = receiveBuffer.get() & 0xff;
+                        dispatchPressed(buttonID, receiveBuffer.getLong());
+                        break;
+                    }
+                    case 1: {
+                        int buttonID = receiveBuffer.get() & 0xff;
+                        dispatchReleased(buttonID, receiveBuffer.getLong());
+                        break;
+                    }
+                    case 2: {
+                        double x = receiveBuffer.getDouble();
+                        double y = receiveBuffer.getDouble();
+                        double z = receiveBuffer.getDouble();
+                        dispatchMoved(x, y, z, receiveBuffer.getLong());
+                        break;
+                    }
+                    case 3: {
+                        double px = receiveBuffer.getDouble();
+                        double py = receiveBuffer.getDouble();
+                        double pz = receiveBuffer.getDouble();
+                        dispatchSwayed(px, py, pz, receiveBuffer.getLong());
+                        break;
+                    }
+                }
+            }
+            receiveBuffer.compact();
+        } catch (IOException e) {
+            // 入出力エラー (disconnectで閉じた場合を除く)
+            if (channel.isOpen()) {
+                Logger.getLogger(DeviceClient.class.getName()).log(Level.SEVERE, null, e);
+            }
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                Logger.getLogger(DeviceClient.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * 指定した入力ストリームからのデバイスプレスイベントの受信と配信。
      * @param input 入力ストリーム。
-     * @return 受信したデバイスプレスイベント。
      * @throws IOException 入出力エラーが発生したとき。
      */
-    private static DeviceEvent recievePressedEvent(DataInputStream input) throws IOException {
+    private void recievePressedEvent(DataInputStream input) throws IOException {
         int buttonID = input.readUnsignedByte();
         long time = input.readLong();
-        return DeviceEvent.createPressedEvent(buttonID, time);
+        dispatchPressed(buttonID, time);
     }
 
     /**
-     * 指定した入力ストリームからのデバイスリリースイベントの受信。
+     * 指定した入力ストリームからのデバイスリリースイベントの受信と配信。
      * @param input 入力ストリーム。
-     * @return 受信したデバイスリリースイベント。
      * @throws IOException 入出力エラーが発生したとき。
      */
-    private static DeviceEvent recieveReleasedEvent(DataInputStream input) throws IOException {
+    private void recieveReleasedEvent(DataInputStream input) throws IOException {
         int buttonID = input.readUnsignedByte();
         long time = input.readLong();
-        return DeviceEvent.createReleasedEvent(buttonID, time);
+        dispatchReleased(buttonID, time);
     }
 
     /**
-     * 指定した入力ストリームからのデバイスムーブイベントの受信。
+     * 指定した入力ストリームからのデバイスムーブイベントの受信と配信。
      * @param input 入力ストリーム。
-     * @return 受信したデバイスムーブイベント。
      * @throws IOException 入出力エラーが発生したとき。
      */
-    private static DeviceEvent recieveMovedEvent(DataInputStream input) throws IOException {
-        double[] position = new double[] {input.readDouble(), input.readDouble(), input.readDouble()};
+    private void recieveMovedEvent(DataInputStream input) throws IOException {
+        double x = input.readDouble();
+        double y = input.readDouble();
+        double z = input.readDouble();
         long time = input.readLong();
-        return DeviceEvent.createMovedEvent(position, time);
+        dispatchMoved(x, y, z, time);
     }
 
     /**
-     * 指定した入力ストリームからのデバイススウェイイベントの受信。
+     * 指定した入力ストリームからのデバイススウェイイベントの受信と配信。
      * @param input 入力ストリーム。
-     * @return 受信したデバイススウェイイベント。
      * @throws IOException 入出力エラーが発生したとき。
      */
-    private static DeviceEvent recieveSwayedEvent(DataInputStream input) throws IOException {
-        double[] posture = new double[] {input.readDouble(), input.readDouble(), input.readDouble()};
+    private void recieveSwayedEvent(DataInputStream input) throws IOException {
+        double px = input.readDouble();
+        double py = input.readDouble();
+        double pz = input.readDouble();
         long time = input.readLong();
-        return DeviceEvent.createSwayedEvent(posture, time);
+        dispatchSwayed(px, py, pz, time);
     }
 
     /**
@@ -172,24 +348,61 @@ public class DeviceClient {
 
     /**
      * デバイスイベントリスナーの登録。
+     * リスナーは {@link DeviceListenerAdapter} で包んで登録するため、イベントごとに {@link DeviceEvent} を生成する。
      * @param listener デバイスイベントリスナー。
      */
     public void addDeviceListener(DeviceListener listener) {
+        addPrimitiveDeviceListener(new DeviceListenerAdapter(listener));
+    }
+
+    /**
+     * デバイスイベントリスナーの削除。
+     * @param listener デバイスイベントリスナー。
+     */
+    public void removeDeviceListener(DeviceListener listener) {
+        removePrimitiveDeviceListener(new DeviceListenerAdapter(listener));
+    }
+
+    /**
+     * 基本型のデバイスイベントリスナーの登録。
+     * @param listener デバイスイベントリスナー。
+     */
+    public synchronized void addPrimitiveDeviceListener(PrimitiveDeviceListener listener) {
         // 登録済みかをチェック
-        int index = listeners.indexOf(listener);
-        if (index < 0) {
+        if (indexOf(listener) < 0) {
             // 既存のリスナーでなければ登録
-            listeners.add(listener);
+            PrimitiveDeviceListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+            added[listeners.length] = listener;
+            listeners = added;
         }
     }
 
     /**
-     * デバイスイベントリスナーの削除。
+     * 基本型のデバイスイベントリスナーの削除。
      * @param listener デバイスイベントリスナー。
      */
-    public void removeDeviceListener(DeviceListener listener) {
-        // リスナー群から削除
-        listeners.remove(listener);
+    public synchronized void removePrimitiveDeviceListener(PrimitiveDeviceListener listener) {
+        int index = indexOf(listener);
+        if (index >= 0) {
+            PrimitiveDeviceListener[] removed = new PrimitiveDeviceListener[listeners.length - 1];
+            System.arraycopy(listeners, 0, removed, 0, index);
+            System.arraycopy(listeners, index + 1, removed, index, removed.length - index);
+            listeners = removed;
+        }
+    }
+
+    /**
+     * リスナー群の中のリスナーの位置の取得。
+     * @param listener デバイスイベントリスナー。
+     * @return 位置。登録されていない場合は-1。
+     */
+    private int indexOf(PrimitiveDeviceListener listener) {
+        for (int i = 0; i < listeners.length; ++i) {
+            if (listeners[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -202,30 +415,141 @@ public class DeviceClient {
 
     /**
      * デバイスイベントリスナー群へのデバイスイベントの配信。
+     * 受信したイベントは全てこのメソッドを通る。サブクラスはオーバーライドしてイベントの選別・記録・変換ができる。
+     * オーバーライドしていない場合は {@link DeviceEvent} を生成せずに配信する。
      * @param event デバイスイベント。
      */
     protected void processDeviceEvent(DeviceEvent event) {
         if (event != null) {
-            List<DeviceListener> listeners = new ArrayList<DeviceListener>(this.listeners);
-            for (DeviceListener listener : listeners) {
-                switch (event.getType()) {
-                    case BUTTON_PRESSED:
-                        listener.devicePressed(event);
-                        break;
-                    case BUTTON_RELEASED:
-                        listener.deviceReleased(event);
-                        break;
-                    case SENSOR_MOVED:
-                        listener.deviceMoved(event);
-                        break;
-                    case SENSOR_SWAYED:
-                        listener.deviceSwayed(event);
-                        break;
-                    default:
-                        System.out.println("Unknown event");
-                        break;
-                }
+            switch (event.getType()) {
+                case BUTTON_PRESSED:
+                    firePressed(event.getButtonID(), event.getTime());
+                    break;
+                case BUTTON_RELEASED:
+                    fireReleased(event.getButtonID(), event.getTime());
+                    break;
+                case SENSOR_MOVED:
+                    fireMoved(event.getX(), event.getY(), event.getZ(), event.getTime());
+                    break;
+                case SENSOR_SWAYED:
+                    fireSwayed(event.getPX(), event.getPY(), event.getPZ(), event.getTime());
+                    break;
+                default:
+                    System.out.println("Unknown event");
+                    break;
             }
         }
     }
+
+    /**
+     * 受信したデバイスプレスイベントの配信。
+     * {@link #processDeviceEvent(DeviceEvent)} がオーバーライドされている場合はイベントを生成してそれに渡す。
+     * @param buttonID ボタンID。
+     * @param time イベント発生時刻。
+     */
+    private void dispatchPressed(int buttonID, long time) {
+        if (deviceEventHooked) {
+            processDeviceEvent(DeviceEvent.createPressedEvent(buttonID, time));
+        } else {
+            firePressed(buttonID, time);
+        }
+    }
+
+    /**
+     * 受信したデバイスリリースイベントの配信。
+     * {@link #processDeviceEvent(DeviceEvent)} がオーバーライドされている場合はイベントを生成してそれに渡す。
+     * @param buttonID ボタンID。
+     * @param time イベント発生時刻。
+     */
+    private void dispatchReleased(int buttonID, long time) {
+        if (deviceEventHooked) {
+            processDeviceEvent(DeviceEvent.createReleasedEvent(buttonID, time));
+        } else {
+            fireReleased(buttonID, time);
+        }
+    }
+
+    /**
+     * 受信したデバイスムーブイベントの配信。
+     * {@link #processDeviceEvent(DeviceEvent)} がオーバーライドされている場合はイベントを生成してそれに渡す。
+     * @param x デバイスのx座標値。
+     * @param y デバイスのy座標値。
+     * @param z デバイスのz座標値。
+     * @param time イベント発生時刻。
+     */
+    private void dispatchMoved(double x, double y, double z, long time) {
+        if (deviceEventHooked) {
+            processDeviceEvent(DeviceEvent.createMovedEvent(new double[] {x, y, z}, time));
+        } else {
+            fireMoved(x, y, z, time);
+        }
+    }
+
+    /**
+     * 受信したデバイススウェイイベントの配信。
+     * {@link #processDeviceEvent(DeviceEvent)} がオーバーライドされている場合はイベントを生成してそれに渡す。
+     * @param px デバイスのx軸周りの回転量。
+     * @param py デバイスのy軸周りの回転量。
+     * @param pz デバイスのz軸周りの回転量。
+     * @param time イベント発生時刻。
+     */
+    private void dispatchSwayed(double px, double py, double pz, long time) {
+        if (deviceEventHooked) {
+            processDeviceEvent(DeviceEvent.createSwayedEvent(new double[] {px, py, pz}, time));
+        } else {
+            fireSwayed(px, py, pz, time);
+        }
+    }
+
+    /**
+     * リスナー群へのデバイスプレスイベントの配信。オブジェクトを生成しない。
+     * @param buttonID ボタンID。
+     * @param time イベント発生時刻。
+     */
+    private void firePressed(int buttonID, long time) {
+        PrimitiveDeviceListener[] listeners = this.listeners;
+        for (int i = 0; i < listeners.length; ++i) {
+            listeners[i].onPressed(device, buttonID, time);
+        }
+    }
+
+    /**
+     * リスナー群へのデバイスリリースイベントの配信。オブジェクトを生成しない。
+     * @param buttonID ボタンID。
+     * @param time イベント発生時刻。
+     */
+    private void fireReleased(int buttonID, long time) {
+        PrimitiveDeviceListener[] listeners = this.listeners;
+        for (int i = 0; i < listeners.length; ++i) {
+            listeners[i].onReleased(device, buttonID, time);
+        }
+    }
+
+    /**
+     * リスナー群へのデバイスムーブイベントの配信。オブジェクトを生成しない。
+     * @param x デバイスのx座標値。
+     * @param y デバイスのy座標値。
+     * @param z デバイスのz座標値。
+     * @param time イベント発生時刻。
+     */
+    private void fireMoved(double x, double y, double z, long time) {
+        PrimitiveDeviceListener[] listeners = this.listeners;
+        for (int i = 0; i < listeners.length; ++i) {
+            listeners[i].onMoved(device, x, y, z, time);
+        }
+    }
+
+    /**
+     * リスナー群へのデバイススウェイイベントの配信。オブジェクトを生成しない。
+     * @param px デバイスのx軸周りの回転量。
+     * @param py デバイスのy軸周りの回転量。
+     * @param pz デバイスのz軸周りの回転量。
+     * @param time イベント発生時刻。
+     */
+    private void fireSwayed(double px, double py, double pz, long time) {
+        PrimitiveDeviceListener[] listeners = this.listeners;
+        for (int i = 0; i < listeners.length; ++i) {
+            listeners[i].onSwayed(device, px, py, pz, time);
+        }
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ * DeviceListenerAdapter.java
+ */
+package jp.ac.muroran_it.csse.deviceclient;
+
+/**
+ * {@link DeviceListener} を {@link PrimitiveDeviceListener} として登録するためのアダプタ。
+ * イベントごとに {@link DeviceEvent} を生成して委譲する。
+ * 同じリスナーを包むアダプタ同士は等しい。
+ */
+public class DeviceListenerAdapter implements PrimitiveDeviceListener {
+    /** 委譲先のリスナー */
+    private final DeviceListener listener;
+
+    /**
+     * 委譲先のリスナーを指定するコンストラクタ。
+     * @param listener 委譲先のリスナー。
+     */
+    public DeviceListenerAdapter(DeviceListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        this.listener = listener;
+    }
+
+    /**
+     * 委譲先のリスナーの取得。
+     * @return 委譲先のリスナー。
+     */
+    public DeviceListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public void onPressed(int device, int buttonID, long time) {
+        listener.devicePressed(DeviceEvent.createPressedEvent(buttonID, time));
+    }
+
+    @Override
+    public void onReleased(int device, int buttonID, long time) {
+        listener.deviceReleased(DeviceEvent.createReleasedEvent(buttonID, time));
+    }
+
+    @Override
+    public void onMoved(int device, double x, double y, double z, long time) {
+        listener.deviceMoved(DeviceEvent.createMovedEvent(new double[] {x, y, z}, time));
+    }
+
+    @Override
+    public void onSwayed(int device, double px, double py, double pz, long time) {
+        listener.deviceSwayed(DeviceEvent.createSwayedEvent(new double[] {px, py, pz}, time));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof DeviceListenerAdapter && ((DeviceListenerAdapter) obj).listener.equals(listener);
+    }
+
+    @Override
+    public int hashCode() {
+        return listener.hashCode();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * DeviceRuntime.java
+ */
+package jp.ac.muroran_it.csse.deviceclient;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 複数のデバイスサーバとの接続を、一つのセレクタと一つのスレッドで受信するランタイム。
+ * {@link DeviceClient#DeviceClient(DeviceRuntime)} で生成したリモートデバイスは受信スレッドを持たず、
+ * このランタイムのスレッドで受信とリスナー群への配信を行う。
+ * 接続ごとの受信は順に処理するため、デバイスごとのイベントの順序は保たれる。
+ * 一つのリスナーが遅いと全てのデバイスの受信が遅れるため、遅いリスナーは {@link QueuedDeviceListener} で包んで登録する。
+ */
+public class DeviceRuntime {
+    /** セレクタ */
+    private final Selector selector;
+
+    /** 受信スレッド */
+    private final Thread thread;
+
+    /** 登録待ちの接続 (セレクタへの登録は受信スレッドで行う) */
+    private final ConcurrentLinkedQueue<Registration> pending = new ConcurrentLinkedQueue<Registration>();
+
+    /** 停止したか */
+    private volatile boolean closed = false;
+
+    /**
+     * 受信可能になったときの処理。
+     */
+    interface ReadHandler {
+        /**
+         * 受信可能になったときにランタイムのスレッドから呼ばれる。
+         */
+        void readable();
+    }
+
+    /**
+     * 登録待ちの接続。
+     */
+    private static class Registration {
+        final SocketChannel channel;
+        final ReadHandler handler;
+
+        Registration(SocketChannel channel, ReadHandler handler) {
+            this.channel = channel;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * ランタイムの生成と受信スレッドの開始。
+     * @return ランタイム。
+     * @throws IOException セレクタを開けなかったとき。
+     */
+    public static DeviceRuntime create() throws IOException {
+        return new DeviceRuntime(Selector.open());
+    }
+
+    private DeviceRuntime(Selector selector) {
+        this.selector = selector;
+        this.thread = new Thread("device-runtime") {
+            @Override
+            public void run() {
+                DeviceRuntime.this.run();
+            }
+        };
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 接続の登録。受信は次の待機から始まる。
+     * @param channel ノンブロッキングモードの接続。
+     * @param handler 受信可能になったときの処理。
+     */
+    void register(SocketChannel channel, ReadHandler handler) {
+        pending.add(new Registration(channel, handler));
+        selector.wakeup();
+    }
+
+    /**
+     * 受信スレッドの停止。登録されている接続は閉じない。
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        if (thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 受信スレッドの処理。
+     */
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Registration registration;
+                while ((registration = pending.poll()) != null) {
+                    try {
+                        registration.channel.register(selector, SelectionKey.OP_READ, registration.handler);
+                    } catch (ClosedChannelException e) {
+                        // 登録前に切断された
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        ((ReadHandler) key.attachment()).readable();
+                    } catch (RuntimeException e) {
+                        // 一つのリスナーの例外で他のデバイスの受信を止めない
+                        Logger.getLogger(DeviceRuntime.class.getName()).log(Level.WARNING, null, e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Logger.getLogger(DeviceRuntime.class.getName()).log(Level.SEVERE, null, e);
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                Logger.getLogger(DeviceRuntime.class.getName()).log(Level.SEVERE, null, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * PrimitiveDeviceListener.java
+ */
+package jp.ac.muroran_it.csse.deviceclient;
+
+/**
+ * デバイスイベントを基本型の引数で受け取るためのインタフェース。
+ * {@link DeviceListener} と違い、イベントごとにオブジェクトを生成しない。
+ * 引数の配列などは保持されないため、必要な値はコールバックの中で複製すること。
+ */
+public interface PrimitiveDeviceListener {
+    /**
+     * デバイスプレスイベントへの対応。
+     * デバイスのボタンを押したときに呼ばれる。
+     * @param device デバイス番号。
+     * @param buttonID ボタンID。
+     * @param time イベント発生時刻。
+     */
+    void onPressed(int device, int buttonID, long time);
+
+    /**
+     * デバイスリリースイベントへの対応。
+     * デバイスのボタンを離したときに呼ばれる。
+     * @param device デバイス番号。
+     * @param buttonID ボタンID。
+     * @param time イベント発生時刻。
+     */
+    void onReleased(int device, int buttonID, long time);
+
+    /**
+     * デバイスムーブイベントへの対応。
+     * デバイスの座標値を変更したときに呼ばれる。
+     * @param device デバイス番号。
+     * @param x デバイスのx座標値。
+     * @param y デバイスのy座標値。
+     * @param z デバイスのz座標値。
+     * @param time イベント発生時刻。
+     */
+    void onMoved(int device, double x, double y, double z, long time);
+
+    /**
+     * デバイススウェイイベントへの対応。
+     * デバイスの姿勢を変更したときに呼ばれる。
+     * @param device デバイス番号。
+     * @param px デバイスのx軸周りの回転量。
+     * @param py デバイスのy軸周りの回転量。
+     * @param pz デバイスのz軸周りの回転量。
+     * @param time イベント発生時刻。
+     */
+    void onSwayed(int device, double px, double py, double pz, long time);
+}
@@ -0,0 +1,327 @@
+/*
+ * QueuedDeviceListener.java
+ */
+package jp.ac.muroran_it.csse.deviceclient;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * デバイスイベントをキューに入れ、専用のスレッドからリスナーに配信するアダプタ。
+ * 遅いリスナーを包むことで、受信スレッドがリスナーを待たずに済み、他のリスナーへの配信が遅れなくなる。
+ * ムーブ・スウェイイベントは、配信前に新しいイベントが届くと最新の値に置き換える。
+ * 置き換えは最後のプレス・リリースイベントより後のものに限るため、イベントの前後関係は保たれる。
+ * プレス・リリースイベントは置き換えず、キューは必要に応じて伸長する。
+ * 受信スレッドでの処理はロックと配列への書き込みのみで、キューが伸長するとき以外はオブジェクトを生成しない。
+ */
+public class QueuedDeviceListener implements PrimitiveDeviceListener {
+    /** キューの初期容量 */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** プレスイベント */
+    private static final int PRESSED = 0;
+
+    /** リリースイベント */
+    private static final int RELEASED = 1;
+
+    /** ムーブイベント */
+    private static final int MOVED = 2;
+
+    /** スウェイイベント */
+    private static final int SWAYED = 3;
+
+    /** 配信先のリスナー */
+    private final PrimitiveDeviceListener listener;
+
+    /** イベントの種別 (通し番号 & mask が添字) */
+    private int[] types = new int[INITIAL_CAPACITY];
+
+    /** デバイス番号 */
+    private int[] devices = new int[INITIAL_CAPACITY];
+
+    /** ボタンID */
+    private int[] buttons = new int[INITIAL_CAPACITY];
+
+    /** x成分 */
+    private double[] xs = new double[INITIAL_CAPACITY];
+
+    /** y成分 */
+    private double[] ys = new double[INITIAL_CAPACITY];
+
+    /** z成分 */
+    private double[] zs = new double[INITIAL_CAPACITY];
+
+    /** イベント発生時刻 */
+    private long[] times = new long[INITIAL_CAPACITY];
+
+    /** 通し番号から添字を求めるマスク */
+    private int mask = INITIAL_CAPACITY - 1;
+
+    /** 次に配信するイベントの通し番号 */
+    private long head = 0;
+
+    /** 次に追加するイベントの通し番号 */
+    private long tail = 0;
+
+    /** 置き換えられるムーブイベントの通し番号 (ない場合は-1) */
+    private long movedSlot = -1;
+
+    /** 置き換えられるスウェイイベントの通し番号 (ない場合は-1) */
+    private long swayedSlot = -1;
+
+    /** 配信スレッドが待機中か */
+    private boolean waiting = false;
+
+    /** 終了したか */
+    private boolean closed = false;
+
+    /** 配信したイベントの数 */
+    private long delivered = 0;
+
+    /** 置き換えたイベントの数 */
+    private long coalesced = 0;
+
+    /** 捨てたイベントの数 */
+    private long dropped = 0;
+
+    /** 配信待ちのイベントの数の最大値 */
+    private int maxBacklog = 0;
+
+    /**
+     * アダプタの生成と配信スレッドの開始。
+     * @param listener 配信先のリスナー。
+     * @param name 配信スレッドの名前。
+     * @return アダプタ。
+     */
+    public static QueuedDeviceListener create(PrimitiveDeviceListener listener, String name) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        final QueuedDeviceListener queued = new QueuedDeviceListener(listener);
+        Thread thread = new Thread(name) {
+            @Override
+            public void run() {
+                queued.deliver();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return queued;
+    }
+
+    private QueuedDeviceListener(PrimitiveDeviceListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 配信先のリスナーの取得。
+     * @return 配信先のリスナー。
+     */
+    public PrimitiveDeviceListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public void onPressed(int device, int buttonID, long time) {
+        enqueue(PRESSED, device, buttonID, 0, 0, 0, time);
+    }
+
+    @Override
+    public void onReleased(int device, int buttonID, long time) {
+        enqueue(RELEASED, device, buttonID, 0, 0, 0, time);
+    }
+
+    @Override
+    public void onMoved(int device, double x, double y, double z, long time) {
+        enqueue(MOVED, device, 0, x, y, z, time);
+    }
+
+    @Override
+    public void onSwayed(int device, double px, double py, double pz, long time) {
+        enqueue(SWAYED, device, 0, px, py, pz, time);
+    }
+
+    /**
+     * 新しい値に置き換えたムーブ・スウェイイベントの数の取得。
+     * @return イベントの数。
+     */
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * 終了後に届いたため捨てたイベントの数の取得。
+     * @return イベントの数。
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * 配信したイベントの数の取得。
+     * @return イベントの数。
+     */
+    public synchronized long getDeliveredCount() {
+        return delivered;
+    }
+
+    /**
+     * 配信待ちのイベントの数の最大値の取得。
+     * @return イベントの数。
+     */
+    public synchronized int getMaxBacklog() {
+        return maxBacklog;
+    }
+
+    /**
+     * 新しいイベントの受け付けの終了。
+     * 配信待ちのイベントを配信してから配信スレッドを終了する。
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * イベントの追加。
+     */
+    private synchronized void enqueue(int type, int device, int button, double x, double y, double z, long time) {
+        if (closed) {
+            ++dropped;
+            return;
+        }
+        // 最後のプレス・リリースイベントより後の、配信前の同じ種別のイベントを置き換える
+        long slot = type == MOVED ? movedSlot : type == SWAYED ? swayedSlot : -1;
+        if (slot >= head && devices[(int) slot & mask] == device) {
+            int index = (int) slot & mask;
+            xs[index] = x;
+            ys[index] = y;
+            zs[index] = z;
+            times[index] = time;
+            ++coalesced;
+            return;
+        }
+        if (tail - head == types.length) {
+            grow();
+        }
+        int index = (int) tail & mask;
+        types[index] = type;
+        devices[index] = device;
+        buttons[index] = button;
+        xs[index] = x;
+        ys[index] = y;
+        zs[index] = z;
+        times[index] = time;
+        if (type == MOVED) {
+            movedSlot = tail;
+        } else if (type == SWAYED) {
+            swayedSlot = tail;
+        } else {
+            movedSlot = -1;
+            swayedSlot = -1;
+        }
+        ++tail;
+        maxBacklog = Math.max(maxBacklog, (int) (tail - head));
+        if (waiting) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * キューの容量を倍にする。
+     * 通し番号から添字への対応が変わるため、配信待ちのイベントを並べ直す。
+     */
+    private void grow() {
+        int capacity = types.length * 2;
+        int[] newTypes = new int[capacity];
+        int[] newDevices = new int[capacity];
+        int[] newButtons = new int[capacity];
+        double[] newXs = new double[capacity];
+        double[] newYs = new double[capacity];
+        double[] newZs = new double[capacity];
+        long[] newTimes = new long[capacity];
+        for (long seq = head; seq < tail; ++seq) {
+            int from = (int) seq & mask;
+            int to = (int) seq & (capacity - 1);
+            newTypes[to] = types[from];
+            newDevices[to] = devices[from];
+            newButtons[to] = buttons[from];
+            newXs[to] = xs[from];
+            newYs[to] = ys[from];
+            newZs[to] = zs[from];
+            newTimes[to] = times[from];
+        }
+        types = newTypes;
+        devices = newDevices;
+        buttons = newButtons;
+        xs = newXs;
+        ys = newYs;
+        zs = newZs;
+        times = newTimes;
+        mask = capacity - 1;
+    }
+
+    /**
+     * 配信スレッドの処理。
+     */
+    private void deliver() {
+        while (true) {
+            int type;
+            int device;
+            int button;
+            double x;
+            double y;
+            double z;
+            long time;
+            synchronized (this) {
+                while (head == tail && !closed) {
+                    waiting = true;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    } finally {
+                        waiting = false;
+                    }
+                }
+                if (head == tail) {
+                    return;
+                }
+                int index = (int) head & mask;
+                type = types[index];
+                device = devices[index];
+                button = buttons[index];
+                x = xs[index];
+                y = ys[index];
+                z = zs[index];
+                time = times[index];
+                ++head;
+                ++delivered;
+            }
+            try {
+                switch (type) {
+                    case PRESSED:
+                        listener.onPressed(device, button, time);
+                        break;
+                    case RELEASED:
+                        listener.onReleased(device, button, time);
+                        break;
+                    case MOVED:
+                        listener.onMoved(device, x, y, z, time);
+                        break;
+                    case SWAYED:
+                        listener.onSwayed(device, x, y, z, time);
+                        break;
+                    default:
+                }
+            } catch (RuntimeException e) {
+                Logger.getLogger(QueuedDeviceListener.class.getName()).log(Level.WARNING, null, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "delivered=" + delivered + " coalesced=" + coalesced + " dropped=" + dropped + " maxBacklog=" + maxBacklog;
+    }
+}
@@ -6,7 +6,10 @@ import jp.ac.muroran_it.csse.vr_skelton.VRSpaceState;
 import jp.sagalab.controller.HapticsStylusController;
 import jp.sagalab.controller.KeyController;
 import jp.sagalab.controller.ViewportController;
+import jp.sagalab.haptics.CalibrationStore;
+import jp.sagalab.haptics.DeviceRuntime;
 import jp.sagalab.haptics.HapticsClient;
+import jp.sagalab.haptics.QueuedEventListener;
 import jp.sagalab.jftk.force.calculator.AxisFrictionCalculator;
 import jp.sagalab.jftk.force.calculator.SurfaceFrictionCalculator;
 import jp.sagalab.model.AppModel;
@@ -17,6 +20,9 @@ import jp.sagalab.view.StateViewVR;
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
 
 public class Main {
     // Hapticsサーバ名
@@ -33,9 +39,16 @@ public class Main {
     private static final int deviceNum = 1;
 
     public static void main(String[] args) {
-        // Hapticsクライアントを設定
-        HapticsClient hapticsClient = new HapticsClient();
-        HapticsClient viewportClient = new HapticsClient();
+        // Hapticsクライアントを設定 (両方の接続を一つの受信スレッドで受信する)
+        DeviceRuntime runtime;
+        try {
+            runtime = DeviceRuntime.create();
+        } catch (IOException e) {
+            System.err.println("受信スレッドを開始できませんでした。");
+            return;
+        }
+        HapticsClient hapticsClient = new HapticsClient(runtime);
+        HapticsClient viewportClient = new HapticsClient(runtime);
         if (!hapticsClient.connect(hapticsServer, hapticsPort, 0)) {
             System.err.println("HapticsServerへの接続に失敗しました。");
             return;
@@ -45,6 +58,14 @@ public class Main {
             return;
         }
 
+        // キャリブレーション行列を読み込み、変更を監視する
+        CalibrationStore calibration = CalibrationStore.load();
+        try {
+            calibration.watch();
+        } catch (IOException e) {
+            System.err.println("キャリブレーションファイルの監視を開始できませんでした。");
+        }
+
         Config.Mode displayMode = Config.Mode.VIVE;
         //Config.Mode displayMode = Config.Mode.WINDOW_1400_1050;
 
@@ -53,6 +74,15 @@ public class Main {
 //        AppModel model = new AppModel(AxisFrictionCalculator.create());
         // 表面静止摩擦
         AppModel model = new AppModel(SurfaceFrictionCalculator.create());
+        // 力の計算を受信スレッドから切り離す
+        model.startServoLoop();
+        // 力覚ループの遅延をJMXで公開し、10秒ごとにログへ出力する
+        try {
+            model.getLatencyMonitor().registerMBean();
+        } catch (JMException e) {
+            System.err.println("遅延の統計をJMXに登録できませんでした。");
+        }
+        model.getLatencyMonitor().startReporting(10, TimeUnit.SECONDS);
 
         final StateViewVR view = new StateViewVR(model,displayMode);
 
@@ -62,10 +92,11 @@ public class Main {
                 final GLFrame frame = GLFrame.createAndShow(displayMode);
 
                 // 各種コントローラーを生成
-                HapticsStylusController hapticsStylusController = new HapticsStylusController(model, hapticsClient);
+                HapticsStylusController hapticsStylusController = new HapticsStylusController(model, hapticsClient, calibration);
                 ViewportController viewportController = new ViewportController(model, viewportClient);
                 hapticsClient.addListener(hapticsStylusController);
-                viewportClient.addListener(viewportController);
+                // 視点の更新は描画と競合して遅れることがあるため、専用のスレッドで最新の姿勢のみを受け取る
+                viewportClient.addListener(QueuedEventListener.create(viewportController, "viewport-listener"));
                 KeyController keyController = new KeyController(model);
                 frame.addKeyListener(keyController);
 
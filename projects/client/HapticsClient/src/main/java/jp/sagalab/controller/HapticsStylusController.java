@@ -1,29 +1,49 @@
 package jp.sagalab.controller;
 
+import jp.sagalab.haptics.CalibrationStore;
+import jp.sagalab.haptics.ClockEstimator;
 import jp.sagalab.haptics.EventListener;
 import jp.sagalab.haptics.HapticsClient;
-import jp.sagalab.jftk.Matrix;
 import jp.sagalab.jftk.Vector;
-import jp.sagalab.jftk.transform.TransformMatrix;
-import jp.sagalab.jftk.transform.Transformable;
+import jp.sagalab.jftk.force.impedance.ImpedanceModel;
 import jp.sagalab.model.ForceUpdater;
 import jp.sagalab.model.AppModel;
+import jp.sagalab.model.LatencyEstimator;
+import jp.sagalab.model.LatencyMonitor;
+
+public class HapticsStylusController implements EventListener, ForceUpdater, LatencyEstimator {
+    /** インピーダンスモデルを送り直す力の差 (N) */
+    private static final double IMPEDANCE_TOLERANCE = 0.01;
+    /** モデルが変わらなくてもインピーダンスモデルを送り直す間隔 (ns) */
+    private static final long IMPEDANCE_REFRESH_INTERVAL = 100_000_000L;
 
-public class HapticsStylusController implements EventListener, ForceUpdater, Transformable<Matrix> {
     private final AppModel m_model;
     private final HapticsClient m_client;
+    private final CalibrationStore m_calibration;
 
-    private Matrix position = Matrix.create(new double[][]{
-            {0.0},
-            {0.0},
-            {0.0},
-            {1.0}
-    });
+    /** ワールド座標の作業領域 (受信スレッド専用) */
+    private final double[] m_worldPosition = new double[3];
+    /** Geomagic座標系の力の作業領域 */
+    private final double[] m_geoForce = new double[3];
+    /** Geomagic座標系のインピーダンスモデルの作業領域 */
+    private final ImpedanceModel m_geoImpedance = ImpedanceModel.create();
+    /** 最後に送ったインピーダンスモデル (ワールド座標系) */
+    private final ImpedanceModel m_sentImpedance = ImpedanceModel.create();
+    /** 最後に送ったのがインピーダンスモデルか */
+    private boolean m_impedanceSent = false;
+    /** 最後にインピーダンスモデルを送った時刻 ({@link System#nanoTime()}) */
+    private long m_impedanceSentTime;
+    /** 送ったインピーダンスモデルの数 */
+    private long m_impedanceSentCount = 0;
+    /** 送らなかったインピーダンスモデルの数 */
+    private long m_impedanceSkippedCount = 0;
 
-    public HapticsStylusController(AppModel model, HapticsClient client) {
+    public HapticsStylusController(AppModel model, HapticsClient client, CalibrationStore calibration) {
         m_model = model;
         m_client = client;
+        m_calibration = calibration;
         m_model.addUpdater(this);
+        m_model.setLatencyEstimator(this);
     }
 
     @Override
@@ -54,15 +74,17 @@ public class HapticsStylusController implements EventListener, ForceUpdater, Tra
 
     @Override
     public void position(double x, double y, double z, long time /* ns */) {
-        position = Matrix.create(new double[][]{
-                {x},
-                {y},
-                {z},
-                {1}
-        });
-
-        Matrix worldPosition = transform(m_client.getGeo2WorldMatrix());
-        m_model.setHapticsPosition(worldPosition.get(0,0), worldPosition.get(1,0), worldPosition.get(2,0), time * 1e-9);
+        final LatencyMonitor monitor = m_model.getLatencyMonitor();
+        final long receiveTime = m_client.getReceiveTime();
+        final long start = System.nanoTime();
+        monitor.record(LatencyMonitor.Stage.RECEIVE, start - receiveTime);
+        final ClockEstimator clock = m_client.getClockEstimator();
+        if (clock.isSynchronized()) {
+            monitor.record(LatencyMonitor.Stage.ONE_WAY, clock.oneWayLatency(time, receiveTime));
+        }
+        m_calibration.geo2World(x, y, z, m_worldPosition);
+        monitor.record(LatencyMonitor.Stage.CALIBRATION, System.nanoTime() - start);
+        m_model.setHapticsPosition(m_worldPosition[0], m_worldPosition[1], m_worldPosition[2], time * 1e-9, receiveTime);
     }
 
     @Override
@@ -70,40 +92,72 @@ public class HapticsStylusController implements EventListener, ForceUpdater, Tra
         m_model.setHapticsForce(fx, fy, fz);
     }
 
+    /**
+     * 座標の計測からの経過時間 (デバイスの時計の推定による) に、力がデバイスに届くまでの片道の遅延を加える。
+     */
     @Override
-    public void requestUpdate(Vector force) {
-        Matrix geoForce = HapticsClient.getWorld2GeoMatrix().product(Matrix.create(new double[][]{
-                {force.x()},
-                {force.y()},
-                {force.z()}
-        }));
-        m_client.sendForceEvent(geoForce.get(0,0), geoForce.get(1,0), geoForce.get(2,0));
+    public double horizon(double time, long now) {
+        final ClockEstimator clock = m_client.getClockEstimator();
+        if (!clock.isSynchronized()) {
+            return 0;
+        }
+        final long measured = clock.toLocal(Math.round(time * 1e9));
+        return Math.max(0, now - measured + clock.getMinOneWayLatency()) * 1e-9;
     }
 
+    @Override
+    public void requestUpdate(Vector force) {
+        synchronized (m_geoForce) {
+            m_calibration.world2Geo(force.x(), force.y(), force.z(), m_geoForce);
+            m_client.sendForceEvent(m_geoForce[0], m_geoForce[1], m_geoForce[2]);
+            // 力設定イベントでデバイスのモデルは破棄される
+            m_impedanceSent = false;
+        }
+    }
 
+    /**
+     * 最後に送ったモデルから変わった場合のみ、インピーダンスモデルをGeomagic座標系に変換して送る。
+     * 変わらない場合も、キャリブレーションの変更を反映するため一定間隔で送り直す。
+     */
     @Override
-    public Matrix transform(TransformMatrix _matrix) {
-        double x = _matrix.get(0,0) * position.get(0,0)
-                 + _matrix.get(0,1) * position.get(1,0)
-                 + _matrix.get(0,2) * position.get(2,0)
-                 + _matrix.get(0,3) * position.get(3,0);
-        double y = _matrix.get(1,0) * position.get(0,0)
-                + _matrix.get(1,1) * position.get(1,0)
-                + _matrix.get(1,2) * position.get(2,0)
-                + _matrix.get(1,3) * position.get(3,0);
-        double z = _matrix.get(2,0) * position.get(0,0)
-                + _matrix.get(2,1) * position.get(1,0)
-                + _matrix.get(2,2) * position.get(2,0)
-                + _matrix.get(2,3) * position.get(3,0);
-        double w = _matrix.get(3,0) * position.get(0,0)
-                + _matrix.get(3,1) * position.get(1,0)
-                + _matrix.get(3,2) * position.get(2,0)
-                + _matrix.get(3,3) * position.get(3,0);
-        return Matrix.create(new double[][]{
-                {x},
-                {y},
-                {z},
-                {1}
-        });
+    public void requestImpedanceUpdate(ImpedanceModel model, double x, double y, double z) {
+        synchronized (m_geoForce) {
+            final long now = System.nanoTime();
+            if (m_impedanceSent && now - m_impedanceSentTime < IMPEDANCE_REFRESH_INTERVAL
+                    && model.approximates(m_sentImpedance, IMPEDANCE_TOLERANCE, x, y, z)) {
+                ++m_impedanceSkippedCount;
+                return;
+            }
+            if (!m_calibration.world2Geo(model, m_geoImpedance)) {
+                // 変換できない場合は力を送らない
+                requestUpdate(Vector.createXYZ(0, 0, 0));
+                return;
+            }
+            m_client.sendImpedanceEvent(m_geoImpedance);
+            m_sentImpedance.copyFrom(model);
+            m_impedanceSent = true;
+            m_impedanceSentTime = now;
+            ++m_impedanceSentCount;
+        }
+    }
+
+    /**
+     * 送ったインピーダンスモデルの数を返す。
+     * @return モデルの数
+     */
+    public long getImpedanceSentCount() {
+        synchronized (m_geoForce) {
+            return m_impedanceSentCount;
+        }
+    }
+
+    /**
+     * 変化がないため送らなかったインピーダンスモデルの数を返す。
+     * @return モデルの数
+     */
+    public long getImpedanceSkippedCount() {
+        synchronized (m_geoForce) {
+            return m_impedanceSkippedCount;
+        }
     }
 }
@@ -4,6 +4,7 @@ import jp.sagalab.model.AppModel;
 
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 
 public class KeyController extends KeyAdapter {
     private final AppModel m_model;
@@ -20,12 +21,34 @@ public class KeyController extends KeyAdapter {
             case KeyEvent.VK_F:
                 m_model.setEnableForceCalculation(!m_model.isEnableForceCalculation());
                 break;
+            case KeyEvent.VK_I:
+                // 力の代わりにインピーダンスモデルを送る
+                m_model.setImpedanceMode(!m_model.isImpedanceMode());
+                System.out.println("impedance mode : " + m_model.isImpedanceMode());
+                break;
+            case KeyEvent.VK_P:
+                // 遅延の分だけ先の座標で力を計算する
+                m_model.setPrediction(!m_model.isPrediction());
+                System.out.println("prediction : " + m_model.isPrediction());
+                break;
             case KeyEvent.VK_C:
                 m_model.clearPoints();
                 break;
             case KeyEvent.VK_S:
                 m_model.savePoints();
                 break;
+            case KeyEvent.VK_V:
+                // 全サンプルの記録を開始・終了する
+                if (m_model.isRecording()) {
+                    m_model.stopRecording();
+                } else {
+                    try {
+                        System.out.println("recording : " + m_model.startRecording());
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+                break;
             case KeyEvent.VK_R:
                 //m_model.randomCircle();
                 m_model.randomline();
@@ -0,0 +1,357 @@
+package jp.sagalab.haptics;
+
+import jp.sagalab.jftk.Matrix;
+import jp.sagalab.jftk.force.impedance.ImpedanceModel;
+import jp.sagalab.jftk.transform.TransformMatrix;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Scanner;
+
+/**
+ * キャリブレーション行列を保持する。
+ * <p>
+ * geo2world_euc, lib2world_euc, world2geo_vec を一度だけ読み込み、プリミティブ配列として保持する。
+ * 変換メソッドは呼び出し側のバッファに結果を書き込むためオブジェクトを生成しない。
+ * {@link #watch()} を呼ぶとファイルの変更を監視し、変更された行列を一括で差し替える。
+ * </p>
+ */
+public class CalibrationStore implements AutoCloseable {
+
+    /** Geomagic座標系 → ワールド座標系 (4x4) */
+    public static final String GEO2WORLD = "geo2world_euc";
+    /** Liberty座標系 → ワールド座標系 (4x4) */
+    public static final String LIB2WORLD = "lib2world_euc";
+    /** ワールド座標系 → Geomagic座標系のベクトル変換 (3x3) */
+    public static final String WORLD2GEO = "world2geo_vec";
+
+    /**
+     * カレントディレクトリの設定ファイルから読み込む。
+     * @return キャリブレーション行列
+     */
+    public static CalibrationStore load() {
+        return load(Paths.get(""));
+    }
+
+    /**
+     * 指定したディレクトリの設定ファイルから読み込む。
+     * @param dir 設定ファイルのあるディレクトリ
+     * @return キャリブレーション行列
+     */
+    public static CalibrationStore load(Path dir) {
+        Path directory = dir.toAbsolutePath();
+        CalibrationStore store = new CalibrationStore(directory);
+        store.snapshot = Snapshot.read(directory, null);
+        return store;
+    }
+
+    /**
+     * Geomagic座標をワールド座標に変換する。
+     * @param x   x座標
+     * @param y   y座標
+     * @param z   z座標
+     * @param out 変換後の座標 [x, y, z]
+     */
+    public void geo2World(double x, double y, double z, double[] out) {
+        transformPoint(snapshot.geo2World, x, y, z, out);
+    }
+
+    /**
+     * Liberty座標をワールド座標に変換する。
+     * @param x   x座標
+     * @param y   y座標
+     * @param z   z座標
+     * @param out 変換後の座標 [x, y, z]
+     */
+    public void lib2World(double x, double y, double z, double[] out) {
+        transformPoint(snapshot.lib2World, x, y, z, out);
+    }
+
+    /**
+     * ワールド座標系のベクトルをGeomagic座標系に変換する。
+     * @param x   x成分
+     * @param y   y成分
+     * @param z   z成分
+     * @param out 変換後のベクトル [x, y, z]
+     */
+    public void world2Geo(double x, double y, double z, double[] out) {
+        final double[] m = snapshot.world2Geo;
+        out[0] = m[0] * x + m[1] * y + m[2] * z;
+        out[1] = m[3] * x + m[4] * y + m[5] * z;
+        out[2] = m[6] * x + m[7] * y + m[8] * z;
+    }
+
+    /**
+     * ワールド座標系のインピーダンスモデルをGeomagic座標系に変換する。
+     * <p>
+     * Geomagic座標で描画した時の変位に対する力が、ワールド座標で計算した力を world2geo_vec で変換したものと一致するよう、
+     * アンカー点は geo2world_euc の逆変換、法線は geo2world_euc の線形部分の転置で変換し、法線の伸縮をバネ定数に含める。
+     * 力の方向は world2geo_vec で変換する。最大静止摩擦力・ファジネスは変換しない。
+     * </p>
+     * @param world ワールド座標系のモデル
+     * @param out   Geomagic座標系のモデルの格納先 (worldとは別のモデル)
+     * @return 変換できた場合はtrue (geo2world_euc が正則でない場合はfalse)
+     */
+    public boolean world2Geo(ImpedanceModel world, ImpedanceModel out) {
+        if (world == out) {
+            throw new IllegalArgumentException("out must not be the same model as world");
+        }
+        final Snapshot s = snapshot;
+        final double[] m = s.geo2World;
+        // geo2world_euc の線形部分の逆行列 (余因子行列)
+        final double c00 = m[5] * m[10] - m[6] * m[9];
+        final double c01 = m[2] * m[9] - m[1] * m[10];
+        final double c02 = m[1] * m[6] - m[2] * m[5];
+        final double c10 = m[6] * m[8] - m[4] * m[10];
+        final double c11 = m[0] * m[10] - m[2] * m[8];
+        final double c12 = m[2] * m[4] - m[0] * m[6];
+        final double c20 = m[4] * m[9] - m[5] * m[8];
+        final double c21 = m[1] * m[8] - m[0] * m[9];
+        final double c22 = m[0] * m[5] - m[1] * m[4];
+        final double det = m[0] * c00 + m[1] * c10 + m[2] * c20;
+        if (det == 0) {
+            return false;
+        }
+        final double[] v = s.world2Geo;
+        out.clear();
+        out.setReleaseThreshold(world.getReleaseThreshold());
+        for (int i = 0; i < world.size(); ++i) {
+            final double ax = world.anchorX(i) - m[3];
+            final double ay = world.anchorY(i) - m[7];
+            final double az = world.anchorZ(i) - m[11];
+            final double nx = world.normalX(i);
+            final double ny = world.normalY(i);
+            final double nz = world.normalZ(i);
+            final double fx = world.directionX(i);
+            final double fy = world.directionY(i);
+            final double fz = world.directionZ(i);
+            final double gx = m[0] * nx + m[4] * ny + m[8] * nz;
+            final double gy = m[1] * nx + m[5] * ny + m[9] * nz;
+            final double gz = m[2] * nx + m[6] * ny + m[10] * nz;
+            if (!out.add(
+                    (c00 * ax + c01 * ay + c02 * az) / det,
+                    (c10 * ax + c11 * ay + c12 * az) / det,
+                    (c20 * ax + c21 * ay + c22 * az) / det,
+                    gx, gy, gz,
+                    v[0] * fx + v[1] * fy + v[2] * fz,
+                    v[3] * fx + v[4] * fy + v[5] * fz,
+                    v[6] * fx + v[7] * fy + v[8] * fz,
+                    world.stiffness(i) * Math.sqrt(gx * gx + gy * gy + gz * gz),
+                    world.limit(i), world.band(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Geomagic座標系 → ワールド座標系の変換行列を返す。
+     * @return 変換行列
+     */
+    public TransformMatrix geo2WorldMatrix() {
+        return TransformMatrix.create(toRows(snapshot.geo2World, 4));
+    }
+
+    /**
+     * Liberty座標系 → ワールド座標系の変換行列を返す。
+     * @return 変換行列
+     */
+    public Matrix lib2WorldMatrix() {
+        return Matrix.create(toRows(snapshot.lib2World, 4));
+    }
+
+    /**
+     * ワールド座標系 → Geomagic座標系のベクトル変換行列を返す。
+     * @return 変換行列
+     */
+    public Matrix world2GeoMatrix() {
+        return Matrix.create(toRows(snapshot.world2Geo, 3));
+    }
+
+    /**
+     * 設定ファイルの監視を開始する。
+     * 変更があれば全ての行列を読み直して差し替える。
+     * @throws IOException 監視を開始できなかった場合
+     */
+    public synchronized void watch() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        final WatchService service = directory.getFileSystem().newWatchService();
+        directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchService = service;
+        watcher = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    WatchKey key = service.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        Object context = event.context();
+                        if (context instanceof Path && isCalibrationFile((Path) context)) {
+                            changed = true;
+                        }
+                    }
+                    if (changed) {
+                        // 読み込みに失敗した行列は直前の値を引き継ぐ
+                        snapshot = Snapshot.read(directory, snapshot);
+                        System.out.println("calibration reloaded.");
+                    }
+                    if (!key.reset()) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // 監視を終了する
+            }
+        }, "calibration-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * 設定ファイルの監視を終了する。
+     */
+    @Override
+    public synchronized void close() {
+        if (watcher == null) {
+            return;
+        }
+        watcher.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        watcher = null;
+        watchService = null;
+    }
+
+    /**
+     * 行列ファイルを読み込む。
+     * 各行はカンマ区切りで、空白文字で区切られた行を順に読む。
+     * @param file ファイル
+     * @param size 行数および列数
+     * @return 行優先の要素列 (読み込めなかった場合はnull)
+     */
+    static double[] read(File file, int size) {
+        ArrayList<double[]> elements = new ArrayList<>();
+        try (Scanner scanner = new Scanner(file)) {
+            while (scanner.hasNext()) {
+                String line = scanner.next();
+                if (line.isEmpty()) continue;
+                String[] split = line.split(",");
+                if (split.length != size) {
+                    System.err.println("invalid column size. " + split.length);
+                    return null;
+                }
+                double[] row = new double[size];
+                for (int i = 0; i < size; ++i) {
+                    row[i] = Double.parseDouble(split[i]);
+                }
+                elements.add(row);
+            }
+        } catch (FileNotFoundException e) {
+            System.err.println(e.getMessage());
+            return null;
+        } catch (NumberFormatException e) {
+            System.err.println("invalid number. " + e.getMessage());
+            return null;
+        }
+        if (elements.size() != size) {
+            System.err.println("invalid row size. " + elements.size());
+            return null;
+        }
+        double[] result = new double[size * size];
+        for (int i = 0; i < size; ++i) {
+            System.arraycopy(elements.get(i), 0, result, i * size, size);
+        }
+        return result;
+    }
+
+    /**
+     * 行優先の要素列を2次元配列に変換する。
+     * @param elements 要素列
+     * @param size     行数および列数
+     * @return 2次元配列
+     */
+    static double[][] toRows(double[] elements, int size) {
+        double[][] rows = new double[size][size];
+        for (int i = 0; i < size; ++i) {
+            System.arraycopy(elements, i * size, rows[i], 0, size);
+        }
+        return rows;
+    }
+
+    /**
+     * 単位行列の要素列を生成する。
+     * @param size 行数および列数
+     * @return 行優先の要素列
+     */
+    static double[] identity(int size) {
+        double[] elements = new double[size * size];
+        for (int i = 0; i < size; ++i) {
+            elements[i * size + i] = 1.0;
+        }
+        return elements;
+    }
+
+    private static void transformPoint(double[] m, double x, double y, double z, double[] out) {
+        out[0] = m[0] * x + m[1] * y + m[2] * z + m[3];
+        out[1] = m[4] * x + m[5] * y + m[6] * z + m[7];
+        out[2] = m[8] * x + m[9] * y + m[10] * z + m[11];
+    }
+
+    private static boolean isCalibrationFile(Path name) {
+        String fileName = name.getFileName().toString();
+        return GEO2WORLD.equals(fileName) || LIB2WORLD.equals(fileName) || WORLD2GEO.equals(fileName);
+    }
+
+    private CalibrationStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * ある時点での行列の組。生成後は変更しない。
+     */
+    private static final class Snapshot {
+
+        /**
+         * 設定ファイルから行列の組を読み込む。
+         * @param dir      ディレクトリ
+         * @param previous 読み込みに失敗した場合に引き継ぐ行列の組 (nullの場合は単位行列)
+         * @return 行列の組
+         */
+        static Snapshot read(Path dir, Snapshot previous) {
+            double[] geo2World = CalibrationStore.read(dir.resolve(GEO2WORLD).toFile(), 4);
+            double[] lib2World = CalibrationStore.read(dir.resolve(LIB2WORLD).toFile(), 4);
+            double[] world2Geo = CalibrationStore.read(dir.resolve(WORLD2GEO).toFile(), 3);
+            return new Snapshot(
+                    geo2World != null ? geo2World : previous != null ? previous.geo2World : identity(4),
+                    lib2World != null ? lib2World : previous != null ? previous.lib2World : identity(4),
+                    world2Geo != null ? world2Geo : previous != null ? previous.world2Geo : identity(3)
+            );
+        }
+
+        private Snapshot(double[] geo2World, double[] lib2World, double[] world2Geo) {
+            this.geo2World = geo2World;
+            this.lib2World = lib2World;
+            this.world2Geo = world2Geo;
+        }
+
+        final double[] geo2World;
+        final double[] lib2World;
+        final double[] world2Geo;
+    }
+
+    /** 設定ファイルのあるディレクトリ */
+    private final Path directory;
+    /** 現在の行列の組 */
+    private volatile Snapshot snapshot;
+    /** 監視スレッド */
+    private Thread watcher;
+    /** ファイル監視サービス */
+    private WatchService watchService;
+}
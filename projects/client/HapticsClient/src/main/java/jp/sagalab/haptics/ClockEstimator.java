@@ -0,0 +1,289 @@
+package jp.sagalab.haptics;
+
+/**
+ * デバイスの時計とクライアントの {@link System#nanoTime()} の対応を推定する。
+ * <p>
+ * デバイスが付けたタイムスタンプ t と受信時刻 r の差 r - t は、時計のずれ (オフセット) と片道の遅延の和である。
+ * 遅延は負にならず、混雑していない時の最小値はほぼ一定なので、差の下側の包絡線を時計のずれとみなす。
+ * 差をデバイスの時刻で一定の長さの区間に分けて区間ごとの最小値を残し、最小値の列に直線を当てはめて
+ * オフセットとドリフト (時計の進み方の差) を求める。
+ * </p>
+ * <p>
+ * 片道の遅延は一方向の計測だけでは決まらない。往復時間が分かる場合はその最小値の半分を最小の片道遅延とし、
+ * 包絡線から差し引く。分からない場合は最小の片道遅延を0とみなすため、推定した遅延は最小値からの増分になる。
+ * </p>
+ * <p>
+ * 記録は受信スレッドから行い、推定値は他のスレッドから読んでよい。
+ * </p>
+ */
+public class ClockEstimator {
+
+    /** 既定の区間の長さ (ns) */
+    public static final long DEFAULT_BUCKET_LENGTH = 1_000_000_000L;
+    /** 既定の区間の数 */
+    public static final int DEFAULT_BUCKET_COUNT = 16;
+    /** 推定からこの値 (ns) を超えて外れた差は、時計が変わったとみなして推定をやり直す */
+    private static final long RESET_THRESHOLD = 1_000_000_000L;
+    /** 往復時間として受け付ける最大値 (ns) */
+    private static final long MAX_ROUND_TRIP = 1_000_000_000L;
+
+    /**
+     * 既定の区間 (1秒 × 16) で推定器を生成する。
+     * @return 推定器
+     */
+    public static ClockEstimator create() {
+        return create(DEFAULT_BUCKET_LENGTH, DEFAULT_BUCKET_COUNT);
+    }
+
+    /**
+     * 推定器を生成する。
+     * @param bucketLength 区間の長さ (ns)
+     * @param bucketCount  直線の当てはめに用いる区間の数 (2以上)
+     * @return 推定器
+     */
+    public static ClockEstimator create(long bucketLength, int bucketCount) {
+        if (bucketLength <= 0) {
+            throw new IllegalArgumentException("invalid bucket length : " + bucketLength);
+        }
+        if (bucketCount < 2) {
+            throw new IllegalArgumentException("invalid bucket count : " + bucketCount);
+        }
+        return new ClockEstimator(bucketLength, bucketCount);
+    }
+
+    /**
+     * デバイスが付けたタイムスタンプと受信時刻を記録する。
+     * @param deviceTime  デバイスのタイムスタンプ (ns)
+     * @param receiveTime 受信時刻 ({@link System#nanoTime()})
+     */
+    public synchronized void sample(long deviceTime, long receiveTime) {
+        final long difference = receiveTime - deviceTime;
+        if (sampleCount > 0 && Math.abs(difference - envelope(deviceTime)) > RESET_THRESHOLD) {
+            reset();
+        }
+        if (sampleCount == 0) {
+            bucketStart = deviceTime;
+            currentTime = deviceTime;
+            currentMin = difference;
+        } else if (deviceTime - bucketStart >= bucketLength) {
+            closeBucket();
+            bucketStart = deviceTime;
+            currentTime = deviceTime;
+            currentMin = difference;
+        } else if (difference < currentMin) {
+            currentTime = deviceTime;
+            currentMin = difference;
+        }
+        ++sampleCount;
+        if (closedCount < 2 && difference < fallbackMin) {
+            // 直線を当てはめられるまでは最小値をそのまま用いる
+            fallbackMin = difference;
+            envelopeTime = deviceTime;
+            envelopeBase = difference;
+        }
+        latency = Math.max(0, difference - envelope(deviceTime)) + minOneWay;
+    }
+
+    /**
+     * クライアントが送ったイベントの往復時間を記録する。
+     * @param roundTripTime 往復時間 (ns)。負の値と1秒を超える値は無視する
+     */
+    public synchronized void roundTrip(long roundTripTime) {
+        if (roundTripTime < 0 || roundTripTime > MAX_ROUND_TRIP) {
+            return;
+        }
+        currentRoundTrip = Math.min(currentRoundTrip, roundTripTime);
+        updateMinOneWay();
+    }
+
+    /**
+     * 推定を破棄する。デバイスへ接続し直した時に呼ぶ。
+     */
+    public synchronized void reset() {
+        sampleCount = 0;
+        closedCount = 0;
+        next = 0;
+        currentRoundTrip = Long.MAX_VALUE;
+        closedRoundTrip = Long.MAX_VALUE;
+        fallbackMin = Long.MAX_VALUE;
+        envelopeTime = 0;
+        envelopeBase = 0;
+        drift = 0;
+        minOneWay = 0;
+        latency = 0;
+    }
+
+    /**
+     * 推定値があるかを返す。
+     * @return 一つ以上記録した場合はtrue
+     */
+    public synchronized boolean isSynchronized() {
+        return sampleCount > 0;
+    }
+
+    /**
+     * デバイスの時刻をクライアントの時刻に変換する。
+     * @param deviceTime デバイスの時刻 (ns)
+     * @return その時刻の {@link System#nanoTime()} の推定値
+     */
+    public synchronized long toLocal(long deviceTime) {
+        return deviceTime + envelope(deviceTime) - minOneWay;
+    }
+
+    /**
+     * 計測から受信までの片道の遅延を推定する。
+     * @param deviceTime  デバイスのタイムスタンプ (ns)
+     * @param receiveTime 受信時刻 ({@link System#nanoTime()})
+     * @return 片道の遅延 (ns)
+     */
+    public synchronized long oneWayLatency(long deviceTime, long receiveTime) {
+        return Math.max(0, receiveTime - deviceTime - envelope(deviceTime)) + minOneWay;
+    }
+
+    /**
+     * 最後に記録したイベントの片道の遅延を返す。
+     * @return 片道の遅延 (ns)
+     */
+    public synchronized long getLatency() {
+        return latency;
+    }
+
+    /**
+     * 最小の片道遅延 (往復時間の最小値の半分) を返す。
+     * @return 最小の片道遅延 (ns)。往復時間が分からない場合は0
+     */
+    public synchronized long getMinOneWayLatency() {
+        return minOneWay;
+    }
+
+    /**
+     * 最後に記録した時刻での時計のずれを返す。
+     * @return クライアントの時刻 - デバイスの時刻 (ns)
+     */
+    public synchronized long getOffset() {
+        return envelopeBase - minOneWay + Math.round(drift * (currentTime - envelopeTime));
+    }
+
+    /**
+     * ドリフトを返す。
+     * @return デバイスの時計が1進む間のずれの変化 (クライアントの時計が速い場合に正)
+     */
+    public synchronized double getDrift() {
+        return drift;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("offset=%dns drift=%.2fppm latency=%.1fus minOneWay=%.1fus",
+                getOffset(), drift * 1e6, latency * 1e-3, minOneWay * 1e-3);
+    }
+
+    /**
+     * 時計のずれと最小の片道遅延の和 (差の下側の包絡線) を返す。
+     * @param deviceTime デバイスの時刻 (ns)
+     * @return 包絡線の値 (ns)
+     */
+    private long envelope(long deviceTime) {
+        return envelopeBase + Math.round(drift * (deviceTime - envelopeTime));
+    }
+
+    /**
+     * 現在の区間を閉じ、閉じた区間の最小値に直線を当てはめ直す。
+     */
+    private void closeBucket() {
+        times[next] = currentTime;
+        minimums[next] = currentMin;
+        roundTrips[next] = currentRoundTrip;
+        next = (next + 1) % times.length;
+        closedCount = Math.min(closedCount + 1, times.length);
+        currentRoundTrip = Long.MAX_VALUE;
+
+        // 古い区間の往復時間を捨てる
+        closedRoundTrip = Long.MAX_VALUE;
+        for (int i = 0; i < closedCount; ++i) {
+            closedRoundTrip = Math.min(closedRoundTrip, roundTrips[i]);
+        }
+        updateMinOneWay();
+
+        if (closedCount < 2) {
+            return;
+        }
+        // 最新の区間を基準とした最小二乗法 (桁落ちを避けるため差で計算する)
+        final int latest = (next + times.length - 1) % times.length;
+        final long baseTime = times[latest];
+        final long baseMin = minimums[latest];
+        double sx = 0;
+        double sy = 0;
+        for (int i = 0; i < closedCount; ++i) {
+            sx += times[i] - baseTime;
+            sy += minimums[i] - baseMin;
+        }
+        final double mx = sx / closedCount;
+        final double my = sy / closedCount;
+        double sxx = 0;
+        double sxy = 0;
+        for (int i = 0; i < closedCount; ++i) {
+            final double dx = times[i] - baseTime - mx;
+            sxx += dx * dx;
+            sxy += dx * (minimums[i] - baseMin - my);
+        }
+        drift = sxx > 0 ? sxy / sxx : 0;
+        envelopeTime = baseTime;
+        envelopeBase = baseMin + Math.round(my - drift * mx);
+    }
+
+    /**
+     * 保持している区間の往復時間の最小値から、最小の片道遅延を求め直す。
+     */
+    private void updateMinOneWay() {
+        final long minRoundTrip = Math.min(closedRoundTrip, currentRoundTrip);
+        minOneWay = minRoundTrip == Long.MAX_VALUE ? 0 : minRoundTrip / 2;
+    }
+
+    private ClockEstimator(long bucketLength, int bucketCount) {
+        this.bucketLength = bucketLength;
+        this.times = new long[bucketCount];
+        this.minimums = new long[bucketCount];
+        this.roundTrips = new long[bucketCount];
+        reset();
+    }
+
+    /** 区間の長さ (ns) */
+    private final long bucketLength;
+    /** 閉じた区間の最小値のデバイス時刻 */
+    private final long[] times;
+    /** 閉じた区間の差の最小値 */
+    private final long[] minimums;
+    /** 閉じた区間の往復時間の最小値 (ない場合は {@link Long#MAX_VALUE}) */
+    private final long[] roundTrips;
+    /** 次に書き込む区間の添字 */
+    private int next;
+    /** 閉じた区間の数 */
+    private int closedCount;
+    /** 記録した数 */
+    private long sampleCount;
+
+    /** 現在の区間の開始時刻 (デバイス時刻) */
+    private long bucketStart;
+    /** 現在の区間の最小値のデバイス時刻 */
+    private long currentTime;
+    /** 現在の区間の差の最小値 */
+    private long currentMin;
+    /** 現在の区間の往復時間の最小値 */
+    private long currentRoundTrip;
+    /** 閉じた区間の往復時間の最小値 */
+    private long closedRoundTrip;
+    /** 直線を当てはめる前に用いる差の最小値 */
+    private long fallbackMin;
+
+    /** 包絡線の基準時刻 (デバイス時刻) */
+    private long envelopeTime;
+    /** 基準時刻での包絡線の値 */
+    private long envelopeBase;
+    /** 包絡線の傾き (ドリフト) */
+    private double drift;
+    /** 最小の片道遅延 (ns) */
+    private long minOneWay;
+    /** 最後に記録したイベントの片道の遅延 (ns) */
+    private long latency;
+}
@@ -0,0 +1,142 @@
+package jp.sagalab.haptics;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 複数のデバイスサーバとの接続を、一つの {@link Selector} と一つのスレッドで受信する。
+ * <p>
+ * {@link HapticsClient#HapticsClient(DeviceRuntime)} で生成したクライアントは、受信スレッドを持たず、
+ * このランタイムのスレッドで受信・復号・リスナの呼び出しを行う。
+ * 接続ごとの受信は順に処理するため、デバイスごとのイベントの順序は保たれる。
+ * 接続を増やしてもスレッド数は増えない。
+ * </p>
+ * <p>
+ * リスナはランタイムのスレッドで呼ばれるため、一つのリスナが遅いと全てのデバイスの受信が遅れる。
+ * 遅いリスナは {@link QueuedEventListener} で包んで登録する。
+ * </p>
+ */
+public class DeviceRuntime implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(DeviceRuntime.class.getName());
+
+    /**
+     * ランタイムを生成し、受信スレッドを開始する。
+     * @return ランタイム
+     * @throws IOException セレクタを開けなかった場合
+     */
+    public static DeviceRuntime create() throws IOException {
+        return new DeviceRuntime(Selector.open());
+    }
+
+    /**
+     * 受信可能になった時の処理。
+     */
+    interface ReadHandler {
+        /**
+         * 受信可能になった時にランタイムのスレッドから呼ばれる。
+         */
+        void readable();
+    }
+
+    /**
+     * 接続を登録する。受信はランタイムのスレッドで、次の待機から始まる。
+     * @param channel 接続 (ノンブロッキングモード)
+     * @param handler 受信可能になった時の処理
+     */
+    void register(SocketChannel channel, ReadHandler handler) {
+        pending.add(new Registration(channel, handler));
+        selector.wakeup();
+    }
+
+    /**
+     * 受信スレッドを停止する。登録されている接続は閉じない。
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        if (thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Registration registration;
+                while ((registration = pending.poll()) != null) {
+                    try {
+                        registration.channel.register(selector, SelectionKey.OP_READ, registration.handler);
+                    } catch (ClosedChannelException e) {
+                        // 登録前に切断された
+                    }
+                }
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        ((ReadHandler) key.attachment()).readable();
+                    } catch (RuntimeException e) {
+                        // 一つのリスナの例外で他のデバイスの受信を止めない
+                        LOGGER.log(Level.WARNING, null, e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, null, e);
+            }
+        }
+    }
+
+    private DeviceRuntime(Selector selector) {
+        this.selector = selector;
+        this.thread = new Thread(this::run, "device-runtime");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 登録待ちの接続。
+     */
+    private static final class Registration {
+
+        Registration(SocketChannel channel, ReadHandler handler) {
+            this.channel = channel;
+            this.handler = handler;
+        }
+
+        final SocketChannel channel;
+        final ReadHandler handler;
+    }
+
+    /** セレクタ */
+    private final Selector selector;
+    /** 受信スレッド */
+    private final Thread thread;
+    /** 登録待ちの接続 (セレクタへの登録は受信スレッドで行う) */
+    private final ConcurrentLinkedQueue<Registration> pending = new ConcurrentLinkedQueue<>();
+    /** 停止したか */
+    private volatile boolean closed = false;
+}
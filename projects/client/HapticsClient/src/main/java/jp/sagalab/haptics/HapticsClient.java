@@ -1,30 +1,87 @@
 package jp.sagalab.haptics;
 
 import jp.sagalab.jftk.Matrix;
+import jp.sagalab.jftk.force.impedance.ImpedanceModel;
 import jp.sagalab.jftk.transform.TransformMatrix;
 
 import java.io.*;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class HapticsClient implements Runnable {
 
-    private Socket socket;
-    private DataOutputStream output;
-    private DataInputStream input;
+    /** ボタンイベントのデータ長 (ボタンID + タイムスタンプ) */
+    private static final int BUTTON_EVENT_SIZE = 1 + 8;
+    /** ベクトルイベントのデータ長 (x, y, z + タイムスタンプ) */
+    private static final int VECTOR_EVENT_SIZE = 8 * 3 + 8;
+    /** インピーダンスイベントの最大データ長 (モデル + タイムスタンプ) */
+    private static final int IMPEDANCE_EVENT_SIZE = ImpedanceModel.encodedSize(ImpedanceModel.MAX_ELEMENTS) + 8;
+    /** 受信バッファサイズ */
+    private static final int RECEIVE_BUFFER_SIZE = 4096;
+    /** 往復時間の計測のために覚えておく送信時刻の数 (2のべき乗) */
+    private static final int SENT_TIME_COUNT = 64;
+    /** ランタイムで受信する場合に、送信可能になるのを待つ最長時間 [ns] */
+    private static final long SEND_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private SocketChannel channel;
     private Thread receiveThread;
+    /** 送信バッファ (種別 + 最も長いイベント) */
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(1 + IMPEDANCE_EVENT_SIZE);
+    /** 途中までしか送れなかったフレームの残り (読み出しモード、lockを保持して使う) */
+    private final ByteBuffer pendingBuffer = ByteBuffer.allocateDirect(1 + IMPEDANCE_EVENT_SIZE);
+    /** 送信可能になるのを待つセレクタ (ランタイムで受信する場合のみ) */
+    private volatile Selector writeSelector;
+    /** 送信可能にならず破棄したイベントの数 (lockを保持して更新する) */
+    private volatile long droppedSendCount = 0;
+    /** 受信バッファ */
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
     private final List<EventListener> listener = new ArrayList<>();
     private final Object lock = new Object();
+    /** 処理中のフレームを受信した時刻 (受信スレッドのみが使う) */
+    private long receiveTime;
+    /** 受信に用いるランタイム (nullの場合は接続ごとに受信スレッドを持つ) */
+    private final DeviceRuntime runtime;
+    /** デバイスの時計の推定器 */
+    private final ClockEstimator clock = ClockEstimator.create();
+    /** 最近送ったイベントのタイムスタンプ (送信側だけが書き込み、受信スレッドはロックせずに読む) */
+    private final AtomicLongArray sentTimes = new AtomicLongArray(SENT_TIME_COUNT);
+    /** 次にタイムスタンプを書き込む位置 (lockを保持して使う) */
+    private int sentTimeIndex = 0;
+
+    /**
+     * 接続ごとに受信スレッドを持つクライアントを生成する。
+     */
+    public HapticsClient() {
+        this(null);
+    }
+
+    /**
+     * ランタイムのスレッドで受信するクライアントを生成する。
+     * @param runtime ランタイム (nullの場合は接続ごとに受信スレッドを持つ)
+     */
+    public HapticsClient(DeviceRuntime runtime) {
+        this.runtime = runtime;
+        pendingBuffer.limit(0);
+        for (int i = 0; i < SENT_TIME_COUNT; ++i) {
+            sentTimes.set(i, Long.MIN_VALUE);
+        }
+    }
 
     /**
      * 接続状態を返す。
      * @return 接続状態
      */
     public boolean isConnected() {
-        return socket != null;
+        return channel != null;
     }
 
     /**
@@ -35,15 +92,158 @@ public class HapticsClient implements Runnable {
      */
     public void sendForceEvent(double fx, double fy, double fz) {
         synchronized (lock) {
-            try {
-                output.write(toBytes(5, fx, fy, fz, System.nanoTime()));
-            } catch (IOException e) {
-                // 送信に失敗したらソケットを閉じる
-                disconnect();
+            if (channel == null) {
+                return;
+            }
+            sendBuffer.clear();
+            sendBuffer.put((byte) 5).putDouble(fx).putDouble(fy).putDouble(fz).putLong(stamp());
+            send();
+        }
+    }
+
+    /**
+     * インピーダンス設定イベント (種別6) を送信する。
+     * デバイスは次の力設定イベントかインピーダンス設定イベントを受け取るまで、このモデルで力を描画する。
+     * 力設定イベントを送るとモデルは破棄される。
+     * @param model Geomagic座標系のモデル
+     */
+    public void sendImpedanceEvent(ImpedanceModel model) {
+        synchronized (lock) {
+            if (channel == null) {
+                return;
             }
+            sendBuffer.clear();
+            sendBuffer.put((byte) 6);
+            model.write(sendBuffer);
+            sendBuffer.putLong(stamp());
+            send();
         }
     }
 
+    /**
+     * 送信するイベントのタイムスタンプを返し、往復時間の計測のために覚えておく。lockを保持して呼ぶ。
+     * @return タイムスタンプ ({@link System#nanoTime()})
+     */
+    private long stamp() {
+        final long now = System.nanoTime();
+        // 送信より前に書き込むので、送り返されたイベントを受信する時には読める
+        sentTimes.set(sentTimeIndex, now);
+        sentTimeIndex = (sentTimeIndex + 1) & (SENT_TIME_COUNT - 1);
+        return now;
+    }
+
+    /**
+     * 最近送ったイベントのタイムスタンプかを返す。
+     * 受信スレッドから呼ぶ。送信中のlockを待たないよう、ロックせずに走査する。
+     * @param time タイムスタンプ
+     * @return 最近送ったものと一致する場合はtrue
+     */
+    private boolean isSentTime(long time) {
+        for (int i = 0; i < SENT_TIME_COUNT; ++i) {
+            if (sentTimes.get(i) == time) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 送信バッファの内容を送信する。lockを保持して呼ぶ。
+     * <p>
+     * ランタイムで受信する場合はソケットが非ブロッキングなので、送信可能になるのを {@link #writeSelector} で
+     * 最長 {@link #SEND_TIMEOUT} だけ待つ。それでも送れなかったイベントは破棄し、{@link #getDroppedSendCount()} に数える。
+     * 途中まで送ったフレームはストリームを壊さないよう残りを {@link #pendingBuffer} に移し、次の送信の前に送る。
+     * 残りを送りきれない間は新しいイベントを破棄する。
+     * </p>
+     */
+    private void send() {
+        sendBuffer.flip();
+        // 受信側からの切断で書き換わるので、一度だけ読む
+        final SocketChannel ch = channel;
+        final Selector selector = writeSelector;
+        if (ch == null) {
+            return;
+        }
+        try {
+            if (selector == null) {
+                while (sendBuffer.hasRemaining()) {
+                    ch.write(sendBuffer);
+                }
+                return;
+            }
+            final long deadline = System.nanoTime() + SEND_TIMEOUT;
+            if (pendingBuffer.hasRemaining() && !write(ch, selector, pendingBuffer, deadline)) {
+                ++droppedSendCount;
+                return;
+            }
+            if (!write(ch, selector, sendBuffer, deadline)) {
+                if (sendBuffer.position() == 0) {
+                    ++droppedSendCount;
+                } else {
+                    pendingBuffer.clear();
+                    pendingBuffer.put(sendBuffer);
+                    pendingBuffer.flip();
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // 送信に失敗したらソケットを閉じる
+            disconnect();
+        }
+    }
+
+    /**
+     * 非ブロッキングのソケットに、期限まで送信可能になるのを待ちながら書き込む。lockを保持して呼ぶ。
+     * @param ch       ソケット
+     * @param selector 送信可能になるのを待つセレクタ
+     * @param buffer   送信するバッファ (読み出しモード)
+     * @param deadline 期限 ({@link System#nanoTime()})
+     * @return 全て送れた場合はtrue
+     * @throws IOException 送信に失敗した場合
+     */
+    private static boolean write(SocketChannel ch, Selector selector, ByteBuffer buffer, long deadline) throws IOException {
+        while (true) {
+            ch.write(buffer);
+            if (!buffer.hasRemaining()) {
+                return true;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            // select(0) は無期限に待つので、最短でも1ms待つ
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * 送信可能にならず破棄したイベントの数を返す。
+     * 接続ごとに送信スレッドを持たない場合 (ランタイムで受信する場合) のみ増える。
+     * @return 破棄したイベントの数
+     */
+    public long getDroppedSendCount() {
+        return droppedSendCount;
+    }
+
+    /**
+     * 処理中のフレームを受信した時刻を返す。
+     * イベントリスナの呼び出し中に受信スレッドから呼び出した場合のみ意味を持つ。
+     * @return 受信時刻 ({@link System#nanoTime()})
+     */
+    public long getReceiveTime() {
+        return receiveTime;
+    }
+
+    /**
+     * デバイスの時計の推定器を返す。
+     * 受信したイベントのタイムスタンプと受信時刻から推定する。
+     * サーバが力設定イベントのタイムスタンプを力イベントとして送り返す場合は、その往復時間も用いる。
+     * @return 推定器
+     */
+    public ClockEstimator getClockEstimator() {
+        return clock;
+    }
+
     /**
      * イベントリスナを登録する。
      * @param l リスナ
@@ -69,17 +269,44 @@ public class HapticsClient implements Runnable {
      */
     public boolean connect(String server, int port, int deviceNum) {
         disconnect();
+        clock.reset();
         try {
-            this.socket = new Socket(server, port);
-            this.output = new DataOutputStream((socket.getOutputStream()));
-            this.input = new DataInputStream(socket.getInputStream());
+            this.channel = SocketChannel.open(new InetSocketAddress(server, port));
+            // 小さなパケットを遅延なく送る
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
             // Device Select Data
-            output.writeByte(deviceNum);
-            receiveThread = new Thread(this);
-            receiveThread.start();
+            synchronized (lock) {
+                sendBuffer.clear();
+                sendBuffer.put((byte) deviceNum);
+                sendBuffer.flip();
+                while (sendBuffer.hasRemaining()) {
+                    channel.write(sendBuffer);
+                }
+            }
+            receiveBuffer.clear();
+            if (runtime != null) {
+                // 送信側が非ブロッキングのソケットに書き込むのはセレクタを用意してから
+                synchronized (lock) {
+                    channel.configureBlocking(false);
+                    writeSelector = Selector.open();
+                    channel.register(writeSelector, SelectionKey.OP_WRITE);
+                    pendingBuffer.limit(0);
+                }
+                runtime.register(channel, this::readable);
+            } else {
+                receiveThread = new Thread(this);
+                receiveThread.start();
+            }
         } catch (IOException e) {
             e.printStackTrace();
-            this.socket = null;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            this.channel = null;
+            closeWriteSelector();
             return false;
         }
         return true;
@@ -94,28 +321,49 @@ public class HapticsClient implements Runnable {
      */
     public void disconnect() {
         // 受信スレッドを停止する
-        if (receiveThread != null) {
-            receiveThread.interrupt();
+        Thread thread = receiveThread;
+        if (thread != null) {
+            receiveThread = null;
+            thread.interrupt();
+            // 受信スレッド自身からの切断では待機しない
+            if (thread != Thread.currentThread()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        // ソケットを切断する
+        SocketChannel ch = channel;
+        if (ch != null) {
             try {
-                receiveThread.join();
-            } catch (InterruptedException e) {
+                ch.close();
+            } catch (IOException e) {
                 e.printStackTrace();
             } finally {
-                receiveThread = null;
+                channel = null;
+            }
+            closeWriteSelector();
+            for (int i = 0; i < listener.size(); ++i) {
+                listener.get(i).disconnected();
             }
         }
-        // ソケットを切断する
-        if (socket != null) {
+    }
+
+    /**
+     * 送信可能になるのを待つセレクタを閉じる。
+     * 送信側が待っている場合は {@link ClosedSelectorException} で抜ける。
+     */
+    private void closeWriteSelector() {
+        Selector selector = writeSelector;
+        if (selector != null) {
+            writeSelector = null;
             try {
-                socket.close();
+                selector.close();
             } catch (IOException e) {
                 e.printStackTrace();
-            } finally {
-                socket = null;
-                output = null;
-                input = null;
             }
-            listener.forEach(EventListener::disconnected);
         }
     }
 
@@ -159,179 +407,177 @@ public class HapticsClient implements Runnable {
 //    }
 
     public TransformMatrix getGeo2WorldMatrix() {
-        ArrayList<double[]> elements = new ArrayList<>();
-        try {
-            Scanner scanner = new Scanner(new File("geo2world_euc"));
-            while (scanner.hasNext()) {
-                String line = scanner.next();
-                if (line.isEmpty()) continue;
-                String[] split = line.split(",");
-                if (split.length != 4) {
-                    System.err.println("invalid column size. " + split.length);
-                    return TransformMatrix.identity();
-                }
-                elements.add(new double[]{
-                        Double.parseDouble(split[0]),
-                        Double.parseDouble(split[1]),
-                        Double.parseDouble(split[2]),
-                        Double.parseDouble(split[3])
-                });
-            }
-        } catch (FileNotFoundException e) {
-            System.err.println(e.getMessage());
+        double[] elements = CalibrationStore.read(new File(CalibrationStore.GEO2WORLD), 4);
+        if (elements == null) {
             return TransformMatrix.identity();
         }
-        if (elements.size() != 4) {
-            System.err.println("invalid row size. " + elements.size());
-            return TransformMatrix.identity();
-        }
-        return TransformMatrix.create(new double[][]{
-                elements.get(0),
-                elements.get(1),
-                elements.get(2),
-                elements.get(3)
-        });
+        return TransformMatrix.create(CalibrationStore.toRows(elements, 4));
     }
 
     public static Matrix getLib2WorldMatrix() {
-        ArrayList<double[]> elements = new ArrayList<>();
-        try {
-            Scanner scanner = new Scanner(new File("lib2world_euc"));
-            while (scanner.hasNext()) {
-                String line = scanner.next();
-                if (line.isEmpty()) continue;
-                String[] split = line.split(",");
-                if (split.length != 4) {
-                    System.err.println("invalid column size. " + split.length);
-                    return Matrix.identity(4);
-                }
-                elements.add(new double[]{
-                        Double.parseDouble(split[0]),
-                        Double.parseDouble(split[1]),
-                        Double.parseDouble(split[2]),
-                        Double.parseDouble(split[3])
-                });
-            }
-        } catch (FileNotFoundException e) {
-            System.err.println(e.getMessage());
-            return Matrix.identity(4);
-        }
-        if (elements.size() != 4) {
-            System.err.println("invalid row size. " + elements.size());
+        double[] elements = CalibrationStore.read(new File(CalibrationStore.LIB2WORLD), 4);
+        if (elements == null) {
             return Matrix.identity(4);
         }
-        return Matrix.create(new double[][]{
-                elements.get(0),
-                elements.get(1),
-                elements.get(2),
-                elements.get(3)
-        });
+        return Matrix.create(CalibrationStore.toRows(elements, 4));
     }
 
     public static Matrix getWorld2GeoMatrix() {
-        ArrayList<double[]> elements = new ArrayList<>();
-        try {
-            Scanner scanner = new Scanner(new File("world2geo_vec"));
-            while (scanner.hasNext()) {
-                String line = scanner.next();
-                if (line.isEmpty()) continue;
-                String[] split = line.split(",");
-                if (split.length != 3) {
-                    System.err.println("invalid column size. " + split.length);
-                    return Matrix.identity(3);
-                }
-                elements.add(new double[]{
-                        Double.parseDouble(split[0]),
-                        Double.parseDouble(split[1]),
-                        Double.parseDouble(split[2]),
-                });
-            }
-        } catch (FileNotFoundException e) {
-            System.err.println(e.getMessage());
-            return Matrix.identity(3);
-        }
-        if (elements.size() != 3) {
-            System.err.println("invalid row size. " + elements.size());
+        double[] elements = CalibrationStore.read(new File(CalibrationStore.WORLD2GEO), 3);
+        if (elements == null) {
             return Matrix.identity(3);
         }
-        return Matrix.create(new double[][]{
-                elements.get(0),
-                elements.get(1),
-                elements.get(2)
-        });
+        return Matrix.create(CalibrationStore.toRows(elements, 3));
     }
 
     @Override
     public void run() {
-        while (!receiveThread.isInterrupted() && socket != null && !socket.isClosed()) {
+        final SocketChannel ch = channel;
+        while (!Thread.currentThread().isInterrupted() && ch != null && ch.isOpen()) {
             try {
-                int type = input.readUnsignedByte();
-                switch (type) {
-                    case 0: // PressEvent
-                        handlePressedEvent(input);
-                        break;
-                    case 1: // ReleaseEvent
-                        handleReleasedEvent(input);
-                        break;
-                    case 2: // MoveEvent
-                        handleMovedEvent(input);
-                        break;
-                    case 3: // SwayEvent
-                        handleSwayedEvent(input);
-                        break;
-                    case 5: // ForceEvent
-                        handleForceEvent(input);
-                        break;
-                    default:
-                        System.out.println("Unknown type: " + type);
+                if (ch.read(receiveBuffer) < 0) {
+                    throw new EOFException();
                 }
+                receiveTime = System.nanoTime();
+                receiveBuffer.flip();
+                decode(receiveBuffer);
+                receiveBuffer.compact();
             } catch (IOException e) {
-                // 受信に失敗したらソケットを閉じる
-                disconnect();
+                // 切断処理による割り込みでなければソケットを閉じる
+                if (!Thread.currentThread().isInterrupted()) {
+                    disconnect();
+                }
+                break;
             }
         }
     }
 
-    private void handlePressedEvent(DataInputStream stream) throws IOException {
-        final int button = stream.readUnsignedByte();
-        final long time = stream.readLong();
-        listener.forEach((l) -> l.onPressed(button, time));
+    /**
+     * ランタイムのスレッドから、受信可能になった時に呼ばれる。
+     * 他の接続の受信を待たせないよう、1回だけ読み込む。
+     */
+    private void readable() {
+        final SocketChannel ch = channel;
+        if (ch == null) {
+            return;
+        }
+        try {
+            if (ch.read(receiveBuffer) < 0) {
+                throw new EOFException();
+            }
+            receiveTime = System.nanoTime();
+            receiveBuffer.flip();
+            decode(receiveBuffer);
+            receiveBuffer.compact();
+        } catch (IOException e) {
+            disconnect();
+        }
     }
 
-    private void handleReleasedEvent(DataInputStream stream) throws IOException {
-        final int button = stream.readUnsignedByte();
-        final long time = stream.readLong();
-        listener.forEach((l) -> l.onReleased(button, time));
+    /**
+     * バッファ中の完全なフレームを全て処理する。
+     * 不完全なフレームはバッファに残す。
+     * @param buffer 受信バッファ (読み出しモード)
+     */
+    private void decode(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            final int start = buffer.position();
+            final int type = buffer.get(start) & 0xff;
+            final int size;
+            switch (type) {
+                case 0: // PressEvent
+                case 1: // ReleaseEvent
+                    size = BUTTON_EVENT_SIZE;
+                    break;
+                case 2: // MoveEvent
+                case 3: // SwayEvent
+                case 5: // ForceEvent
+                    size = VECTOR_EVENT_SIZE;
+                    break;
+                default:
+                    System.out.println("Unknown type: " + type);
+                    buffer.position(start + 1);
+                    continue;
+            }
+            if (buffer.remaining() < 1 + size) {
+                return;
+            }
+            buffer.position(start + 1);
+            switch (type) {
+                case 0:
+                    handlePressedEvent(buffer);
+                    break;
+                case 1:
+                    handleReleasedEvent(buffer);
+                    break;
+                case 2:
+                    handleMovedEvent(buffer);
+                    break;
+                case 3:
+                    handleSwayedEvent(buffer);
+                    break;
+                case 5:
+                    handleForceEvent(buffer);
+                    break;
+                default:
+            }
+        }
     }
 
-    private void handleMovedEvent(DataInputStream stream) throws IOException {
-        final double x = stream.readDouble();
-        final double y = stream.readDouble();
-        final double z = stream.readDouble();
-        final long time = stream.readLong();
-        //System.out.println("x: "+x+" y: "+y+" z: "+z);
-        listener.forEach((l) -> l.position(x, y, z, time));
+    private void handlePressedEvent(ByteBuffer buffer) {
+        final int button = buffer.get() & 0xff;
+        final long time = buffer.getLong();
+        clock.sample(time, receiveTime);
+        for (int i = 0; i < listener.size(); ++i) {
+            listener.get(i).onPressed(button, time);
+        }
+    }
+
+    private void handleReleasedEvent(ByteBuffer buffer) {
+        final int button = buffer.get() & 0xff;
+        final long time = buffer.getLong();
+        clock.sample(time, receiveTime);
+        for (int i = 0; i < listener.size(); ++i) {
+            listener.get(i).onReleased(button, time);
+        }
     }
 
-    private void handleSwayedEvent(DataInputStream stream) throws IOException {
-        final double x = stream.readDouble();
-        final double y = stream.readDouble();
-        final double z = stream.readDouble();
-        final long time = stream.readLong();
-        listener.forEach((l) -> l.posture(x, y, z, time));
+    private void handleMovedEvent(ByteBuffer buffer) {
+        final double x = buffer.getDouble();
+        final double y = buffer.getDouble();
+        final double z = buffer.getDouble();
+        final long time = buffer.getLong();
+        //System.out.println("x: "+x+" y: "+y+" z: "+z);
+        clock.sample(time, receiveTime);
+        for (int i = 0; i < listener.size(); ++i) {
+            listener.get(i).position(x, y, z, time);
+        }
     }
 
-    private void handleForceEvent(DataInputStream stream) throws IOException {
-        final double x = stream.readDouble();
-        final double y = stream.readDouble();
-        final double z = stream.readDouble();
-        final long time = stream.readLong();
-        listener.forEach((l) -> l.force(x, y, z, time));
+    private void handleSwayedEvent(ByteBuffer buffer) {
+        final double x = buffer.getDouble();
+        final double y = buffer.getDouble();
+        final double z = buffer.getDouble();
+        final long time = buffer.getLong();
+        clock.sample(time, receiveTime);
+        for (int i = 0; i < listener.size(); ++i) {
+            listener.get(i).posture(x, y, z, time);
+        }
     }
 
-    private byte[] toBytes(int id, double x, double y, double z, long t) {
-        return (byte[]) ((ByteBuffer)ByteBuffer.allocate(33).clear())
-                .put((byte) id).putDouble(x).putDouble(y).putDouble(z).putLong(t)
-                .flip().array();
+    private void handleForceEvent(ByteBuffer buffer) {
+        final double x = buffer.getDouble();
+        final double y = buffer.getDouble();
+        final double z = buffer.getDouble();
+        final long time = buffer.getLong();
+        if (isSentTime(time)) {
+            // 送った力設定イベントが送り返された
+            clock.roundTrip(receiveTime - time);
+        } else {
+            clock.sample(time, receiveTime);
+        }
+        for (int i = 0; i < listener.size(); ++i) {
+            listener.get(i).force(x, y, z, time);
+        }
     }
 }
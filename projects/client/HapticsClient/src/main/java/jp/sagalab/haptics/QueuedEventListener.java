@@ -0,0 +1,302 @@
+package jp.sagalab.haptics;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * イベントをキューに入れ、専用のスレッドからリスナに配送する。
+ * <p>
+ * 遅いリスナ (描画を伴う {@link jp.sagalab.controller.ViewportController} など) を包むことで、
+ * 受信スレッドがリスナを待たずに済み、他のリスナ (力覚) の受信が遅れなくなる。
+ * 座標・姿勢イベントは、配送前に新しい値が届くと最新の値に置き換える (間引き)。
+ * 置き換えは最後のボタン・力・切断イベントより後のものに限るため、イベントの前後関係は保たれる。
+ * ボタン・力・切断イベントは間引かず、キューは必要に応じて伸長する。
+ * </p>
+ * <p>
+ * 受信スレッドでの処理はロックと配列への書き込みのみで、キューが伸長する時以外はオブジェクトを生成しない。
+ * </p>
+ */
+public class QueuedEventListener implements EventListener, AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(QueuedEventListener.class.getName());
+
+    /** キューの初期容量 */
+    private static final int INITIAL_CAPACITY = 64;
+
+    // イベントの種別
+    private static final int PRESSED = 0;
+    private static final int RELEASED = 1;
+    private static final int POSITION = 2;
+    private static final int POSTURE = 3;
+    private static final int FORCE = 4;
+    private static final int DISCONNECTED = 5;
+
+    /**
+     * 配送スレッドを開始し、リスナを包む。
+     * @param listener 配送先のリスナ
+     * @param name     配送スレッドの名前
+     * @return キュー付きのリスナ
+     */
+    public static QueuedEventListener create(EventListener listener, String name) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        final QueuedEventListener queued = new QueuedEventListener(listener);
+        final Thread thread = new Thread(queued::deliver, name);
+        thread.setDaemon(true);
+        thread.start();
+        return queued;
+    }
+
+    @Override
+    public void onPressed(int buttonId, long time) {
+        enqueue(PRESSED, buttonId, 0, 0, 0, time);
+    }
+
+    @Override
+    public void onReleased(int buttonId, long time) {
+        enqueue(RELEASED, buttonId, 0, 0, 0, time);
+    }
+
+    @Override
+    public void position(double x, double y, double z, long time) {
+        enqueue(POSITION, 0, x, y, z, time);
+    }
+
+    @Override
+    public void posture(double px, double py, double pz, long time) {
+        enqueue(POSTURE, 0, px, py, pz, time);
+    }
+
+    @Override
+    public void force(double fx, double fy, double fz, long time) {
+        enqueue(FORCE, 0, fx, fy, fz, time);
+    }
+
+    @Override
+    public void disconnected() {
+        enqueue(DISCONNECTED, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * 新しい値に置き換えた座標・姿勢イベントの数を返す。
+     * @return イベントの数
+     */
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * 終了後に届いたため捨てたイベントの数を返す。
+     * @return イベントの数
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * 配送したイベントの数を返す。
+     * @return イベントの数
+     */
+    public synchronized long getDeliveredCount() {
+        return delivered;
+    }
+
+    /**
+     * 配送待ちのイベントの数の最大値を返す。
+     * @return イベントの数
+     */
+    public synchronized int getMaxBacklog() {
+        return maxBacklog;
+    }
+
+    /**
+     * 配送先のリスナを返す。
+     * @return リスナ
+     */
+    public EventListener getListener() {
+        return listener;
+    }
+
+    /**
+     * 新しいイベントの受け付けを終了する。配送待ちのイベントは配送してからスレッドを終了する。
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "delivered=" + delivered + " coalesced=" + coalesced + " dropped=" + dropped + " maxBacklog=" + maxBacklog;
+    }
+
+    private synchronized void enqueue(int type, int button, double x, double y, double z, long time) {
+        if (closed) {
+            dropped++;
+            return;
+        }
+        // 最後のボタン・力・切断イベントより後の、配送前の同じ種別のイベントを置き換える
+        final long slot = type == POSITION ? positionSlot : type == POSTURE ? postureSlot : -1;
+        if (slot >= head) {
+            final int index = (int) slot & mask;
+            xs[index] = x;
+            ys[index] = y;
+            zs[index] = z;
+            times[index] = time;
+            coalesced++;
+            return;
+        }
+        if (tail - head == types.length) {
+            grow();
+        }
+        final int index = (int) tail & mask;
+        types[index] = type;
+        buttons[index] = button;
+        xs[index] = x;
+        ys[index] = y;
+        zs[index] = z;
+        times[index] = time;
+        if (type == POSITION) {
+            positionSlot = tail;
+        } else if (type == POSTURE) {
+            postureSlot = tail;
+        } else {
+            positionSlot = -1;
+            postureSlot = -1;
+        }
+        tail++;
+        maxBacklog = Math.max(maxBacklog, (int) (tail - head));
+        if (waiting) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * キューの容量を倍にする。通し番号から添字への対応が変わるため、配送待ちのイベントを並べ直す。
+     */
+    private void grow() {
+        final int capacity = types.length * 2;
+        final int[] newTypes = new int[capacity];
+        final int[] newButtons = new int[capacity];
+        final double[] newXs = new double[capacity];
+        final double[] newYs = new double[capacity];
+        final double[] newZs = new double[capacity];
+        final long[] newTimes = new long[capacity];
+        for (long seq = head; seq < tail; ++seq) {
+            final int from = (int) seq & mask;
+            final int to = (int) seq & (capacity - 1);
+            newTypes[to] = types[from];
+            newButtons[to] = buttons[from];
+            newXs[to] = xs[from];
+            newYs[to] = ys[from];
+            newZs[to] = zs[from];
+            newTimes[to] = times[from];
+        }
+        types = newTypes;
+        buttons = newButtons;
+        xs = newXs;
+        ys = newYs;
+        zs = newZs;
+        times = newTimes;
+        mask = capacity - 1;
+    }
+
+    /**
+     * 配送スレッドの処理。
+     */
+    private void deliver() {
+        while (true) {
+            final int type;
+            final int button;
+            final double x;
+            final double y;
+            final double z;
+            final long time;
+            synchronized (this) {
+                while (head == tail && !closed) {
+                    waiting = true;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    } finally {
+                        waiting = false;
+                    }
+                }
+                if (head == tail) {
+                    return;
+                }
+                final int index = (int) head & mask;
+                type = types[index];
+                button = buttons[index];
+                x = xs[index];
+                y = ys[index];
+                z = zs[index];
+                time = times[index];
+                head++;
+                delivered++;
+            }
+            try {
+                switch (type) {
+                    case PRESSED:
+                        listener.onPressed(button, time);
+                        break;
+                    case RELEASED:
+                        listener.onReleased(button, time);
+                        break;
+                    case POSITION:
+                        listener.position(x, y, z, time);
+                        break;
+                    case POSTURE:
+                        listener.posture(x, y, z, time);
+                        break;
+                    case FORCE:
+                        listener.force(x, y, z, time);
+                        break;
+                    case DISCONNECTED:
+                        listener.disconnected();
+                        break;
+                    default:
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, null, e);
+            }
+        }
+    }
+
+    private QueuedEventListener(EventListener listener) {
+        this.listener = listener;
+    }
+
+    /** 配送先のリスナ */
+    private final EventListener listener;
+
+    // イベントのキュー (通し番号 & mask が添字)
+    private int[] types = new int[INITIAL_CAPACITY];
+    private int[] buttons = new int[INITIAL_CAPACITY];
+    private double[] xs = new double[INITIAL_CAPACITY];
+    private double[] ys = new double[INITIAL_CAPACITY];
+    private double[] zs = new double[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int mask = INITIAL_CAPACITY - 1;
+    /** 次に配送するイベントの通し番号 */
+    private long head = 0;
+    /** 次に追加するイベントの通し番号 */
+    private long tail = 0;
+    /** 置き換えられる座標イベントの通し番号 (ない場合は-1) */
+    private long positionSlot = -1;
+    /** 置き換えられる姿勢イベントの通し番号 (ない場合は-1) */
+    private long postureSlot = -1;
+    /** 配送スレッドが待機中か */
+    private boolean waiting = false;
+    /** 終了したか */
+    private boolean closed = false;
+
+    // 統計値
+    private long delivered = 0;
+    private long coalesced = 0;
+    private long dropped = 0;
+    private int maxBacklog = 0;
+}
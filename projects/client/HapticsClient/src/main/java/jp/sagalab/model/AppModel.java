@@ -9,9 +9,13 @@ import jp.sagalab.jftk.Point;
 import jp.sagalab.jftk.Vector;
 import jp.sagalab.jftk.force.calculator.ForceCalculator;
 import jp.sagalab.jftk.force.calculator.AxisFrictionCalculator;
+import jp.sagalab.jftk.force.calculator.ImpedanceCalculator;
+import jp.sagalab.jftk.force.impedance.ImpedanceModel;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 import static java.lang.Math.max;
@@ -21,11 +25,48 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
 import jp.ac.muroran_it.csse.vr_skelton.VRSpaceState;
+import jp.sagalab.recorder.SessionRecord;
+import jp.sagalab.recorder.SessionRecorder;
+import jp.sagalab.recorder.SurfaceFile;
 
 public class AppModel extends VRSpaceState{
     // force calculator
     private final ForceCalculator calculator;
-    private boolean enableForceCalculation = false;
+    private volatile boolean enableForceCalculation = false;
+    // impedance mode
+    private volatile boolean impedanceMode = false;
+    /** 送信するインピーダンスモデル (力を計算するスレッドのみが使う) */
+    private final ImpedanceModel impedance = ImpedanceModel.create();
+    // prediction
+    private volatile boolean prediction = false;
+    private volatile LatencyEstimator latencyEstimator = null;
+    /** 座標の予測器 (力を計算するスレッドのみが使う) */
+    private final StylusPredictor predictor = StylusPredictor.create(2);
+    // servo loop
+    private volatile ServoLoop servoLoop = null;
+    // latency
+    private final LatencyMonitor latencyMonitor = LatencyMonitor.create();
+    // session recorder
+    private volatile SessionRecorder recorder = null;
+    // snapshot
+    /** 描画スレッドに公開しているスナップショット */
+    private volatile ModelSnapshot snapshot;
+    /** 公開しているスナップショットを描画スレッドが読んだか */
+    private volatile boolean snapshotRequested = false;
+    /** ストロークとスナップショットの書き込みの排他 (描画スレッドは取得しない) */
+    private final Object strokeLock = new Object();
+    /** 公開したスナップショットの数 */
+    private long snapshotVersion = 0;
+    /** 次のストロークの識別子 */
+    private long nextStrokeId = 0;
+    /** 書き込み中のストローク */
+    private StrokeBuffer currentStroke = new StrokeBuffer(nextStrokeId++);
+    /** 力覚フィードバックありの時のストローク (追加のたびに配列を作り直す) */
+    private Stroke[] onForceStrokes = new Stroke[0];
+    /** 力覚フィードバックなしの時のストローク (追加のたびに配列を作り直す) */
+    private Stroke[] offForceStrokes = new Stroke[0];
+    /** 静止摩擦状態の表面 (ビットiが表面i, 力を計算するスレッドが書き込む) */
+    private volatile long surfaceStayFlags = 0;
 
     // updaters
     private final ArrayList<ViewUpdater> viewUpdaters = new ArrayList<>();
@@ -53,7 +94,10 @@ public class AppModel extends VRSpaceState{
 
             };
             ((SurfaceFrictionCalculator) calculator).addAll(surfaces);
+        } else {
+            surfaces = new FrictionSurface[0];
         }
+        publishSnapshot();
     }
 
     /** ViewUpdaterを追加する */
@@ -80,23 +124,23 @@ public class AppModel extends VRSpaceState{
     /** Hapticsのスタイラス座標 */
     private Point hapticsPosition = Point.createXYZ(0, 0, 0);
     /** 力覚 */
-    private Vector hapticsForce = Vector.createXYZ(0, 0, 0);
+    private volatile Vector hapticsForce = Vector.createXYZ(0, 0, 0);
     /** 静止摩擦状態フラグ [x, y, z] */
     private final boolean[] forceFlags = new boolean[]{false, false, false};
     /** ボタン1の状態 */
-    private boolean hapticsButton1Pressed = false;
+    private volatile boolean hapticsButton1Pressed = false;
     /** ボタン2の状態 */
-    private boolean hapticsButton2Pressed = false;
-    /** Hapticsスタイラスの軌跡 */
+    private volatile boolean hapticsButton2Pressed = false;
+    /** Hapticsスタイラスの軌跡 (時刻付き、strokeLockを保持して使う。描画は {@link #getSnapshot()} のストロークを読む) */
     private final LinkedList<Point> hapticsPoints = new LinkedList<>();
-    /** 力覚フィードバックありの時の点列 */
+    /** 力覚フィードバックありの時の点列 (strokeLockを保持して使う) */
     private final LinkedList<LinkedList<Point>> onForcePointsList = new LinkedList<>();
-    /** 力覚フィードバックなしの時の点列 */
+    /** 力覚フィードバックなしの時の点列 (strokeLockを保持して使う) */
     private final LinkedList<LinkedList<Point>> offForcePointsList = new LinkedList<>();
     /** FBCの最後の点 */
-    private Point fbcLastPoint = null;
+    private volatile Point fbcLastPoint = null;
     /** 立体 */
-    private FrictionSurface[] surfaces;
+    private volatile FrictionSurface[] surfaces;
 
     // 3D rotation
     private final double angleStep = 5;
@@ -121,20 +165,42 @@ public class AppModel extends VRSpaceState{
         return hapticsButton2Pressed;
     }
 
-    public LinkedList<Point> getHapticsPoints() {
-        return hapticsPoints;
+    public boolean isEnableForceCalculation() {
+        return enableForceCalculation;
     }
 
-    public LinkedList<LinkedList<Point>> getOffForcePointsList() {
-        return offForcePointsList;
+    public boolean isImpedanceMode() {
+        return impedanceMode;
     }
 
-    public LinkedList<LinkedList<Point>> getOnForcePointsList() {
-        return onForcePointsList;
+    /**
+     * 力の代わりにインピーダンスモデルを送るかを設定する。
+     * 計算機が {@link ImpedanceCalculator} でない場合、またはモデルで表せない場合は力を送る。
+     * @param impedanceMode インピーダンスモデルを送る場合はtrue
+     */
+    public void setImpedanceMode(boolean impedanceMode) {
+        this.impedanceMode = impedanceMode;
     }
 
-    public boolean isEnableForceCalculation() {
-        return enableForceCalculation;
+    public boolean isPrediction() {
+        return prediction;
+    }
+
+    /**
+     * 力の計算の前に、遅延の分だけ先のスタイラス座標を予測するかを設定する。
+     * 予測する時間は {@link #setLatencyEstimator} で設定した見積もりに従う。
+     * @param prediction 予測する場合はtrue
+     */
+    public void setPrediction(boolean prediction) {
+        this.prediction = prediction;
+    }
+
+    /**
+     * 座標の予測に用いる遅延の見積もりを設定する。
+     * @param latencyEstimator 見積もり (nullの場合は予測しない)
+     */
+    public void setLatencyEstimator(LatencyEstimator latencyEstimator) {
+        this.latencyEstimator = latencyEstimator;
     }
 
     public boolean[] getForceFlags() {
@@ -145,53 +211,175 @@ public class AppModel extends VRSpaceState{
         return surfaces;
     }
 
+    /**
+     * 公開しているスナップショットの、表面ごとの静止摩擦状態を返す。
+     * 計算機が書き換える状態ではなく複製なので、描画スレッドから読んでよい。
+     * 毎フレーム読む場合は {@link ModelSnapshot#isSurfaceStaying(int)} を用いる。
+     * @return 表面ごとの静止摩擦状態 (力の計算が無効な場合はnull)
+     */
     public Map<FrictionSurface, Boolean> getSurfaceFlags() {
-        if (enableForceCalculation) {
-            return ((SurfaceFrictionCalculator) calculator). getFlags();
-        } else {
+        final ModelSnapshot current = snapshot;
+        if (!current.isForceCalculation()) {
             return null;
         }
+        final Map<FrictionSurface, Boolean> flags = new HashMap<>();
+        for (int i = 0; i < current.getSurfaceCount(); ++i) {
+            flags.put(current.getSurface(i), current.isSurfaceStaying(i));
+        }
+        return flags;
     }
 
     public void setEnableForceCalculation(boolean enableForceCalculation) {
-        this.enableForceCalculation = enableForceCalculation;
-        if (!enableForceCalculation) {
-            Arrays.fill(forceFlags, false);
-            onForcePointsList.add(new LinkedList<>(hapticsPoints));
-            fbcLastPoint = null;
-        } else {
-            offForcePointsList.add(new LinkedList<>(hapticsPoints));
+        synchronized (strokeLock) {
+            this.enableForceCalculation = enableForceCalculation;
+            if (!enableForceCalculation) {
+                Arrays.fill(forceFlags, false);
+                onForcePointsList.add(new LinkedList<>(hapticsPoints));
+                onForceStrokes = append(onForceStrokes, currentStroke.toStroke());
+                fbcLastPoint = null;
+            } else {
+                offForcePointsList.add(new LinkedList<>(hapticsPoints));
+                offForceStrokes = append(offForceStrokes, currentStroke.toStroke());
+            }
+            hapticsPoints.clear();
+            currentStroke = new StrokeBuffer(nextStrokeId++);
+            publishSnapshot();
         }
-        hapticsPoints.clear();
+    }
+
+    /**
+     * 描画スレッドに公開しているスナップショットを返す。ロックを取得せず、ハプティクスのスレッドを待たせない。
+     * 読んだことを記録し、次に座標が更新された時に一度だけ新しいスナップショットを公開させる。
+     * したがって公開は描画の1フレームにつき高々1回になる。
+     * @return スナップショット
+     */
+    public ModelSnapshot getSnapshot() {
+        snapshotRequested = true;
+        return snapshot;
+    }
+
+    /**
+     * 現在の状態のスナップショットを作り、一度の書き込みで公開する。
+     * ストロークの点列は複製せず、書き込み中のストロークも追記のみのため、コストはストロークの数に比例する。
+     */
+    private void publishSnapshot() {
+        synchronized (strokeLock) {
+            snapshotRequested = false;
+            snapshot = new ModelSnapshot(snapshotVersion++, hapticsPosition, enableForceCalculation, fbcLastPoint,
+                    surfaces, enableForceCalculation && calculator instanceof SurfaceFrictionCalculator, surfaceStayFlags,
+                    currentStroke.toStroke(), onForceStrokes, offForceStrokes);
+        }
+    }
+
+    /**
+     * ストロークを加えた配列を返す。
+     */
+    private static Stroke[] append(Stroke[] strokes, Stroke stroke) {
+        final Stroke[] appended = Arrays.copyOf(strokes, strokes.length + 1);
+        appended[strokes.length] = stroke;
+        return appended;
     }
 
     public Point getFbcLastPoint() {
         return fbcLastPoint;
     }
 
+    /**
+     * 力の計算を専用のサーボループで行うようにする。
+     * 以降、{@link #setHapticsPosition} は座標を渡すだけで力を計算しない。
+     * @return サーボループ
+     */
+    public synchronized ServoLoop startServoLoop() {
+        if (servoLoop == null) {
+            servoLoop = ServoLoop.create(this::updateForce);
+            servoLoop.start();
+        }
+        return servoLoop;
+    }
+
+    /**
+     * サーボループを返す。
+     * @return サーボループ (開始していない場合はnull)
+     */
+    public ServoLoop getServoLoop() {
+        return servoLoop;
+    }
+
+    /**
+     * 力覚ループの遅延の計測器を返す。
+     * @return 計測器
+     */
+    public LatencyMonitor getLatencyMonitor() {
+        return latencyMonitor;
+    }
+
     public void setHapticsPosition(double x, double y, double z, double time) {
+        setHapticsPosition(x, y, z, time, LatencyMonitor.UNKNOWN_TIME);
+    }
+
+    /**
+     * スタイラス座標を設定する。
+     * @param receiveTime 座標の受信時刻 ({@link System#nanoTime()})。遅延の計測に用いる
+     */
+    public void setHapticsPosition(double x, double y, double z, double time, long receiveTime) {
         this.hapticsPosition = Point.createXYZT(x, y, z, time);
         // 力を計算する
-        if (enableForceCalculation) {
-            Vector force = calculator.calculate(hapticsPosition);
-            System.out.print(force +" -> ");
-            forceUpdaters.forEach((u) -> u.requestUpdate(force));
+        ServoLoop loop = servoLoop;
+        if (loop != null) {
+            loop.offer(x, y, z, time, receiveTime);
         } else {
-            if (hapticsForce.length() != 0) {
-                forceUpdaters.forEach((u) -> u.requestUpdate(Vector.createXYZ(0, 0, 0)));
-            }
+            updateForce(x, y, z, time, receiveTime);
         }
 
         if (hapticsButton1Pressed) {
-            if (hapticsPoints.isEmpty()) {
-                hapticsPoints.add(hapticsPosition);
-            } else {
+            synchronized (strokeLock) {
                 // 1秒間に30点程度サンプリング
-                if (hapticsPoints.getLast().time() + 0.03 < time) {
+                if (hapticsPoints.isEmpty() || hapticsPoints.getLast().time() + 0.03 < time) {
                     hapticsPoints.add(hapticsPosition);
+                    currentStroke.add(x, y, z);
                 }
             }
         }
+        if (snapshotRequested) {
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * 座標から力を計算して各ForceUpdaterに送る。
+     * サーボループを開始している場合はサーボスレッドから呼ばれる。
+     */
+    private void updateForce(double x, double y, double z, double time, long receiveTime) {
+        Vector commanded = null;
+        if (enableForceCalculation) {
+            final long start = System.nanoTime();
+            if (receiveTime != LatencyMonitor.UNKNOWN_TIME) {
+                latencyMonitor.record(LatencyMonitor.Stage.QUEUE, start - receiveTime);
+            }
+            final Point position = predict(x, y, z, time, start);
+            Vector force = calculator.calculate(position);
+            final long calculated = System.nanoTime();
+            latencyMonitor.record(LatencyMonitor.Stage.CALCULATION, calculated - start);
+            if (impedanceMode && calculator instanceof ImpedanceCalculator
+                    && ((ImpedanceCalculator) calculator).impedance(impedance)) {
+                forceUpdaters.forEach((u) -> u.requestImpedanceUpdate(impedance, position.x(), position.y(), position.z()));
+            } else {
+                forceUpdaters.forEach((u) -> u.requestUpdate(force));
+            }
+            final long sent = System.nanoTime();
+            latencyMonitor.record(LatencyMonitor.Stage.SEND, sent - calculated);
+            latencyMonitor.recordTotal(receiveTime, sent);
+            commanded = force;
+        } else if (impedanceMode) {
+            // 空のモデルは変化しない限り送られない
+            impedance.clear();
+            forceUpdaters.forEach((u) -> u.requestImpedanceUpdate(impedance, x, y, z));
+        } else {
+            if (hapticsForce.length() != 0) {
+                forceUpdaters.forEach((u) -> u.requestUpdate(Vector.createXYZ(0, 0, 0)));
+            }
+        }
+
         if (enableForceCalculation && calculator instanceof AxisFrictionCalculator) {
             // 静止摩擦状態を更新
             forceFlags[0] = ((AxisFrictionCalculator) calculator).getXFlag();
@@ -208,23 +396,144 @@ public class AppModel extends VRSpaceState{
             if (fbc != null) {
                 fbcLastPoint = fbc.evaluateAtEnd();
             }
+            // 描画スレッドは計算機の状態を直接読まない
+            surfaceStayFlags = stayFlags(((SurfaceFrictionCalculator) calculator).getFlags(), surfaces);
+        }
+
+        SessionRecorder rec = recorder;
+        if (rec != null) {
+            record(rec, x, y, z, time, commanded);
+        }
+    }
+
+    /**
+     * 力を計算する座標を返す。予測が有効な場合は、見積もった遅延の分だけ先の座標を予測する。
+     * @param now 現在時刻 ({@link System#nanoTime()})
+     * @return 座標
+     */
+    private Point predict(double x, double y, double z, double time, long now) {
+        LatencyEstimator estimator = latencyEstimator;
+        if (!prediction || estimator == null) {
+            predictor.clear();
+            return Point.createXYZT(x, y, z, time);
+        }
+        return predictor.predict(x, y, z, time, estimator.horizon(time, now));
+    }
+
+    /**
+     * 全サンプルの記録を開始する。記録先は data0202/(日時)_session。
+     * @return 記録先のディレクトリ
+     * @throws IOException 記録先を作成できなかった場合
+     */
+    public synchronized Path startRecording() throws IOException {
+        if (recorder != null) {
+            return recorder.getDirectory();
+        }
+        DateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss");
+        Path directory = Paths.get("data0202", format.format(Calendar.getInstance().getTime()) + "_session");
+        SessionRecorder rec = SessionRecorder.create(directory);
+        // 再生 (SessionReplay) のために表面も残す
+        if (calculator instanceof SurfaceFrictionCalculator) {
+            try {
+                SurfaceFile.write(directory.resolve(SurfaceFile.SESSION_FILE_NAME), surfaces);
+            } catch (IOException e) {
+                rec.close();
+                throw e;
+            }
+        }
+        recorder = rec;
+        return directory;
+    }
+
+    /**
+     * 全サンプルの記録を終了する。
+     */
+    public synchronized void stopRecording() {
+        SessionRecorder rec = recorder;
+        if (rec != null) {
+            recorder = null;
+            rec.close();
+            System.out.println("recorded " + rec.getRecordCount() + " samples (dropped " + rec.getDroppedCount() + ") : " + rec.getDirectory());
         }
     }
 
+    public boolean isRecording() {
+        return recorder != null;
+    }
+
+    /**
+     * 1サンプルを記録する。力の計算と同じスレッドから呼ばれる。
+     * @param commanded 指令した力 (力の計算が無効な場合はnull)
+     */
+    private void record(SessionRecorder rec, double x, double y, double z, double time, Vector commanded) {
+        long stayFlags = 0;
+        int stayFlagCount = 0;
+        if (calculator instanceof SurfaceFrictionCalculator) {
+            FrictionSurface[] surfaces = this.surfaces;
+            stayFlagCount = Math.min(surfaces.length, Long.SIZE);
+            stayFlags = stayFlags(((SurfaceFrictionCalculator) calculator).getFlags(), surfaces);
+        } else if (calculator instanceof AxisFrictionCalculator) {
+            stayFlagCount = forceFlags.length;
+            for (int i = 0; i < stayFlagCount; ++i) {
+                if (forceFlags[i]) {
+                    stayFlags |= 1L << i;
+                }
+            }
+        }
+        int status = 0;
+        if (commanded != null) {
+            status |= SessionRecord.STATUS_FORCE_ENABLED;
+        }
+        if (hapticsButton1Pressed) {
+            status |= SessionRecord.STATUS_BUTTON1;
+        }
+        if (hapticsButton2Pressed) {
+            status |= SessionRecord.STATUS_BUTTON2;
+        }
+        Vector measured = hapticsForce;
+        rec.record(time, x, y, z,
+                commanded != null ? commanded.x() : 0, commanded != null ? commanded.y() : 0, commanded != null ? commanded.z() : 0,
+                measured.x(), measured.y(), measured.z(),
+                stayFlags, stayFlagCount, status);
+    }
+
+    /**
+     * 表面ごとの静止摩擦状態をビット列にする。
+     * @param flags    計算機の静止摩擦状態
+     * @param surfaces 表面
+     * @return ビットiが表面i (先頭64個まで)
+     */
+    private static long stayFlags(Map<FrictionSurface, Boolean> flags, FrictionSurface[] surfaces) {
+        long stayFlags = 0;
+        final int count = Math.min(surfaces.length, Long.SIZE);
+        for (int i = 0; i < count; ++i) {
+            if (Boolean.TRUE.equals(flags.get(surfaces[i]))) {
+                stayFlags |= 1L << i;
+            }
+        }
+        return stayFlags;
+    }
+
     public void setHapticsForce(double x, double y, double z) {
         this.hapticsForce = Vector.createXYZ(x, y, z);
     }
 
     public void setHapticsButton1Pressed(boolean hapticsButton1Pressed) {
-        this.hapticsButton1Pressed = hapticsButton1Pressed;
-        if (hapticsButton1Pressed) {
-            hapticsPoints.clear();
-        } else {
-            if (enableForceCalculation) {
-                onForcePointsList.add(new LinkedList<>(hapticsPoints));
+        synchronized (strokeLock) {
+            this.hapticsButton1Pressed = hapticsButton1Pressed;
+            if (hapticsButton1Pressed) {
+                hapticsPoints.clear();
+                currentStroke = new StrokeBuffer(nextStrokeId++);
             } else {
-                offForcePointsList.add(new LinkedList<>(hapticsPoints));
+                if (enableForceCalculation) {
+                    onForcePointsList.add(new LinkedList<>(hapticsPoints));
+                    onForceStrokes = append(onForceStrokes, currentStroke.toStroke());
+                } else {
+                    offForcePointsList.add(new LinkedList<>(hapticsPoints));
+                    offForceStrokes = append(offForceStrokes, currentStroke.toStroke());
+                }
             }
+            publishSnapshot();
         }
     }
 
@@ -233,9 +542,15 @@ public class AppModel extends VRSpaceState{
     }
 
     public void clearPoints() {
-        onForcePointsList.clear();
-        offForcePointsList.clear();
-        hapticsPoints.clear();
+        synchronized (strokeLock) {
+            onForcePointsList.clear();
+            offForcePointsList.clear();
+            hapticsPoints.clear();
+            onForceStrokes = new Stroke[0];
+            offForceStrokes = new Stroke[0];
+            currentStroke = new StrokeBuffer(nextStrokeId++);
+            publishSnapshot();
+        }
     }
 
     public void up() {
@@ -294,18 +609,23 @@ public class AppModel extends VRSpaceState{
             name = name + surName;
             name = name.substring(0, name.length()-1);
 
-            if(!onForcePointsList.isEmpty()) {
+            final LinkedList<Point> onForcePoints;
+            final LinkedList<Point> offForcePoints;
+            synchronized (strokeLock) {
+                onForcePoints = onForcePointsList.isEmpty() ? null : new LinkedList<>(onForcePointsList.getLast());
+                offForcePoints = offForcePointsList.isEmpty() ? null : new LinkedList<>(offForcePointsList.getLast());
+            }
+
+            if(onForcePoints != null) {
                 FileWriter fw_on = new FileWriter(foldername + name + "_OnForcePoints");
-                LinkedList<Point> onForcePoints = new LinkedList<>(onForcePointsList.getLast());
                 for (Point p : onForcePoints) {
                     fw_on.write(p.x() + " " + p.y() + " " + p.z() + " " + p.time() + "\n");
                 }
                 fw_on.close();
             }
 
-            if(!offForcePointsList.isEmpty()) {
+            if(offForcePoints != null) {
                 FileWriter fw_off = new FileWriter(foldername + name + "_OffForcePoints");
-                LinkedList<Point> offForcePoints = new LinkedList<>(offForcePointsList.getLast());
                 for (Point p : offForcePoints) {
                     fw_off.write(p.x() + " " + p.y() + " " + p.z() + " " + p.time() + "\n");
                 }
@@ -315,18 +635,7 @@ public class AppModel extends VRSpaceState{
 
             if(surfaces.length != 0) {
                 FileWriter sur = new FileWriter(foldername + name + "_Surfaces");
-                for (FrictionSurface sf : surfaces) {
-                    if(sf instanceof Plane){ // 0 → Plane
-                        Point p = ((Plane) sf).base();
-                        Vector v = ((Plane) sf).normal(p);
-                        sur.write("0 "+p.x()+" "+p.y()+" "+p.z()+" "+v.x()+" "+v.y()+" "+v.z()+"\n");
-                    }
-                    else if(sf instanceof Sphere){ // 1 → Sphere
-                        Point p = ((Sphere) sf).base();
-                        double r = ((Sphere) sf).radius();
-                        sur.write("1 "+p.x()+" "+p.y()+" "+p.z()+" "+r+"\n");
-                    }
-                }
+                SurfaceFile.write(sur, surfaces);
                 sur.close();
             }
         } catch (IOException ex){
@@ -369,11 +678,14 @@ public class AppModel extends VRSpaceState{
         }else {
             Sphere sphere = Sphere.create(SPoint, SR);
             System.out.println(ranPVX + " " + ranPVY + " " +ranPVZ);
-            surfaces = new FrictionSurface[]{
-                    sphere,
-                    plane
-            };
-            ((SurfaceFrictionCalculator) calculator).addAll(surfaces);
+            synchronized (strokeLock) {
+                surfaces = new FrictionSurface[]{
+                        sphere,
+                        plane
+                };
+                ((SurfaceFrictionCalculator) calculator).addAll(surfaces);
+                publishSnapshot();
+            }
         }
     }
 
@@ -401,11 +713,14 @@ public class AppModel extends VRSpaceState{
         double ranBVZ = new Random().nextDouble()-0.5;
         Vector BVector = Vector.createXYZ(ranBVX, ranBVY, ranBVZ);
 
-        surfaces = new FrictionSurface[]{
-                Plane.create(APoint, AVector),
-                Plane.create(BPoint, BVector)
-        };
-        ((SurfaceFrictionCalculator) calculator).addAll(surfaces);
+        synchronized (strokeLock) {
+            surfaces = new FrictionSurface[]{
+                    Plane.create(APoint, AVector),
+                    Plane.create(BPoint, BVector)
+            };
+            ((SurfaceFrictionCalculator) calculator).addAll(surfaces);
+            publishSnapshot();
+        }
 
     }
 
@@ -1,6 +1,7 @@
 package jp.sagalab.model;
 
 import jp.sagalab.jftk.Vector;
+import jp.sagalab.jftk.force.impedance.ImpedanceModel;
 
 /**
  * 力覚を更新する
@@ -8,4 +9,16 @@ import jp.sagalab.jftk.Vector;
 public interface ForceUpdater {
     /** 力覚更新リクエスト */
     void requestUpdate(Vector force);
+
+    /**
+     * インピーダンスモデルの更新リクエスト。
+     * モデルは呼び出し後に書き換えられるため、保持する場合は複製すること。
+     * 既定では何もしない。
+     * @param model ワールド座標系のモデル
+     * @param x     モデルを求めた点のx座標 (ワールド座標系)
+     * @param y     モデルを求めた点のy座標 (ワールド座標系)
+     * @param z     モデルを求めた点のz座標 (ワールド座標系)
+     */
+    default void requestImpedanceUpdate(ImpedanceModel model, double x, double y, double z) {
+    }
 }
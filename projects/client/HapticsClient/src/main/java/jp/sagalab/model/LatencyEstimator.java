@@ -0,0 +1,15 @@
+package jp.sagalab.model;
+
+/**
+ * 座標の計測から力がデバイスに届くまでの遅延を見積もる
+ */
+public interface LatencyEstimator {
+    /**
+     * 座標の計測時刻から、今計算する力がデバイスに届くまでの時間を見積もる。
+     * 力を計算するスレッドから呼ばれる。
+     * @param time 座標の時刻 (デバイスの時計, s)
+     * @param now  現在時刻 ({@link System#nanoTime()})
+     * @return 時間 (s)。見積もれない場合は0
+     */
+    double horizon(double time, long now);
+}
@@ -0,0 +1,171 @@
+package jp.sagalab.model;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 遅延時間 (ns) のヒストグラム。
+ * <p>
+ * HDR Histogram と同じく、2のべき乗ごとの区間をさらに {@value #SUB_BUCKET_COUNT} 個に等分したバケットで数える。
+ * {@value #SUB_BUCKET_COUNT} ns未満の値は正確に、それ以上の値は1%未満の相対誤差で記録する。
+ * 記録はバケットのカウンタを一つ増やすだけで、ロックもオブジェクトの生成もしないため、
+ * 複数のスレッドから同時に呼び出してよい。
+ * </p>
+ */
+public class LatencyHistogram {
+
+    /** 区間あたりのバケット数のビット数 */
+    private static final int SUB_BUCKET_BITS = 7;
+    /** 区間あたりのバケット数 */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /** 記録できる最大値 (ns)。これより大きい値は最大値として記録する */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+    /** バケット数 */
+    private static final int BUCKET_COUNT = index(MAX_VALUE) + 1;
+
+    /**
+     * 空のヒストグラムを生成する。
+     * @return ヒストグラム
+     */
+    public static LatencyHistogram create() {
+        return new LatencyHistogram();
+    }
+
+    /**
+     * 値を記録する。
+     * @param value 遅延時間 (ns)。負の値は0として記録する
+     */
+    public void record(long value) {
+        counts.incrementAndGet(index(Math.min(Math.max(value, 0L), MAX_VALUE)));
+    }
+
+    /**
+     * 現在のカウントを複製する。
+     * 記録と並行して呼び出した場合、複製中に記録された値は含まれないことがある。
+     * @return 複製
+     */
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    /**
+     * 値を記録するバケットの添字を返す。
+     * @param value 値 (0以上 {@link #MAX_VALUE} 以下)
+     * @return 添字
+     */
+    private static int index(long value) {
+        final int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * バケットに入る最大の値を返す。
+     * @param index 添字
+     * @return 最大の値
+     */
+    private static long highestValue(int index) {
+        final int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        final long lowest = (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * ヒストグラムの複製。
+     */
+    public static final class Snapshot {
+
+        /**
+         * 記録した値の数を返す。
+         * @return 値の数
+         */
+        public long count() {
+            return total;
+        }
+
+        /**
+         * 百分位数を返す。
+         * @param percentile 百分率 (0〜100)
+         * @return 百分位数が入るバケットの最大の値 (ns)。値がない場合は0
+         */
+        public long percentile(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            final double p = Math.min(Math.max(percentile, 0.0), 100.0);
+            final long rank = Math.max(1L, (long) Math.ceil(p / 100.0 * total));
+            long sum = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                sum += counts[i];
+                if (sum >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return max();
+        }
+
+        /**
+         * 最大値を返す。
+         * @return 最大値が入るバケットの最大の値 (ns)。値がない場合は0
+         */
+        public long max() {
+            for (int i = counts.length - 1; i >= 0; --i) {
+                if (counts[i] != 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * 指定した値より大きい値の数を返す。
+         * 指定した値と同じバケットに入る値は数えない。
+         * @param value 値 (ns)
+         * @return 値の数
+         */
+        public long countAbove(long value) {
+            final int from = index(Math.min(Math.max(value, 0L), MAX_VALUE)) + 1;
+            long sum = 0;
+            for (int i = from; i < counts.length; ++i) {
+                sum += counts[i];
+            }
+            return sum;
+        }
+
+        /**
+         * 以前の複製からの差分を返す。周期ごとの統計に用いる。
+         * @param previous 以前の複製
+         * @return 差分
+         */
+        public Snapshot minus(Snapshot previous) {
+            final long[] diff = new long[counts.length];
+            for (int i = 0; i < counts.length; ++i) {
+                diff[i] = counts[i] - previous.counts[i];
+            }
+            return new Snapshot(diff);
+        }
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long sum = 0;
+            for (long c : counts) {
+                sum += c;
+            }
+            this.total = sum;
+        }
+
+        /** バケットごとの数 */
+        private final long[] counts;
+        /** 値の数 */
+        private final long total;
+    }
+
+    private LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    /** バケットごとの数 */
+    private final AtomicLongArray counts;
+}
@@ -0,0 +1,272 @@
+package jp.sagalab.model;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 力覚ループの遅延を段ごとに計測する。
+ * <p>
+ * 座標イベントを受信してから、キャリブレーション変換、力の計算を経て力を送信し終えるまでを
+ * {@link Stage} ごとの {@link LatencyHistogram} に記録する。
+ * 時刻はクライアントの {@link System#nanoTime()} で、サーバのタイムスタンプは
+ * {@link Stage#ONE_WAY} (デバイスの時計を推定して求める片道の遅延) にのみ用いる。
+ * 記録はロックもオブジェクトの生成もしないため、受信スレッドとサーボスレッドから直接呼び出してよい。
+ * </p>
+ * <p>
+ * 統計は {@link #registerMBean()} でJMXに公開し、{@link #startReporting(long, TimeUnit)} で周期ごとにログへ出力する。
+ * </p>
+ */
+public class LatencyMonitor implements LatencyMonitorMXBean {
+
+    /** 計測する段 */
+    public enum Stage {
+        /** デバイスでの計測 → 受信 (時計の推定による片道の遅延) */
+        ONE_WAY("oneWay"),
+        /** 受信 → 座標イベントの処理開始 */
+        RECEIVE("receive"),
+        /** キャリブレーション変換 */
+        CALIBRATION("calibration"),
+        /** 座標イベントの処理開始 → 力の計算開始 */
+        QUEUE("queue"),
+        /** 力の計算 */
+        CALCULATION("calculation"),
+        /** 力の変換と送信 */
+        SEND("send"),
+        /** 受信 → 力の送信完了 */
+        TOTAL("total");
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        /** ログに出力する名前 */
+        private final String label;
+    }
+
+    /** 受信時刻が不明であることを表す値 */
+    public static final long UNKNOWN_TIME = Long.MIN_VALUE;
+    /** 既定の予算 (ns)。サーボループの周期と同じ1 ms */
+    public static final long DEFAULT_BUDGET = ServoLoop.DEFAULT_PERIOD;
+    /** 既定のJMXオブジェクト名 */
+    public static final String OBJECT_NAME = "jp.sagalab:type=LatencyMonitor";
+
+    private static final Logger LOGGER = Logger.getLogger(LatencyMonitor.class.getName());
+
+    /**
+     * 既定の予算 (1 ms) で計測器を生成する。
+     * @return 計測器
+     */
+    public static LatencyMonitor create() {
+        return create(DEFAULT_BUDGET);
+    }
+
+    /**
+     * 計測器を生成する。
+     * @param budget 受信から送信完了までの予算 (ns)
+     * @return 計測器
+     */
+    public static LatencyMonitor create(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("invalid budget : " + budget);
+        }
+        return new LatencyMonitor(budget);
+    }
+
+    /**
+     * 段の所要時間を記録する。
+     * @param stage    段
+     * @param duration 所要時間 (ns)
+     */
+    public void record(Stage stage, long duration) {
+        histograms[stage.ordinal()].record(duration);
+    }
+
+    /**
+     * 受信から送信完了までの時間を記録し、予算を超えていれば数える。
+     * @param receiveTime 受信時刻 ({@link System#nanoTime()})。{@link #UNKNOWN_TIME} の場合は記録しない
+     * @param now         送信完了時刻 ({@link System#nanoTime()})
+     */
+    public void recordTotal(long receiveTime, long now) {
+        if (receiveTime == UNKNOWN_TIME) {
+            return;
+        }
+        final long duration = now - receiveTime;
+        histograms[Stage.TOTAL.ordinal()].record(duration);
+        if (duration > budget) {
+            overBudget.incrementAndGet();
+        }
+    }
+
+    /**
+     * 段の累積の統計を返す。
+     * @param stage 段
+     * @return 統計
+     */
+    public synchronized LatencyStatistics statistics(Stage stage) {
+        return LatencyStatistics.of(histograms[stage.ordinal()].snapshot().minus(baselines[stage.ordinal()]));
+    }
+
+    @Override
+    public LatencyStatistics getReceive() {
+        return statistics(Stage.RECEIVE);
+    }
+
+    @Override
+    public LatencyStatistics getOneWay() {
+        return statistics(Stage.ONE_WAY);
+    }
+
+    @Override
+    public LatencyStatistics getCalibration() {
+        return statistics(Stage.CALIBRATION);
+    }
+
+    @Override
+    public LatencyStatistics getQueue() {
+        return statistics(Stage.QUEUE);
+    }
+
+    @Override
+    public LatencyStatistics getCalculation() {
+        return statistics(Stage.CALCULATION);
+    }
+
+    @Override
+    public LatencyStatistics getSend() {
+        return statistics(Stage.SEND);
+    }
+
+    @Override
+    public LatencyStatistics getTotal() {
+        return statistics(Stage.TOTAL);
+    }
+
+    @Override
+    public synchronized long getOverBudgetCount() {
+        return overBudget.get() - overBudgetBaseline;
+    }
+
+    @Override
+    public double getBudgetMicros() {
+        return budget * 1e-3;
+    }
+
+    /**
+     * 累積の統計を消去する。記録中のスレッドは止めず、現在の値を基準として以降の差分を返すようにする。
+     * 周期ごとのログには影響しない。
+     */
+    @Override
+    public synchronized void reset() {
+        for (int i = 0; i < histograms.length; ++i) {
+            baselines[i] = histograms[i].snapshot();
+        }
+        overBudgetBaseline = overBudget.get();
+    }
+
+    /**
+     * 既定のオブジェクト名でプラットフォームMBeanサーバに登録する。
+     * @throws JMException 登録に失敗した場合
+     */
+    public void registerMBean() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(this, name);
+        }
+    }
+
+    /**
+     * 周期ごとの統計のログ出力を開始する。各行はその周期の間に記録した値のみの統計。
+     * @param period 周期
+     * @param unit   周期の単位
+     */
+    public synchronized void startReporting(long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("invalid period : " + period);
+        }
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "latency-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long periodMillis = unit.toMillis(period);
+        reporter.scheduleAtFixedRate(() -> {
+            try {
+                LOGGER.info(report(periodMillis));
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, null, e);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * 周期ごとのログ出力を停止する。
+     */
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    /**
+     * 前回の出力からの統計を1行にまとめる。
+     * @param periodMillis 周期 (ms)
+     * @return ログの行
+     */
+    private String report(long periodMillis) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("latency[").append(periodMillis).append("ms] (us)");
+        for (Stage stage : Stage.values()) {
+            final LatencyHistogram.Snapshot current = histograms[stage.ordinal()].snapshot();
+            final LatencyStatistics statistics = LatencyStatistics.of(current.minus(reported[stage.ordinal()]));
+            reported[stage.ordinal()] = current;
+            builder.append(' ').append(stage.label).append('{').append(statistics).append('}');
+        }
+        final long over = overBudget.get();
+        builder.append(" overBudget=").append(over - reportedOverBudget);
+        reportedOverBudget = over;
+        return builder.toString();
+    }
+
+    private LatencyMonitor(long budget) {
+        this.budget = budget;
+        final int size = Stage.values().length;
+        histograms = new LatencyHistogram[size];
+        baselines = new LatencyHistogram.Snapshot[size];
+        reported = new LatencyHistogram.Snapshot[size];
+        for (int i = 0; i < size; ++i) {
+            histograms[i] = LatencyHistogram.create();
+            baselines[i] = histograms[i].snapshot();
+            reported[i] = baselines[i];
+        }
+    }
+
+    /** 予算 (ns) */
+    private final long budget;
+    /** 段ごとのヒストグラム */
+    private final LatencyHistogram[] histograms;
+    /** 予算を超えた数 */
+    private final AtomicLong overBudget = new AtomicLong();
+
+    /** JMXで公開する統計の基準 ({@link #reset()} 時の値) */
+    private final LatencyHistogram.Snapshot[] baselines;
+    private long overBudgetBaseline = 0;
+
+    /** ログ出力済みの値 (ログ出力スレッドのみが使う) */
+    private final LatencyHistogram.Snapshot[] reported;
+    private long reportedOverBudget = 0;
+    /** ログ出力スレッド */
+    private ScheduledExecutorService reporter;
+}
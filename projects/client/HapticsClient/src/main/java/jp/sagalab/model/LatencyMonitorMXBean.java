@@ -0,0 +1,38 @@
+package jp.sagalab.model;
+
+/**
+ * 力覚ループの遅延の統計をJMXで公開するインタフェース。
+ * 各段の統計は起動時 (または {@link #reset()} の後) からの累積値。
+ */
+public interface LatencyMonitorMXBean {
+
+    /** デバイスでの計測 → 受信 (時計の推定による片道の遅延) */
+    LatencyStatistics getOneWay();
+
+    /** 受信 → 座標イベントの処理開始 */
+    LatencyStatistics getReceive();
+
+    /** キャリブレーション変換 (Geomagic座標 → ワールド座標) */
+    LatencyStatistics getCalibration();
+
+    /** 座標イベントの処理開始 → 力の計算開始 (サーボループの待ち時間) */
+    LatencyStatistics getQueue();
+
+    /** ForceCalculator#calculate */
+    LatencyStatistics getCalculation();
+
+    /** 力の変換と送信 (sendForceEvent) */
+    LatencyStatistics getSend();
+
+    /** 受信 → 力の送信完了 */
+    LatencyStatistics getTotal();
+
+    /** 受信から送信完了までが予算を超えた周期数 */
+    long getOverBudgetCount();
+
+    /** 1周期の予算 (μs) */
+    double getBudgetMicros();
+
+    /** 統計を消去する */
+    void reset();
+}
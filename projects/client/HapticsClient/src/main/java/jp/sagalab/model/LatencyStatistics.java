@@ -0,0 +1,67 @@
+package jp.sagalab.model;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * 遅延の統計値 (μs)。
+ */
+public class LatencyStatistics {
+
+    /**
+     * ヒストグラムの複製から統計値を求める。
+     * @param snapshot ヒストグラムの複製
+     * @return 統計値
+     */
+    public static LatencyStatistics of(LatencyHistogram.Snapshot snapshot) {
+        return new LatencyStatistics(snapshot.count(),
+                snapshot.percentile(50.0) * 1e-3,
+                snapshot.percentile(99.0) * 1e-3,
+                snapshot.percentile(99.9) * 1e-3,
+                snapshot.max() * 1e-3);
+    }
+
+    @ConstructorProperties({"count", "p50", "p99", "p999", "max"})
+    public LatencyStatistics(long count, double p50, double p99, double p999, double max) {
+        this.count = count;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    /** 値の数 */
+    public long getCount() {
+        return count;
+    }
+
+    /** 中央値 (μs) */
+    public double getP50() {
+        return p50;
+    }
+
+    /** 99パーセンタイル (μs) */
+    public double getP99() {
+        return p99;
+    }
+
+    /** 99.9パーセンタイル (μs) */
+    public double getP999() {
+        return p999;
+    }
+
+    /** 最大値 (μs) */
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d p50=%.1f p99=%.1f p99.9=%.1f max=%.1f", count, p50, p99, p999, max);
+    }
+
+    private final long count;
+    private final double p50;
+    private final double p99;
+    private final double p999;
+    private final double max;
+}
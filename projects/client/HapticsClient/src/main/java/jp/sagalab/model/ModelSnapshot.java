@@ -0,0 +1,115 @@
+package jp.sagalab.model;
+
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.force.surface.FrictionSurface;
+
+/**
+ * 描画スレッドに渡す {@link AppModel} の状態。生成後は変更しない。
+ * <p>
+ * ストロークの点列はプリミティブ配列で保持し、書き終えたストロークは以降のスナップショットと共有する。
+ * 描画スレッドは {@link AppModel#getSnapshot()} で得たスナップショットだけを読めば、ロックなしで一貫した状態を描画できる。
+ * </p>
+ */
+public final class ModelSnapshot {
+
+    ModelSnapshot(long version, Point hapticsPosition, boolean forceCalculation, Point fbcLastPoint,
+                  FrictionSurface[] surfaces, boolean surfaceFlagsValid, long surfaceFlags,
+                  Stroke currentStroke, Stroke[] onForceStrokes, Stroke[] offForceStrokes) {
+        this.version = version;
+        this.hapticsPosition = hapticsPosition;
+        this.forceCalculation = forceCalculation;
+        this.fbcLastPoint = fbcLastPoint;
+        this.surfaces = surfaces;
+        this.surfaceFlagsValid = surfaceFlagsValid;
+        this.surfaceFlags = surfaceFlags;
+        this.currentStroke = currentStroke;
+        this.onForceStrokes = onForceStrokes;
+        this.offForceStrokes = offForceStrokes;
+    }
+
+    /**
+     * 公開した順の番号を返す。
+     * @return 番号
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Point getHapticsPosition() {
+        return hapticsPosition;
+    }
+
+    public boolean isForceCalculation() {
+        return forceCalculation;
+    }
+
+    /**
+     * FBCの最後の点を返す。
+     * @return 点 (ない場合はnull)
+     */
+    public Point getFbcLastPoint() {
+        return fbcLastPoint;
+    }
+
+    public int getSurfaceCount() {
+        return surfaces.length;
+    }
+
+    public FrictionSurface getSurface(int index) {
+        return surfaces[index];
+    }
+
+    /**
+     * 表面が静止摩擦状態かを返す。
+     * @param index 表面の番号
+     * @return 静止摩擦状態の場合はtrue (力の計算が無効な場合は常にfalse)
+     */
+    public boolean isSurfaceStaying(int index) {
+        return surfaceFlagsValid && index < Long.SIZE && (surfaceFlags & (1L << index)) != 0;
+    }
+
+    /**
+     * 書き込み中のストロークを返す。色は {@link #isForceCalculation()} に従う。
+     * @return 点列
+     */
+    public Stroke getCurrentStroke() {
+        return currentStroke;
+    }
+
+    public int getOnForceStrokeCount() {
+        return onForceStrokes.length;
+    }
+
+    public Stroke getOnForceStroke(int index) {
+        return onForceStrokes[index];
+    }
+
+    public int getOffForceStrokeCount() {
+        return offForceStrokes.length;
+    }
+
+    public Stroke getOffForceStroke(int index) {
+        return offForceStrokes[index];
+    }
+
+    /** 公開した順の番号 */
+    private final long version;
+    /** Hapticsのスタイラス座標 */
+    private final Point hapticsPosition;
+    /** 力の計算が有効か */
+    private final boolean forceCalculation;
+    /** FBCの最後の点 */
+    private final Point fbcLastPoint;
+    /** 立体 (AppModelと共有するため書き換えない) */
+    private final FrictionSurface[] surfaces;
+    /** 静止摩擦状態が有効か */
+    private final boolean surfaceFlagsValid;
+    /** 静止摩擦状態 (ビットiが表面i) */
+    private final long surfaceFlags;
+    /** 書き込み中のストローク */
+    private final Stroke currentStroke;
+    /** 力覚フィードバックありの時のストローク (AppModelと共有するため書き換えない) */
+    private final Stroke[] onForceStrokes;
+    /** 力覚フィードバックなしの時のストローク (AppModelと共有するため書き換えない) */
+    private final Stroke[] offForceStrokes;
+}
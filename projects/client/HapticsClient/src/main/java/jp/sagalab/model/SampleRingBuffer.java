@@ -0,0 +1,180 @@
+package jp.sagalab.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * スタイラス座標のリングバッファ。
+ * <p>
+ * 書き込みスレッドと読み出しスレッドがそれぞれ一つだけの場合に限り、ロックなしで使用できる。
+ * 要素はプリミティブ配列に格納するため、書き込み・読み出しともにオブジェクトを生成しない。
+ * </p>
+ * <p>
+ * 最新の座標を受け渡すためのものなので、満杯の場合は書き込みを拒まず最も古いサンプルを上書きする。
+ * 読み出し中に上書きされたサンプルは、領域ごとの書き込み位置を読み出しの前後で比べて検出し、読み直す。
+ * </p>
+ */
+public class SampleRingBuffer {
+
+    /** 1サンプルあたりの要素数 [x, y, z, time] */
+    public static final int SAMPLE_SIZE = 4;
+    /** 書き込み中の領域を表す位置 */
+    private static final long WRITING = -1;
+
+    /**
+     * リングバッファを生成する。
+     * @param capacity 容量 (2のべき乗に切り上げる)
+     * @return リングバッファ
+     */
+    public static SampleRingBuffer create(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity : " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        return new SampleRingBuffer(size);
+    }
+
+    /**
+     * サンプルを書き込む。書き込みスレッドからのみ呼び出す。
+     * 満杯の場合は最も古い未読のサンプルを上書きする。
+     * @param x    x座標
+     * @param y    y座標
+     * @param z    z座標
+     * @param time 時刻 (s)
+     * @return 上書きせずに書き込めた場合はtrue、未読のサンプルを上書きした場合はfalse
+     */
+    public boolean offer(double x, double y, double z, double time) {
+        return offer(x, y, z, time, LatencyMonitor.UNKNOWN_TIME);
+    }
+
+    /**
+     * 受信時刻とともにサンプルを書き込む。書き込みスレッドからのみ呼び出す。
+     * 満杯の場合は最も古い未読のサンプルを上書きする。
+     * @param x           x座標
+     * @param y           y座標
+     * @param z           z座標
+     * @param time        時刻 (s)
+     * @param receiveTime 受信時刻 ({@link System#nanoTime()})
+     * @return 上書きせずに書き込めた場合はtrue、未読のサンプルを上書きした場合はfalse
+     */
+    public boolean offer(double x, double y, double z, double time, long receiveTime) {
+        final long t = tail.get();
+        final long h = head.get();
+        boolean overwritten = false;
+        // 満杯なら最も古いサンプルを捨てる (読み出し側が先に進めた場合は満杯でなくなっている)
+        if (t - h >= capacity && head.compareAndSet(h, h + 1)) {
+            dropped.lazySet(dropped.get() + 1);
+            overwritten = true;
+        }
+        final int index = (int) (t & mask);
+        final int offset = index * SAMPLE_SIZE;
+        // 書き込み中であることを要素より先に公開する
+        sequences.set(index, WRITING);
+        data.lazySet(offset, Double.doubleToRawLongBits(x));
+        data.lazySet(offset + 1, Double.doubleToRawLongBits(y));
+        data.lazySet(offset + 2, Double.doubleToRawLongBits(z));
+        data.lazySet(offset + 3, Double.doubleToRawLongBits(time));
+        receiveTimes.lazySet(index, receiveTime);
+        // 要素の書き込み後に公開する
+        sequences.lazySet(index, t);
+        tail.lazySet(t + 1);
+        return !overwritten;
+    }
+
+    /**
+     * 未読のサンプルを全て読み捨て、最新のものだけを取り出す。読み出しスレッドからのみ呼び出す。
+     * @param out 最新のサンプル [x, y, z, time]
+     * @return 未読のサンプルがあった場合はtrue
+     */
+    public boolean pollLatest(double[] out) {
+        while (true) {
+            long h = head.get();
+            final long t = tail.get();
+            if (t == h) {
+                return false;
+            }
+            final int index = (int) ((t - 1) & mask);
+            final int offset = index * SAMPLE_SIZE;
+            if (sequences.get(index) != t - 1) {
+                // 読む前に上書きされ始めたため、新しい末尾から読み直す
+                continue;
+            }
+            final double x = Double.longBitsToDouble(data.get(offset));
+            final double y = Double.longBitsToDouble(data.get(offset + 1));
+            final double z = Double.longBitsToDouble(data.get(offset + 2));
+            final double time = Double.longBitsToDouble(data.get(offset + 3));
+            final long receiveTime = receiveTimes.get(index);
+            if (sequences.get(index) != t - 1) {
+                // 読んでいる間に上書きされた
+                continue;
+            }
+            out[0] = x;
+            out[1] = y;
+            out[2] = z;
+            out[3] = time;
+            latestReceiveTime = receiveTime;
+            // 読み出し後に領域を解放する (書き込み側が古いサンプルを捨てて進めた場合はそれより先に進める)
+            while (h < t && !head.compareAndSet(h, t)) {
+                h = head.get();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 直前に {@link #pollLatest(double[])} で取り出したサンプルの受信時刻を返す。読み出しスレッドからのみ呼び出す。
+     * @return 受信時刻 ({@link System#nanoTime()})。不明な場合は {@link LatencyMonitor#UNKNOWN_TIME}
+     */
+    public long latestReceiveTime() {
+        return latestReceiveTime;
+    }
+
+    /**
+     * 満杯のため読まれずに上書きされたサンプル数を返す。
+     * @return サンプル数
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * 容量を返す。
+     * @return 容量
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    private SampleRingBuffer(int capacity) {
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.data = new AtomicLongArray(capacity * SAMPLE_SIZE);
+        this.receiveTimes = new AtomicLongArray(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; ++i) {
+            sequences.set(i, WRITING);
+        }
+    }
+
+    /** 容量 */
+    private final int capacity;
+    /** 添字のマスク */
+    private final long mask;
+    /** サンプル [x, y, z, time] の並び (doubleのビット列) */
+    private final AtomicLongArray data;
+    /** サンプルの受信時刻の並び */
+    private final AtomicLongArray receiveTimes;
+    /** 各領域に書き込まれているサンプルの位置 (書き込み中は {@link #WRITING}) */
+    private final AtomicLongArray sequences;
+    /** 直前に取り出したサンプルの受信時刻 (読み出しスレッドのみが使う) */
+    private long latestReceiveTime = LatencyMonitor.UNKNOWN_TIME;
+    /** 次に読み出す位置 */
+    private final AtomicLong head = new AtomicLong();
+    /** 次に書き込む位置 */
+    private final AtomicLong tail = new AtomicLong();
+    /** 上書きされたサンプル数 */
+    private final AtomicLong dropped = new AtomicLong();
+}
@@ -0,0 +1,249 @@
+package jp.sagalab.model;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 一定周期で力の計算を行うサーボループ。
+ * <p>
+ * 受信スレッドは {@link #offer(double, double, double, double)} でスタイラス座標をリングバッファに書き込むだけで、
+ * 力の計算は専用スレッドが最新の座標を取り出して行う。受信と力の計算は互いにブロックしない。
+ * </p>
+ * <p>
+ * 各周期の締め切りを追跡し、処理が次の締め切りまでに終わらなかった周期を超過として数える。
+ * 超過した場合は遅れを取り戻そうとせず、処理の終了時刻から周期を数え直す。
+ * </p>
+ */
+public class ServoLoop implements Runnable {
+
+    /**
+     * 周期ごとに実行する処理。
+     */
+    public interface Task {
+        /**
+         * 最新のスタイラス座標で処理を行う。
+         * @param x           x座標
+         * @param y           y座標
+         * @param z           z座標
+         * @param time        時刻 (s)
+         * @param receiveTime 座標の受信時刻 ({@link System#nanoTime()})。不明な場合は {@link LatencyMonitor#UNKNOWN_TIME}
+         */
+        void tick(double x, double y, double z, double time, long receiveTime);
+    }
+
+    /** 既定の周期 (ns) */
+    public static final long DEFAULT_PERIOD = 1_000_000L;
+    /** 既定のリングバッファ容量 */
+    public static final int DEFAULT_CAPACITY = 64;
+    /** 締め切り直前にスピン待機へ切り替える残り時間 (ns) */
+    private static final long SPIN_THRESHOLD = 100_000L;
+
+    /**
+     * 既定の周期 (1 kHz) でサーボループを生成する。
+     * @param task 周期ごとの処理
+     * @return サーボループ
+     */
+    public static ServoLoop create(Task task) {
+        return create(task, DEFAULT_PERIOD, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * パラメータを指定してサーボループを生成する。
+     * @param task     周期ごとの処理
+     * @param period   周期 (ns)
+     * @param capacity リングバッファ容量
+     * @return サーボループ
+     */
+    public static ServoLoop create(Task task, long period, int capacity) {
+        if (task == null) {
+            throw new IllegalArgumentException("task must not be null");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("invalid period : " + period);
+        }
+        return new ServoLoop(task, period, SampleRingBuffer.create(capacity));
+    }
+
+    /**
+     * スタイラス座標を渡す。受信スレッドからのみ呼び出す。
+     * @param x    x座標
+     * @param y    y座標
+     * @param z    z座標
+     * @param time 時刻 (s)
+     * @return 未読の座標を上書きせずに渡せた場合はtrue
+     */
+    public boolean offer(double x, double y, double z, double time) {
+        return buffer.offer(x, y, z, time);
+    }
+
+    /**
+     * 受信時刻とともにスタイラス座標を渡す。受信スレッドからのみ呼び出す。
+     * @param x           x座標
+     * @param y           y座標
+     * @param z           z座標
+     * @param time        時刻 (s)
+     * @param receiveTime 受信時刻 ({@link System#nanoTime()})
+     * @return 未読の座標を上書きせずに渡せた場合はtrue
+     */
+    public boolean offer(double x, double y, double z, double time, long receiveTime) {
+        return buffer.offer(x, y, z, time, receiveTime);
+    }
+
+    /**
+     * サーボループを開始する。
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "servo-loop");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * サーボループを停止する。
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            thread = null;
+        }
+    }
+
+    /**
+     * 実行中かを返す。
+     * @return 実行中の場合はtrue
+     */
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    @Override
+    public void run() {
+        final double[] sample = new double[SampleRingBuffer.SAMPLE_SIZE];
+        long deadline = System.nanoTime() + period;
+        while (running) {
+            waitUntil(deadline);
+            if (!running) {
+                break;
+            }
+            final long start = System.nanoTime();
+            if (buffer.pollLatest(sample)) {
+                try {
+                    task.tick(sample[0], sample[1], sample[2], sample[3], buffer.latestReceiveTime());
+                } catch (RuntimeException e) {
+                    // 一度の失敗でループを止めない
+                    e.printStackTrace();
+                }
+            } else {
+                idleCount++;
+            }
+            final long end = System.nanoTime();
+            maxTickTime = Math.max(maxTickTime, end - start);
+            tickCount++;
+            // 次の締め切りを過ぎていれば超過
+            if (end - (deadline + period) > 0) {
+                overrunCount++;
+                deadline = end + period;
+            } else {
+                deadline += period;
+            }
+        }
+    }
+
+    /**
+     * 周期 (ns) を返す。
+     * @return 周期
+     */
+    public long getPeriod() {
+        return period;
+    }
+
+    /**
+     * 実行した周期数を返す。
+     * @return 周期数
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * 締め切りを超過した周期数を返す。
+     * @return 周期数
+     */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * 新しい座標がなく処理を行わなかった周期数を返す。
+     * @return 周期数
+     */
+    public long getIdleCount() {
+        return idleCount;
+    }
+
+    /**
+     * 1周期の処理にかかった最大時間 (ns) を返す。
+     * @return 最大時間
+     */
+    public long getMaxTickTime() {
+        return maxTickTime;
+    }
+
+    /**
+     * リングバッファが満杯のため、読まれずに上書きされた座標の数を返す。
+     * @return 座標数
+     */
+    public long getDroppedCount() {
+        return buffer.getDroppedCount();
+    }
+
+    /**
+     * 締め切りまで待機する。締め切りの直前はスピンして起床の遅れを抑える。
+     * @param deadline 締め切り (ns)
+     */
+    private void waitUntil(long deadline) {
+        long remaining;
+        while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    private ServoLoop(Task task, long period, SampleRingBuffer buffer) {
+        this.task = task;
+        this.period = period;
+        this.buffer = buffer;
+    }
+
+    /** 周期ごとの処理 */
+    private final Task task;
+    /** 周期 (ns) */
+    private final long period;
+    /** 受信スレッドからの座標 */
+    private final SampleRingBuffer buffer;
+    /** サーボスレッド */
+    private Thread thread;
+    /** 実行フラグ */
+    private volatile boolean running = false;
+
+    // 統計値 (サーボスレッドのみが書き込む)
+    private volatile long tickCount = 0;
+    private volatile long overrunCount = 0;
+    private volatile long idleCount = 0;
+    private volatile long maxTickTime = 0;
+}
@@ -0,0 +1,71 @@
+package jp.sagalab.model;
+
+/**
+ * スタイラスの軌跡の点列。
+ * <p>
+ * 座標は [x0, y0, z0, x1, ...] の順にプリミティブ配列に格納し、変更できない。
+ * 書き込み中のストロークにも点は末尾に追加されるだけなので、同じ {@link #getId()} を持つ点列は、
+ * 点数の少ない方が多い方の先頭部分と一致する。
+ * </p>
+ */
+public final class Stroke {
+
+    /**
+     * 点列を生成する。配列は複製しないため、呼び出し側は先頭 size 点を書き換えてはならない。
+     * @param id          識別子
+     * @param coordinates 座標 [x0, y0, z0, x1, ...]
+     * @param size        点数
+     */
+    Stroke(long id, double[] coordinates, int size) {
+        this.id = id;
+        this.coordinates = coordinates;
+        this.size = size;
+    }
+
+    /**
+     * 識別子を返す。同じストロークの点列は同じ識別子を持つ。
+     * @return 識別子
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * 点数を返す。
+     * @return 点数
+     */
+    public int size() {
+        return size;
+    }
+
+    public double x(int index) {
+        return coordinates[offset(index)];
+    }
+
+    public double y(int index) {
+        return coordinates[offset(index) + 1];
+    }
+
+    public double z(int index) {
+        return coordinates[offset(index) + 2];
+    }
+
+    /**
+     * 点の座標の配列中の位置を返す。
+     * @param index 点の番号
+     * @return 位置
+     */
+    private int offset(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index : " + index + ", size : " + size);
+        }
+        return index * 3;
+    }
+
+    /** 識別子 */
+    private final long id;
+    /** 座標 */
+    private final double[] coordinates;
+    /** 点数 */
+    private final int size;
+}
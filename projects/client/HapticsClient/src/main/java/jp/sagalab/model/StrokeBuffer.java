@@ -0,0 +1,56 @@
+package jp.sagalab.model;
+
+/**
+ * 書き込み中のストローク。
+ * <p>
+ * 点は配列の末尾に追加するだけで、既に {@link #toStroke()} で渡した範囲は書き換えない。
+ * 容量が足りない場合は新しい配列に複製するため、渡した点列は書き込みと並行して読んでよい。
+ * 書き込みは一つのスレッド (またはロックで排他したスレッド) から行う。
+ * </p>
+ */
+final class StrokeBuffer {
+
+    /** 初期容量 (点数) */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * 空のストロークを生成する。
+     * @param id 識別子
+     */
+    StrokeBuffer(long id) {
+        this.id = id;
+    }
+
+    /**
+     * 点を追加する。
+     * @param x x座標
+     * @param y y座標
+     * @param z z座標
+     */
+    void add(double x, double y, double z) {
+        if ((size + 1) * 3 > coordinates.length) {
+            final double[] grown = new double[coordinates.length * 2];
+            System.arraycopy(coordinates, 0, grown, 0, size * 3);
+            coordinates = grown;
+        }
+        coordinates[size * 3] = x;
+        coordinates[size * 3 + 1] = y;
+        coordinates[size * 3 + 2] = z;
+        ++size;
+    }
+
+    /**
+     * 現在の点列を返す。
+     * @return 点列
+     */
+    Stroke toStroke() {
+        return new Stroke(id, coordinates, size);
+    }
+
+    /** 識別子 */
+    private final long id;
+    /** 座標 [x0, y0, z0, x1, ...] */
+    private double[] coordinates = new double[INITIAL_CAPACITY * 3];
+    /** 点数 */
+    private int size = 0;
+}
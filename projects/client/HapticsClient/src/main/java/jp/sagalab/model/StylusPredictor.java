@@ -0,0 +1,119 @@
+package jp.sagalab.model;
+
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.curve.interporation.PointExtrapolator1th;
+import jp.sagalab.jftk.curve.interporation.PointExtrapolator2th;
+
+import java.util.ArrayDeque;
+
+/**
+ * スタイラス座標の履歴から、遅延の分だけ先の座標を予測する。
+ * <p>
+ * 直近 {@value #WINDOW} 秒の座標を保持し、{@link PointExtrapolator1th} または {@link PointExtrapolator2th} で外挿する。
+ * 外挿器は末尾 {@value #WINDOW} 秒の点列に当てはめた曲線を、当てはめた区間と同じ長さだけ延長するため、
+ * 外挿する時間長には保持している区間の長さを渡し、予測する時刻の値を延長した点列から補間する。
+ * 予測した座標は、当てはめた曲線の現在時刻からの変位を計測した座標に加えたもので、時刻は計測した座標のまま。
+ * </p>
+ * <p>
+ * 力を計算するスレッドのみから呼び出す。
+ * </p>
+ */
+public class StylusPredictor {
+
+    /** 外挿に用いる区間の長さ (s)。外挿器が曲線を当てはめる区間と同じ */
+    public static final double WINDOW = 0.1;
+    /** 予測する時間の上限 (s) */
+    public static final double MAX_HORIZON = 0.05;
+    /** 延長した区間の分割数 */
+    private static final int STEPS = 20;
+
+    /**
+     * 予測器を生成する。
+     * @param degree 外挿の次数 (1: {@link PointExtrapolator1th}, 2: {@link PointExtrapolator2th})
+     * @return 予測器
+     */
+    public static StylusPredictor create(int degree) {
+        if (degree != 1 && degree != 2) {
+            throw new IllegalArgumentException("invalid degree : " + degree);
+        }
+        return new StylusPredictor(degree);
+    }
+
+    /**
+     * 座標を履歴に加え、指定した時間だけ先の座標を予測する。
+     * 履歴が足りない場合や時間が0以下の場合は、渡された座標をそのまま返す。
+     * @param x       x座標
+     * @param y       y座標
+     * @param z       z座標
+     * @param time    時刻 (s)
+     * @param horizon 予測する時間 (s)。{@link #MAX_HORIZON} と保持している区間の長さで制限する
+     * @return 予測した座標
+     */
+    public Point predict(double x, double y, double z, double time, double horizon) {
+        final Point current = Point.createXYZT(x, y, z, time);
+        if (!history.isEmpty() && history.getLast().time() >= time) {
+            // 時刻が戻った場合は履歴を捨てる
+            if (history.getLast().time() > time) {
+                history.clear();
+            } else {
+                return current;
+            }
+        }
+        history.addLast(current);
+        while (history.getFirst().time() <= time - WINDOW) {
+            history.removeFirst();
+        }
+        final double span = time - history.getFirst().time();
+        final double length = Math.min(Math.min(horizon, MAX_HORIZON), span);
+        if (history.size() <= degree || !(length > 0)) {
+            return current;
+        }
+
+        final Point[] points = history.toArray(new Point[history.size()]);
+        final Point[] extrapolated = degree == 1
+                ? PointExtrapolator1th.extrapolate(points, span, span / STEPS)
+                : PointExtrapolator2th.extrapolate(points, span, span / STEPS);
+        // 延長した点列は末尾にあり、先頭は現在時刻の曲線上の点
+        final int num = (extrapolated.length - points.length) / 2;
+        final int first = extrapolated.length - num;
+        final Point origin = extrapolated[first];
+        final double target = time + length;
+        int i = first + 1;
+        while (i < extrapolated.length - 1 && extrapolated[i].time() < target) {
+            ++i;
+        }
+        final Point p0 = extrapolated[i - 1];
+        final Point p1 = extrapolated[i];
+        final double dt = p1.time() - p0.time();
+        final double w = dt > 0 ? Math.min(Math.max((target - p0.time()) / dt, 0), 1) : 1;
+        return Point.createXYZT(
+                x + (1 - w) * p0.x() + w * p1.x() - origin.x(),
+                y + (1 - w) * p0.y() + w * p1.y() - origin.y(),
+                z + (1 - w) * p0.z() + w * p1.z() - origin.z(),
+                time);
+    }
+
+    /**
+     * 履歴を消去する。
+     */
+    public void clear() {
+        history.clear();
+    }
+
+    /**
+     * 外挿の次数を返す。
+     * @return 次数
+     */
+    public int getDegree() {
+        return degree;
+    }
+
+    private StylusPredictor(int degree) {
+        this.degree = degree;
+    }
+
+    /** 外挿の次数 */
+    private final int degree;
+    /** 直近の座標 (古い順) */
+    private final ArrayDeque<Point> history = new ArrayDeque<>();
+}
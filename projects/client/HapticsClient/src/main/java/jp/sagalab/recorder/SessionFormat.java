@@ -0,0 +1,79 @@
+package jp.sagalab.recorder;
+
+import java.nio.file.Path;
+
+/**
+ * セッション記録ファイルの形式。
+ * <p>
+ * 記録はディレクトリ内のセグメントファイル ({@value #SEGMENT_PREFIX}000000{@value #SEGMENT_SUFFIX}, ...) に分かれる。
+ * 各セグメントは {@value #HEADER_SIZE} バイトのヘッダと、固定長 {@value #RECORD_SIZE} バイトのレコードの並びからなる。
+ * 数値はすべてリトルエンディアン。
+ * </p>
+ * <pre>
+ * ヘッダ
+ *    0 int    マジックナンバー "HVRS"
+ *    4 int    形式のバージョン
+ *    8 int    ヘッダ長
+ *   12 int    レコード長
+ *   16 long   セグメント番号
+ *   24 long   レコード容量
+ *   32 long   書き込み済みのレコード数
+ * レコード
+ *    0 long   記録時刻 (System.nanoTime)
+ *    8 double 時刻 (s)
+ *   16 double 位置 x, y, z (ワールド座標)
+ *   40 double 指令した力 x, y, z (ワールド座標)
+ *   64 double 計測された力 x, y, z (デバイスからの力更新イベント)
+ *   88 long   静止摩擦状態 (i番目のビットがi番目の表面 / 軸)
+ *   96 int    静止摩擦状態の数
+ *  100 int    状態 ({@link SessionRecord#STATUS_FORCE_ENABLED} など)
+ * </pre>
+ */
+final class SessionFormat {
+
+    /** マジックナンバー "HVRS" */
+    static final int MAGIC = 0x53525648;
+    /** 形式のバージョン */
+    static final int VERSION = 1;
+    /** ヘッダ長 */
+    static final int HEADER_SIZE = 64;
+    /** レコード長 */
+    static final int RECORD_SIZE = 104;
+
+    // ヘッダ
+    static final int HEADER_MAGIC = 0;
+    static final int HEADER_VERSION = 4;
+    static final int HEADER_HEADER_SIZE = 8;
+    static final int HEADER_RECORD_SIZE = 12;
+    static final int HEADER_SEGMENT = 16;
+    static final int HEADER_CAPACITY = 24;
+    static final int HEADER_COUNT = 32;
+
+    // レコード
+    static final int NANO_TIME = 0;
+    static final int TIME = 8;
+    static final int POSITION = 16;
+    static final int COMMANDED_FORCE = 40;
+    static final int MEASURED_FORCE = 64;
+    static final int STAY_FLAGS = 88;
+    static final int STAY_FLAG_COUNT = 96;
+    static final int STATUS = 100;
+
+    /** セグメントファイル名の接頭辞 */
+    static final String SEGMENT_PREFIX = "segment-";
+    /** セグメントファイル名の接尾辞 */
+    static final String SEGMENT_SUFFIX = ".hvr";
+
+    /**
+     * セグメントファイルのパスを返す。
+     * @param directory ディレクトリ
+     * @param segment   セグメント番号
+     * @return パス
+     */
+    static Path segmentPath(Path directory, long segment) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private SessionFormat() {
+    }
+}
@@ -0,0 +1,129 @@
+package jp.sagalab.recorder;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static jp.sagalab.recorder.SessionFormat.*;
+
+/**
+ * {@link SessionRecorder} で記録したセッションを読み出す。
+ * <p>
+ * セグメントファイルを読み込み専用でメモリマップし、レコードを通し番号で参照する。
+ * 記録中のセッションを開いた場合は、開いた時点で書き込み済みのレコードのみを読み出せる。
+ * </p>
+ */
+public class SessionReader {
+
+    /**
+     * セッションを開く。
+     * @param directory 記録先のディレクトリ
+     * @return リーダ
+     * @throws IOException セグメントを読み込めなかった場合、形式が異なる場合
+     */
+    public static SessionReader open(Path directory) throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        // セグメント番号は0埋めのため、名前順がセグメント順
+        Collections.sort(paths);
+        final List<MappedByteBuffer> buffers = new ArrayList<>();
+        final List<Long> counts = new ArrayList<>();
+        for (Path path : paths) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_SIZE) {
+                    throw new IOException("invalid segment : " + path);
+                }
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                if (buffer.getInt(HEADER_MAGIC) != MAGIC) {
+                    throw new IOException("not a session segment : " + path);
+                }
+                if (buffer.getInt(HEADER_VERSION) != VERSION
+                        || buffer.getInt(HEADER_HEADER_SIZE) != HEADER_SIZE
+                        || buffer.getInt(HEADER_RECORD_SIZE) != RECORD_SIZE) {
+                    throw new IOException("unsupported segment format : " + path);
+                }
+                final long count = Math.min(buffer.getLong(HEADER_COUNT), (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+                if (count > 0) {
+                    buffers.add(buffer);
+                    counts.add(count);
+                }
+            }
+        }
+        return new SessionReader(buffers, counts);
+    }
+
+    /**
+     * レコード数を返す。
+     * @return レコード数
+     */
+    public long size() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * レコードを読み出す。
+     * @param index 通し番号
+     * @param out   レコードの格納先
+     * @return 格納先
+     * @throws IndexOutOfBoundsException 通し番号が範囲外の場合
+     */
+    public SessionRecord read(long index, SessionRecord out) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index : " + index + ", size : " + size());
+        }
+        // セグメントを二分探索する
+        int low = 0;
+        int high = buffers.length - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (offsets[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        final MappedByteBuffer buffer = buffers[low];
+        final int offset = HEADER_SIZE + (int) (index - offsets[low]) * RECORD_SIZE;
+        out.nanoTime = buffer.getLong(offset + NANO_TIME);
+        out.time = buffer.getDouble(offset + TIME);
+        out.x = buffer.getDouble(offset + POSITION);
+        out.y = buffer.getDouble(offset + POSITION + 8);
+        out.z = buffer.getDouble(offset + POSITION + 16);
+        out.forceX = buffer.getDouble(offset + COMMANDED_FORCE);
+        out.forceY = buffer.getDouble(offset + COMMANDED_FORCE + 8);
+        out.forceZ = buffer.getDouble(offset + COMMANDED_FORCE + 16);
+        out.measuredForceX = buffer.getDouble(offset + MEASURED_FORCE);
+        out.measuredForceY = buffer.getDouble(offset + MEASURED_FORCE + 8);
+        out.measuredForceZ = buffer.getDouble(offset + MEASURED_FORCE + 16);
+        out.stayFlags = buffer.getLong(offset + STAY_FLAGS);
+        out.stayFlagCount = buffer.getInt(offset + STAY_FLAG_COUNT);
+        out.status = buffer.getInt(offset + STATUS);
+        return out;
+    }
+
+    private SessionReader(List<MappedByteBuffer> buffers, List<Long> counts) {
+        this.buffers = buffers.toArray(new MappedByteBuffer[0]);
+        this.offsets = new long[counts.size() + 1];
+        for (int i = 0; i < counts.size(); ++i) {
+            offsets[i + 1] = offsets[i] + counts.get(i);
+        }
+    }
+
+    /** セグメント */
+    private final MappedByteBuffer[] buffers;
+    /** セグメントの先頭レコードの通し番号 (末尾はレコード数) */
+    private final long[] offsets;
+}
@@ -0,0 +1,124 @@
+package jp.sagalab.recorder;
+
+/**
+ * セッション記録の1レコード。
+ * {@link SessionReader#read(long, SessionRecord)} で読み出す時に使い回す。
+ */
+public class SessionRecord {
+
+    /** 状態: 力の計算が有効 */
+    public static final int STATUS_FORCE_ENABLED = 1;
+    /** 状態: ボタン1が押されている */
+    public static final int STATUS_BUTTON1 = 1 << 1;
+    /** 状態: ボタン2が押されている */
+    public static final int STATUS_BUTTON2 = 1 << 2;
+
+    /** 記録時刻 (System.nanoTime) */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /** 時刻 (s) */
+    public double getTime() {
+        return time;
+    }
+
+    /** 位置 x */
+    public double getX() {
+        return x;
+    }
+
+    /** 位置 y */
+    public double getY() {
+        return y;
+    }
+
+    /** 位置 z */
+    public double getZ() {
+        return z;
+    }
+
+    /** 指令した力 x */
+    public double getForceX() {
+        return forceX;
+    }
+
+    /** 指令した力 y */
+    public double getForceY() {
+        return forceY;
+    }
+
+    /** 指令した力 z */
+    public double getForceZ() {
+        return forceZ;
+    }
+
+    /** 計測された力 x */
+    public double getMeasuredForceX() {
+        return measuredForceX;
+    }
+
+    /** 計測された力 y */
+    public double getMeasuredForceY() {
+        return measuredForceY;
+    }
+
+    /** 計測された力 z */
+    public double getMeasuredForceZ() {
+        return measuredForceZ;
+    }
+
+    /** 静止摩擦状態 (i番目のビットがi番目の表面 / 軸) */
+    public long getStayFlags() {
+        return stayFlags;
+    }
+
+    /** 静止摩擦状態の数 */
+    public int getStayFlagCount() {
+        return stayFlagCount;
+    }
+
+    /**
+     * i番目の表面 / 軸が静止摩擦状態かを返す。
+     * @param index 番号
+     * @return 静止摩擦状態の場合はtrue
+     */
+    public boolean isStay(int index) {
+        return index < 64 && (stayFlags & (1L << index)) != 0;
+    }
+
+    /** 状態 */
+    public int getStatus() {
+        return status;
+    }
+
+    /** 力の計算が有効か */
+    public boolean isForceEnabled() {
+        return (status & STATUS_FORCE_ENABLED) != 0;
+    }
+
+    /** ボタン1が押されているか */
+    public boolean isButton1Pressed() {
+        return (status & STATUS_BUTTON1) != 0;
+    }
+
+    /** ボタン2が押されているか */
+    public boolean isButton2Pressed() {
+        return (status & STATUS_BUTTON2) != 0;
+    }
+
+    long nanoTime;
+    double time;
+    double x;
+    double y;
+    double z;
+    double forceX;
+    double forceY;
+    double forceZ;
+    double measuredForceX;
+    double measuredForceY;
+    double measuredForceZ;
+    long stayFlags;
+    int stayFlagCount;
+    int status;
+}
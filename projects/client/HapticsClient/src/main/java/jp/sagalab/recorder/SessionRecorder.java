@@ -0,0 +1,282 @@
+package jp.sagalab.recorder;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static jp.sagalab.recorder.SessionFormat.*;
+
+/**
+ * 力覚ループの全サンプルを記録するレコーダ。
+ * <p>
+ * 固定長のレコードをメモリマップしたセグメントファイルに追記する ({@link SessionFormat})。
+ * {@link #record} はマップ済みの領域に書き込むだけで、入出力を待たずオブジェクトも生成しない。
+ * セグメントの作成・マップ・ページの確保と、書き終えたセグメントの書き出しは準備スレッドが行う。
+ * セグメントが満杯になった時に次のセグメントの準備が間に合っていなければ、そのレコードは捨てて数える。
+ * </p>
+ * <p>
+ * {@link #record} を呼び出すスレッドは一つだけでなければならない。
+ * </p>
+ */
+public class SessionRecorder implements AutoCloseable {
+
+    /** 既定のセグメントあたりのレコード数 (1 kHzで約8.7分, 約54 MB) */
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 19;
+    /** ページの確保に用いる間隔 (バイト) */
+    private static final int PAGE_SIZE = 4096;
+
+    /**
+     * 既定のセグメント長でレコーダを生成する。
+     * @param directory 記録先のディレクトリ (なければ作成する)
+     * @return レコーダ
+     * @throws IOException 最初のセグメントを作成できなかった場合
+     */
+    public static SessionRecorder create(Path directory) throws IOException {
+        return create(directory, DEFAULT_SEGMENT_RECORDS);
+    }
+
+    /**
+     * レコーダを生成する。
+     * @param directory      記録先のディレクトリ (なければ作成する)
+     * @param segmentRecords セグメントあたりのレコード数
+     * @return レコーダ
+     * @throws IOException 最初のセグメントを作成できなかった場合
+     */
+    public static SessionRecorder create(Path directory, int segmentRecords) throws IOException {
+        if (segmentRecords <= 0 || (long) segmentRecords * RECORD_SIZE + HEADER_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid segment records : " + segmentRecords);
+        }
+        Files.createDirectories(directory);
+        return new SessionRecorder(directory, segmentRecords);
+    }
+
+    /**
+     * サンプルを1件記録する。記録スレッドからのみ呼び出す。
+     * @param time          時刻 (s)
+     * @param x             位置 x
+     * @param y             位置 y
+     * @param z             位置 z
+     * @param fx            指令した力 x
+     * @param fy            指令した力 y
+     * @param fz            指令した力 z
+     * @param mx            計測された力 x
+     * @param my            計測された力 y
+     * @param mz            計測された力 z
+     * @param stayFlags     静止摩擦状態 (i番目のビットがi番目の表面 / 軸)
+     * @param stayFlagCount 静止摩擦状態の数
+     * @param status        状態 ({@link SessionRecord#STATUS_FORCE_ENABLED} などの論理和)
+     * @return 記録できた場合はtrue
+     */
+    public boolean record(double time, double x, double y, double z,
+                          double fx, double fy, double fz,
+                          double mx, double my, double mz,
+                          long stayFlags, int stayFlagCount, int status) {
+        if (closed) {
+            return false;
+        }
+        Segment segment = current;
+        if (segment.count == segmentRecords) {
+            segment = nextSegment();
+            if (segment == null) {
+                dropped++;
+                return false;
+            }
+        }
+        final MappedByteBuffer buffer = segment.buffer;
+        final int offset = HEADER_SIZE + segment.count * RECORD_SIZE;
+        buffer.putLong(offset + NANO_TIME, System.nanoTime());
+        buffer.putDouble(offset + TIME, time);
+        buffer.putDouble(offset + POSITION, x);
+        buffer.putDouble(offset + POSITION + 8, y);
+        buffer.putDouble(offset + POSITION + 16, z);
+        buffer.putDouble(offset + COMMANDED_FORCE, fx);
+        buffer.putDouble(offset + COMMANDED_FORCE + 8, fy);
+        buffer.putDouble(offset + COMMANDED_FORCE + 16, fz);
+        buffer.putDouble(offset + MEASURED_FORCE, mx);
+        buffer.putDouble(offset + MEASURED_FORCE + 8, my);
+        buffer.putDouble(offset + MEASURED_FORCE + 16, mz);
+        buffer.putLong(offset + STAY_FLAGS, stayFlags);
+        buffer.putInt(offset + STAY_FLAG_COUNT, stayFlagCount);
+        buffer.putInt(offset + STATUS, status);
+        segment.count++;
+        // レコードを書き終えてから件数を更新する
+        buffer.putLong(HEADER_COUNT, segment.count);
+        recorded++;
+        return true;
+    }
+
+    /**
+     * 記録したレコード数を返す。
+     * @return レコード数
+     */
+    public long getRecordCount() {
+        return recorded;
+    }
+
+    /**
+     * 次のセグメントの準備が間に合わず捨てたレコード数を返す。
+     * @return レコード数
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * 記録先のディレクトリを返す。
+     * @return ディレクトリ
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 記録を終了し、全てのセグメントを書き出して閉じる。
+     * 記録スレッドの {@link #record} と並行して呼び出した場合、最後の数件が書き出されないことがある。
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(preparer);
+        try {
+            preparer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        current.close();
+        Segment next = this.next.getAndSet(null);
+        if (next != null) {
+            // 未使用のセグメントは削除する
+            next.close();
+            try {
+                Files.deleteIfExists(next.path);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        Segment segment;
+        while ((segment = retired.poll()) != null) {
+            segment.close();
+        }
+    }
+
+    /**
+     * 準備済みのセグメントに切り替える。
+     * @return 新しいセグメント (準備が間に合っていない場合はnull)
+     */
+    private Segment nextSegment() {
+        final Segment segment = next.getAndSet(null);
+        if (segment == null) {
+            LockSupport.unpark(preparer);
+            return null;
+        }
+        retired.offer(current);
+        current = segment;
+        LockSupport.unpark(preparer);
+        return segment;
+    }
+
+    /**
+     * 準備スレッドの処理。次のセグメントを用意し、書き終えたセグメントを閉じる。
+     */
+    private void prepare() {
+        long index = 1;
+        while (!closed) {
+            Segment segment;
+            while ((segment = retired.poll()) != null) {
+                segment.close();
+            }
+            if (next.get() == null) {
+                try {
+                    next.set(Segment.create(directory, index++, segmentRecords));
+                } catch (IOException e) {
+                    // 次の切り替え要求で再試行する
+                    e.printStackTrace();
+                    LockSupport.parkNanos(100_000_000L);
+                    continue;
+                }
+            }
+            LockSupport.park(this);
+        }
+    }
+
+    private SessionRecorder(Path directory, int segmentRecords) throws IOException {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.current = Segment.create(directory, 0, segmentRecords);
+        this.preparer = new Thread(this::prepare, "session-recorder");
+        this.preparer.setDaemon(true);
+        this.preparer.start();
+    }
+
+    /**
+     * メモリマップしたセグメント。
+     */
+    private static final class Segment {
+
+        static Segment create(Path directory, long index, int capacity) throws IOException {
+            final Path path = segmentPath(directory, index);
+            final long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(HEADER_MAGIC, MAGIC);
+                buffer.putInt(HEADER_VERSION, VERSION);
+                buffer.putInt(HEADER_HEADER_SIZE, HEADER_SIZE);
+                buffer.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+                buffer.putLong(HEADER_SEGMENT, index);
+                buffer.putLong(HEADER_CAPACITY, capacity);
+                buffer.putLong(HEADER_COUNT, 0);
+                // 記録中にページフォールトが起きないよう、ページを確保しておく
+                for (int i = HEADER_SIZE; i < size; i += PAGE_SIZE) {
+                    buffer.put(i, (byte) 0);
+                }
+                return new Segment(path, buffer);
+            }
+        }
+
+        /** 書き出す。マップはGCで解放される */
+        void close() {
+            buffer.force();
+        }
+
+        private Segment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        final Path path;
+        final MappedByteBuffer buffer;
+        /** 書き込み済みのレコード数 (記録スレッドのみが書き込む) */
+        int count = 0;
+    }
+
+    /** 記録先のディレクトリ */
+    private final Path directory;
+    /** セグメントあたりのレコード数 */
+    private final int segmentRecords;
+    /** 書き込み中のセグメント (記録スレッドのみが使う) */
+    private Segment current;
+    /** 準備済みのセグメント */
+    private final AtomicReference<Segment> next = new AtomicReference<>();
+    /** 書き終えたセグメント */
+    private final ConcurrentLinkedQueue<Segment> retired = new ConcurrentLinkedQueue<>();
+    /** 準備スレッド */
+    private final Thread preparer;
+    /** 終了したか */
+    private volatile boolean closed = false;
+
+    // 統計値 (記録スレッドのみが書き込む)
+    private volatile long recorded = 0;
+    private volatile long dropped = 0;
+}
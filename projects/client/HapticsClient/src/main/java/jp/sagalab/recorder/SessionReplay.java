@@ -0,0 +1,253 @@
+package jp.sagalab.recorder;
+
+import jp.sagalab.jftk.TruthValue;
+import jp.sagalab.jftk.force.calculator.AxisFrictionCalculator;
+import jp.sagalab.jftk.force.calculator.ForceCalculator;
+import jp.sagalab.jftk.force.calculator.SurfaceFrictionCalculator;
+import jp.sagalab.jftk.force.replay.PositionTrace;
+import jp.sagalab.jftk.force.replay.ReplayEngine;
+import jp.sagalab.jftk.force.replay.ReplayJob;
+import jp.sagalab.jftk.force.replay.ReplayResult;
+import jp.sagalab.jftk.force.surface.FrictionSurface;
+import jp.sagalab.jftk.fuzzybeziercurve.FuzzyBezierCurveCreator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 記録した位置を力計算機で再生し、パラメータごとの力と静止摩擦状態を比較する。
+ * <p>
+ * 入力はセッション記録のディレクトリ ({@link SessionRecorder}) か、
+ * AppModel#savePoints の "_OnForcePoints" / "_OffForcePoints" のファイル。
+ * セッション記録は力の計算が有効だったサンプルを、記録時と同じ順に入力する。
+ * 表面はセッション記録では {@link SurfaceFile#SESSION_FILE_NAME}、点列のファイルでは同じ接頭辞の "_Surfaces" から読み込み、
+ * 見つからない場合は軸別静止摩擦力計算機を用いる。
+ * </p>
+ * <p>
+ * 入力とパラメータの全ての組を並列に再生し、1組につき1行の要約を出力する。
+ * 再生は決定的なため、チェックサムは同じ入力・パラメータ・ライブラリで常に一致する。
+ * </p>
+ * <pre>
+ * java jp.sagalab.recorder.SessionReplay [-p バネ定数,最大静止摩擦力]... [-t スレッド数] [-o 出力先の接頭辞] 入力...
+ * </pre>
+ */
+public class SessionReplay {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final List<double[]> parameters = new ArrayList<>();
+        final List<Path> inputs = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        String output = null;
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-p") && i + 1 < args.length) {
+                final String[] values = args[++i].split(",");
+                if (values.length != 2) {
+                    usage();
+                }
+                parameters.add(new double[]{Double.parseDouble(values[0]), Double.parseDouble(values[1])});
+            } else if (args[i].equals("-t") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-o") && i + 1 < args.length) {
+                output = args[++i];
+            } else if (args[i].startsWith("-")) {
+                usage();
+            } else {
+                inputs.add(Paths.get(args[i]));
+            }
+        }
+        if (inputs.isEmpty()) {
+            usage();
+        }
+        if (parameters.isEmpty()) {
+            // 計算機の既定値
+            parameters.add(null);
+        }
+
+        final List<Input> loaded = new ArrayList<>();
+        for (Path path : inputs) {
+            loaded.add(Input.load(path));
+        }
+        final List<ReplayJob> jobs = new ArrayList<>();
+        final List<Input> jobInputs = new ArrayList<>();
+        for (Input input : loaded) {
+            for (double[] parameter : parameters) {
+                final String name = input.name + (parameter == null ? "" : "@" + parameter[0] + "," + parameter[1]);
+                jobs.add(ReplayJob.create(name, input.trace, calculator(input.surfaces, parameter)));
+                jobInputs.add(input);
+            }
+        }
+
+        final long start = System.nanoTime();
+        final List<ReplayResult> results;
+        try (ReplayEngine engine = ReplayEngine.create(threads)) {
+            results = engine.replayAll(jobs);
+        }
+        final double elapsed = (System.nanoTime() - start) * 1e-9;
+
+        for (int i = 0; i < results.size(); ++i) {
+            final ReplayResult result = results.get(i);
+            System.out.println(summary(result, jobInputs.get(i)));
+            if (output != null) {
+                final Path path = Paths.get(output + result.getName().replaceAll("[\\\\/:*?\"<>|]", "_") + "_Forces");
+                try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                    result.write(writer);
+                }
+            }
+        }
+        System.out.println(results.size() + " runs in " + String.format("%.2f", elapsed) + " s (" + threads + " threads)");
+    }
+
+    /**
+     * パラメータを指定した計算機の生成器を返す。
+     * @param surfaces  表面 (nullの場合は軸別静止摩擦力計算機)
+     * @param parameter [バネ定数, 最大静止摩擦力] (nullの場合は既定値)
+     * @return 生成器
+     */
+    public static Supplier<ForceCalculator> calculator(FrictionSurface[] surfaces, double[] parameter) {
+        if (surfaces == null) {
+            if (parameter == null) {
+                return AxisFrictionCalculator::create;
+            }
+            return () -> AxisFrictionCalculator.create(
+                    1e-3, 0.1, parameter[0], parameter[1], 0.95,
+                    TruthValue.create(0.5, 0.5), 0.025, FuzzyBezierCurveCreator.create());
+        }
+        return () -> {
+            final SurfaceFrictionCalculator calculator = parameter == null
+                    ? SurfaceFrictionCalculator.create()
+                    : SurfaceFrictionCalculator.create(
+                    1e-3, 0.1, parameter[0], parameter[1], 0.95,
+                    TruthValue.create(0.5, 0.5), 0.025, FuzzyBezierCurveCreator.create());
+            calculator.addAll(surfaces);
+            return calculator;
+        };
+    }
+
+    /**
+     * セッション記録から、力の計算が有効だったサンプルの位置を取り出す。
+     * @param reader リーダ
+     * @return 時系列
+     */
+    public static PositionTrace trace(SessionReader reader) {
+        return trace(reader, null);
+    }
+
+    /**
+     * セッション記録から、力の計算が有効だったサンプルの位置と指令した力を取り出す。
+     * @param reader リーダ
+     * @param forces 指令した力の格納先 [x, y, z] (nullの場合は格納しない)
+     * @return 時系列
+     */
+    private static PositionTrace trace(SessionReader reader, double[][] forces) {
+        final int capacity = (int) Math.min(reader.size(), Integer.MAX_VALUE - 8);
+        final double[] xs = new double[capacity];
+        final double[] ys = new double[capacity];
+        final double[] zs = new double[capacity];
+        final double[] times = new double[capacity];
+        final double[] fxs = new double[capacity];
+        final double[] fys = new double[capacity];
+        final double[] fzs = new double[capacity];
+        final SessionRecord record = new SessionRecord();
+        int num = 0;
+        for (long i = 0; i < capacity; ++i) {
+            reader.read(i, record);
+            if (!record.isForceEnabled()) {
+                continue;
+            }
+            xs[num] = record.getX();
+            ys[num] = record.getY();
+            zs[num] = record.getZ();
+            times[num] = record.getTime();
+            fxs[num] = record.getForceX();
+            fys[num] = record.getForceY();
+            fzs[num] = record.getForceZ();
+            ++num;
+        }
+        if (forces != null) {
+            forces[0] = Arrays.copyOf(fxs, num);
+            forces[1] = Arrays.copyOf(fys, num);
+            forces[2] = Arrays.copyOf(fzs, num);
+        }
+        return PositionTrace.create(xs, ys, zs, times, num);
+    }
+
+    /**
+     * 結果を1行にまとめる。
+     */
+    private static String summary(ReplayResult result, Input input) {
+        final StringBuilder builder = new StringBuilder(result.toString());
+        for (int k = 0; k < result.getStayFlagCount(); ++k) {
+            builder.append(String.format(" stay[%d]=%.1f%%/%d", k,
+                    result.stayRatio(k) * 100, result.stayIntervals(k).length / 2));
+        }
+        if (input.forces != null) {
+            // 記録時に指令した力との差
+            double sum = 0;
+            for (int i = 0; i < result.size(); ++i) {
+                final double dx = result.forceX(i) - input.forces[0][i];
+                final double dy = result.forceY(i) - input.forces[1][i];
+                final double dz = result.forceZ(i) - input.forces[2][i];
+                sum += dx * dx + dy * dy + dz * dz;
+            }
+            builder.append(String.format(" rmsDiff=%.4g", result.size() == 0 ? 0.0 : Math.sqrt(sum / result.size())));
+        }
+        return builder.toString();
+    }
+
+    private static void usage() {
+        System.err.println("usage: SessionReplay [-p stiffness,maxFrictionForce]... [-t threads] [-o output prefix] input...");
+        System.exit(1);
+    }
+
+    /**
+     * 再生の入力。
+     */
+    private static final class Input {
+
+        static Input load(Path path) throws IOException {
+            if (Files.isDirectory(path)) {
+                final double[][] forces = new double[3][];
+                final PositionTrace trace = trace(SessionReader.open(path), forces);
+                final Path surfaces = path.resolve(SurfaceFile.SESSION_FILE_NAME);
+                return new Input(path.getFileName().toString(), trace,
+                        Files.exists(surfaces) ? SurfaceFile.read(surfaces) : null, forces);
+            }
+            final String name = path.getFileName().toString();
+            Path surfaces = null;
+            for (String suffix : new String[]{SessionTextConverter.ON_FORCE_SUFFIX, SessionTextConverter.OFF_FORCE_SUFFIX}) {
+                if (name.endsWith(suffix)) {
+                    surfaces = path.resolveSibling(name.substring(0, name.length() - suffix.length()) + "_Surfaces");
+                }
+            }
+            return new Input(name, PositionTrace.load(path),
+                    surfaces != null && Files.exists(surfaces) ? SurfaceFile.read(surfaces) : null, null);
+        }
+
+        private Input(String name, PositionTrace trace, FrictionSurface[] surfaces, double[][] forces) {
+            this.name = name;
+            this.trace = trace;
+            this.surfaces = surfaces;
+            this.forces = forces;
+        }
+
+        /** 名前 */
+        final String name;
+        /** 位置の時系列 */
+        final PositionTrace trace;
+        /** 表面 (軸別静止摩擦力計算機の場合はnull) */
+        final FrictionSurface[] surfaces;
+        /** 記録時に指令した力 (記録がない場合はnull) */
+        final double[][] forces;
+    }
+
+    private SessionReplay() {
+    }
+}
@@ -0,0 +1,93 @@
+package jp.sagalab.recorder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * セッション記録を AppModel#savePoints と同じテキスト形式 (1行に "x y z time") に変換する。
+ * <p>
+ * ボタン1を押している間のサンプルを、力の計算が有効なものは "_OnForcePoints"、
+ * 無効なものは "_OffForcePoints" の付いたファイルに書き出す。
+ * savePoints と違い、全てのストロークを書き出す。間隔を指定すると、時刻がその間隔以上離れるように間引く。
+ * </p>
+ * <pre>
+ * java jp.sagalab.recorder.SessionTextConverter &lt;記録先のディレクトリ&gt; &lt;出力ファイル名の接頭辞&gt; [間隔 (s)]
+ * </pre>
+ */
+public class SessionTextConverter {
+
+    /** 力覚フィードバックありの点列のファイル名の接尾辞 */
+    public static final String ON_FORCE_SUFFIX = "_OnForcePoints";
+    /** 力覚フィードバックなしの点列のファイル名の接尾辞 */
+    public static final String OFF_FORCE_SUFFIX = "_OffForcePoints";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: SessionTextConverter <session directory> <output prefix> [interval (s)]");
+            System.exit(1);
+        }
+        final double interval = args.length > 2 ? Double.parseDouble(args[2]) : 0.0;
+        final long[] counts = convert(SessionReader.open(Paths.get(args[0])), args[1], interval);
+        System.out.println("on: " + counts[0] + " points, off: " + counts[1] + " points");
+    }
+
+    /**
+     * セッション記録をテキスト形式に変換する。点がないファイルは作成しない。
+     * @param reader   リーダ
+     * @param prefix   出力ファイル名の接頭辞
+     * @param interval 間引きの間隔 (s)。0の場合は全てのサンプルを書き出す
+     * @return 書き出した点数 [力覚フィードバックあり, なし]
+     * @throws IOException 書き出せなかった場合
+     */
+    public static long[] convert(SessionReader reader, String prefix, double interval) throws IOException {
+        final Path onPath = Paths.get(prefix + ON_FORCE_SUFFIX);
+        final Path offPath = Paths.get(prefix + OFF_FORCE_SUFFIX);
+        final long[] counts = new long[2];
+        Writer on = null;
+        Writer off = null;
+        try {
+            final SessionRecord record = new SessionRecord();
+            final double[] preTimes = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (long i = 0; i < reader.size(); ++i) {
+                reader.read(i, record);
+                if (!record.isButton1Pressed()) {
+                    continue;
+                }
+                final int k = record.isForceEnabled() ? 0 : 1;
+                if (record.getTime() - preTimes[k] < interval) {
+                    continue;
+                }
+                preTimes[k] = record.getTime();
+                final Writer writer;
+                if (k == 0) {
+                    if (on == null) {
+                        on = Files.newBufferedWriter(onPath, StandardCharsets.UTF_8);
+                    }
+                    writer = on;
+                } else {
+                    if (off == null) {
+                        off = Files.newBufferedWriter(offPath, StandardCharsets.UTF_8);
+                    }
+                    writer = off;
+                }
+                writer.write(record.getX() + " " + record.getY() + " " + record.getZ() + " " + record.getTime() + "\n");
+                counts[k]++;
+            }
+        } finally {
+            if (on != null) {
+                on.close();
+            }
+            if (off != null) {
+                off.close();
+            }
+        }
+        return counts;
+    }
+
+    private SessionTextConverter() {
+    }
+}
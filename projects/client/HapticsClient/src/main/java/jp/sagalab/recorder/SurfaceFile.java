@@ -0,0 +1,101 @@
+package jp.sagalab.recorder;
+
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.Vector;
+import jp.sagalab.jftk.force.surface.FrictionSurface;
+import jp.sagalab.jftk.force.surface.Plane;
+import jp.sagalab.jftk.force.surface.Sphere;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 表面の集合を AppModel#savePoints の "_Surfaces" と同じテキスト形式で読み書きする。
+ * <pre>
+ * 0 (基点x) (基点y) (基点z) (法線x) (法線y) (法線z)   … 平面
+ * 1 (中心x) (中心y) (中心z) (半径)                    … 球
+ * </pre>
+ * 平面・球以外の表面は書き出さない。
+ */
+public class SurfaceFile {
+
+    /** セッション記録のディレクトリに置く表面のファイル名 */
+    public static final String SESSION_FILE_NAME = "surfaces";
+
+    /**
+     * 表面をファイルに書き出す。
+     * @param path     ファイル
+     * @param surfaces 表面
+     * @throws IOException 書き出せなかった場合
+     */
+    public static void write(Path path, FrictionSurface[] surfaces) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            write(writer, surfaces);
+        }
+    }
+
+    /**
+     * 表面を書き出す。
+     * @param writer   書き出し先 (閉じない)
+     * @param surfaces 表面
+     * @throws IOException 書き出せなかった場合
+     */
+    public static void write(Writer writer, FrictionSurface[] surfaces) throws IOException {
+        for (FrictionSurface sf : surfaces) {
+            if (sf instanceof Plane) { // 0 → Plane
+                Point p = ((Plane) sf).base();
+                Vector v = ((Plane) sf).normal(p);
+                writer.write("0 " + p.x() + " " + p.y() + " " + p.z() + " " + v.x() + " " + v.y() + " " + v.z() + "\n");
+            } else if (sf instanceof Sphere) { // 1 → Sphere
+                Point p = ((Sphere) sf).base();
+                double r = ((Sphere) sf).radius();
+                writer.write("1 " + p.x() + " " + p.y() + " " + p.z() + " " + r + "\n");
+            }
+        }
+    }
+
+    /**
+     * ファイルから表面を読み込む。空行は読み飛ばす。
+     * @param path ファイル
+     * @return 表面 (書き出した順)
+     * @throws IOException 読み込めなかった場合、形式が異なる場合
+     */
+    public static FrictionSurface[] read(Path path) throws IOException {
+        final List<FrictionSurface> surfaces = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final String[] tokens = line.split("\\s+");
+                try {
+                    if (tokens[0].equals("0") && tokens.length == 7) {
+                        surfaces.add(Plane.create(
+                                Point.createXYZ(Double.parseDouble(tokens[1]), Double.parseDouble(tokens[2]), Double.parseDouble(tokens[3])),
+                                Vector.createXYZ(Double.parseDouble(tokens[4]), Double.parseDouble(tokens[5]), Double.parseDouble(tokens[6]))));
+                    } else if (tokens[0].equals("1") && tokens.length == 5) {
+                        surfaces.add(Sphere.create(
+                                Point.createXYZ(Double.parseDouble(tokens[1]), Double.parseDouble(tokens[2]), Double.parseDouble(tokens[3])),
+                                Double.parseDouble(tokens[4])));
+                    } else {
+                        throw new IOException("invalid surface : " + line);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid surface : " + line, e);
+                }
+            }
+        }
+        return surfaces.toArray(new FrictionSurface[0]);
+    }
+
+    private SurfaceFile() {
+    }
+}
@@ -0,0 +1,493 @@
+package jp.sagalab.simulator;
+
+import jp.sagalab.jftk.force.impedance.ImpedanceModel;
+import jp.sagalab.jftk.force.replay.PositionTrace;
+import jp.sagalab.recorder.SessionReader;
+import jp.sagalab.recorder.SessionReplay;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hapticsサーバ・Libertyサーバの代わりに、同じプロトコルでイベントを送るデバイスサーバ。
+ * <p>
+ * 接続したクライアントからデバイス番号 (1バイト) を受け取った後、軌跡の各点について
+ * ムーブイベント (種別2) とスウェイイベント (種別3) を指定した頻度で送り続ける。
+ * 軌跡の始めでボタン0のプレスイベント (種別0)、終わりでリリースイベント (種別1) を送り、軌跡は繰り返す。
+ * クライアントから力設定イベント (種別5) を受け取ると、同じ内容をそのまま送り返す。
+ * インピーダンス設定イベント (種別6) を受け取ると、デバイスの代わりにモデルを {@link ImpedanceModel#read} で復号し、
+ * 次の力設定イベントかインピーダンス設定イベントを受け取るまで、送る点ごとに {@link ImpedanceModel#render} で力を描画する。
+ * このとき、その時点の点で描画した力と受け取ったタイムスタンプを力設定イベントとして送り返す。
+ * 各イベントは種別の1バイトの後に、ボタンIDの1バイトか x, y, z の double が続き、最後にタイムスタンプ
+ * ({@link System#nanoTime()}) の long が続く (ビッグエンディアン)。
+ * </p>
+ * <p>
+ * 接続ごとに送信スレッドと受信スレッドを用いる。送信は周期の締め切りまで待ち、遅れた場合は遅れた分をまとめて送る。
+ * </p>
+ * <pre>
+ * java jp.sagalab.simulator.DeviceServerSimulator [-p ポート番号]... [-r 頻度 (Hz)] [軌跡のファイル | セッション記録のディレクトリ]
+ * </pre>
+ */
+public class DeviceServerSimulator implements AutoCloseable {
+
+    /** Hapticsサーバのポート番号 */
+    public static final int HAPTICS_PORT = 9993;
+    /** Libertyサーバのポート番号 */
+    public static final int LIBERTY_PORT = 11113;
+    /** 送信頻度の上限 (Hz) */
+    public static final double MAX_RATE = 10_000;
+
+    /** ボタンイベントのデータ長 (種別 + ボタンID + タイムスタンプ) */
+    static final int BUTTON_FRAME_SIZE = 1 + 1 + 8;
+    /** ベクトルイベントのデータ長 (種別 + x, y, z + タイムスタンプ) */
+    static final int VECTOR_FRAME_SIZE = 1 + 8 * 3 + 8;
+    /** インピーダンスイベントのデータ長の最小値 (種別 + 要素数 + 離脱閾値 + タイムスタンプ) */
+    static final int IMPEDANCE_FRAME_HEADER_SIZE = 1 + ImpedanceModel.encodedSize(0) + 8;
+    /** 1回の書き込みでまとめて送る最大の点数 */
+    private static final int MAX_BATCH = 32;
+    /** 送受信バッファサイズ */
+    private static final int BUFFER_SIZE = 4096;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final List<Integer> ports = new ArrayList<>();
+        double rate = 1000;
+        String input = null;
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-p") && i + 1 < args.length) {
+                ports.add(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-r") && i + 1 < args.length) {
+                rate = Double.parseDouble(args[++i]);
+            } else if (args[i].startsWith("-")) {
+                System.err.println("usage: DeviceServerSimulator [-p port]... [-r rate (Hz)] [trajectory file | session directory]");
+                System.exit(1);
+            } else {
+                input = args[i];
+            }
+        }
+        if (ports.isEmpty()) {
+            ports.add(HAPTICS_PORT);
+            ports.add(LIBERTY_PORT);
+        }
+        final PositionTrace trajectory = input == null ? synthetic(rate) : load(Paths.get(input));
+        final DeviceServerSimulator simulator = create(trajectory, rate);
+        for (int port : ports) {
+            System.out.println("listening on " + simulator.listen(port) + " (" + rate + " Hz, " + trajectory.size() + " points)");
+        }
+        // 1秒ごとに送信状況を出力する
+        long preSent = 0;
+        long preEchoed = 0;
+        long preImpedance = 0;
+        long preRendered = 0;
+        while (true) {
+            Thread.sleep(1000);
+            final long sent = simulator.getSentCount();
+            final long echoed = simulator.getEchoedCount();
+            final long impedance = simulator.getImpedanceCount();
+            final long rendered = simulator.getRenderedCount();
+            System.out.println("connections=" + simulator.getConnectionCount()
+                    + " sent=" + (sent - preSent) + "/s echoed=" + (echoed - preEchoed) + "/s"
+                    + " impedance=" + (impedance - preImpedance) + "/s rendered=" + (rendered - preRendered) + "/s");
+            preSent = sent;
+            preEchoed = echoed;
+            preImpedance = impedance;
+            preRendered = rendered;
+        }
+    }
+
+    /**
+     * シミュレータを生成する。{@link #listen(int)} で待ち受けを開始する。
+     * @param trajectory 送る軌跡 (時刻は用いず、指定した頻度で1点ずつ送る)
+     * @param rate       接続ごとの送信頻度 (Hz)
+     * @return シミュレータ
+     */
+    public static DeviceServerSimulator create(PositionTrace trajectory, double rate) {
+        if (trajectory == null || trajectory.size() == 0) {
+            throw new IllegalArgumentException("trajectory must not be empty");
+        }
+        if (!(rate > 0 && rate <= MAX_RATE)) {
+            throw new IllegalArgumentException("invalid rate : " + rate);
+        }
+        return new DeviceServerSimulator(trajectory, rate);
+    }
+
+    /**
+     * 合成した軌跡を返す。1周4秒のリサジュー曲線 (振幅 50, 30, 20)。
+     * @param rate 頻度 (Hz)
+     * @return 軌跡
+     */
+    public static PositionTrace synthetic(double rate) {
+        final int num = Math.max(1, (int) Math.round(4.0 * rate));
+        final double[] xs = new double[num];
+        final double[] ys = new double[num];
+        final double[] zs = new double[num];
+        final double[] times = new double[num];
+        for (int i = 0; i < num; ++i) {
+            final double t = i / rate;
+            final double phase = 2 * Math.PI * t / 4.0;
+            xs[i] = 50 * Math.sin(phase);
+            ys[i] = 30 * Math.sin(2 * phase);
+            zs[i] = 20 * Math.sin(3 * phase + 0.5);
+            times[i] = t;
+        }
+        return PositionTrace.create(xs, ys, zs, times);
+    }
+
+    /**
+     * 軌跡を読み込む。ディレクトリの場合はセッション記録の力の計算が有効だったサンプル、
+     * ファイルの場合は1行に "x y z time" の点列 (AppModel#savePoints の形式)。
+     * @param path 軌跡のファイルかセッション記録のディレクトリ
+     * @return 軌跡
+     * @throws IOException 読み込めなかった場合
+     */
+    public static PositionTrace load(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            return SessionReplay.trace(SessionReader.open(path));
+        }
+        return PositionTrace.load(path);
+    }
+
+    /**
+     * ポートで待ち受けを開始する。
+     * @param port ポート番号 (0の場合は空いているポート)
+     * @return 待ち受けているポート番号
+     * @throws IOException 待ち受けを開始できなかった場合
+     */
+    public int listen(int port) throws IOException {
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        servers.add(server);
+        final Thread thread = new Thread(() -> accept(server), "simulator-accept-" + port);
+        thread.setDaemon(true);
+        thread.start();
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * 接続中のクライアント数を返す。
+     * @return クライアント数
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * 全ての接続に送った点の数を返す。
+     * @return 点の数
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * 送り返した力設定イベントの数を返す。
+     * @return イベントの数
+     */
+    public long getEchoedCount() {
+        return echoed.get();
+    }
+
+    /**
+     * 受け取ったインピーダンス設定イベントの数を返す。
+     * @return イベントの数
+     */
+    public long getImpedanceCount() {
+        return impedance.get();
+    }
+
+    /**
+     * インピーダンスモデルで力を描画した点の数を返す。
+     * @return 点の数
+     */
+    public long getRenderedCount() {
+        return rendered.get();
+    }
+
+    /**
+     * 待ち受けと全ての接続を終了する。
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (ServerSocketChannel server : servers) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void accept(ServerSocketChannel server) {
+        while (!closed) {
+            final SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+                return;
+            }
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                final Connection connection = new Connection(channel);
+                connections.add(connection);
+                connection.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * クライアントとの接続。
+     */
+    private final class Connection {
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void start() {
+            final String name = channel.socket().getRemoteSocketAddress().toString();
+            final Thread receiver = new Thread(this::receive, "simulator-receive-" + name);
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        /**
+         * デバイス番号を受け取った後、送信スレッドを開始して力設定イベントを送り返し続ける。
+         */
+        private void receive() {
+            final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            try {
+                // Device Select Data
+                in.limit(1);
+                while (in.hasRemaining()) {
+                    if (channel.read(in) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                in.clear();
+                final Thread sender = new Thread(this::send, Thread.currentThread().getName().replace("receive", "send"));
+                sender.setDaemon(true);
+                sender.start();
+
+                while (channel.read(in) >= 0) {
+                    in.flip();
+                    echo.clear();
+                    while (in.hasRemaining()) {
+                        final int start = in.position();
+                        final int type = in.get(start) & 0xff;
+                        final int size;
+                        switch (type) {
+                            case 0:
+                            case 1:
+                                size = BUTTON_FRAME_SIZE;
+                                break;
+                            case 2:
+                            case 3:
+                            case 5:
+                                size = VECTOR_FRAME_SIZE;
+                                break;
+                            case 6:
+                                if (in.remaining() < 2) {
+                                    size = IMPEDANCE_FRAME_HEADER_SIZE;
+                                } else {
+                                    size = 1 + ImpedanceModel.encodedSize(in.get(start + 1) & 0xff) + 8;
+                                }
+                                break;
+                            default:
+                                throw new IOException("unknown type : " + type);
+                        }
+                        if (in.remaining() < size) {
+                            break;
+                        }
+                        if (type == 6) {
+                            in.position(start + 1);
+                            try {
+                                received.read(in);
+                            } catch (IllegalArgumentException e) {
+                                throw new IOException(e.getMessage());
+                            }
+                            final long time = in.getLong();
+                            if (echo.remaining() < VECTOR_FRAME_SIZE) {
+                                write(echo);
+                            }
+                            final int index = current;
+                            synchronized (model) {
+                                model.copyFrom(received);
+                                impedanceMode = true;
+                                model.render(trajectory.x(index), trajectory.y(index), trajectory.z(index), echoForce);
+                            }
+                            echo.put((byte) 5).putDouble(echoForce[0]).putDouble(echoForce[1]).putDouble(echoForce[2]).putLong(time);
+                            impedance.incrementAndGet();
+                        } else if (type == 5) {
+                            // 力設定イベントでモデルを破棄する
+                            synchronized (model) {
+                                impedanceMode = false;
+                            }
+                            if (echo.remaining() < size) {
+                                write(echo);
+                            }
+                            final int limit = in.limit();
+                            in.limit(start + size);
+                            echo.put(in);
+                            in.limit(limit);
+                            echoed.incrementAndGet();
+                        } else {
+                            in.position(start + size);
+                        }
+                    }
+                    in.compact();
+                    write(echo);
+                }
+            } catch (IOException e) {
+                if (!closed && channel.isOpen()) {
+                    System.err.println("connection closed : " + e);
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * 軌跡を指定した頻度で送り続ける。
+         */
+        private void send() {
+            final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            final long period = Math.round(1e9 / rate);
+            final int num = trajectory.size();
+            long next = System.nanoTime();
+            int index = 0;
+            try {
+                while (channel.isOpen()) {
+                    long now = System.nanoTime();
+                    if (now < next) {
+                        LockSupport.parkNanos(next - now);
+                        continue;
+                    }
+                    out.clear();
+                    int frames = 0;
+                    while (next <= now && frames < MAX_BATCH) {
+                        if (index == 0) {
+                            out.put((byte) 0).put((byte) 0).putLong(now);
+                        }
+                        out.put((byte) 2)
+                                .putDouble(trajectory.x(index))
+                                .putDouble(trajectory.y(index))
+                                .putDouble(trajectory.z(index))
+                                .putLong(now);
+                        out.put((byte) 3).putDouble(0).putDouble(0).putDouble(0).putLong(now);
+                        synchronized (model) {
+                            if (impedanceMode) {
+                                // デバイスのサーボループの代わりに、送る点ごとに力を描画する
+                                model.render(trajectory.x(index), trajectory.y(index), trajectory.z(index), renderedForce);
+                                rendered.incrementAndGet();
+                            }
+                        }
+                        current = index;
+                        if (index == num - 1) {
+                            out.put((byte) 1).put((byte) 0).putLong(now);
+                        }
+                        index = index == num - 1 ? 0 : index + 1;
+                        next += period;
+                        ++frames;
+                    }
+                    write(out);
+                    sent.addAndGet(frames);
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * バッファの内容を送る。送信スレッドと受信スレッドの書き込みが混ざらないよう排他する。
+         * @param buffer 送る内容 (書き込みモード)
+         */
+        private void write(ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            synchronized (this) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            buffer.clear();
+        }
+
+        void close() {
+            connections.remove(this);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private final SocketChannel channel;
+        /** 送り返す力設定イベント (受信スレッドのみが使う) */
+        private final ByteBuffer echo = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        /** 復号したインピーダンスモデル (受信スレッドのみが使う) */
+        private final ImpedanceModel received = ImpedanceModel.create();
+        /** 送り返す力 (受信スレッドのみが使う) */
+        private final double[] echoForce = new double[3];
+        /** 描画中のインピーダンスモデル (排他に用いる) */
+        private final ImpedanceModel model = ImpedanceModel.create();
+        /** インピーダンスモデルで描画しているか (modelで排他する) */
+        private boolean impedanceMode = false;
+        /** 描画した力 (送信スレッドのみが使う) */
+        private final double[] renderedForce = new double[3];
+        /** 最後に送った点の添字 */
+        private volatile int current = 0;
+    }
+
+    private DeviceServerSimulator(PositionTrace trajectory, double rate) {
+        this.trajectory = trajectory;
+        this.rate = rate;
+    }
+
+    /** 送る軌跡 */
+    private final PositionTrace trajectory;
+    /** 接続ごとの送信頻度 (Hz) */
+    private final double rate;
+    /** 待ち受け中のソケット */
+    private final List<ServerSocketChannel> servers = new CopyOnWriteArrayList<>();
+    /** 接続中のクライアント */
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    /** 送った点の数 */
+    private final AtomicLong sent = new AtomicLong();
+    /** 送り返した力設定イベントの数 */
+    private final AtomicLong echoed = new AtomicLong();
+    /** 受け取ったインピーダンス設定イベントの数 */
+    private final AtomicLong impedance = new AtomicLong();
+    /** インピーダンスモデルで力を描画した点の数 */
+    private final AtomicLong rendered = new AtomicLong();
+    /** 終了したか */
+    private volatile boolean closed = false;
+}
@@ -0,0 +1,177 @@
+package jp.sagalab.simulator;
+
+import jp.sagalab.haptics.DeviceRuntime;
+import jp.sagalab.haptics.EventListener;
+import jp.sagalab.haptics.HapticsClient;
+import jp.sagalab.model.LatencyHistogram;
+import jp.sagalab.model.LatencyStatistics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * デバイスサーバに複数の {@link HapticsClient} で接続し、受信のスループットと力設定イベントの往復時間を計測する。
+ * <p>
+ * 各接続は座標イベントを受け取るたびに力設定イベントを送り、
+ * {@link DeviceServerSimulator} が送り返したイベントのタイムスタンプ (送信時の {@link System#nanoTime()}) との差を往復時間とする。
+ * 往復時間には送信、シミュレータでの折り返し、受信スレッドでの復号が含まれる。
+ * </p>
+ * <pre>
+ * java jp.sagalab.simulator.LoadGenerator [-h ホスト名] [-p ポート番号] [-d デバイス番号] [-n 接続数] [-f 力を送る間隔 (点)] [-s 計測時間 (s)]
+ * java jp.sagalab.simulator.LoadGenerator -local 頻度 (Hz) [-n 接続数] ...   (同じプロセスでシミュレータを起動する)
+ * java jp.sagalab.simulator.LoadGenerator -shared 1 [-n 接続数] ...          (全ての接続を一つの {@link DeviceRuntime} で受信する)
+ * </pre>
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = DeviceServerSimulator.HAPTICS_PORT;
+        int device = 0;
+        int connections = 1;
+        int forceEvery = 1;
+        int seconds = 10;
+        double localRate = 0;
+        boolean shared = false;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-h":
+                    host = args[i + 1];
+                    break;
+                case "-p":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-d":
+                    device = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-n":
+                    connections = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-f":
+                    forceEvery = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-s":
+                    seconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-local":
+                    localRate = Double.parseDouble(args[i + 1]);
+                    break;
+                case "-shared":
+                    shared = Integer.parseInt(args[i + 1]) != 0;
+                    break;
+                default:
+                    System.err.println("usage: LoadGenerator [-h host] [-p port] [-d device] [-n connections] [-f force interval] [-s seconds] [-local rate] [-shared 0|1]");
+                    System.exit(1);
+            }
+        }
+
+        DeviceServerSimulator simulator = null;
+        if (localRate > 0) {
+            simulator = DeviceServerSimulator.create(DeviceServerSimulator.synthetic(localRate), localRate);
+            host = "localhost";
+            port = simulator.listen(0);
+        }
+        final DeviceRuntime runtime = shared ? DeviceRuntime.create() : null;
+        final LoadGenerator generator = new LoadGenerator(connections, forceEvery, runtime);
+        if (!generator.connect(host, port, device)) {
+            System.err.println("デバイスサーバへの接続に失敗しました。");
+            System.exit(1);
+        }
+        System.out.println("connected " + connections + " clients to " + host + ":" + port
+                + (shared ? " (shared runtime)" : ""));
+
+        final LatencyHistogram.Snapshot start = generator.roundTrip.snapshot();
+        LatencyHistogram.Snapshot pre = start;
+        final long[] preReceived = new long[connections];
+        for (int s = 0; s < seconds; ++s) {
+            Thread.sleep(1000);
+            long total = 0;
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < connections; ++i) {
+                final long received = generator.received.get(i);
+                total += received - preReceived[i];
+                min = Math.min(min, received - preReceived[i]);
+                preReceived[i] = received;
+            }
+            final LatencyHistogram.Snapshot current = generator.roundTrip.snapshot();
+            System.out.println("receive=" + total + "/s (min " + min + "/s per client) rtt(us){"
+                    + LatencyStatistics.of(current.minus(pre)) + "}");
+            pre = current;
+        }
+        System.out.println("total rtt(us){" + LatencyStatistics.of(generator.roundTrip.snapshot().minus(start)) + "}");
+        generator.disconnect();
+        if (runtime != null) {
+            runtime.close();
+        }
+        if (simulator != null) {
+            simulator.close();
+        }
+    }
+
+    /**
+     * 全てのクライアントを接続する。
+     * @param host   ホスト名
+     * @param port   ポート番号
+     * @param device デバイス番号
+     * @return 全て接続できた場合はtrue
+     */
+    public boolean connect(String host, int port, int device) {
+        for (int i = 0; i < clients.length; ++i) {
+            final HapticsClient client = new HapticsClient(runtime);
+            final int index = i;
+            client.addListener(new EventListener() {
+                @Override
+                public void position(double x, double y, double z, long time) {
+                    if (received.incrementAndGet(index) % forceEvery == 0) {
+                        client.sendForceEvent(0, 0, 0);
+                    }
+                }
+
+                @Override
+                public void force(double fx, double fy, double fz, long time) {
+                    roundTrip.record(System.nanoTime() - time);
+                }
+            });
+            if (!client.connect(host, port, device)) {
+                disconnect();
+                return false;
+            }
+            clients[i] = client;
+        }
+        return true;
+    }
+
+    /**
+     * 全てのクライアントを切断する。
+     */
+    public void disconnect() {
+        for (HapticsClient client : clients) {
+            if (client != null) {
+                client.disconnect();
+            }
+        }
+    }
+
+    private LoadGenerator(int connections, int forceEvery, DeviceRuntime runtime) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("invalid connections : " + connections);
+        }
+        if (forceEvery <= 0) {
+            throw new IllegalArgumentException("invalid force interval : " + forceEvery);
+        }
+        this.clients = new HapticsClient[connections];
+        this.forceEvery = forceEvery;
+        this.received = new AtomicLongArray(connections);
+        this.runtime = runtime;
+    }
+
+    /** クライアント */
+    private final HapticsClient[] clients;
+    /** 受信に用いるランタイム (nullの場合は接続ごとに受信スレッドを持つ) */
+    private final DeviceRuntime runtime;
+    /** 力設定イベントを送る間隔 (座標イベントの数) */
+    private final int forceEvery;
+    /** クライアントごとの受信した座標イベントの数 */
+    private final AtomicLongArray received;
+    /** 力設定イベントの往復時間 (ns) */
+    private final LatencyHistogram roundTrip = LatencyHistogram.create();
+}
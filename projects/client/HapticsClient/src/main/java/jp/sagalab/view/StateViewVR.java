@@ -12,9 +12,10 @@ import jp.sagalab.jftk.force.surface.FrictionSurface;
 import jp.sagalab.jftk.force.surface.Plane;
 import jp.sagalab.jftk.force.surface.Sphere;
 import jp.sagalab.model.AppModel;
+import jp.sagalab.model.ModelSnapshot;
+import jp.sagalab.model.Stroke;
 
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.nio.FloatBuffer;
 
 import static com.jogamp.opengl.GL.GL_BLEND;
 import static java.lang.Math.PI;
@@ -36,6 +37,12 @@ public class StateViewVR extends VRSpaceView {
             {0.0,0.0,0.0,1.0},
             {1.0,1.0,1.0,1.0}
     });
+    /** `WnɕϊXg[N̒_ */
+    private final StrokeGeometryCache strokeCache;
+    /** _݂̏ɗpXibvVbg̔ԍ */
+    private long strokeCacheVersion = -1;
+    /** GPŨobt@̍Ɨ̈ */
+    private final int[] bufferNames = new int[1];
 
     public StateViewVR(AppModel model, Config.Mode displayMode) {
         super(model, displayMode);
@@ -45,72 +52,95 @@ public class StateViewVR extends VRSpaceView {
                      + Math.sqrt(Math.pow( M.get(0,1), 2 ) + Math.pow( M.get(1,1), 2 ) + Math.pow( M.get(2,1), 2 ) )
                      + Math.sqrt(Math.pow( M.get(0,2), 2 ) + Math.pow( M.get(1,2), 2 ) + Math.pow( M.get(2,2), 2 ) )
                      )/3;
-
+        this.strokeCache = StrokeGeometryCache.create(M);
     }
 
     @Override
     public void drawVRSpaceObjects(GL gl1) {
 
+        // nveBNX̃XbhԂ́Ãt[̃XibvVbĝݓǂ
+        ModelSnapshot snapshot = model.getSnapshot();
+
         setLighting(gl1);
 
-        drawStylus(gl1);
+        drawStylus(gl1, snapshot);
 
         //drawAxis(gl1);
 
-        LinkedList<Point> hapticsPoints = model.getHapticsPoints();
-        for(int i=0; i<hapticsPoints.size()-1; i++){
-            Point from = transformPoint(hapticsPoints.get(i));
-            Point to = transformPoint(hapticsPoints.get(i+1));
-            if(model.isEnableForceCalculation()){
-                drawLine(gl1,
-                        from.x(), from.y(), from.z(),
-                        to.x(), to.y(), to.z(),
-                        5f,
-                        1f, 0f, 1f);
-            }else{
-                drawLine(gl1,
-                        from.x(), from.y(), from.z(),
-                        to.x(), to.y(), to.z(),
-                        5f,
-                        1f, 1f, 0f);
+        // V_ϊ (ڂœXibvVbg`ꍇ1񂾂)
+        if (snapshot.getVersion() != strokeCacheVersion) {
+            strokeCache.update(snapshot);
+            strokeCacheVersion = snapshot.getVersion();
+            for (StrokeGeometryCache.Geometry released : strokeCache.pollReleased()) {
+                if (released.getBufferName() != 0) {
+                    bufferNames[0] = released.getBufferName();
+                    gl1.glDeleteBuffers(1, bufferNames, 0);
+                }
             }
         }
-        LinkedList<LinkedList<Point>> onforcepoints = model.getOnForcePointsList();
-        for(LinkedList<Point> list : onforcepoints){
-            for(int i=0; i<list.size()-1; i++){
-                Point from = transformPoint(list.get(i));
-                Point to = transformPoint(list.get(i+1));
-                drawLine(gl1,
-                        from.x(), from.y(), from.z(),
-                        to.x(), to.y(), to.z(),
-                        5f,
-                        1f, 0f, 1f);
-            }
+
+        if(snapshot.isForceCalculation()){
+            drawStroke(gl1, snapshot.getCurrentStroke(), 1f, 0f, 1f);
+        }else{
+            drawStroke(gl1, snapshot.getCurrentStroke(), 1f, 1f, 0f);
         }
+        for(int i=0; i<snapshot.getOnForceStrokeCount(); i++){
+            drawStroke(gl1, snapshot.getOnForceStroke(i), 1f, 0f, 1f);
+        }
+        for(int i=0; i<snapshot.getOffForceStrokeCount(); i++){
+            drawStroke(gl1, snapshot.getOffForceStroke(i), 1f, 1f, 0f);
+        }
+    }
 
-        LinkedList<LinkedList<Point>> offforcepoints = model.getOffForcePointsList();
-        for(LinkedList<Point> list : offforcepoints){
-            for(int i=0; i<list.size()-1; i++){
-                Point from = transformPoint(list.get(i));
-                Point to = transformPoint(list.get(i+1));
-                drawLine(gl1,
-                        from.x(), from.y(), from.z(),
-                        to.x(), to.y(), to.z(),
-                        5f,
-                        1f, 1f, 0f);
+    /**
+     * Xg[N̕`B
+     * _GPŨobt@ɒuAO񂩂瑝_]āA1̌ĂяoŐ܂`B
+     *
+     * @param gl1 GLIuWFNgB
+     * @param stroke Xg[NB
+     */
+    private void drawStroke(GL gl1, Stroke stroke, float r, float g, float b){
+        StrokeGeometryCache.Geometry geometry = strokeCache.get(stroke);
+        if (geometry == null) {
+            return;
+        }
+        int count = Math.min(stroke.size(), geometry.getVertexCount());
+        if (count < 2) {
+            return;
+        }
+        GL2 gl = gl1.getGL2();
+        if (geometry.getBufferName() == 0) {
+            gl.glGenBuffers(1, bufferNames, 0);
+            geometry.setBufferName(bufferNames[0]);
+        }
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, geometry.getBufferName());
+        int uploaded = geometry.getUploadedCount();
+        if (uploaded < geometry.getVertexCount()) {
+            FloatBuffer vertices = geometry.getVertices();
+            if (geometry.getBufferCapacity() < geometry.getVertexCount()) {
+                // eʂ𒸓_obt@ɍ킹ĊmۂASĂ̒_]
+                int capacity = vertices.capacity() / 3;
+                gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) capacity * 3 * Float.BYTES, null, GL.GL_DYNAMIC_DRAW);
+                geometry.setBufferCapacity(capacity);
+                uploaded = 0;
             }
+            vertices.clear().position(uploaded * 3).limit(geometry.getVertexCount() * 3);
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER, (long) uploaded * 3 * Float.BYTES,
+                    (long) (geometry.getVertexCount() - uploaded) * 3 * Float.BYTES, vertices);
+            vertices.clear();
+            geometry.setUploadedCount(geometry.getVertexCount());
         }
+        // ̑ƐFݒ
+        gl.glLineWidth(5f);
+        gl.glMaterialfv(GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE, new float[]{r,g,b,1f}, 0);
+        // ܂̕`
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glVertexPointer(3, GL.GL_FLOAT, 0, 0L);
+        gl.glDrawArrays(GL.GL_LINE_STRIP, 0, count);
+        gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
     }
 
-    private Point transformPoint(Point p){
-        Matrix point = M.product(Matrix.create(new double[][]{
-                {p.x()},
-                {p.y()},
-                {p.z()},
-                {1}
-        }));
-        return Point.createXYZ(point.get(0,0),point.get(1,0), point.get(2,0));
-    }
     private Vector transformVector(Vector v){
         Matrix vector = M.product(Matrix.create(new double[][]{
                 {v.x()},
@@ -120,23 +150,6 @@ public class StateViewVR extends VRSpaceView {
         }));
         return Vector.createXYZ(vector.get(0,0),vector.get(1,0), vector.get(2,0));
     }
-    private void drawLine(GL gl1,
-                          double fromX, double fromY, double fromZ,
-                          double toX, double toY, double toZ,
-                          float width,
-                          float r, float g, float b){
-        GL2 gl = gl1.getGL2();
-        // ̑ݒ
-        gl.glLineWidth(width);
-        // Fݒ
-        gl.glMaterialfv(GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE, new float[]{r,g,b,1f}, 0);
-        // ̕`
-        gl.glBegin(GL.GL_LINES);
-        gl.glVertex3d(fromX, fromY, fromZ);
-        gl.glVertex3d(toX, toY, toZ);
-        gl.glEnd();
-    }
-
     /**
      * ̕`
      * @param gl1
@@ -187,10 +200,10 @@ public class StateViewVR extends VRSpaceView {
         float[] lightAmbient = new float[] {0.2f, 0.2f, 0.2f, 1.0f};
         gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_AMBIENT, lightAmbient, 0);
     }
-    private void drawStylus(GL gl1) {
+    private void drawStylus(GL gl1, ModelSnapshot snapshot) {
         GL2 gl = gl1.getGL2();
         // zX^CX̍WlƎp擾
-        Point hapticsPosition = model.getHapticsPosition();
+        Point hapticsPosition = snapshot.getHapticsPosition();
         Matrix GLposition = M.product(Matrix.create(new double[][]{
             {hapticsPosition.x()},
             {hapticsPosition.y()},
@@ -209,7 +222,7 @@ public class StateViewVR extends VRSpaceView {
         gl.glRotated(stylusPosture.getZ(), 1.0, 0.0, 0.0);
 
         // X^CXIuWFNg`
-        drawStylusObjects(gl);
+        drawStylusObjects(gl, snapshot);
         gl.glPopMatrix();
 
     }
@@ -217,8 +230,9 @@ public class StateViewVR extends VRSpaceView {
      * X^CXIuWFNg̕`B
      *
      * @param gl1 GLIuWFNgB
+     * @param snapshot f̃XibvVbgB
      */
-    private void drawStylusObjects(GL gl1) {
+    private void drawStylusObjects(GL gl1, ModelSnapshot snapshot) {
         GL2 gl = gl1.getGL2();
         // ftHgF͗ΐF
         float[] ambientDiffuse = new float[] {0.0f, 1.0f, 0.0f, 1.0f};
@@ -232,7 +246,7 @@ public class StateViewVR extends VRSpaceView {
 //        gl.glRotated(90.0, 0.0, 1.0, 0.0);
 //        gl.glTranslated(0.0, 0.0, -16.0);
 //        new GLUT().glutSolidCone(0.5, 16, 8, 1);
-        Point lastpoint = model.getFbcLastPoint();
+        Point lastpoint = snapshot.getFbcLastPoint();
         if(lastpoint!=null){
 //            new GLUT().glutWireSphere(lastpoint.fuzziness()*expand, 20, 20);
             float[] ambientDiffuse2 = {1.0f, 1.0f, 0.0f, 1.0f};
@@ -251,7 +265,10 @@ public class StateViewVR extends VRSpaceView {
     public void drawModelSpaceObjects(GL gl1) {
         GL2 gl = gl1.getGL2();
         // \ʂ`
-        Arrays.asList(model.getSurfaces()).forEach(surface -> drawSurface(gl,surface));
+        ModelSnapshot snapshot = model.getSnapshot();
+        for(int i=0; i<snapshot.getSurfaceCount(); i++){
+            drawSurface(gl, snapshot.getSurface(i), snapshot.isSurfaceStaying(i));
+        }
     }
 
     /**
@@ -284,7 +301,7 @@ public class StateViewVR extends VRSpaceView {
         gl.glPopMatrix();
     }
 
-    private void drawSurface(GL gl1, FrictionSurface surface){
+    private void drawSurface(GL gl1, FrictionSurface surface, boolean staying){
         GL2 gl = gl1.getGL2();
         gl.glEnable(GL_BLEND);  //uhL
 
@@ -295,13 +312,11 @@ public class StateViewVR extends VRSpaceView {
         gl.glMaterialfv(GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE, ambientDiffuse, 0);
         gl.glColor4d(0, 1, 1, 0.8);//FƃAt@
 
-        if(model.getSurfaceFlags() != null){
-            if (model.getSurfaceFlags().get(surface)) {
-                float[] ambientDiffuse2 = {1f, 1f, 0f, 0.8f};
-                //gl.glColor4d(1, 1, 0, 0.5);//FƃAt@
-                gl.glMaterialfv(GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE, ambientDiffuse2, 0);
-                gl.glColor4d(1, 1, 0, 0.8);//FƃAt@
-            }
+        if (staying) {
+            float[] ambientDiffuse2 = {1f, 1f, 0f, 0.8f};
+            //gl.glColor4d(1, 1, 0, 0.5);//FƃAt@
+            gl.glMaterialfv(GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE, ambientDiffuse2, 0);
+            gl.glColor4d(1, 1, 0, 0.8);//FƃAt@
         }
 
 
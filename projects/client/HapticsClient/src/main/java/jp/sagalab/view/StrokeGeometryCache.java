@@ -0,0 +1,289 @@
+package jp.sagalab.view;
+
+import jp.sagalab.jftk.Matrix;
+import jp.sagalab.model.ModelSnapshot;
+import jp.sagalab.model.Stroke;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 描画座標系に変換したストロークの頂点を保持する。
+ * <p>
+ * ストロークの点列は末尾に追加されるだけなので ({@link Stroke})、ストロークごとに変換済みの点数を覚えておき、
+ * {@link #update(ModelSnapshot)} では新しい点だけを変換して頂点バッファに追記する。
+ * 1フレームの処理はストロークの数と新しい点の数に比例し、それまでに描いた点の数には依存しない。
+ * </p>
+ * <p>
+ * OpenGLには依存しないため、GLコンテキストなしで動かせる。
+ * GPUへの転送状態 ({@link Geometry#getUploadedCount()} など) は描画側が {@link Geometry} に記録する。
+ * 描画スレッドのみから呼び出す。
+ * </p>
+ */
+public class StrokeGeometryCache {
+
+    /** 頂点バッファの初期容量 (頂点数) */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * キャッシュを生成する。
+     * @param transform ワールド座標系から描画座標系への変換行列 (4×4)
+     * @return キャッシュ
+     */
+    public static StrokeGeometryCache create(Matrix transform) {
+        if (transform == null) {
+            throw new IllegalArgumentException("transform must not be null");
+        }
+        if (transform.rowSize() != 4 || transform.columnSize() != 4) {
+            throw new IllegalArgumentException("transform must be 4x4 : " + transform.rowSize() + "x" + transform.columnSize());
+        }
+        final double[] elements = new double[12];
+        for (int i = 0; i < 3; ++i) {
+            for (int j = 0; j < 4; ++j) {
+                elements[i * 4 + j] = transform.get(i, j);
+            }
+        }
+        return new StrokeGeometryCache(elements);
+    }
+
+    /**
+     * スナップショットのストロークを反映する。
+     * 新しい点だけを変換して追記し、スナップショットにないストロークは破棄して {@link #pollReleased()} で返す。
+     * @param snapshot スナップショット
+     */
+    public void update(ModelSnapshot snapshot) {
+        ++generation;
+        sync(snapshot.getCurrentStroke());
+        for (int i = 0; i < snapshot.getOnForceStrokeCount(); ++i) {
+            sync(snapshot.getOnForceStroke(i));
+        }
+        for (int i = 0; i < snapshot.getOffForceStrokeCount(); ++i) {
+            sync(snapshot.getOffForceStroke(i));
+        }
+        if (geometries.size() > liveCount) {
+            final Iterator<Geometry> iterator = geometries.values().iterator();
+            while (iterator.hasNext()) {
+                final Geometry geometry = iterator.next();
+                if (geometry.generation != generation) {
+                    iterator.remove();
+                    released.add(geometry);
+                }
+            }
+        }
+        liveCount = 0;
+    }
+
+    /**
+     * ストロークの頂点を返す。
+     * @param stroke 直前の {@link #update(ModelSnapshot)} に渡したスナップショットのストローク
+     * @return 頂点 (キャッシュにない場合はnull)
+     */
+    public Geometry get(Stroke stroke) {
+        return geometries.get(stroke.getId());
+    }
+
+    /**
+     * 破棄したストロークの頂点を返し、一覧を空にする。描画側はGPUのバッファを解放する。
+     * @return 破棄した頂点
+     */
+    public List<Geometry> pollReleased() {
+        if (released.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<Geometry> polled = released;
+        released = new ArrayList<>();
+        return polled;
+    }
+
+    /**
+     * 保持しているストロークの数を返す。
+     * @return ストロークの数
+     */
+    public int size() {
+        return geometries.size();
+    }
+
+    /**
+     * これまでに変換した点の数を返す。
+     * @return 点の数
+     */
+    public long getTransformedCount() {
+        return transformedCount;
+    }
+
+    /**
+     * ストロークの新しい点を変換して追記する。
+     */
+    private void sync(Stroke stroke) {
+        Geometry geometry = geometries.get(stroke.getId());
+        if (geometry == null) {
+            geometry = new Geometry(stroke.getId());
+            geometries.put(stroke.getId(), geometry);
+        }
+        if (geometry.generation != generation) {
+            // 書き込み中のストロークは書き終えた一覧にも現れるため、一度だけ数える
+            geometry.generation = generation;
+            ++liveCount;
+        }
+        final int size = stroke.size();
+        if (geometry.count >= size) {
+            return;
+        }
+        geometry.ensureCapacity(size);
+        final FloatBuffer vertices = geometry.vertices;
+        for (int i = geometry.count; i < size; ++i) {
+            final double x = stroke.x(i);
+            final double y = stroke.y(i);
+            final double z = stroke.z(i);
+            final int offset = i * 3;
+            vertices.put(offset, (float) (m[0] * x + m[1] * y + m[2] * z + m[3]));
+            vertices.put(offset + 1, (float) (m[4] * x + m[5] * y + m[6] * z + m[7]));
+            vertices.put(offset + 2, (float) (m[8] * x + m[9] * y + m[10] * z + m[11]));
+        }
+        transformedCount += size - geometry.count;
+        geometry.count = size;
+    }
+
+    private StrokeGeometryCache(double[] m) {
+        this.m = m;
+    }
+
+    /**
+     * 1本のストロークの変換済みの頂点。
+     */
+    public static final class Geometry {
+
+        Geometry(long id) {
+            this.id = id;
+        }
+
+        /**
+         * ストロークの識別子を返す。
+         * @return 識別子
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * 頂点数を返す。
+         * @return 頂点数
+         */
+        public int getVertexCount() {
+            return count;
+        }
+
+        /**
+         * 頂点 [x0, y0, z0, x1, ...] を返す。位置と上限は呼び出し側が設定して使う。
+         * 頂点が増えると別のバッファに置き換わるため、保持しないこと。
+         * @return 頂点 (ネイティブのバイト順の直接バッファ)
+         */
+        public FloatBuffer getVertices() {
+            return vertices;
+        }
+
+        /**
+         * GPUに転送済みの頂点数を返す。
+         * @return 頂点数
+         */
+        public int getUploadedCount() {
+            return uploadedCount;
+        }
+
+        /**
+         * GPUに転送済みの頂点数を設定する。
+         * @param uploadedCount 頂点数
+         */
+        public void setUploadedCount(int uploadedCount) {
+            this.uploadedCount = uploadedCount;
+        }
+
+        /**
+         * GPUのバッファ名を返す。
+         * @return バッファ名 (確保していない場合は0)
+         */
+        public int getBufferName() {
+            return bufferName;
+        }
+
+        /**
+         * GPUのバッファ名を設定する。
+         * @param bufferName バッファ名
+         */
+        public void setBufferName(int bufferName) {
+            this.bufferName = bufferName;
+        }
+
+        /**
+         * GPUのバッファの容量を返す。
+         * @return 容量 (頂点数)
+         */
+        public int getBufferCapacity() {
+            return bufferCapacity;
+        }
+
+        /**
+         * GPUのバッファの容量を設定する。
+         * @param bufferCapacity 容量 (頂点数)
+         */
+        public void setBufferCapacity(int bufferCapacity) {
+            this.bufferCapacity = bufferCapacity;
+        }
+
+        /**
+         * 頂点バッファの容量を確保する。容量は倍にしていく。
+         * @param size 頂点数
+         */
+        private void ensureCapacity(int size) {
+            if (vertices != null && vertices.capacity() >= size * 3) {
+                return;
+            }
+            int capacity = vertices == null ? INITIAL_CAPACITY : vertices.capacity() / 3;
+            while (capacity < size) {
+                capacity *= 2;
+            }
+            final FloatBuffer grown = ByteBuffer.allocateDirect(capacity * 3 * Float.BYTES)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            if (vertices != null) {
+                vertices.clear().limit(count * 3);
+                grown.put(vertices).clear();
+            }
+            vertices = grown;
+        }
+
+        /** ストロークの識別子 */
+        private final long id;
+        /** 頂点 */
+        private FloatBuffer vertices;
+        /** 頂点数 */
+        private int count = 0;
+        /** 最後に現れた {@link #update(ModelSnapshot)} の番号 */
+        private long generation;
+        /** GPUに転送済みの頂点数 */
+        private int uploadedCount = 0;
+        /** GPUのバッファ名 */
+        private int bufferName = 0;
+        /** GPUのバッファの容量 (頂点数) */
+        private int bufferCapacity = 0;
+    }
+
+    /** 変換行列の上3行 (行優先) */
+    private final double[] m;
+    /** ストロークの識別子ごとの頂点 */
+    private final Map<Long, Geometry> geometries = new HashMap<>();
+    /** 破棄した頂点 */
+    private List<Geometry> released = new ArrayList<>();
+    /** {@link #update(ModelSnapshot)} の番号 */
+    private long generation = 0;
+    /** 今回の {@link #update(ModelSnapshot)} に現れたストロークの数 */
+    private int liveCount = 0;
+    /** これまでに変換した点の数 */
+    private long transformedCount = 0;
+}
@@ -6,6 +6,7 @@ import jp.sagalab.jftk.force.surface.FrictionSurface
 import jp.sagalab.jftk.force.surface.Plane
 import jp.sagalab.jftk.force.surface.Sphere
 import jp.sagalab.model.AppModel
+import jp.sagalab.model.Stroke
 import jp.sagalab.model.ViewUpdater
 import java.awt.*
 import javax.swing.JPanel
@@ -39,6 +40,8 @@ class StateView2D(val model: AppModel, val type: Type = Type.XY, w: Int = 400, h
     }
 
     override fun paint(g: Graphics): Unit = with(g as Graphics2D) {
+        // ハプティクスのスレッドが書き換える状態は、このフレームのスナップショットからのみ読む
+        val snapshot = model.snapshot
         // 背景塗り潰し
         color = Color(0.25f, 0.25f, 0.25f, 1f)
         fillRect(0, 0, width, height)
@@ -48,32 +51,30 @@ class StateView2D(val model: AppModel, val type: Type = Type.XY, w: Int = 400, h
         // 軸描画
         drawAxisAndLabel(this)
         // 立体描画
-        model.surfaces?.forEach { drawSurface(this, it) }
+        for (i in 0 until snapshot.surfaceCount) {
+            drawSurface(this, snapshot.getSurface(i))
+        }
 
         // 点列の描画
         color = Color.YELLOW
-        for (list in model.offForcePointsList) {
-            list.map(this@StateView2D::transform)
-                .zipWithNext { a, b -> drawLine(a.x, a.y, b.x, b.y) }
+        for (i in 0 until snapshot.offForceStrokeCount) {
+            drawStroke(this, snapshot.getOffForceStroke(i))
         }
-        if (!model.isEnableForceCalculation) {
-            model.hapticsPoints.map(this@StateView2D::transform)
-                .zipWithNext { a, b -> drawLine(a.x, a.y, b.x, b.y) }
+        if (!snapshot.isForceCalculation) {
+            drawStroke(this, snapshot.currentStroke)
         }
 
         color = Color.MAGENTA
-        for (list in model.onForcePointsList) {
-            list.map(this@StateView2D::transform)
-                .zipWithNext { a, b -> drawLine(a.x, a.y, b.x, b.y) }
+        for (i in 0 until snapshot.onForceStrokeCount) {
+            drawStroke(this, snapshot.getOnForceStroke(i))
         }
-        if (model.isEnableForceCalculation) {
-            model.hapticsPoints.map(this@StateView2D::transform)
-                .zipWithNext { a, b -> drawLine(a.x, a.y, b.x, b.y) }
+        if (snapshot.isForceCalculation) {
+            drawStroke(this, snapshot.currentStroke)
         }
-        val hapticsPosition = transform(model.hapticsPosition)
+        val hapticsPosition = transform(snapshot.hapticsPosition)
         val forcePosition = transform(model.hapticsForce.magnify(forceScale))
         // 座標描画
-        if (!model.isEnableForceCalculation) {
+        if (!snapshot.isForceCalculation) {
             color = Color.YELLOW
         } else {
             color = Color.MAGENTA
@@ -90,7 +91,7 @@ class StateView2D(val model: AppModel, val type: Type = Type.XY, w: Int = 400, h
 
         stroke = BasicStroke(1f)
         color = Color.MAGENTA
-        model.fbcLastPoint?.also {
+        snapshot.fbcLastPoint?.also {
             val screenPoint = transform(it)
             drawOval(
                 round(screenPoint.x - it.fuzziness()).toInt(), round(screenPoint.y - it.fuzziness()).toInt(),
@@ -99,6 +100,19 @@ class StateView2D(val model: AppModel, val type: Type = Type.XY, w: Int = 400, h
         }
     }
 
+    // 点列を折れ線で描画
+    private fun drawStroke(g: Graphics2D, stroke: Stroke) {
+        if (stroke.size() < 2) {
+            return
+        }
+        var a = transform(stroke.x(0), stroke.y(0), stroke.z(0))
+        for (i in 1 until stroke.size()) {
+            val b = transform(stroke.x(i), stroke.y(i), stroke.z(i))
+            g.drawLine(a.x, a.y, b.x, b.y)
+            a = b
+        }
+    }
+
     // 各平面への変換を行う
     private fun transform(v: Vector): Point =
         transform(v.x(), v.y(), v.z()).let { Point(it.x - center.x, it.y - center.y) }
@@ -10,6 +10,7 @@ import jp.sagalab.jftk.force.surface.FrictionSurface
 import jp.sagalab.jftk.force.surface.Plane
 import jp.sagalab.jftk.force.surface.Sphere
 import jp.sagalab.model.AppModel
+import jp.sagalab.model.Stroke
 import jp.sagalab.model.ViewUpdater
 import java.awt.Color
 import java.awt.Component
@@ -55,6 +56,8 @@ class StateView3D(val model: AppModel, width: Int = 400, height: Int = 400) : GL
 
     override fun display(drawable: GLAutoDrawable) {
         val gl = drawable.gl.gL2 ?: return
+        // ハプティクスのスレッドが書き換える状態は、このフレームのスナップショットからのみ読む
+        val snapshot = model.snapshot
         // 色と深度をクリア
         gl.glClear(GL.GL_COLOR_BUFFER_BIT or GL.GL_DEPTH_BUFFER_BIT)
         // モデル空間を指定（この空間は右手系）
@@ -77,13 +80,11 @@ class StateView3D(val model: AppModel, width: Int = 400, height: Int = 400) : GL
 
         // ペン先の座標表示
         val stylusSphereRadius = 5.0 * distance / 80.0
-        val hapticsPosition = model.hapticsPosition
+        val hapticsPosition = snapshot.hapticsPosition
         val force = model.hapticsForce.magnify(forceScale)
 
-        if (model.isEnableForceCalculation) {
-            model.hapticsPoints.zipWithNext { a, b ->
-                drawLine(gl, a.x(), a.y(), a.z(), b.x(), b.y(), b.z(), 1f, 1f, 0f, 1f)
-            }
+        if (snapshot.isForceCalculation) {
+            drawStroke(gl, snapshot.currentStroke, 1f, 0f, 1f)
             solidSphere(
                 gl,
                 hapticsPosition.x(),
@@ -95,9 +96,7 @@ class StateView3D(val model: AppModel, width: Int = 400, height: Int = 400) : GL
                 1f
             )
         } else {
-            model.hapticsPoints.zipWithNext { a, b ->
-                drawLine(gl, a.x(), a.y(), a.z(), b.x(), b.y(), b.z(), 1f, 1f, 1f, 0f)
-            }
+            drawStroke(gl, snapshot.currentStroke, 1f, 1f, 0f)
             solidSphere(
                 gl,
                 hapticsPosition.x(),
@@ -109,15 +108,11 @@ class StateView3D(val model: AppModel, width: Int = 400, height: Int = 400) : GL
                 0f
             )
         }
-        model.onForcePointsList.forEach {
-            it.zipWithNext { a, b ->
-                drawLine(gl, a.x(), a.y(), a.z(), b.x(), b.y(), b.z(), 1f, 1f, 0f, 1f)
-            }
+        for (i in 0 until snapshot.onForceStrokeCount) {
+            drawStroke(gl, snapshot.getOnForceStroke(i), 1f, 0f, 1f)
         }
-        model.offForcePointsList.forEach {
-            it.zipWithNext { a, b ->
-                drawLine(gl, a.x(), a.y(), a.z(), b.x(), b.y(), b.z(), 1f, 1f, 1f, 0f)
-            }
+        for (i in 0 until snapshot.offForceStrokeCount) {
+            drawStroke(gl, snapshot.getOffForceStroke(i), 1f, 1f, 0f)
         }
 
         // 力のベクトル表示
@@ -148,7 +143,9 @@ class StateView3D(val model: AppModel, width: Int = 400, height: Int = 400) : GL
         )
 
         // 表面の描画
-        model.surfaces?.forEach { drawSurface(gl, it) }
+        for (i in 0 until snapshot.surfaceCount) {
+            drawSurface(gl, snapshot.getSurface(i), snapshot.isSurfaceStaying(i))
+        }
 
         // ラベルを表示
         textRenderer.setColor(Color.WHITE)
@@ -194,6 +191,20 @@ class StateView3D(val model: AppModel, width: Int = 400, height: Int = 400) : GL
         gl.glEnd()
     }
 
+    // 点列を折れ線で描画 (1回のglBegin/glEndで描く)
+    private fun drawStroke(gl: GL2, stroke: Stroke, r: Float, g: Float, b: Float) {
+        if (stroke.size() < 2) {
+            return
+        }
+        gl.glLineWidth(1f)
+        gl.glMaterialfv(GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE, floatArrayOf(r, g, b, 1f), 0)
+        gl.glBegin(GL.GL_LINE_STRIP)
+        for (i in 0 until stroke.size()) {
+            gl.glVertex3d(stroke.x(i), stroke.y(i), stroke.z(i))
+        }
+        gl.glEnd()
+    }
+
     fun solidSphere(
         gl: GL2,
         x: Double, y: Double, z: Double, radius: Double,
@@ -220,10 +231,10 @@ class StateView3D(val model: AppModel, width: Int = 400, height: Int = 400) : GL
         drawLine(gl, 0.0, 0.0, 0.0, 0.0, 0.0, distance * 0.5, width = 4f, b = 1f)
     }
 
-    private fun drawSurface(gl: GL2, surface: FrictionSurface) {
+    private fun drawSurface(gl: GL2, surface: FrictionSurface, staying: Boolean) {
         gl.glPushMatrix()
         gl.glMaterialfv(GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE, floatArrayOf(0f, 1f, 1f, 0.3f), 0)
-        if (model.surfaceFlags?.get(surface) == true) {
+        if (staying) {
             gl.glMaterialfv(GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE, floatArrayOf(1f, 1f, 0f, 0.3f), 0)
         }
 
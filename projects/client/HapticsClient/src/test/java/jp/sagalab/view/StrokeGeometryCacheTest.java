@@ -0,0 +1,162 @@
+package jp.sagalab.view;
+
+import jp.sagalab.jftk.Matrix;
+import jp.sagalab.jftk.Vector;
+import jp.sagalab.model.AppModel;
+import jp.sagalab.model.ModelSnapshot;
+import jp.sagalab.model.Stroke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link StrokeGeometryCache} のテスト。
+ * ストロークは {@link AppModel} にスタイラス座標を与えて作り、描画スレッドと同じく {@link AppModel#getSnapshot()} で読む。
+ */
+public class StrokeGeometryCacheTest {
+
+    /** 点を追加する時刻の間隔 (AppModelの間引きより長くする) */
+    private static final double TIME_STEP = 0.1;
+
+    /** 回転・拡大・平行移動を含む変換行列 */
+    private static final Matrix M = Matrix.create(new double[][]{
+            {0.0, -1000.0, 0.0, 12.5},
+            {0.0, 0.0, 1000.0, -30.0},
+            {-1000.0, 0.0, 0.0, 250.0},
+            {0.0, 0.0, 0.0, 1.0}
+    });
+
+    private AppModel model;
+    private StrokeGeometryCache cache;
+    private double time;
+
+    @Before
+    public void setUp() {
+        model = new AppModel(p -> Vector.createXYZ(0, 0, 0));
+        cache = StrokeGeometryCache.create(M);
+        time = 0;
+    }
+
+    @Test
+    public void appendsOnlyNewPointsAcrossFrames() {
+        model.setHapticsButton1Pressed(true);
+        ModelSnapshot snapshot = null;
+        int total = 0;
+        // 初期容量を超えて頂点バッファが置き換わる場合も含める
+        for (int frame = 0; frame < 100; ++frame) {
+            for (int i = 0; i < 1 + frame % 5; ++i) {
+                snapshot = move(0.001 * total, 0.002 * total, -0.0005 * total);
+                ++total;
+            }
+            cache.update(snapshot);
+            final Stroke stroke = snapshot.getCurrentStroke();
+            assertEquals(total, stroke.size());
+            assertEquals(total, cache.get(stroke).getVertexCount());
+            // 変換したのは新しい点だけ
+            assertEquals(total, cache.getTransformedCount());
+        }
+        assertEquals(1, cache.size());
+        assertVertices(snapshot.getCurrentStroke());
+    }
+
+    @Test
+    public void verticesMatchTransformPoint() {
+        model.setHapticsButton1Pressed(true);
+        ModelSnapshot snapshot = null;
+        for (int i = 0; i < 20; ++i) {
+            snapshot = move(Math.sin(i) * 0.05, Math.cos(i) * 0.05, 0.01 * i);
+            cache.update(snapshot);
+        }
+        assertVertices(snapshot.getCurrentStroke());
+    }
+
+    @Test
+    public void resetsWhenStrokeChanges() {
+        model.setHapticsButton1Pressed(true);
+        move(0.01, 0.0, 0.0);
+        move(0.02, 0.0, 0.0);
+        model.setHapticsButton1Pressed(false);
+        ModelSnapshot snapshot = frame();
+        cache.update(snapshot);
+        final Stroke first = snapshot.getOffForceStroke(0);
+        // 書き終えたストロークは書き込み中のストロークと同じものとして一度だけ変換する
+        assertEquals(first.getId(), snapshot.getCurrentStroke().getId());
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getTransformedCount());
+
+        // 次のストロークは新しい頂点から始める
+        model.setHapticsButton1Pressed(true);
+        snapshot = move(0.0, 0.03, 0.0);
+        cache.update(snapshot);
+        final Stroke second = snapshot.getCurrentStroke();
+        assertNotEquals(first.getId(), second.getId());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.get(second).getVertexCount());
+        assertEquals(2, cache.get(first).getVertexCount());
+        assertVertices(second);
+        assertTrue(cache.pollReleased().isEmpty());
+
+        // スナップショットから消えたストロークは破棄する
+        model.setHapticsButton1Pressed(false);
+        model.clearPoints();
+        snapshot = frame();
+        cache.update(snapshot);
+        final List<StrokeGeometryCache.Geometry> released = cache.pollReleased();
+        assertEquals(2, released.size());
+        assertNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.get(snapshot.getCurrentStroke()).getVertexCount());
+        assertTrue(cache.pollReleased().isEmpty());
+    }
+
+    /**
+     * スタイラスを動かし、その座標を含むスナップショットを返す。
+     */
+    private ModelSnapshot move(double x, double y, double z) {
+        time += TIME_STEP;
+        // 描画スレッドが読んだ後の座標の更新で、新しいスナップショットが公開される
+        model.getSnapshot();
+        model.setHapticsPosition(x, y, z, time);
+        return model.getSnapshot();
+    }
+
+    /**
+     * ストロークを変えずに次のフレームのスナップショットを返す。ボタンを離した状態で呼ぶ。
+     */
+    private ModelSnapshot frame() {
+        model.getSnapshot();
+        model.setHapticsPosition(0, 0, 0, time);
+        return model.getSnapshot();
+    }
+
+    /**
+     * 頂点がStateViewVRの旧実装 (点ごとの行列積) と一致することを確かめる。
+     */
+    private void assertVertices(Stroke stroke) {
+        final StrokeGeometryCache.Geometry geometry = cache.get(stroke);
+        final FloatBuffer vertices = geometry.getVertices();
+        for (int i = 0; i < stroke.size(); ++i) {
+            final Matrix expected = transformPoint(stroke.x(i), stroke.y(i), stroke.z(i));
+            for (int k = 0; k < 3; ++k) {
+                assertEquals("point " + i + " axis " + k, expected.get(k, 0), vertices.get(i * 3 + k), 1e-4);
+            }
+        }
+    }
+
+    /**
+     * 旧実装の StateViewVR#transformPoint と同じ変換。
+     */
+    private static Matrix transformPoint(double x, double y, double z) {
+        return M.product(Matrix.create(new double[][]{
+                {x},
+                {y},
+                {z},
+                {1}
+        }));
+    }
+}
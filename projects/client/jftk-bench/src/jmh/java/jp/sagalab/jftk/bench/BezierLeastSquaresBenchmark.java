@@ -0,0 +1,100 @@
+package jp.sagalab.jftk.bench;
+
+import jp.sagalab.jftk.Matrix;
+import jp.sagalab.jftk.MatrixWorkspace;
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.curve.interporation.BezierCurveInterpolator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 時間窓 (0.1 s) の点列にベジェ曲線を当てはめる最小自乗問題の解法を比較します。
+ * <p>
+ * {@link #matrix()} は BezierCurveInterpolator の以前の実装と同じく {@link Matrix} で正規方程式を作って解き、
+ * {@link #workspace()}、{@link #workspaceQR()} は {@link MatrixWorkspace} の配列上で解きます。
+ * 重み行列と点列は事前に作っておき、解法の違いだけを計測します。ワークスペースは使い回します。
+ * </p>
+ */
+@State(Scope.Thread)
+public class BezierLeastSquaresBenchmark {
+
+    /** FuzzyBezierCurveCreator#create() と同じ次数 */
+    private static final int DEGREE = 3;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Trajectory trajectory = Trajectory.load();
+        int num = FuzzyBezierCurveBenchmark.WINDOW_NUM;
+        int first = Math.min(trajectory.size() - num, 200);
+        m_matrices = new Matrix[num];
+        m_pointMatrices = new Matrix[num];
+        m_weights = new double[num][];
+        m_positions = new double[num][];
+        m_rowSizes = new int[num];
+        final int n = DEGREE + 1;
+        for (int i = 0; i < num; ++i) {
+            Point[] window = trajectory.window(first + i, FuzzyBezierCurveBenchmark.WINDOW_LENGTH);
+            Matrix matrix = BezierCurveInterpolator.createWeightMatrix(
+                BezierCurveInterpolator.createNormalizedTimes(window), DEGREE);
+            double[][] elements = new double[window.length][];
+            double[] weights = new double[window.length * n];
+            double[] positions = new double[window.length * 3];
+            for (int j = 0; j < window.length; ++j) {
+                Point p = window[j];
+                elements[j] = new double[]{p.x(), p.y(), p.z()};
+                positions[j * 3] = p.x();
+                positions[j * 3 + 1] = p.y();
+                positions[j * 3 + 2] = p.z();
+                for (int k = 0; k < n; ++k) {
+                    weights[j * n + k] = matrix.get(j, k);
+                }
+            }
+            m_matrices[i] = matrix;
+            m_pointMatrices[i] = Matrix.create(elements);
+            m_weights[i] = weights;
+            m_positions[i] = positions;
+            m_rowSizes[i] = window.length;
+        }
+        m_workspace = MatrixWorkspace.create();
+        m_result = new double[n * 3];
+    }
+
+    @Benchmark
+    public Matrix matrix() {
+        int i = nextIndex();
+        Matrix nt = m_matrices[i].transpose();
+        return nt.product(m_matrices[i]).solve(nt.product(m_pointMatrices[i]));
+    }
+
+    @Benchmark
+    public double[] workspace() {
+        int i = nextIndex();
+        m_workspace.solveNormalEquation(m_weights[i], m_rowSizes[i], DEGREE + 1, m_positions[i], 3, m_result);
+        return m_result;
+    }
+
+    @Benchmark
+    public double[] workspaceQR() {
+        int i = nextIndex();
+        m_workspace.leastSquares(m_weights[i], m_rowSizes[i], DEGREE + 1, m_positions[i], 3, m_result);
+        return m_result;
+    }
+
+    private int nextIndex() {
+        int i = m_index;
+        m_index = (m_index + 1) % m_matrices.length;
+        return i;
+    }
+
+    private Matrix[] m_matrices;
+    private Matrix[] m_pointMatrices;
+    private double[][] m_weights;
+    private double[][] m_positions;
+    private int[] m_rowSizes;
+    private MatrixWorkspace m_workspace;
+    private double[] m_result;
+    private int m_index = 0;
+}
@@ -0,0 +1,44 @@
+package jp.sagalab.jftk.bench;
+
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.convex.ConvexHull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 凸包の生成を計測します。
+ * <p>
+ * 入力はストロークの点列と、そのファジィスプライン曲線の制御点列 (OverlappingRangeFinderと同じ) です。
+ * </p>
+ */
+@State(Scope.Thread)
+public class ConvexHullBenchmark {
+
+    @Param({"TWO_DIMENSION", "THREE_DIMENSION"})
+    public ConvexHull.Dimension m_dimension;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Trajectory trajectory = Trajectory.load();
+        m_stroke = trajectory.stroke(trajectory.size() / 3, SplineCurveBenchmark.STROKE_DURATION,
+                SplineCurveBenchmark.STROKE_INTERVAL);
+        m_controlPoints = SplineCurveBenchmark.createFSC(m_stroke).controlPoints();
+    }
+
+    @Benchmark
+    public ConvexHull stroke() {
+        return ConvexHull.create(m_stroke, m_dimension);
+    }
+
+    @Benchmark
+    public ConvexHull controlPoints() {
+        return ConvexHull.create(m_controlPoints, m_dimension);
+    }
+
+    private Point[] m_stroke;
+    private Point[] m_controlPoints;
+}
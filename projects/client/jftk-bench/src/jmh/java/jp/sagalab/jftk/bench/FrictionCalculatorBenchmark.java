@@ -0,0 +1,93 @@
+package jp.sagalab.jftk.bench;
+
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.Vector;
+import jp.sagalab.jftk.force.calculator.AllocationFreeSurfaceFrictionCalculator;
+import jp.sagalab.jftk.force.calculator.AxisFrictionCalculator;
+import jp.sagalab.jftk.force.calculator.SurfaceFrictionCalculator;
+import jp.sagalab.jftk.force.surface.FrictionSurface;
+import jp.sagalab.jftk.force.surface.Sphere;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * 力覚ループ1周期分の力の計算を計測します。
+ * <p>
+ * 各ベンチマークは軌跡を1点ずつ進めて計算機に与えます。
+ * Pointを受け取る計算機は入力点の生成も計測に含みます (AppModelと同じ呼び出し方)。
+ * </p>
+ */
+@State(Scope.Thread)
+public class FrictionCalculatorBenchmark {
+
+    /** 計測前に与える点数 (FBCが生成される状態にする) */
+    private static final int WARMUP_POINTS = 500;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // 静止摩擦の解除時の標準出力を捨てる
+        m_stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        Trajectory trajectory = Trajectory.load();
+        // AppModelの既定の表面
+        FrictionSurface sphere = Sphere.create(Point.createXYZ(0.05, 0.0, 0.1), 0.05);
+        m_axis = AxisFrictionCalculator.create();
+        m_surface = SurfaceFrictionCalculator.create();
+        m_surface.add(sphere);
+        m_allocationFree = AllocationFreeSurfaceFrictionCalculator.create();
+        m_allocationFree.add(sphere);
+
+        m_axisCursor = trajectory.cursor();
+        m_surfaceCursor = trajectory.cursor();
+        m_allocationFreeCursor = trajectory.cursor();
+        for (int i = 0; i < WARMUP_POINTS; ++i) {
+            m_axis.calculate(m_axisCursor.next());
+            m_surface.calculate(m_surfaceCursor.next());
+            allocationFreeSurface();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(m_stdout);
+    }
+
+    @Benchmark
+    public Vector axis() {
+        return m_axis.calculate(m_axisCursor.next());
+    }
+
+    @Benchmark
+    public Vector surface() {
+        return m_surface.calculate(m_surfaceCursor.next());
+    }
+
+    @Benchmark
+    public double[] allocationFreeSurface() {
+        m_allocationFreeCursor.next(m_sample);
+        m_allocationFree.calculate(m_sample[0], m_sample[1], m_sample[2], m_sample[3], m_force);
+        return m_force;
+    }
+
+    private PrintStream m_stdout;
+    private AxisFrictionCalculator m_axis;
+    private SurfaceFrictionCalculator m_surface;
+    private AllocationFreeSurfaceFrictionCalculator m_allocationFree;
+    private Trajectory.Cursor m_axisCursor;
+    private Trajectory.Cursor m_surfaceCursor;
+    private Trajectory.Cursor m_allocationFreeCursor;
+    private final double[] m_sample = new double[4];
+    private final double[] m_force = new double[3];
+}
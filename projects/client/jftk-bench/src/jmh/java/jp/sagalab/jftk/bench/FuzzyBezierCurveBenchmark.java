@@ -0,0 +1,99 @@
+package jp.sagalab.jftk.bench;
+
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.curve.BezierCurve;
+import jp.sagalab.jftk.curve.interporation.BezierCurveInterpolator;
+import jp.sagalab.jftk.fuzzybeziercurve.FuzzyBezierCurveCreator;
+import jp.sagalab.jftk.fuzzybeziercurve.StreamingFBCCreator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 時間窓 (0.1 s) の点列からのFBC生成を計測します。
+ * <p>
+ * 時間窓は軌跡上を1点ずつずらしたものを順に用います。
+ * </p>
+ */
+@State(Scope.Thread)
+public class FuzzyBezierCurveBenchmark {
+
+    /** 時間窓の長さ (s) */
+    static final double WINDOW_LENGTH = 0.1;
+    /** 用意する時間窓の数 */
+    static final int WINDOW_NUM = 1024;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Trajectory trajectory = Trajectory.load();
+        m_creator = FuzzyBezierCurveCreator.create();
+        int first = Math.min(trajectory.size() - WINDOW_NUM, 200);
+        m_windows = new Point[WINDOW_NUM][];
+        m_beziers = new BezierCurve[WINDOW_NUM];
+        for (int i = 0; i < WINDOW_NUM; ++i) {
+            m_windows[i] = trajectory.window(first + i, WINDOW_LENGTH);
+            m_beziers[i] = BezierCurveInterpolator.interpolate(m_windows[i], m_creator.degree());
+        }
+        m_streaming = StreamingFBCCreator.create(m_creator, WINDOW_LENGTH);
+        m_streamingInto = StreamingFBCCreator.create(m_creator, WINDOW_LENGTH);
+        m_streamingCursor = trajectory.cursor();
+        m_streamingIntoCursor = trajectory.cursor();
+        m_controlPoints = new double[(m_creator.degree() + 1) * 4];
+        for (int i = 0; i < 200; ++i) {
+            streamingCreateFBC();
+            streamingCreateFBCInto();
+        }
+    }
+
+    @Benchmark
+    public BezierCurve createFBC() {
+        return m_creator.createFBC(nextWindow());
+    }
+
+    @Benchmark
+    public BezierCurve createFBCFromBezier() {
+        BezierCurve bezier = m_beziers[m_index];
+        m_index = (m_index + 1) % WINDOW_NUM;
+        return m_creator.createFBC(bezier);
+    }
+
+    @Benchmark
+    public BezierCurve interpolate() {
+        return BezierCurveInterpolator.interpolate(nextWindow(), m_creator.degree());
+    }
+
+    @Benchmark
+    public BezierCurve streamingCreateFBC() {
+        m_streamingCursor.next(m_sample);
+        m_streaming.add(m_sample[0], m_sample[1], m_sample[2], m_sample[3]);
+        m_streaming.removeBefore(m_sample[3] - WINDOW_LENGTH);
+        return m_streaming.createFBC();
+    }
+
+    @Benchmark
+    public boolean streamingCreateFBCInto() {
+        m_streamingIntoCursor.next(m_sample);
+        m_streamingInto.add(m_sample[0], m_sample[1], m_sample[2], m_sample[3]);
+        m_streamingInto.removeBefore(m_sample[3] - WINDOW_LENGTH);
+        return m_streamingInto.createFBC(m_controlPoints);
+    }
+
+    private Point[] nextWindow() {
+        Point[] window = m_windows[m_index];
+        m_index = (m_index + 1) % WINDOW_NUM;
+        return window;
+    }
+
+    private FuzzyBezierCurveCreator m_creator;
+    private Point[][] m_windows;
+    private BezierCurve[] m_beziers;
+    private int m_index = 0;
+    private StreamingFBCCreator m_streaming;
+    private StreamingFBCCreator m_streamingInto;
+    private Trajectory.Cursor m_streamingCursor;
+    private Trajectory.Cursor m_streamingIntoCursor;
+    private double[] m_controlPoints;
+    private final double[] m_sample = new double[4];
+}
@@ -0,0 +1,101 @@
+package jp.sagalab.jftk.bench;
+
+import jp.sagalab.jftk.Matrix;
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.curve.BezierCurve;
+import jp.sagalab.jftk.curve.ParametricEvaluable;
+import jp.sagalab.jftk.curve.interporation.BezierCurveInterpolator;
+import jp.sagalab.jftk.fuzzysplinecurve.FuzzySplineCurveCreater;
+import jp.sagalab.jftk.fuzzysplinecurve.NNLSSolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * FBCの制御点のファジネスを求める非負最小自乗問題を計測します。
+ * <p>
+ * 問題は FuzzyBezierCurveCreator#createFBC と同じく、時間窓 (0.1 s) のベジェ曲線の速度・加速度から作ります。
+ * 時間窓は軌跡上を1点ずつずらしたものを順に用いるため、連続する問題はよく似ています。
+ * </p>
+ */
+@State(Scope.Thread)
+public class NNLSBenchmark {
+
+    /** FuzzyBezierCurveCreator#create() と同じ次数・点数・係数 */
+    private static final int DEGREE = 3;
+    private static final int POINT_NUM = 10;
+    private static final double VELOCITY_COEFFICIENT = 0.008581 * 6;
+    private static final double ACCELERATION_COEFFICIENT = 0.007742 * 0.25;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Trajectory trajectory = Trajectory.load();
+        int num = FuzzyBezierCurveBenchmark.WINDOW_NUM;
+        int first = Math.min(trajectory.size() - num, 200);
+        m_observations = new double[num][];
+        double[] times = null;
+        for (int i = 0; i < num; ++i) {
+            Point[] window = trajectory.window(first + i, FuzzyBezierCurveBenchmark.WINDOW_LENGTH);
+            BezierCurve bezier = BezierCurveInterpolator.interpolate(window, DEGREE);
+            BezierCurve vb = bezier.differentiate();
+            BezierCurve ab = vb.differentiate();
+            Point origin = Point.createXYZ(0, 0, 0);
+            Point[] points = vb.evaluateAll(POINT_NUM, ParametricEvaluable.EvaluationType.TIME);
+            double[] fuzziness = new double[POINT_NUM];
+            for (int j = 0; j < POINT_NUM; ++j) {
+                double v = origin.distance(vb.evaluateAt(points[j].time())) * 10;
+                double a = origin.distance(ab.evaluateAt(points[j].time())) * 100;
+                fuzziness[j] = VELOCITY_COEFFICIENT * v + ACCELERATION_COEFFICIENT * a;
+            }
+            m_observations[i] = fuzziness;
+            times = BezierCurveInterpolator.createNormalizedTimes(points);
+        }
+        m_matrix = BezierCurveInterpolator.createWeightMatrix(times, DEGREE);
+        m_weights = new double[POINT_NUM * (DEGREE + 1)];
+        for (int i = 0; i < POINT_NUM; ++i) {
+            for (int j = 0; j <= DEGREE; ++j) {
+                m_weights[i * (DEGREE + 1) + j] = m_matrix.get(i, j);
+            }
+        }
+        m_solver = NNLSSolver.create(DEGREE + 1);
+        m_gram = new double[(DEGREE + 1) * (DEGREE + 1)];
+        m_rhs = new double[DEGREE + 1];
+        m_solution = new double[DEGREE + 1];
+    }
+
+    @Benchmark
+    public double[] nnls() {
+        return FuzzySplineCurveCreater.nnls(m_matrix, nextObservation());
+    }
+
+    @Benchmark
+    public double[] nnlsSolverCold() {
+        m_solver.normalEquation(m_weights, POINT_NUM, nextObservation(), m_gram, m_rhs);
+        m_solver.solve(m_gram, m_rhs, m_solution, false);
+        return m_solution;
+    }
+
+    @Benchmark
+    public double[] nnlsSolverWarm() {
+        m_solver.normalEquation(m_weights, POINT_NUM, nextObservation(), m_gram, m_rhs);
+        m_solver.solve(m_gram, m_rhs, m_solution, true);
+        return m_solution;
+    }
+
+    private double[] nextObservation() {
+        double[] observation = m_observations[m_index];
+        m_index = (m_index + 1) % m_observations.length;
+        return observation;
+    }
+
+    private double[][] m_observations;
+    private int m_index = 0;
+    private Matrix m_matrix;
+    private double[] m_weights;
+    private NNLSSolver m_solver;
+    private double[] m_gram;
+    private double[] m_rhs;
+    private double[] m_solution;
+}
@@ -0,0 +1,74 @@
+package jp.sagalab.jftk.bench;
+
+import jp.sagalab.jftk.Sigmoid;
+import jp.sagalab.jftk.curve.SplineCurve;
+import jp.sagalab.jftk.fragmentation.IdentificationFragment;
+import jp.sagalab.jftk.recognition.FuzzyRule;
+import jp.sagalab.jftk.recognition.OpenRecognizer;
+import jp.sagalab.jftk.recognition.RecognitionResult;
+import jp.sagalab.jftk.recognition.SingleReferenceModelRecognizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * 幾何曲線認識を計測します。
+ * <p>
+ * PrimitiveCurveRecognizer はパッケージ外から生成できないため、
+ * その実装である SingleReferenceModelRecognizer を用います。比較のため OpenRecognizer も計測します。
+ * </p>
+ */
+@State(Scope.Thread)
+public class RecognitionBenchmark {
+
+    /** FMPSの点数 (OpenRecognizerの既定値) */
+    private static final int FMPS_NUM = 30;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // 認識結果の標準出力を捨てる
+        m_stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        Trajectory trajectory = Trajectory.load();
+        m_fsc = SplineCurveBenchmark.createFSC(trajectory.stroke(trajectory.size() / 3,
+                SplineCurveBenchmark.STROKE_DURATION, SplineCurveBenchmark.STROKE_INTERVAL));
+        m_fragment = IdentificationFragment.create(m_fsc);
+        m_rule = FuzzyRule.defaultRule();
+        m_primitive = SingleReferenceModelRecognizer.create(FMPS_NUM);
+        m_open = new OpenRecognizer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(m_stdout);
+    }
+
+    @Benchmark
+    public RecognitionResult primitive() {
+        return m_primitive.recognize(m_fragment, m_fsc, m_rule);
+    }
+
+    @Benchmark
+    public RecognitionResult open() {
+        return m_open.recognize(m_fragment, m_fsc, m_rule);
+    }
+
+    private PrintStream m_stdout;
+    private SplineCurve m_fsc;
+    private IdentificationFragment m_fragment;
+    private Map<String, Sigmoid> m_rule;
+    private SingleReferenceModelRecognizer m_primitive;
+    private OpenRecognizer m_open;
+}
@@ -0,0 +1,67 @@
+package jp.sagalab.jftk.bench;
+
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.curve.Range;
+import jp.sagalab.jftk.curve.SplineCurve;
+import jp.sagalab.jftk.curve.interporation.SplineCurveInterpolator;
+import jp.sagalab.jftk.fuzzysplinecurve.FuzzySplineCurveCreater;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * ファジィスプライン曲線の評価を計測します。
+ * <p>
+ * 曲線は軌跡の一部 (ストローク) から生成し、パラメータ範囲を等間隔に巡回して評価します。
+ * </p>
+ */
+@State(Scope.Thread)
+public class SplineCurveBenchmark {
+
+    /** ストロークの長さ (s) */
+    static final double STROKE_DURATION = 1.5;
+    /** ストロークの点の間隔 (s) */
+    static final double STROKE_INTERVAL = 0.01;
+    /** 節点間隔 (s) */
+    static final double KNOT_INTERVAL = 0.03;
+    /** ファジネス生成速度係数 */
+    static final double VELOCITY_COEFFICIENT = 0.008581;
+    /** ファジネス生成加速度係数 */
+    static final double ACCELERATION_COEFFICIENT = 0.007742;
+    /** 評価パラメータの数 */
+    private static final int PARAMETER_NUM = 997;
+
+    /**
+     * ストロークからファジィスプライン曲線を生成します。
+     * @param _stroke ストローク
+     * @return ファジィスプライン曲線
+     */
+    static SplineCurve createFSC(Point[] _stroke) {
+        SplineCurve spline = SplineCurveInterpolator.interpolate(_stroke, 3, KNOT_INTERVAL);
+        return FuzzySplineCurveCreater.create(spline, VELOCITY_COEFFICIENT, ACCELERATION_COEFFICIENT);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Trajectory trajectory = Trajectory.load();
+        m_fsc = createFSC(trajectory.stroke(trajectory.size() / 3, STROKE_DURATION, STROKE_INTERVAL));
+        Range range = m_fsc.range();
+        m_parameters = new double[PARAMETER_NUM];
+        for (int i = 0; i < PARAMETER_NUM; ++i) {
+            m_parameters[i] = range.start() + range.length() * i / (PARAMETER_NUM - 1);
+        }
+    }
+
+    @Benchmark
+    public Point evaluate() {
+        double t = m_parameters[m_index];
+        m_index = (m_index + 1) % PARAMETER_NUM;
+        return m_fsc.evaluate(t);
+    }
+
+    private SplineCurve m_fsc;
+    private double[] m_parameters;
+    private int m_index = 0;
+}
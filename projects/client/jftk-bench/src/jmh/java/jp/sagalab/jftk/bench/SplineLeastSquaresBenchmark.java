@@ -0,0 +1,120 @@
+package jp.sagalab.jftk.bench;
+
+import jp.sagalab.jftk.BandMatrix;
+import jp.sagalab.jftk.Matrix;
+import jp.sagalab.jftk.MatrixWorkspace;
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.curve.SplineCurve;
+import jp.sagalab.jftk.curve.interporation.SplineCurveInterpolator;
+import jp.sagalab.jftk.fuzzysplinecurve.FuzzySplineCurveCreater;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * ストロークにスプライン曲線を当てはめる最小自乗問題の解法を比較します。
+ * <p>
+ * {@link #matrix()} は SplineCurveInterpolator の以前の実装と同じく {@link Matrix} で正規方程式を作って解き、
+ * {@link #workspace()}、{@link #workspaceQR()} は {@link MatrixWorkspace} の配列上で解きます。
+ * {@link #band()} は重み行列を {@link BandMatrix} のまま帯コレスキー分解で解く、現在の SplineCurveInterpolator の解法です。
+ * ファジネスの非負最小自乗問題も {@link Matrix} 版 ({@link #nnlsMatrix()}) と {@link BandMatrix} 版 ({@link #nnlsBand()}) を比較します。
+ * 制御点の数はストロークの長さに比例するため、長さを変えて計測します。
+ * 重み行列と点列は事前に作っておき、解法の違いだけを計測します。ワークスペースは使い回します。
+ * </p>
+ */
+@State(Scope.Thread)
+public class SplineLeastSquaresBenchmark {
+
+    /** SplineCurveBenchmark と同じ次数 */
+    private static final int DEGREE = 3;
+
+    /** ストロークの長さ (s) */
+    @Param({"1.5", "6"})
+    public double m_duration;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Trajectory trajectory = Trajectory.load();
+        Point[] stroke = trajectory.stroke(trajectory.size() / 3, m_duration, SplineCurveBenchmark.STROKE_INTERVAL);
+        SplineCurve spline = SplineCurveInterpolator.interpolate(stroke, DEGREE, SplineCurveBenchmark.KNOT_INTERVAL);
+        double[] knots = spline.knots();
+        m_matrix = SplineCurveInterpolator.createWeightMatrix(stroke, DEGREE, knots);
+        m_band = SplineCurveInterpolator.createBandWeightMatrix(stroke, DEGREE, knots);
+        m_rowSize = m_matrix.rowSize();
+        m_columnSize = m_matrix.columnSize();
+        double[][] elements = new double[m_rowSize][];
+        m_weights = new double[m_rowSize * m_columnSize];
+        m_positions = new double[m_rowSize * 3];
+        for (int i = 0; i < m_rowSize; ++i) {
+            Point p = stroke[i];
+            elements[i] = new double[]{p.x(), p.y(), p.z()};
+            m_positions[i * 3] = p.x();
+            m_positions[i * 3 + 1] = p.y();
+            m_positions[i * 3 + 2] = p.z();
+            for (int j = 0; j < m_columnSize; ++j) {
+                m_weights[i * m_columnSize + j] = m_matrix.get(i, j);
+            }
+        }
+        m_pointMatrix = Matrix.create(elements);
+        // FuzzySplineCurveCreater#create と同じく速度・加速度からファジネスを観測する
+        SplineCurve vCurve = spline.differentiate();
+        SplineCurve aCurve = vCurve.differentiate();
+        Point origin = Point.createXYZ(0, 0, 0);
+        m_observations = new double[m_rowSize];
+        for (int i = 0; i < m_rowSize; ++i) {
+            double time = stroke[i].time();
+            m_observations[i] = SplineCurveBenchmark.VELOCITY_COEFFICIENT * vCurve.evaluate(time).distance(origin)
+                + SplineCurveBenchmark.ACCELERATION_COEFFICIENT * aCurve.evaluate(time).distance(origin);
+        }
+        m_workspace = MatrixWorkspace.create();
+        m_result = new double[m_columnSize * 3];
+    }
+
+    @Benchmark
+    public Matrix matrix() {
+        Matrix nt = m_matrix.transpose();
+        return nt.product(m_matrix).solve(nt.product(m_pointMatrix));
+    }
+
+    @Benchmark
+    public double[] workspace() {
+        m_workspace.solveNormalEquation(m_weights, m_rowSize, m_columnSize, m_positions, 3, m_result);
+        return m_result;
+    }
+
+    @Benchmark
+    public double[] workspaceQR() {
+        m_workspace.leastSquares(m_weights, m_rowSize, m_columnSize, m_positions, 3, m_result);
+        return m_result;
+    }
+
+    @Benchmark
+    public double[] band() {
+        m_workspace.solveNormalEquation(m_band, m_positions, 3, m_result);
+        return m_result;
+    }
+
+    @Benchmark
+    public double[] nnlsMatrix() {
+        return FuzzySplineCurveCreater.nnls(m_matrix, m_observations);
+    }
+
+    @Benchmark
+    public double[] nnlsBand() {
+        return FuzzySplineCurveCreater.nnls(m_band, m_observations);
+    }
+
+    private Matrix m_matrix;
+    private BandMatrix m_band;
+    private Matrix m_pointMatrix;
+    private double[] m_observations;
+    private double[] m_weights;
+    private double[] m_positions;
+    private int m_rowSize;
+    private int m_columnSize;
+    private MatrixWorkspace m_workspace;
+    private double[] m_result;
+}
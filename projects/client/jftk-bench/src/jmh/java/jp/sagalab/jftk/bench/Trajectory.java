@@ -0,0 +1,246 @@
+package jp.sagalab.jftk.bench;
+
+import jp.sagalab.jftk.Point;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ベンチマークの入力に用いるスタイラスの軌跡です。
+ * <p>
+ * システムプロパティ {@value #PROPERTY} にファイルが指定されていれば、
+ * AppModel#savePoints で保存した点列 (1行に "x y z time") を読み込みます。
+ * 指定されていなければ、AppModelの既定の球の表面をなぞって時々止まる1 kHzの軌跡を固定の乱数列で生成します。
+ * </p>
+ */
+public final class Trajectory {
+
+    /** 軌跡ファイルを指定するシステムプロパティ */
+    public static final String PROPERTY = "jftk.bench.trajectory";
+
+    /** 生成する軌跡のサンプリング間隔 (s) */
+    static final double INTERVAL = 1e-3;
+    /** 生成する軌跡の長さ (s) */
+    static final double DURATION = 20.0;
+    /** 生成する軌跡がなぞる球の中心 (AppModelの既定の表面) */
+    static final double[] SPHERE_CENTER = {0.05, 0.0, 0.1};
+    /** 生成する軌跡がなぞる球の半径 */
+    static final double SPHERE_RADIUS = 0.05;
+
+    /**
+     * 軌跡を用意します。
+     * @return 軌跡
+     */
+    public static Trajectory load() {
+        String file = System.getProperty(PROPERTY);
+        if (file != null && !file.isEmpty()) {
+            return read(Paths.get(file));
+        }
+        return synthesize(20210202L);
+    }
+
+    /**
+     * AppModel#savePoints 形式のファイルから軌跡を読み込みます。
+     * @param _path ファイル
+     * @return 軌跡
+     */
+    public static Trajectory read(Path _path) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(_path, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        double[] x = new double[lines.size()];
+        double[] y = new double[lines.size()];
+        double[] z = new double[lines.size()];
+        double[] t = new double[lines.size()];
+        int size = 0;
+        for (String line : lines) {
+            String[] split = line.trim().split("\\s+");
+            if (split.length < 4) {
+                continue;
+            }
+            x[size] = Double.parseDouble(split[0]);
+            y[size] = Double.parseDouble(split[1]);
+            z[size] = Double.parseDouble(split[2]);
+            t[size] = Double.parseDouble(split[3]);
+            ++size;
+        }
+        if (size < 2) {
+            throw new IllegalArgumentException("trajectory is too short : " + _path);
+        }
+        return new Trajectory(Arrays.copyOf(x, size), Arrays.copyOf(y, size), Arrays.copyOf(z, size), Arrays.copyOf(t, size));
+    }
+
+    /**
+     * 球の表面をなぞる軌跡を生成します。
+     * <p>
+     * 0.3〜1.5秒ごとになぞる・止まるを繰り返し、なぞる間の速さは2〜6 cm/sです。
+     * 表面への押し込み量はゆっくり変化し、センサ雑音として20 μm程度の揺らぎを加えます。
+     * </p>
+     * @param _seed 乱数の種
+     * @return 軌跡
+     */
+    public static Trajectory synthesize(long _seed) {
+        Random random = new Random(_seed);
+        int size = (int) Math.round(DURATION / INTERVAL);
+        double[] x = new double[size];
+        double[] y = new double[size];
+        double[] z = new double[size];
+        double[] t = new double[size];
+        // 球の下側から始める (極角, 方位角)
+        double theta = Math.PI * 0.85;
+        double phi = 0.0;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        double speed = 0.0;
+        double targetSpeed = 0.0;
+        double depth = 0.0005;
+        int segmentEnd = 0;
+        for (int i = 0; i < size; ++i) {
+            if (i >= segmentEnd) {
+                segmentEnd = i + 300 + random.nextInt(1200);
+                targetSpeed = (targetSpeed > 0) ? 0.0 : 0.02 + random.nextDouble() * 0.04;
+            }
+            // 速さと向きは滑らかに変える
+            speed += (targetSpeed - speed) * 0.01;
+            heading += random.nextGaussian() * 0.01;
+            depth = Math.min(Math.max(depth + random.nextGaussian() * 2e-6, 0.0), 0.002);
+            double step = speed * INTERVAL / SPHERE_RADIUS;
+            theta = Math.min(Math.max(theta + step * Math.cos(heading), Math.PI * 0.55), Math.PI * 0.98);
+            phi += step * Math.sin(heading) / Math.max(Math.sin(theta), 0.1);
+            double r = SPHERE_RADIUS - depth;
+            x[i] = SPHERE_CENTER[0] + r * Math.sin(theta) * Math.cos(phi) + random.nextGaussian() * 2e-5;
+            y[i] = SPHERE_CENTER[1] + r * Math.sin(theta) * Math.sin(phi) + random.nextGaussian() * 2e-5;
+            z[i] = SPHERE_CENTER[2] + r * Math.cos(theta) + random.nextGaussian() * 2e-5;
+            t[i] = 10.0 + i * INTERVAL;
+        }
+        return new Trajectory(x, y, z, t);
+    }
+
+    /**
+     * 点数を返します。
+     * @return 点数
+     */
+    public int size() {
+        return m_t.length;
+    }
+
+    /**
+     * 指定した添字の点を返します。
+     * @param _index 添字
+     * @return 点
+     */
+    public Point point(int _index) {
+        return Point.createXYZT(m_x[_index], m_y[_index], m_z[_index], m_t[_index]);
+    }
+
+    /**
+     * 指定した添字で終わる時間窓内の点列を返します。
+     * @param _end    終わりの添字
+     * @param _length 時間窓の長さ (s)
+     * @return 点列
+     */
+    public Point[] window(int _end, double _length) {
+        int start = _end;
+        while (start > 0 && m_t[_end] - m_t[start - 1] < _length) {
+            --start;
+        }
+        Point[] points = new Point[_end - start + 1];
+        for (int i = 0; i < points.length; ++i) {
+            points[i] = point(start + i);
+        }
+        return points;
+    }
+
+    /**
+     * 時刻が一定間隔以上離れるように間引いた点列を返します。
+     * @param _start    始めの添字
+     * @param _duration 長さ (s)
+     * @param _interval 間隔 (s)
+     * @return 点列
+     */
+    public Point[] stroke(int _start, double _duration, double _interval) {
+        Point[] points = new Point[size()];
+        int num = 0;
+        double pre = Double.NEGATIVE_INFINITY;
+        for (int i = _start; i < size() && m_t[i] - m_t[_start] <= _duration; ++i) {
+            if (m_t[i] - pre >= _interval) {
+                points[num++] = point(i);
+                pre = m_t[i];
+            }
+        }
+        return Arrays.copyOf(points, num);
+    }
+
+    /**
+     * 軌跡を先頭から繰り返したどるカーソルを返します。
+     * @return カーソル
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * 軌跡を繰り返したどるカーソルです。
+     * 繰り返すたびに時刻をずらすため、時刻は単調に増加します。
+     */
+    public final class Cursor {
+
+        /**
+         * 次の点を配列に格納します。オブジェクトを生成しません。
+         * @param _out 点の格納先 [x, y, z, time]
+         */
+        public void next(double[] _out) {
+            _out[0] = m_x[m_index];
+            _out[1] = m_y[m_index];
+            _out[2] = m_z[m_index];
+            _out[3] = m_t[m_index] + m_offset;
+            advance();
+        }
+
+        /**
+         * 次の点を返します。
+         * @return 点
+         */
+        public Point next() {
+            Point point = Point.createXYZT(m_x[m_index], m_y[m_index], m_z[m_index], m_t[m_index] + m_offset);
+            advance();
+            return point;
+        }
+
+        private void advance() {
+            if (++m_index == m_t.length) {
+                m_index = 0;
+                m_offset += m_t[m_t.length - 1] - m_t[0] + (m_t[1] - m_t[0]);
+            }
+        }
+
+        private Cursor() {
+        }
+
+        /** 次の点の添字 */
+        private int m_index = 0;
+        /** 時刻のずれ */
+        private double m_offset = 0.0;
+    }
+
+    private Trajectory(double[] _x, double[] _y, double[] _z, double[] _t) {
+        this.m_x = _x;
+        this.m_y = _y;
+        this.m_z = _z;
+        this.m_t = _t;
+    }
+
+    private final double[] m_x;
+    private final double[] m_y;
+    private final double[] m_z;
+    private final double[] m_t;
+}
@@ -0,0 +1,227 @@
+package jp.sagalab.jftk;
+
+import java.util.Arrays;
+
+/**
+ * 各行の0でない要素が連続した一定の幅に収まる行列です。
+ * <p>
+ * スプライン曲線の重み行列のように、各行が(次数+1)個の連続した基底の値だけを持つ行列を想定しています。
+ * 行ごとに先頭の列番号と幅の分の要素だけを保持するため、記憶量は行数×幅に比例し、列数には依存しません。
+ * </p>
+ * <p>
+ * グラム行列 A<sup>T</sup> A は半帯幅 (幅-1) の対称帯行列になります。
+ * {@link #gram(double[])} はこれを下側の帯だけの配列 (列数×幅) として求め、
+ * {@link MatrixWorkspace#bandCholesky(double[], int, int)} でそのまま分解できます。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public final class BandMatrix {
+
+  /**
+   * 要素が全て0の行列を生成します。
+   *
+   * @param _rowSize    行数
+   * @param _columnSize 列数
+   * @param _width      各行の0でない要素の幅
+   * @return 行列
+   * @throws IllegalArgumentException 行数が0以下の場合
+   * @throws IllegalArgumentException 幅が0以下、もしくは列数より大きい場合
+   */
+  public static BandMatrix create(int _rowSize, int _columnSize, int _width) {
+    if (_rowSize <= 0) {
+      throw new IllegalArgumentException("row size is must be greater than 0.");
+    }
+    if (_width <= 0 || _width > _columnSize) {
+      throw new IllegalArgumentException("invalid width : " + _width + " (column size : " + _columnSize + ")");
+    }
+    return new BandMatrix(_rowSize, _columnSize, _width);
+  }
+
+  /**
+   * 行の要素を設定します。
+   *
+   * @param _row    行番号
+   * @param _start  先頭の列番号
+   * @param _values 先頭の列から幅の分の要素
+   * @throws IllegalArgumentException 先頭の列番号から幅の分が列数を超える場合
+   * @throws IllegalArgumentException 要素数が幅より少ない場合
+   */
+  public void setRow(int _row, int _start, double[] _values) {
+    if (_start < 0 || _start + m_width > m_columnSize) {
+      throw new IllegalArgumentException("invalid start : " + _start);
+    }
+    if (_values.length < m_width) {
+      throw new IllegalArgumentException("_values.length:" + _values.length + " must be " + m_width);
+    }
+    m_starts[_row] = _start;
+    System.arraycopy(_values, 0, m_values, _row * m_width, m_width);
+  }
+
+  /**
+   * 行数を返します。
+   *
+   * @return 行数
+   */
+  public int rowSize() {
+    return m_starts.length;
+  }
+
+  /**
+   * 列数を返します。
+   *
+   * @return 列数
+   */
+  public int columnSize() {
+    return m_columnSize;
+  }
+
+  /**
+   * 各行の0でない要素の幅を返します。
+   *
+   * @return 幅
+   */
+  public int width() {
+    return m_width;
+  }
+
+  /**
+   * 行の先頭の列番号を返します。
+   *
+   * @param _row 行番号
+   * @return 先頭の列番号
+   */
+  public int start(int _row) {
+    return m_starts[_row];
+  }
+
+  /**
+   * 要素を返します。
+   *
+   * @param _row    行番号
+   * @param _column 列番号
+   * @return 要素
+   */
+  public double get(int _row, int _column) {
+    int k = _column - m_starts[_row];
+    return (k >= 0 && k < m_width) ? m_values[_row * m_width + k] : 0.0;
+  }
+
+  /**
+   * 行列とベクトルの積 y = A x を求めます。
+   *
+   * @param _x ベクトルx (列数)
+   * @param _y 格納先y (行数)
+   */
+  public void product(double[] _x, double[] _y) {
+    for (int i = 0; i < m_starts.length; ++i) {
+      int offset = i * m_width;
+      int start = m_starts[i];
+      double sum = 0.0;
+      for (int k = 0; k < m_width; ++k) {
+        sum += m_values[offset + k] * _x[start + k];
+      }
+      _y[i] = sum;
+    }
+  }
+
+  /**
+   * 転置行列との積 C = A<sup>T</sup> B を求めます。
+   *
+   * @param _b        行列B (行数×Bの列数、行優先)
+   * @param _bColumns Bの列数
+   * @param _c        格納先C (列数×Bの列数、行優先)
+   */
+  public void transposeProduct(double[] _b, int _bColumns, double[] _c) {
+    Arrays.fill(_c, 0, m_columnSize * _bColumns, 0.0);
+    for (int i = 0; i < m_starts.length; ++i) {
+      int offset = i * m_width;
+      int start = m_starts[i];
+      for (int k = 0; k < m_width; ++k) {
+        double a = m_values[offset + k];
+        if (a != 0.0) {
+          int resultOffset = (start + k) * _bColumns;
+          for (int c = 0; c < _bColumns; ++c) {
+            _c[resultOffset + c] += a * _b[i * _bColumns + c];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * グラム行列 A<sup>T</sup> A の下側の帯を求めます。
+   * <p>
+   * 格納先のi行目には (i-幅+1) 列目からi列目までの要素を並べます (列数×幅、行優先)。
+   * 0列目より前に当たる要素は0になります。計算量は行数×幅<sup>2</sup>に比例します。
+   * </p>
+   *
+   * @param _band 格納先 (長さ 列数×幅 以上)
+   */
+  public void gram(double[] _band) {
+    final int w = m_width;
+    Arrays.fill(_band, 0, m_columnSize * w, 0.0);
+    for (int r = 0; r < m_starts.length; ++r) {
+      int offset = r * w;
+      int start = m_starts[r];
+      for (int k = 0; k < w; ++k) {
+        double a = m_values[offset + k];
+        if (a != 0.0) {
+          // (start+k)行目の (start+j) 列目 (j <= k) は帯の (w-1-k+j) 番目
+          int bandOffset = (start + k) * w + w - 1 - k;
+          for (int j = 0; j <= k; ++j) {
+            _band[bandOffset + j] += a * m_values[offset + j];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * 行優先の配列 (行数×列数) に展開します。
+   *
+   * @return 行列の要素
+   */
+  public double[] toArray() {
+    double[] elements = new double[m_starts.length * m_columnSize];
+    for (int i = 0; i < m_starts.length; ++i) {
+      System.arraycopy(m_values, i * m_width, elements, i * m_columnSize + m_starts[i], m_width);
+    }
+    return elements;
+  }
+
+  /**
+   * {@link Matrix} に変換します。
+   *
+   * @return 行列
+   */
+  public Matrix toMatrix() {
+    double[][] elements = new double[m_starts.length][m_columnSize];
+    for (int i = 0; i < m_starts.length; ++i) {
+      System.arraycopy(m_values, i * m_width, elements[i], m_starts[i], m_width);
+    }
+    return Matrix.create(elements);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("rows:%d columns:%d width:%d", m_starts.length, m_columnSize, m_width);
+  }
+
+  private BandMatrix(int _rowSize, int _columnSize, int _width) {
+    m_columnSize = _columnSize;
+    m_width = _width;
+    m_starts = new int[_rowSize];
+    m_values = new double[_rowSize * _width];
+  }
+
+  /** 列数 */
+  private final int m_columnSize;
+  /** 各行の0でない要素の幅 */
+  private final int m_width;
+  /** 各行の先頭の列番号 */
+  private final int[] m_starts;
+  /** 各行の要素 (行数×幅、行優先) */
+  private final double[] m_values;
+}
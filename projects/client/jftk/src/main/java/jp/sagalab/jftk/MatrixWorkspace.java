@@ -0,0 +1,562 @@
+package jp.sagalab.jftk;
+
+import java.util.Arrays;
+
+/**
+ * 呼び出し側の配列上で行列演算を行うための作業領域です。
+ * <p>
+ * {@link Matrix} は不変であり、演算のたびに新しい行列を生成します。
+ * このクラスでは行列を行優先の一次元配列と行数・列数で表し、演算結果を呼び出し側が用意した配列に格納します。
+ * 積 (GEMM, GEMV) は静的メソッドとして、作業領域を必要とする求解
+ * (コレスキー分解による正規方程式の求解、ハウスホルダーQR分解による最小自乗法) はインスタンスメソッドとして提供します。
+ * </p>
+ * <p>
+ * 対称帯行列は下側の帯だけを並べた配列で表し、分解・求解・積を帯の範囲だけで行います ({@link BandMatrix})。
+ * </p>
+ * <p>
+ * 作業領域は必要に応じて拡張し、以降の呼び出しで使い回します。
+ * このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public final class MatrixWorkspace {
+
+  /**
+   * 作業領域を生成します。
+   *
+   * @return 作業領域
+   */
+  public static MatrixWorkspace create() {
+    return new MatrixWorkspace();
+  }
+
+  /**
+   * 行列の積 C = A B を求めます。
+   *
+   * @param _a       行列A (行数×内側の次元)
+   * @param _rowSize Aの行数
+   * @param _inner   Aの列数 (Bの行数)
+   * @param _b       行列B (内側の次元×列数)
+   * @param _columns Bの列数
+   * @param _c       格納先C (行数×列数)。A、Bと同じ配列は指定できません
+   */
+  public static void product(double[] _a, int _rowSize, int _inner, double[] _b, int _columns, double[] _c) {
+    Arrays.fill(_c, 0, _rowSize * _columns, 0.0);
+    for (int i = 0; i < _rowSize; ++i) {
+      int offset = i * _inner;
+      int resultOffset = i * _columns;
+      for (int k = 0; k < _inner; ++k) {
+        double a = _a[offset + k];
+        if (a != 0.0) {
+          int bOffset = k * _columns;
+          for (int j = 0; j < _columns; ++j) {
+            _c[resultOffset + j] += a * _b[bOffset + j];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * 転置行列との積 C = A<sup>T</sup> B を求めます。
+   *
+   * @param _a       行列A (行数×Aの列数)
+   * @param _rowSize A、Bの行数
+   * @param _aColumns Aの列数
+   * @param _b       行列B (行数×Bの列数)
+   * @param _bColumns Bの列数
+   * @param _c       格納先C (Aの列数×Bの列数)。A、Bと同じ配列は指定できません
+   */
+  public static void transposeProduct(double[] _a, int _rowSize, int _aColumns,
+      double[] _b, int _bColumns, double[] _c) {
+    Arrays.fill(_c, 0, _aColumns * _bColumns, 0.0);
+    for (int k = 0; k < _rowSize; ++k) {
+      int aOffset = k * _aColumns;
+      int bOffset = k * _bColumns;
+      for (int i = 0; i < _aColumns; ++i) {
+        double a = _a[aOffset + i];
+        if (a != 0.0) {
+          int resultOffset = i * _bColumns;
+          for (int j = 0; j < _bColumns; ++j) {
+            _c[resultOffset + j] += a * _b[bOffset + j];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * グラム行列 C = A<sup>T</sup> A を求めます。対称性を用いて上三角のみ計算し、下三角に写します。
+   *
+   * @param _a       行列A (行数×列数)
+   * @param _rowSize Aの行数
+   * @param _columns Aの列数
+   * @param _c       格納先C (列数×列数)。Aと同じ配列は指定できません
+   */
+  public static void gram(double[] _a, int _rowSize, int _columns, double[] _c) {
+    Arrays.fill(_c, 0, _columns * _columns, 0.0);
+    for (int k = 0; k < _rowSize; ++k) {
+      int offset = k * _columns;
+      for (int i = 0; i < _columns; ++i) {
+        double a = _a[offset + i];
+        if (a != 0.0) {
+          int resultOffset = i * _columns;
+          for (int j = i; j < _columns; ++j) {
+            _c[resultOffset + j] += a * _a[offset + j];
+          }
+        }
+      }
+    }
+    for (int i = 0; i < _columns; ++i) {
+      for (int j = 0; j < i; ++j) {
+        _c[i * _columns + j] = _c[j * _columns + i];
+      }
+    }
+  }
+
+  /**
+   * 行列とベクトルの積 y = A x を求めます。
+   *
+   * @param _a       行列A (行数×列数)
+   * @param _rowSize Aの行数
+   * @param _columns Aの列数
+   * @param _x       ベクトルx (列数)
+   * @param _y       格納先y (行数)。xと同じ配列は指定できません
+   */
+  public static void product(double[] _a, int _rowSize, int _columns, double[] _x, double[] _y) {
+    for (int i = 0; i < _rowSize; ++i) {
+      int offset = i * _columns;
+      double sum = 0.0;
+      for (int j = 0; j < _columns; ++j) {
+        sum += _a[offset + j] * _x[j];
+      }
+      _y[i] = sum;
+    }
+  }
+
+  /**
+   * 転置行列とベクトルの積 y = A<sup>T</sup> x を求めます。
+   *
+   * @param _a       行列A (行数×列数)
+   * @param _rowSize Aの行数
+   * @param _columns Aの列数
+   * @param _x       ベクトルx (行数)
+   * @param _y       格納先y (列数)。xと同じ配列は指定できません
+   */
+  public static void transposeProduct(double[] _a, int _rowSize, int _columns, double[] _x, double[] _y) {
+    Arrays.fill(_y, 0, _columns, 0.0);
+    for (int k = 0; k < _rowSize; ++k) {
+      double x = _x[k];
+      if (x != 0.0) {
+        int offset = k * _columns;
+        for (int j = 0; j < _columns; ++j) {
+          _y[j] += _a[offset + j] * x;
+        }
+      }
+    }
+  }
+
+  /**
+   * 対称正定値行列をコレスキー分解します (A = L L<sup>T</sup>)。
+   * <p>
+   * 下三角にLを上書きします。上三角は参照も変更もしません。
+   * 各行の先頭の0 (スカイライン) はLでも0のまま保たれるため計算を省きます。
+   * 帯行列であれば計算量は次元×帯幅<sup>2</sup>に比例します。
+   * </p>
+   *
+   * @param _a    対称正定値行列 (次元×次元)
+   * @param _size 次元
+   * @return 分解できた場合はtrue (正定値でない場合、数値的に特異な場合はfalse)
+   */
+  public static boolean cholesky(double[] _a, int _size) {
+    return cholesky(_a, _size, new int[_size]);
+  }
+
+  /**
+   * 対称正定値行列をコレスキー分解します。
+   *
+   * @param _a     対称正定値行列 (次元×次元)
+   * @param _size  次元
+   * @param _first 各行の最初の0でない列の格納先 (長さ 次元 以上)
+   * @return 分解できた場合はtrue
+   */
+  private static boolean cholesky(double[] _a, int _size, int[] _first) {
+    // 各行の最初の0でない列 (Lでも変わらない)
+    final int[] first = _first;
+    for (int i = 0; i < _size; ++i) {
+      first[i] = firstNonZero(_a, i * _size, i);
+    }
+    for (int j = 0; j < _size; ++j) {
+      int jOffset = j * _size;
+      int jFirst = first[j];
+      double diagonal = _a[jOffset + j];
+      double d = diagonal;
+      for (int k = jFirst; k < j; ++k) {
+        d -= _a[jOffset + k] * _a[jOffset + k];
+      }
+      // 桁落ちでほぼ0になったピボットは正定値でないとみなす
+      if (!(d > diagonal * _size * EPSILON) || Double.isInfinite(d)) {
+        return false;
+      }
+      d = Math.sqrt(d);
+      _a[jOffset + j] = d;
+      for (int i = j + 1; i < _size; ++i) {
+        int iFirst = first[i];
+        if (iFirst > j) {
+          // この行は j 列目までが0のため、L でも0のまま
+          continue;
+        }
+        int iOffset = i * _size;
+        double s = _a[iOffset + j];
+        for (int k = Math.max(iFirst, jFirst); k < j; ++k) {
+          s -= _a[iOffset + k] * _a[jOffset + k];
+        }
+        _a[iOffset + j] = s / d;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * コレスキー分解の結果を用いて L L<sup>T</sup> X = B を解きます。解はBに上書きします。
+   *
+   * @param _l       {@link #cholesky(double[], int)} で分解した行列
+   * @param _size    次元
+   * @param _b       右辺B (次元×列数)
+   * @param _columns Bの列数
+   */
+  public static void choleskySolve(double[] _l, int _size, double[] _b, int _columns) {
+    // 前進代入 L Y = B
+    for (int i = 0; i < _size; ++i) {
+      int iOffset = i * _size;
+      int first = firstNonZero(_l, iOffset, i);
+      double d = _l[iOffset + i];
+      for (int c = 0; c < _columns; ++c) {
+        double s = _b[i * _columns + c];
+        for (int k = first; k < i; ++k) {
+          s -= _l[iOffset + k] * _b[k * _columns + c];
+        }
+        _b[i * _columns + c] = s / d;
+      }
+    }
+    // 後退代入 L^T X = Y (Yの各行を確定したら、それより上の行から寄与を引く)
+    for (int i = _size - 1; i >= 0; --i) {
+      int iOffset = i * _size;
+      int first = firstNonZero(_l, iOffset, i);
+      double d = _l[iOffset + i];
+      for (int c = 0; c < _columns; ++c) {
+        double x = _b[i * _columns + c] / d;
+        _b[i * _columns + c] = x;
+        for (int k = first; k < i; ++k) {
+          _b[k * _columns + c] -= _l[iOffset + k] * x;
+        }
+      }
+    }
+  }
+
+  /**
+   * 下側の帯で表した対称正定値の帯行列をコレスキー分解します (A = L L<sup>T</sup>)。
+   * <p>
+   * 帯はi行目に (i-幅+1) 列目からi列目までの要素を並べた配列 (次元×幅、行優先) です
+   * ({@link BandMatrix#gram(double[])} の結果と同じ形式)。Lは帯の外では0になるため、帯にLを上書きします。
+   * 計算量は次元×幅<sup>2</sup>に比例します。
+   * </p>
+   *
+   * @param _band  帯行列 (次元×幅)
+   * @param _size  次元
+   * @param _width 幅 (半帯幅+1)
+   * @return 分解できた場合はtrue (正定値でない場合、数値的に特異な場合はfalse)
+   */
+  public static boolean bandCholesky(double[] _band, int _size, int _width) {
+    final int w = _width;
+    for (int j = 0; j < _size; ++j) {
+      // (i, k) 要素は帯の i*w + (k - i + w - 1) 番目
+      int jOffset = j * w + w - 1 - j;
+      int jFirst = Math.max(0, j - w + 1);
+      double diagonal = _band[jOffset + j];
+      double d = diagonal;
+      for (int k = jFirst; k < j; ++k) {
+        d -= _band[jOffset + k] * _band[jOffset + k];
+      }
+      if (!(d > diagonal * _size * EPSILON) || Double.isInfinite(d)) {
+        return false;
+      }
+      d = Math.sqrt(d);
+      _band[jOffset + j] = d;
+      int end = Math.min(_size, j + w);
+      for (int i = j + 1; i < end; ++i) {
+        int iOffset = i * w + w - 1 - i;
+        double s = _band[iOffset + j];
+        for (int k = Math.max(0, i - w + 1); k < j; ++k) {
+          s -= _band[iOffset + k] * _band[jOffset + k];
+        }
+        _band[iOffset + j] = s / d;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 帯行列のコレスキー分解の結果を用いて L L<sup>T</sup> X = B を解きます。解はBに上書きします。
+   *
+   * @param _l       {@link #bandCholesky(double[], int, int)} で分解した帯
+   * @param _size    次元
+   * @param _width   幅
+   * @param _b       右辺B (次元×列数)
+   * @param _columns Bの列数
+   */
+  public static void bandCholeskySolve(double[] _l, int _size, int _width, double[] _b, int _columns) {
+    final int w = _width;
+    // 前進代入 L Y = B
+    for (int i = 0; i < _size; ++i) {
+      int iOffset = i * w + w - 1 - i;
+      int first = Math.max(0, i - w + 1);
+      double d = _l[iOffset + i];
+      for (int c = 0; c < _columns; ++c) {
+        double s = _b[i * _columns + c];
+        for (int k = first; k < i; ++k) {
+          s -= _l[iOffset + k] * _b[k * _columns + c];
+        }
+        _b[i * _columns + c] = s / d;
+      }
+    }
+    // 後退代入 L^T X = Y
+    for (int i = _size - 1; i >= 0; --i) {
+      int iOffset = i * w + w - 1 - i;
+      int first = Math.max(0, i - w + 1);
+      double d = _l[iOffset + i];
+      for (int c = 0; c < _columns; ++c) {
+        double x = _b[i * _columns + c] / d;
+        _b[i * _columns + c] = x;
+        for (int k = first; k < i; ++k) {
+          _b[k * _columns + c] -= _l[iOffset + k] * x;
+        }
+      }
+    }
+  }
+
+  /**
+   * 下側の帯で表した対称帯行列とベクトルの積 y = A x を求めます。
+   *
+   * @param _band  帯行列 (次元×幅、{@link #bandCholesky(double[], int, int)} と同じ形式)
+   * @param _size  次元
+   * @param _width 幅
+   * @param _x     ベクトルx (次元)
+   * @param _y     格納先y (次元)。xと同じ配列は指定できません
+   */
+  public static void bandProduct(double[] _band, int _size, int _width, double[] _x, double[] _y) {
+    final int w = _width;
+    for (int i = 0; i < _size; ++i) {
+      int iOffset = i * w + w - 1 - i;
+      double sum = 0.0;
+      // 対角より左は i 行目の帯、右は対称性から j 行目の帯を参照する
+      for (int j = Math.max(0, i - w + 1); j <= i; ++j) {
+        sum += _band[iOffset + j] * _x[j];
+      }
+      int end = Math.min(_size, i + w);
+      for (int j = i + 1; j < end; ++j) {
+        sum += _band[j * w + w - 1 - j + i] * _x[j];
+      }
+      _y[i] = sum;
+    }
+  }
+
+  /**
+   * 行の先頭から指定した列の手前までで、最初の0でない要素の列番号を返します。
+   *
+   * @param _a      行列
+   * @param _offset 行の先頭の位置
+   * @param _end    探索する列の上限 (この列は含みません)
+   * @return 列番号 (全て0の場合は上限)
+   */
+  private static int firstNonZero(double[] _a, int _offset, int _end) {
+    int k = 0;
+    while (k < _end && _a[_offset + k] == 0.0) {
+      ++k;
+    }
+    return k;
+  }
+
+  /**
+   * 正規方程式 A<sup>T</sup> A X = A<sup>T</sup> B をコレスキー分解で解き、最小自乗解を求めます。
+   *
+   * @param _a        係数行列A (行数×列数)
+   * @param _rowSize  Aの行数
+   * @param _columns  Aの列数 (未知数の数)
+   * @param _b        右辺B (行数×右辺の数)
+   * @param _bColumns 右辺の数
+   * @param _x        解の格納先X (列数×右辺の数)
+   * @return 解けた場合はtrue (A<sup>T</sup> A が正定値でない場合、解が有限でない場合はfalse)
+   */
+  public boolean solveNormalEquation(double[] _a, int _rowSize, int _columns,
+      double[] _b, int _bColumns, double[] _x) {
+    double[] gram = m_square = ensure(m_square, _columns * _columns);
+    int[] first = m_first = ensure(m_first, _columns);
+    gram(_a, _rowSize, _columns, gram);
+    transposeProduct(_a, _rowSize, _columns, _b, _bColumns, _x);
+    if (!cholesky(gram, _columns, first)) {
+      return false;
+    }
+    choleskySolve(gram, _columns, _x, _bColumns);
+    return isFinite(_x, _columns * _bColumns);
+  }
+
+  /**
+   * 帯行列を係数とする正規方程式 A<sup>T</sup> A X = A<sup>T</sup> B を帯のまま解きます。
+   * <p>
+   * 計算量は行数×幅<sup>2</sup>+列数×幅<sup>2</sup>に比例し、密な行列は作りません。
+   * </p>
+   *
+   * @param _a        係数行列A
+   * @param _b        右辺B (行数×右辺の数)
+   * @param _bColumns 右辺の数
+   * @param _x        解の格納先X (列数×右辺の数)
+   * @return 解けた場合はtrue (A<sup>T</sup> A が正定値でない場合、解が有限でない場合はfalse)
+   */
+  public boolean solveNormalEquation(BandMatrix _a, double[] _b, int _bColumns, double[] _x) {
+    final int columns = _a.columnSize();
+    final int width = _a.width();
+    double[] band = m_band = ensure(m_band, columns * width);
+    _a.gram(band);
+    _a.transposeProduct(_b, _bColumns, _x);
+    if (!bandCholesky(band, columns, width)) {
+      return false;
+    }
+    bandCholeskySolve(band, columns, width, _x, _bColumns);
+    return isFinite(_x, columns * _bColumns);
+  }
+
+  /**
+   * ハウスホルダー変換によるQR分解で最小自乗問題 min |A X - B| を解きます。
+   * <p>
+   * 正規方程式を作らないため、A の条件数が大きい場合でも {@link #solveNormalEquation} より精度が落ちにくくなります。
+   * A、Bは変更しません。
+   * </p>
+   *
+   * @param _a        係数行列A (行数×列数、行数≧列数)
+   * @param _rowSize  Aの行数
+   * @param _columns  Aの列数 (未知数の数)
+   * @param _b        右辺B (行数×右辺の数)
+   * @param _bColumns 右辺の数
+   * @param _x        解の格納先X (列数×右辺の数)
+   * @return 解けた場合はtrue (Aの列が一次従属の場合、解が有限でない場合はfalse)
+   * @throws IllegalArgumentException 行数が列数より小さい場合
+   */
+  public boolean leastSquares(double[] _a, int _rowSize, int _columns,
+      double[] _b, int _bColumns, double[] _x) {
+    if (_rowSize < _columns) {
+      throw new IllegalArgumentException("_rowSize < _columns");
+    }
+    double[] qr = m_qr = ensure(m_qr, _rowSize * _columns);
+    double[] rhs = m_rhs = ensure(m_rhs, _rowSize * _bColumns);
+    double[] diagonal = m_diagonal = ensure(m_diagonal, _columns);
+    System.arraycopy(_a, 0, qr, 0, _rowSize * _columns);
+    System.arraycopy(_b, 0, rhs, 0, _rowSize * _bColumns);
+
+    double maxDiagonal = 0.0;
+    for (int k = 0; k < _columns; ++k) {
+      // k列目の対角以下のノルム
+      double norm = 0.0;
+      for (int i = k; i < _rowSize; ++i) {
+        norm += qr[i * _columns + k] * qr[i * _columns + k];
+      }
+      norm = Math.sqrt(norm);
+      if (norm == 0.0) {
+        return false;
+      }
+      if (qr[k * _columns + k] < 0) {
+        norm = -norm;
+      }
+      // ハウスホルダーベクトル v = x / norm + e_k を対角以下に格納する
+      for (int i = k; i < _rowSize; ++i) {
+        qr[i * _columns + k] /= norm;
+      }
+      qr[k * _columns + k] += 1.0;
+      double vk = qr[k * _columns + k];
+      // 残りの列と右辺に反射を適用する
+      for (int j = k + 1; j < _columns; ++j) {
+        double s = 0.0;
+        for (int i = k; i < _rowSize; ++i) {
+          s += qr[i * _columns + k] * qr[i * _columns + j];
+        }
+        s = -s / vk;
+        for (int i = k; i < _rowSize; ++i) {
+          qr[i * _columns + j] += s * qr[i * _columns + k];
+        }
+      }
+      for (int c = 0; c < _bColumns; ++c) {
+        double s = 0.0;
+        for (int i = k; i < _rowSize; ++i) {
+          s += qr[i * _columns + k] * rhs[i * _bColumns + c];
+        }
+        s = -s / vk;
+        for (int i = k; i < _rowSize; ++i) {
+          rhs[i * _bColumns + c] += s * qr[i * _columns + k];
+        }
+      }
+      diagonal[k] = -norm;
+      maxDiagonal = Math.max(maxDiagonal, Math.abs(norm));
+    }
+    // 階数落ちの判定
+    double tolerance = maxDiagonal * Math.max(_rowSize, _columns) * EPSILON;
+    for (int k = 0; k < _columns; ++k) {
+      if (Math.abs(diagonal[k]) <= tolerance) {
+        return false;
+      }
+    }
+    // 後退代入 R X = Q^T B
+    for (int i = _columns - 1; i >= 0; --i) {
+      for (int c = 0; c < _bColumns; ++c) {
+        double s = rhs[i * _bColumns + c];
+        for (int k = i + 1; k < _columns; ++k) {
+          s -= qr[i * _columns + k] * _x[k * _bColumns + c];
+        }
+        _x[i * _bColumns + c] = s / diagonal[i];
+      }
+    }
+    return isFinite(_x, _columns * _bColumns);
+  }
+
+  /**
+   * 配列の先頭の要素が全て有限であるかを返します。
+   */
+  private static boolean isFinite(double[] _values, int _length) {
+    for (int i = 0; i < _length; ++i) {
+      if (Double.isNaN(_values[i]) || Double.isInfinite(_values[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 指定した長さ以上の配列を返します。足りない場合は新しく確保します。
+   */
+  private static double[] ensure(double[] _array, int _length) {
+    return _array.length >= _length ? _array : new double[_length];
+  }
+
+  /**
+   * 指定した長さ以上の配列を返します。足りない場合は新しく確保します。
+   */
+  private static int[] ensure(int[] _array, int _length) {
+    return _array.length >= _length ? _array : new int[_length];
+  }
+
+  private MatrixWorkspace() {
+  }
+
+  /** 計算機イプシロン */
+  private static final double EPSILON = Math.ulp(1.0);
+  /** 正方行列の作業領域 */
+  private double[] m_square = new double[0];
+  /** コレスキー分解の各行の最初の0でない列 */
+  private int[] m_first = new int[0];
+  /** 帯行列の作業領域 */
+  private double[] m_band = new double[0];
+  /** QR分解の作業領域 */
+  private double[] m_qr = new double[0];
+  /** 右辺の作業領域 */
+  private double[] m_rhs = new double[0];
+  /** R の対角成分 */
+  private double[] m_diagonal = new double[0];
+}
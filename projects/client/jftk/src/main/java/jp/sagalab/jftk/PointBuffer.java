@@ -0,0 +1,285 @@
+package jp.sagalab.jftk;
+
+import java.util.Arrays;
+
+/**
+ * 点列を座標ごとの配列(x, y, z, 時刻, ファジネス)で保持するバッファです。
+ * <p>
+ * {@link Point} の配列と異なり、点ごとのオブジェクトを生成しません。
+ * 曲線の評価結果を毎回同じバッファに格納して使い回す用途を想定しています。
+ * </p>
+ * <p>
+ * 要素の値は検査しません。スレッドセーフではありません。
+ * </p>
+ */
+public final class PointBuffer {
+
+  /**
+   * 指定した容量のバッファを生成します。
+   *
+   * @param _capacity 容量
+   * @return バッファ
+   * @throws IllegalArgumentException 容量が負の場合
+   */
+  public static PointBuffer create(int _capacity) {
+    if (_capacity < 0) {
+      throw new IllegalArgumentException("_capacity < 0");
+    }
+    return new PointBuffer(_capacity);
+  }
+
+  /**
+   * 点数を返します。
+   *
+   * @return 点数
+   */
+  public int size() {
+    return m_size;
+  }
+
+  /**
+   * 容量を返します。
+   *
+   * @return 容量
+   */
+  public int capacity() {
+    return m_x.length;
+  }
+
+  /**
+   * 容量を確保します。既存の要素は保持します。
+   *
+   * @param _capacity 容量
+   */
+  public void ensureCapacity(int _capacity) {
+    if (_capacity <= m_x.length) {
+      return;
+    }
+    int capacity = Math.max(_capacity, m_x.length * 2);
+    m_x = Arrays.copyOf(m_x, capacity);
+    m_y = Arrays.copyOf(m_y, capacity);
+    m_z = Arrays.copyOf(m_z, capacity);
+    m_t = Arrays.copyOf(m_t, capacity);
+    m_f = Arrays.copyOf(m_f, capacity);
+  }
+
+  /**
+   * 点数を設定します。容量が足りない場合は確保します。
+   *
+   * @param _size 点数
+   * @throws IllegalArgumentException 点数が負の場合
+   */
+  public void resize(int _size) {
+    if (_size < 0) {
+      throw new IllegalArgumentException("_size < 0");
+    }
+    ensureCapacity(_size);
+    m_size = _size;
+  }
+
+  /**
+   * 点数を0にします。容量は保持します。
+   */
+  public void clear() {
+    m_size = 0;
+  }
+
+  /**
+   * 指定した番号の点のx座標を返します。
+   *
+   * @param _index 番号
+   * @return x座標
+   */
+  public double x(int _index) {
+    checkIndex(_index);
+    return m_x[_index];
+  }
+
+  /**
+   * 指定した番号の点のy座標を返します。
+   *
+   * @param _index 番号
+   * @return y座標
+   */
+  public double y(int _index) {
+    checkIndex(_index);
+    return m_y[_index];
+  }
+
+  /**
+   * 指定した番号の点のz座標を返します。
+   *
+   * @param _index 番号
+   * @return z座標
+   */
+  public double z(int _index) {
+    checkIndex(_index);
+    return m_z[_index];
+  }
+
+  /**
+   * 指定した番号の点の時刻を返します。
+   *
+   * @param _index 番号
+   * @return 時刻
+   */
+  public double time(int _index) {
+    checkIndex(_index);
+    return m_t[_index];
+  }
+
+  /**
+   * 指定した番号の点のファジネスを返します。
+   *
+   * @param _index 番号
+   * @return ファジネス
+   */
+  public double fuzziness(int _index) {
+    checkIndex(_index);
+    return m_f[_index];
+  }
+
+  /**
+   * 指定した番号の点を設定します。
+   *
+   * @param _index     番号
+   * @param _x         x座標
+   * @param _y         y座標
+   * @param _z         z座標
+   * @param _time      時刻
+   * @param _fuzziness ファジネス
+   */
+  public void set(int _index, double _x, double _y, double _z, double _time, double _fuzziness) {
+    checkIndex(_index);
+    m_x[_index] = _x;
+    m_y[_index] = _y;
+    m_z[_index] = _z;
+    m_t[_index] = _time;
+    m_f[_index] = _fuzziness;
+  }
+
+  /**
+   * 指定した番号の点を設定します。
+   *
+   * @param _index 番号
+   * @param _point 点
+   */
+  public void set(int _index, Point _point) {
+    set(_index, _point.x(), _point.y(), _point.z(), _point.time(), _point.fuzziness());
+  }
+
+  /**
+   * 末尾に点を追加します。
+   *
+   * @param _point 点
+   */
+  public void add(Point _point) {
+    resize(m_size + 1);
+    set(m_size - 1, _point);
+  }
+
+  /**
+   * 指定した番号の点を生成します。
+   *
+   * @param _index 番号
+   * @return 点
+   */
+  public Point get(int _index) {
+    checkIndex(_index);
+    return Point.createXYZTF(m_x[_index], m_y[_index], m_z[_index], m_t[_index], m_f[_index]);
+  }
+
+  /**
+   * 点列を生成します。
+   *
+   * @return 点列
+   */
+  public Point[] toPoints() {
+    Point[] points = new Point[m_size];
+    for (int i = 0; i < m_size; ++i) {
+      points[i] = get(i);
+    }
+    return points;
+  }
+
+  /**
+   * x座標の配列を返します。
+   * <p>
+   * {@link #size()} 番目以降の要素は不定です。
+   * 容量を確保すると別の配列に置き換わるため、保持せずに使ってください。
+   * </p>
+   *
+   * @return x座標の配列
+   */
+  public double[] xs() {
+    return m_x;
+  }
+
+  /**
+   * y座標の配列を返します。扱いは {@link #xs()} と同じです。
+   *
+   * @return y座標の配列
+   */
+  public double[] ys() {
+    return m_y;
+  }
+
+  /**
+   * z座標の配列を返します。扱いは {@link #xs()} と同じです。
+   *
+   * @return z座標の配列
+   */
+  public double[] zs() {
+    return m_z;
+  }
+
+  /**
+   * 時刻の配列を返します。扱いは {@link #xs()} と同じです。
+   *
+   * @return 時刻の配列
+   */
+  public double[] times() {
+    return m_t;
+  }
+
+  /**
+   * ファジネスの配列を返します。扱いは {@link #xs()} と同じです。
+   *
+   * @return ファジネスの配列
+   */
+  public double[] fuzzinesses() {
+    return m_f;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("size:%d capacity:%d", m_size, m_x.length);
+  }
+
+  private void checkIndex(int _index) {
+    if (_index < 0 || _index >= m_size) {
+      throw new ArrayIndexOutOfBoundsException("_index:" + _index + " size:" + m_size);
+    }
+  }
+
+  private PointBuffer(int _capacity) {
+    m_x = new double[_capacity];
+    m_y = new double[_capacity];
+    m_z = new double[_capacity];
+    m_t = new double[_capacity];
+    m_f = new double[_capacity];
+  }
+
+  /** x座標 */
+  private double[] m_x;
+  /** y座標 */
+  private double[] m_y;
+  /** z座標 */
+  private double[] m_z;
+  /** 時刻 */
+  private double[] m_t;
+  /** ファジネス */
+  private double[] m_f;
+  /** 点数 */
+  private int m_size = 0;
+}
@@ -0,0 +1,249 @@
+package jp.sagalab.jftk.curve;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.PointBuffer;
+
+/**
+ * 等間隔のパラメータにおけるバーンスタイン基底(またはその導関数)の値を並べた表です。
+ * <p>
+ * パラメータ範囲[0, 1]を等時間間隔に評価する場合、基底の値は制御点によらず
+ * 次数・評価点数・微分階数だけで決まります。
+ * 表を一度求めておけば、曲線の評価は表と制御点の行列積になります。
+ * </p>
+ * <p>
+ * 表は不変で、{@link #get(int, int, int)} で得た表は複数のスレッドで共有できます。
+ * </p>
+ */
+public final class BernsteinBasis {
+
+  /**
+   * 表を返します。
+   * <p>
+   * 評価点のパラメータは {@link ParametricCurve#evaluateAll(int, ParametricEvaluable.EvaluationType)}
+   * を範囲[0, 1]で等時間間隔に評価した場合と同じです。
+   * 求めた表は一定数までキャッシュし、同じ組み合わせでは同じ表を返します。
+   * </p>
+   *
+   * @param _degree 次数
+   * @param _num    評価点数
+   * @param _order  微分階数 (0の場合は基底そのもの)
+   * @return 表
+   * @throws IllegalArgumentException 次数または微分階数が0未満もしくは上限を超える場合
+   * @throws IllegalArgumentException 評価点数が2未満の場合
+   */
+  public static BernsteinBasis get(int _degree, int _num, int _order) {
+    if (_degree < 0 || _degree > MAX_DEGREE) {
+      throw new IllegalArgumentException("invalid degree : " + _degree);
+    }
+    if (_order < 0 || _order > MAX_DEGREE) {
+      throw new IllegalArgumentException("invalid order : " + _order);
+    }
+    if (_num < 2) {
+      throw new IllegalArgumentException("invalid num : " + _num);
+    }
+    Long key = ((long) _num << 32) | ((long) _degree << 16) | _order;
+    BernsteinBasis basis = CACHE.get(key);
+    if (basis != null) {
+      return basis;
+    }
+    basis = new BernsteinBasis(_degree, _num, _order);
+    // 評価点数が大きい表やキャッシュが一杯の場合は保持しない
+    if (_num <= MAX_CACHED_NUM && CACHE.size() < MAX_CACHED_TABLES) {
+      BernsteinBasis cached = CACHE.putIfAbsent(key, basis);
+      if (cached != null) {
+        basis = cached;
+      }
+    }
+    return basis;
+  }
+
+  /**
+   * 指定したパラメータにおける基底(またはその導関数)の値を求めます。
+   * <p>
+   * 微分階数が0の場合は、単位ベクトルにde Casteljauのアルゴリズムを適用した値と一致します。
+   * </p>
+   *
+   * @param _t      パラメータ
+   * @param _degree 次数
+   * @param _order  微分階数
+   * @param _out    格納先 (長さ 次数+1 以上)
+   */
+  public static void evaluate(double _t, int _degree, int _order, double[] _out) {
+    Arrays.fill(_out, 0, _degree + 1, 0.0);
+    if (_order > _degree) {
+      return;
+    }
+    // 次数を上げながら B_i^j = (1 - t) B_i^(j-1) + t B_(i-1)^(j-1)
+    int base = _degree - _order;
+    _out[0] = 1;
+    for (int j = 1; j <= base; ++j) {
+      for (int i = j; i >= 0; --i) {
+        _out[i] = (1 - _t) * _out[i] + _t * (i > 0 ? _out[i - 1] : 0);
+      }
+    }
+    // 導関数は d/dt B_i^j = j (B_(i-1)^(j-1) - B_i^(j-1))
+    for (int j = base + 1; j <= _degree; ++j) {
+      for (int i = j; i >= 0; --i) {
+        _out[i] = j * ((i > 0 ? _out[i - 1] : 0) - _out[i]);
+      }
+    }
+  }
+
+  /**
+   * 次数を返します。
+   *
+   * @return 次数
+   */
+  public int degree() {
+    return m_degree;
+  }
+
+  /**
+   * 評価点数を返します。
+   *
+   * @return 評価点数
+   */
+  public int size() {
+    return m_parameters.length;
+  }
+
+  /**
+   * 微分階数を返します。
+   *
+   * @return 微分階数
+   */
+  public int order() {
+    return m_order;
+  }
+
+  /**
+   * 評価点のパラメータを返します。
+   *
+   * @param _index 評価点の番号
+   * @return パラメータ
+   */
+  public double parameter(int _index) {
+    return m_parameters[_index];
+  }
+
+  /**
+   * 基底の値を返します。
+   *
+   * @param _index        評価点の番号
+   * @param _controlIndex 制御点の番号
+   * @return 基底の値
+   */
+  public double weight(int _index, int _controlIndex) {
+    return m_weights[_index * (m_degree + 1) + _controlIndex];
+  }
+
+  /**
+   * 表(評価点数×(次数+1), 行優先)の複製を返します。
+   *
+   * @return 表
+   */
+  public double[] toArray() {
+    return m_weights.clone();
+  }
+
+  /**
+   * 制御点列に表を掛けて、各評価点での値を求めます。
+   * <p>
+   * 制御点列は (次数+1) 個の制御点の成分を制御点ごとに並べたもの、
+   * 格納先は評価点ごとの成分を並べたものです。
+   * </p>
+   *
+   * @param _cp        制御点列 (長さ (次数+1)×次元数 以上)
+   * @param _dimension 次元数
+   * @param _out       格納先 (長さ 評価点数×次元数 以上)
+   */
+  public void product(double[] _cp, int _dimension, double[] _out) {
+    final int n = m_degree + 1;
+    final int num = m_parameters.length;
+    for (int i = 0; i < num; ++i) {
+      for (int c = 0; c < _dimension; ++c) {
+        double sum = 0.0;
+        for (int k = 0; k < n; ++k) {
+          sum += m_weights[i * n + k] * _cp[k * _dimension + c];
+        }
+        _out[i * _dimension + c] = sum;
+      }
+    }
+  }
+
+  /**
+   * 制御点列から各評価点での点を求め、指定したバッファに格納します。
+   * <p>
+   * 時刻は評価点のパラメータ、ファジネスは基底の絶対値で重み付けした制御点のファジネスの和です。
+   * 微分階数が1以上の場合、ファジネスは {@link BezierCurve#differentiate()} と同様に0とします。
+   * </p>
+   *
+   * @param _cp  制御点列 (要素数 次数+1)
+   * @param _out 格納先 (点数は評価点数になります)
+   * @throws IllegalArgumentException 制御点数が次数+1でない場合
+   */
+  public void evaluateInto(Point[] _cp, PointBuffer _out) {
+    final int n = m_degree + 1;
+    if (_cp.length != n) {
+      throw new IllegalArgumentException("_cp.length:" + _cp.length + " must be " + n);
+    }
+    final int num = m_parameters.length;
+    _out.resize(num);
+    for (int i = 0; i < num; ++i) {
+      double x = 0.0;
+      double y = 0.0;
+      double z = 0.0;
+      double f = 0.0;
+      for (int k = 0; k < n; ++k) {
+        double w = m_weights[i * n + k];
+        Point p = _cp[k];
+        x += w * p.x();
+        y += w * p.y();
+        z += w * p.z();
+        f += Math.abs(w) * p.fuzziness();
+      }
+      _out.set(i, x, y, z, m_parameters[i], m_order == 0 ? f : 0.0);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("degree:%d num:%d order:%d", m_degree, m_parameters.length, m_order);
+  }
+
+  private BernsteinBasis(int _degree, int _num, int _order) {
+    m_degree = _degree;
+    m_order = _order;
+    m_parameters = new double[_num];
+    m_weights = new double[_num * (_degree + 1)];
+    double[] row = new double[_degree + 1];
+    double step = 1.0 / (_num - 1);
+    for (int i = 0; i < _num; ++i) {
+      double t = (i == _num - 1) ? 1.0 : i * step;
+      m_parameters[i] = t;
+      evaluate(t, _degree, _order, row);
+      System.arraycopy(row, 0, m_weights, i * (_degree + 1), row.length);
+    }
+  }
+
+  /** 次数と微分階数の上限 */
+  private static final int MAX_DEGREE = 0x7fff;
+  /** キャッシュする表の評価点数の上限 */
+  private static final int MAX_CACHED_NUM = 4096;
+  /** キャッシュする表の数の上限 */
+  private static final int MAX_CACHED_TABLES = 64;
+  /** 表のキャッシュ (キーは評価点数・次数・微分階数を詰めた値) */
+  private static final ConcurrentHashMap<Long, BernsteinBasis> CACHE = new ConcurrentHashMap<Long, BernsteinBasis>();
+
+  /** 次数 */
+  private final int m_degree;
+  /** 微分階数 */
+  private final int m_order;
+  /** 評価点のパラメータ */
+  private final double[] m_parameters;
+  /** 基底の値 (評価点数×(次数+1), 行優先) */
+  private final double[] m_weights;
+}
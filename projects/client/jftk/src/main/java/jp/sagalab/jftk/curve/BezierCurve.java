@@ -7,6 +7,7 @@ import java.util.Stack;
 import jp.sagalab.jftk.GeomUtil;
 import jp.sagalab.jftk.Plane;
 import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.PointBuffer;
 import jp.sagalab.jftk.transform.TransformMatrix;
 
 /**
@@ -164,6 +165,57 @@ public class BezierCurve extends ParametricCurve {
     return Point.createXYZTF(cp[0].x(), cp[0].y(), cp[0].z(), _parameter, cp[0].fuzziness());
   }
 
+  @Override
+  protected Point[] evaluateAllByTime(int _num) {
+    if (!isUnitRange()) {
+      return super.evaluateAllByTime(_num);
+    }
+    PointBuffer buffer = PointBuffer.create(_num);
+    BernsteinBasis.get(degree(), _num, 0).evaluateInto(m_cp, buffer);
+    return buffer.toPoints();
+  }
+
+  @Override
+  protected void evaluateAllByTimeInto(int _num, PointBuffer _out) {
+    if (isUnitRange()) {
+      // 範囲[0, 1]の等時間間隔評価は基底の表と制御点の積で求める
+      BernsteinBasis.get(degree(), _num, 0).evaluateInto(m_cp, _out);
+      return;
+    }
+    // 作業領域は評価点の間で使い回す
+    final int size = m_cp.length;
+    double[] x = new double[size];
+    double[] y = new double[size];
+    double[] z = new double[size];
+    double[] f = new double[size];
+    for (int n = 0; n < _num; ++n) {
+      double parameter = parameterByTime(n, _num);
+      for (int i = 0; i < size; ++i) {
+        Point p = m_cp[i];
+        x[i] = p.x();
+        y[i] = p.y();
+        z[i] = p.z();
+        f[i] = p.fuzziness();
+      }
+      for (int i = 0; i < size - 1; ++i) {
+        for (int j = 0; j < size - 1 - i; ++j) {
+          internalDivision(x, y, z, f, j, j + 1, parameter, 1 - parameter);
+        }
+      }
+      _out.set(n, x[0], y[0], z[0], parameter, f[0]);
+    }
+  }
+
+  /**
+   * パラメータ範囲が[0, 1]であるかを返します。
+   *
+   * @return [0, 1]の場合はtrue
+   */
+  private boolean isUnitRange() {
+    Range range = range();
+    return range.start() == 0.0 && range.end() == 1.0;
+  }
+
   /**
    * 曲線の存在範囲外の評価点を返します。
    *
@@ -9,6 +9,7 @@ import jp.sagalab.jftk.FuzzySet;
 import jp.sagalab.jftk.GeomUtil;
 import jp.sagalab.jftk.Plane;
 import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.PointBuffer;
 import jp.sagalab.jftk.transform.Transformable;
 import jp.sagalab.jftk.TruthValue;
 import jp.sagalab.jftk.Vector;
@@ -72,6 +73,47 @@ public abstract class ParametricCurve implements ParametricEvaluable<Point>,
     return points;
   }
 
+  /**
+   * パラメータ範囲全体に対応する点列を評価し、指定したバッファに格納します。
+   * <p>
+   * 評価結果は {@link #evaluateAll(int, EvaluationType)} と同じです。
+   * バッファを使い回すことで、評価のたびに点列を生成せずに済みます。
+   * </p>
+   *
+   * @param _num  評価数
+   * @param _type 評価タイプ
+   * @param _out  格納先 (点数は評価数になります)
+   * @throws IllegalArgumentException      格納先がnullの場合
+   * @throws OutOfRangeException           評価数が2未満の場合
+   * @throws UnsupportedOperationException 評価タイプがTIMEまたはDISTANCEでない場合
+   */
+  public void evaluateAllInto(int _num, ParametricCurve.EvaluationType _type, PointBuffer _out) {
+    if (_out == null) {
+      throw new IllegalArgumentException("_out is null");
+    }
+    // 評価点数チェック
+    if (_num < 2) {
+      throw new OutOfRangeException(
+          String.format("_num:%d must be more than 1", _num));
+    }
+    switch (_type) {
+      case TIME:
+        _out.resize(_num);
+        evaluateAllByTimeInto(_num, _out);
+        break;
+      case DISTANCE:
+        // 等距離評価はサンプル点列の生成が支配的なため、点列を詰め替える
+        Point[] points = evaluateAllByDistance(_num);
+        _out.resize(_num);
+        for (int i = 0; i < _num; ++i) {
+          _out.set(i, points[i]);
+        }
+        break;
+      default:
+        throw new UnsupportedOperationException("_type is not TIME or DISTANCE");
+    }
+  }
+
   @Override
   public Point evaluateAtStart() {
     return evaluateAt(m_range.start());
@@ -241,6 +283,91 @@ public abstract class ParametricCurve implements ParametricEvaluable<Point>,
     return points;
   }
 
+  /**
+   * 等時間間隔でこの曲線の評価点列を生成し、指定したバッファに格納します。
+   * <p>
+   * 評価点ごとに {@link #evaluateAt(double)} を呼び出します。
+   * 点を生成せずに評価できる曲線はこのメソッドをオーバーライドします。
+   * </p>
+   *
+   * @param _num 評価数
+   * @param _out 格納先 (点数は評価数に設定済み)
+   */
+  protected void evaluateAllByTimeInto(int _num, PointBuffer _out) {
+    _out.set(0, evaluateAtStart());
+    for (int i = 1; i < _num - 1; ++i) {
+      _out.set(i, evaluateAt(parameterByTime(i, _num)));
+    }
+    _out.set(_num - 1, evaluateAtEnd());
+  }
+
+  /**
+   * 等時間間隔で評価する際の、指定した番号のパラメータを返します。
+   * <p>
+   * {@link #evaluateAllByTime(int)} と同じ計算で求めます。
+   * </p>
+   *
+   * @param _index 評価点の番号
+   * @param _num   評価数
+   * @return パラメータ
+   */
+  protected final double parameterByTime(int _index, int _num) {
+    double start = m_range.start();
+    double end = m_range.end();
+    if (_index == 0) {
+      return start;
+    }
+    if (_index == _num - 1) {
+      return end;
+    }
+    double step = (end - start) / (_num - 1);
+    return start + _index * step;
+  }
+
+  /**
+   * 座標ごとの配列に格納した点を内分します。
+   * <p>
+   * {@link Point#internalDivision(Point, double, double)} と同じ計算で
+   * 指定した番号の点と他方の点を内分し、結果を指定した番号に格納します。
+   * 時刻は内分しません。
+   * </p>
+   *
+   * @param _x     x座標
+   * @param _y     y座標
+   * @param _z     z座標
+   * @param _f     ファジネス
+   * @param _index 内分する点(格納先)の番号
+   * @param _other 他方の点の番号
+   * @param _tA    内分比(内分する点側)
+   * @param _tB    内分比(他方の点側)
+   * @throws IllegalArgumentException 内分比が非数または無限大の場合
+   */
+  static void internalDivision(double[] _x, double[] _y, double[] _z, double[] _f,
+      int _index, int _other, double _tA, double _tB) {
+    if (Double.isNaN(_tA) || Double.isNaN(_tB)) {
+      throw new IllegalArgumentException("Internal ratio is NaN.");
+    }
+    if (Double.isInfinite(_tA) || Double.isInfinite(_tB)) {
+      throw new IllegalArgumentException("Internal ratio is Infinite.");
+    }
+    double sumOfRatio = _tA + _tB;
+    double x = (_tB * _x[_index] + _tA * _x[_other]) / sumOfRatio;
+    double y = (_tB * _y[_index] + _tA * _y[_other]) / sumOfRatio;
+    double z = (_tB * _z[_index] + _tA * _z[_other]) / sumOfRatio;
+    double fuzziness = (Math.abs(_tB) * _f[_index] + Math.abs(_tA) * _f[_other]) / sumOfRatio;
+    // 内分できない場合は元の点のままにする
+    if (Double.isInfinite(x) || Double.isNaN(x)
+        || Double.isInfinite(y) || Double.isNaN(y)
+        || Double.isInfinite(z) || Double.isNaN(z)
+        || Double.isInfinite(fuzziness) || Double.isNaN(fuzziness)) {
+      return;
+    }
+    _x[_index] = x;
+    _y[_index] = y;
+    _z[_index] = z;
+    _f[_index] = fuzziness;
+  }
+
   /**
    * 等距離間隔でこの曲線の評価点列を生成します。
    * <p>
@@ -5,6 +5,7 @@ import java.util.List;
 
 import jp.sagalab.jftk.Plane;
 import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.PointBuffer;
 import jp.sagalab.jftk.transform.TransformMatrix;
 
 /**
@@ -96,6 +97,39 @@ public class QuadraticBezierCurve extends ParametricCurve {
 
   @Override
   protected Point evaluate(double _parameter) {
+    double[] w = new double[3];
+    basis(_parameter, w);
+
+    return Point.createXYZTF(
+        w[0] * m_cp0.x() + w[1] * m_cp1.x() + w[2] * m_cp2.x(),
+        w[0] * m_cp0.y() + w[1] * m_cp1.y() + w[2] * m_cp2.y(),
+        w[0] * m_cp0.z() + w[1] * m_cp1.z() + w[2] * m_cp2.z(),
+        _parameter,
+        Math.abs(w[0]) * m_cp0.fuzziness() + Math.abs(w[1]) * m_cp1.fuzziness() + Math.abs(w[2]) * m_cp2.fuzziness());
+  }
+
+  @Override
+  protected void evaluateAllByTimeInto(int _num, PointBuffer _out) {
+    double[] w = new double[3];
+    for (int n = 0; n < _num; ++n) {
+      double parameter = parameterByTime(n, _num);
+      basis(parameter, w);
+      _out.set(n,
+          w[0] * m_cp0.x() + w[1] * m_cp1.x() + w[2] * m_cp2.x(),
+          w[0] * m_cp0.y() + w[1] * m_cp1.y() + w[2] * m_cp2.y(),
+          w[0] * m_cp0.z() + w[1] * m_cp1.z() + w[2] * m_cp2.z(),
+          parameter,
+          Math.abs(w[0]) * m_cp0.fuzziness() + Math.abs(w[1]) * m_cp1.fuzziness() + Math.abs(w[2]) * m_cp2.fuzziness());
+    }
+  }
+
+  /**
+   * 指定されたパラメータでの各制御点の重みを求めます。
+   *
+   * @param _parameter パラメータ
+   * @param _w         重みの格納先(要素数3)
+   */
+  private void basis(double _parameter, double[] _w) {
     // パラメータを[ 0.0 - 2.0 ]の範囲に正規化
     double t = _parameter % 2.0;
     if (t < 0) {
@@ -114,16 +148,9 @@ public class QuadraticBezierCurve extends ParametricCurve {
       w2 = t * t - t * (1 - t);
     }
     double sum = 1 / (w0 + w1 + w2);
-    w0 *= sum;
-    w1 *= sum;
-    w2 *= sum;
-
-    return Point.createXYZTF(
-        w0 * m_cp0.x() + w1 * m_cp1.x() + w2 * m_cp2.x(),
-        w0 * m_cp0.y() + w1 * m_cp1.y() + w2 * m_cp2.y(),
-        w0 * m_cp0.z() + w1 * m_cp1.z() + w2 * m_cp2.z(),
-        _parameter,
-        Math.abs(w0) * m_cp0.fuzziness() + Math.abs(w1) * m_cp1.fuzziness() + Math.abs(w2) * m_cp2.fuzziness());
+    _w[0] = w0 * sum;
+    _w[1] = w1 * sum;
+    _w[2] = w2 * sum;
   }
 
   @Override
@@ -7,6 +7,7 @@ import java.util.Stack;
 
 import jp.sagalab.jftk.Plane;
 import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.PointBuffer;
 import jp.sagalab.jftk.transform.TransformMatrix;
 import jp.sagalab.jftk.Vector;
 
@@ -194,6 +195,46 @@ public class RationalBezierCurve extends ParametricCurve {
         wcp[0].fuzziness() / Math.abs(weights[0]));
   }
 
+  @Override
+  protected void evaluateAllByTimeInto(int _num, PointBuffer _out) {
+    // 作業領域は評価点の間で使い回す
+    final int size = m_wcp.length;
+    double[] x = new double[size];
+    double[] y = new double[size];
+    double[] z = new double[size];
+    double[] f = new double[size];
+    double[] weights = new double[size];
+    for (int n = 0; n < _num; ++n) {
+      double parameter = parameterByTime(n, _num);
+      for (int i = 0; i < size; ++i) {
+        Point p = m_wcp[i];
+        x[i] = p.x();
+        y[i] = p.y();
+        z[i] = p.z();
+        f[i] = p.fuzziness();
+        weights[i] = m_weights[i];
+      }
+      for (int i = 0; i < size - 1; ++i) {
+        for (int j = 0; j < size - 1 - i; ++j) {
+          internalDivision(x, y, z, f, j, j + 1, parameter, 1.0 - parameter);
+          weights[j] = (1.0 - parameter) * weights[j] + parameter * weights[j + 1];
+        }
+      }
+      double px = x[0] / weights[0];
+      double py = y[0] / weights[0];
+      double pz = z[0] / weights[0];
+      double pf = f[0] / Math.abs(weights[0]);
+      // evaluate と同様に、重みで割れない場合は例外とする
+      if (Double.isNaN(px) || Double.isInfinite(px)
+          || Double.isNaN(py) || Double.isInfinite(py)
+          || Double.isNaN(pz) || Double.isInfinite(pz)
+          || Double.isNaN(pf) || Double.isInfinite(pf)) {
+        throw new IllegalArgumentException(String.format("weight:%f cannot be divided", weights[0]));
+      }
+      _out.set(n, px, py, pz, parameter, pf);
+    }
+  }
+
   @Override
   public RationalBezierCurve invert() {
     // 重み付き制御点を反転する
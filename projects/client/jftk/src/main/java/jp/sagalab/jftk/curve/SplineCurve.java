@@ -6,6 +6,7 @@ import java.util.List;
 
 import jp.sagalab.jftk.Plane;
 import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.PointBuffer;
 import jp.sagalab.jftk.transform.TransformMatrix;
 import jp.sagalab.jftk.TruthValue;
 
@@ -80,6 +81,126 @@ public class SplineCurve extends ParametricCurve implements CurveConvertible<Bez
     return Point.createXYZTF(p.x(), p.y(), p.z(), _t, p.fuzziness());
   }
 
+  /**
+   * 単調非減少なパラメータ列に対する点列を評価し、指定したバッファに格納します。
+   * <p>
+   * 節点区間を評価点ごとに二分探索せず、前から順にたどります。
+   * 評価の計算量は評価点数と節点数の和に比例し、評価点ごとのオブジェクトは生成しません。
+   * 各評価点は {@link #evaluate(double)} と同じ値になります。
+   * </p>
+   *
+   * @param _parameters パラメータ列
+   * @param _num        評価点数 (パラメータ列の先頭から用いる数)
+   * @param _out        格納先 (点数は評価点数になります)
+   * @throws IllegalArgumentException パラメータ列または格納先がnullの場合
+   * @throws IllegalArgumentException 評価点数が0未満またはパラメータ列の要素数より大きい場合
+   * @throws IllegalArgumentException パラメータ列にNaNが含まれる場合、または単調非減少でない場合
+   */
+  public void evaluateSortedInto(double[] _parameters, int _num, PointBuffer _out) {
+    if (_parameters == null) {
+      throw new IllegalArgumentException("_parameters is null");
+    }
+    if (_out == null) {
+      throw new IllegalArgumentException("_out is null");
+    }
+    if (_num < 0 || _num > _parameters.length) {
+      throw new IllegalArgumentException(String.format("_num:%d is out of [0, %d]", _num, _parameters.length));
+    }
+    double pre = Double.NEGATIVE_INFINITY;
+    for (int n = 0; n < _num; ++n) {
+      double t = _parameters[n];
+      if (Double.isNaN(t)) {
+        throw new IllegalArgumentException("_parameters is included in NaN.");
+      }
+      if (t < pre) {
+        throw new IllegalArgumentException("_parameters is not sorted.");
+      }
+      pre = t;
+    }
+
+    _out.resize(_num);
+    double[][] work = new double[4][m_degree + 1];
+    int knotNum = m_degree;
+    for (int n = 0; n < _num; ++n) {
+      double t = _parameters[n];
+      knotNum = nextKnotNum(t, knotNum);
+      deBoor(t, knotNum, work, _out, n);
+    }
+  }
+
+  @Override
+  protected Point[] evaluateAllByTime(int _num) {
+    PointBuffer buffer = PointBuffer.create(_num);
+    buffer.resize(_num);
+    evaluateAllByTimeInto(_num, buffer);
+    return buffer.toPoints();
+  }
+
+  @Override
+  protected void evaluateAllByTimeInto(int _num, PointBuffer _out) {
+    // 等時間間隔のパラメータは単調増加のため、節点区間を前から順にたどる
+    double[][] work = new double[4][m_degree + 1];
+    int knotNum = m_degree;
+    for (int n = 0; n < _num; ++n) {
+      double t = parameterByTime(n, _num);
+      knotNum = nextKnotNum(t, knotNum);
+      deBoor(t, knotNum, work, _out, n);
+    }
+  }
+
+  /**
+   * 指定した節点番号から前に進んで、パラメータを含む節点区間を探します。
+   * <p>
+   * パラメータが直前に探したパラメータ以上であれば、結果は
+   * {@link #searchKnotNum(double, int, int)} で (次数 - 1) 番目から
+   * (節点系列の要素数 - 次数) 番目までを探索した場合と同じです。
+   * </p>
+   *
+   * @param _t       パラメータ
+   * @param _knotNum 直前の節点番号 (最初は次数)
+   * @return 節点番号
+   */
+  private int nextKnotNum(double _t, int _knotNum) {
+    int maxIndex = m_knots.length - m_degree;
+    while (_knotNum < maxIndex && m_knots[_knotNum] <= _t) {
+      ++_knotNum;
+    }
+    return _knotNum;
+  }
+
+  /**
+   * 作業領域を用いて de Boor のアルゴリズムで点を評価し、指定したバッファに格納します。
+   *
+   * @param _t       パラメータ
+   * @param _knotNum 節点番号
+   * @param _work    作業領域 ([x, y, z, ファジネス]の4行×(次数+1))
+   * @param _out     格納先
+   * @param _index   格納する番号
+   */
+  private void deBoor(double _t, int _knotNum, double[][] _work, PointBuffer _out, int _index) {
+    double[] x = _work[0];
+    double[] y = _work[1];
+    double[] z = _work[2];
+    double[] f = _work[3];
+    // 部分制御点列の抽出
+    for (int i = 0; i <= m_degree; ++i) {
+      Point p = m_cp[_knotNum - m_degree + i];
+      x[i] = p.x();
+      y[i] = p.y();
+      z[i] = p.z();
+      f[i] = p.fuzziness();
+    }
+    // de Boor による評価
+    for (int i = 0; i < m_degree; ++i) {
+      for (int j = 0; j < m_degree - i; ++j) {
+        int k = _knotNum - j - 1;
+        double w = (_t - m_knots[k]) / (m_knots[k + m_degree - i] - m_knots[k]);
+        internalDivision(x, y, z, f, m_degree - j, m_degree - j - 1, 1 - w, w);
+      }
+    }
+    _out.set(_index, x[m_degree], y[m_degree], z[m_degree], _t, f[m_degree]);
+  }
+
   @Override
   public SplineCurve part(Range _range) throws OutOfRangeException {
     if (!range().isInner(_range)) {
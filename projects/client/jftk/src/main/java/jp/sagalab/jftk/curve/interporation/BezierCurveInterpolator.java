@@ -1,7 +1,9 @@
 package jp.sagalab.jftk.curve.interporation;
 
 import jp.sagalab.jftk.Matrix;
+import jp.sagalab.jftk.MatrixWorkspace;
 import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.curve.BernsteinBasis;
 import jp.sagalab.jftk.curve.Range;
 import jp.sagalab.jftk.curve.BezierCurve;
 
@@ -39,10 +41,8 @@ public final class BezierCurveInterpolator {
 		}
 
 		double[] times = createNormalizedTimes( _points );
-		// 重み行列の生成
-		Matrix wMat = createWeightMatrix( times, _degree );
 		// 最小自乗法による制御点列の導出
-		Point[] cp = calculateControlPoints( wMat, _points );
+		Point[] cp = calculateControlPoints( times, _degree, _points );
 
 		return BezierCurve.create(cp, Range.zeroToOne() );
 	}
@@ -81,33 +81,53 @@ public final class BezierCurveInterpolator {
 		double[][] elements = new double[ _times.length ][];
 
 		for ( int i = 0; i < _times.length; ++i ) {
-			elements[i] = calculateWeights( _times[i], _degree );
+			elements[i] = new double[ _degree + 1 ];
+			BernsteinBasis.evaluate( _times[i], _degree, 0, elements[i] );
 		}
 
 		return Matrix.create( elements );
 	}
 
 	/**
-	 * 指定したパラメータに対する重み列を導出します。
-	 * @param _t パラメータ
+	 * 制御点列を導出します。
+	 * <p>
+	 * 重み行列を行優先の配列として作業領域上に構成し、正規方程式をコレスキー分解で解きます。
+	 * 正規方程式が数値的に特異な場合はQR分解で、それでも解けない場合は {@link Matrix#solve(Matrix)} で解きます。
+	 * </p>
+	 * @param _times 正規化された時刻列
 	 * @param _degree 次数
-	 * @return 重み列
+	 * @param _points 点列
+	 * @return 制御点列
 	 */
-	private static double[] calculateWeights( double _t, int _degree ) {
-		double[] weights = new double[ _degree + 1 ];
-
-		for ( int i = 0; i < _degree + 1; ++i ) {
-			double[] tmp = new double[ _degree + 1 ];
-			tmp[i] = 1;
-			for ( int j = 0; j < _degree; ++j ) {
-				for ( int k = 0; k < _degree - j; ++k ) {
-					tmp[k] = ( 1 - _t ) * tmp[k] + _t * tmp[k + 1];
-				}
-			}
-			weights[i] = tmp[0];
+	private static Point[] calculateControlPoints( double[] _times, int _degree, Point[] _points ) {
+		final int rowSize = _points.length;
+		final int n = _degree + 1;
+		double[] weights = new double[ rowSize * n ];
+		double[] row = new double[ n ];
+		double[] positions = new double[ rowSize * 3 ];
+		for ( int i = 0; i < rowSize; ++i ) {
+			BernsteinBasis.evaluate( _times[i], _degree, 0, row );
+			System.arraycopy( row, 0, weights, i * n, n );
+			Point p = _points[i];
+			positions[i * 3] = p.x();
+			positions[i * 3 + 1] = p.y();
+			positions[i * 3 + 2] = p.z();
 		}
 
-		return weights;
+		double[] result = new double[ n * 3 ];
+		MatrixWorkspace workspace = MatrixWorkspace.create();
+		if ( !workspace.solveNormalEquation( weights, rowSize, n, positions, 3, result )
+			&& !workspace.leastSquares( weights, rowSize, n, positions, 3, result ) ) {
+			return calculateControlPoints( createWeightMatrix( _times, _degree ), _points );
+		}
+
+		// 制御点列の構成
+		Point[] controlPoints = new Point[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			controlPoints[i] = Point.createXYZ( result[i * 3], result[i * 3 + 1], result[i * 3 + 2] );
+		}
+
+		return controlPoints;
 	}
 
 	/**
@@ -2,7 +2,9 @@ package jp.sagalab.jftk.curve.interporation;
 
 import java.util.Arrays;
 
+import jp.sagalab.jftk.BandMatrix;
 import jp.sagalab.jftk.Matrix;
+import jp.sagalab.jftk.MatrixWorkspace;
 import jp.sagalab.jftk.Point;
 import jp.sagalab.jftk.curve.Range;
 import jp.sagalab.jftk.curve.SplineCurve;
@@ -73,10 +75,10 @@ public final class SplineCurveInterpolator {
     double[] knots = createKnots(range, _degree, _knotInterval);
 
     // 重み行列の生成
-    Matrix wmat = createWeightMatrix(_points, _degree, knots);
+    BandMatrix weights = createBandWeightMatrix(_points, _degree, knots);
 
     // 制御点列の導出
-    Point[] controlPoints = calculateControlPoints(wmat, _points);
+    Point[] controlPoints = calculateControlPoints(weights, _points);
 
     //点列中にファジィ点が含まれていた場合はファジィスプライン曲線補間を行う
     if (isFuzzy) {
@@ -84,7 +86,7 @@ public final class SplineCurveInterpolator {
       for (int i = 0; i < observations.length; ++i) {
         observations[i] = _points[i].fuzziness();
       }
-      double[] fuzzinessElements = FuzzySplineCurveCreater.nnls(wmat, observations);
+      double[] fuzzinessElements = FuzzySplineCurveCreater.nnls(weights, observations);
       for (int i = 0; i < controlPoints.length; ++i) {
         controlPoints[i] = Point.createXYZTF(controlPoints[i].x(), controlPoints[i].y(), controlPoints[i].z(),
             controlPoints[i].time(), fuzzinessElements[i]);
@@ -142,6 +144,26 @@ public final class SplineCurveInterpolator {
     return Matrix.create(elements);
   }
 
+  /**
+   * スプライン曲線の重み行列を帯行列として生成します。<br>
+   * 行数：入力点数、列数：制御点数で、各行は(次数+1)個の連続した重みだけを持ちます。
+   * 記憶量・計算量は入力点数×次数<sup>2</sup>に比例し、制御点数には依存しません。
+   *
+   * @param _points 入力点列
+   * @param _degree 次数
+   * @param _knots  節点系列
+   * @return 重み行列
+   */
+  public static BandMatrix createBandWeightMatrix(Point[] _points, int _degree, double[] _knots) {
+    BandMatrix matrix = BandMatrix.create(_points.length, _knots.length - _degree + 1, _degree + 1);
+    for (int i = 0; i < _points.length; ++i) {
+      double time = _points[i].time();
+      int num = searchKnotNumber(_knots, _degree, time);
+      matrix.setRow(i, num - _degree, calculatePartWeights(_knots, _degree, time, num));
+    }
+    return matrix;
+  }
+
   /**
    * ある時刻における重み列を導出します。
    *
@@ -150,20 +172,47 @@ public final class SplineCurveInterpolator {
    * @return 重み列
    */
   private static double[] calculateWeights(double[] _knots, int _degree, double _time) {
-    // 時刻に対応する節点番号( _knots[ num ] <= _time <= _knots[ num + 1 ] )の取得
+    int num = searchKnotNumber(_knots, _degree, _time);
+    double[] part = calculatePartWeights(_knots, _degree, _time, num);
+
+    double[] weights = new double[_knots.length - _degree + 1];
+    System.arraycopy(part, 0, weights, num - _degree, _degree + 1);
+    return weights;
+  }
+
+  /**
+   * 時刻に対応する節点番号( _knots[ num ] <= _time <= _knots[ num + 1 ] )を取得します。
+   *
+   * @param _knots 節点系列
+   * @param _time  時刻
+   * @return 節点番号
+   */
+  private static int searchKnotNumber(double[] _knots, int _degree, double _time) {
     int num = _degree;
     int end = _knots.length - _degree;
     while (num < end && _time > _knots[num]) {
       ++num;
     }
+    return num;
+  }
 
+  /**
+   * ある時刻において0でない(次数+1)個の重みを導出します。<br>
+   * 重みは (節点番号-次数) 番目の制御点から順に並びます。
+   *
+   * @param _knots 節点系列
+   * @param _time  時刻
+   * @param _num   節点番号
+   * @return 重み列
+   */
+  private static double[] calculatePartWeights(double[] _knots, int _degree, double _time, int _num) {
     double[] part = new double[] {1.0};
 
     for (int i = 1; i <= _degree; ++i) {
       double[] now = new double[i + 1];
       for (int j = 0; j <= i; ++j) {
         double tmp = 0;
-        int base = num + j - 1;
+        int base = _num + j - 1;
         if (j != 0) {
           final double d = _knots[base - i];
           tmp += (_time - d) * part[j - 1] / (_knots[base] - d);
@@ -177,9 +226,45 @@ public final class SplineCurveInterpolator {
       part = now;
     }
 
-    double[] weights = new double[_knots.length - _degree + 1];
-    System.arraycopy(part, 0, weights, num - _degree, _degree + 1);
-    return weights;
+    return part;
+  }
+
+  /**
+   * 制御点列を導出します。
+   * <p>
+   * 正規方程式を帯行列のままコレスキー分解で解きます。
+   * 正規方程式が数値的に特異な場合は密な行列に展開してQR分解で、それでも解けない場合は {@link Matrix#solve(Matrix)} で解きます。
+   * </p>
+   *
+   * @param _weights 重み行列
+   * @param _points  通過点列
+   * @return 制御点列
+   */
+  private static Point[] calculateControlPoints(BandMatrix _weights, Point[] _points) {
+    final int rowSize = _weights.rowSize();
+    final int columnSize = _weights.columnSize();
+    double[] positions = new double[rowSize * 3];
+    for (int i = 0; i < rowSize; ++i) {
+      Point p = _points[i];
+      positions[i * 3] = p.x();
+      positions[i * 3 + 1] = p.y();
+      positions[i * 3 + 2] = p.z();
+    }
+
+    double[] result = new double[columnSize * 3];
+    MatrixWorkspace workspace = MatrixWorkspace.create();
+    if (!workspace.solveNormalEquation(_weights, positions, 3, result)
+        && (rowSize < columnSize || !workspace.leastSquares(_weights.toArray(), rowSize, columnSize, positions, 3, result))) {
+      return calculateControlPoints(_weights.toMatrix(), _points);
+    }
+
+    // 制御点列の構成
+    Point[] controlPoints = new Point[columnSize];
+    for (int i = 0; i < columnSize; ++i) {
+      controlPoints[i] = Point.createXYZ(result[i * 3], result[i * 3 + 1], result[i * 3 + 2]);
+    }
+
+    return controlPoints;
   }
 
   /**
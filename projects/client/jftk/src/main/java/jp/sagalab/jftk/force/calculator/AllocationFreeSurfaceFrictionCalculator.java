@@ -0,0 +1,525 @@
+package jp.sagalab.jftk.force.calculator;
+
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.TruthValue;
+import jp.sagalab.jftk.Vector;
+import jp.sagalab.jftk.curve.BezierCurve;
+import jp.sagalab.jftk.curve.Range;
+import jp.sagalab.jftk.force.impedance.ImpedanceModel;
+import jp.sagalab.jftk.force.surface.FrictionSurface;
+import jp.sagalab.jftk.fragmentation.FuzzyFragmentation;
+import jp.sagalab.jftk.fuzzybeziercurve.FuzzyBezierCurveCreator;
+import jp.sagalab.jftk.fuzzybeziercurve.StreamingFBCCreator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static jp.sagalab.jftk.fragmentation.FuzzyFragmentation.State.UNKNOWN;
+
+/**
+ * 定常状態でオブジェクトを生成しない表面静止摩擦力計算機です。
+ * <p>
+ * 停止・移動の判定と力の合成は {@link SurfaceFrictionCalculator} と同じです。
+ * FBCの生成から表面ごとの停止性の判定までをプリミティブ配列の作業領域で行い、
+ * 表面ごとの状態は表面の追加順の添字で保持します。
+ * 停止性を判定する表面は {@link SurfaceFrictionCalculator} と同じく終点の近くの表面と静止摩擦状態の表面に絞り込みます。
+ * {@link #calculate(double, double, double, double, double[])} は表面の追加・削除を行わない限りオブジェクトを生成しません。
+ * {@link #calculate(Point)} はインタフェースの都合で戻り値の {@link Vector} のみを生成します。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public class AllocationFreeSurfaceFrictionCalculator implements ImpedanceCalculator {
+
+    /**
+     * 表面静止摩擦力計算機を生成します
+     * 既定値は {@link SurfaceFrictionCalculator#create()} と同じです。
+     * @return 計算機
+     */
+    public static AllocationFreeSurfaceFrictionCalculator create() {
+        return new AllocationFreeSurfaceFrictionCalculator(
+                /* 秒 */1e-3, /* 秒 */0.1,
+                /* N/mm */350, /* N */1.5, 0.95,
+                TruthValue.create(0.5, 0.5), 0.025,
+                FuzzyBezierCurveCreator.create()
+        );
+    }
+
+    /**
+     * パラメータを指定して表面静止摩擦力計算機を生成します
+     * @param _inputInterval               入力点列のサンプリング間隔 (s)
+     * @param _curveTimeLength             曲線の生成に用いる点列の時間長 (s)
+     * @param _stiffness                   バネ定数 (N/[距離])
+     * @param _maxFrictionForce            最大静止摩擦力 (N)
+     * @param _maxFrictionThreshold        最大静止摩擦超過閾値
+     * @param _fragmentationThreshold      フラグメンテーションの閾値
+     * @param _fragmentationTimeResolution フラグメンテーションの時間解像度 (s)
+     * @param _fbcCreator                  FBC生成器
+     * @return 計算機
+     */
+    public static AllocationFreeSurfaceFrictionCalculator create(
+            double _inputInterval,
+            double _curveTimeLength,
+            double _stiffness,
+            double _maxFrictionForce,
+            double _maxFrictionThreshold,
+            TruthValue _fragmentationThreshold,
+            double _fragmentationTimeResolution,
+            FuzzyBezierCurveCreator _fbcCreator
+    ) {
+        if (_inputInterval <= 0) {
+            throw new IllegalArgumentException("invalid input interval : " + _inputInterval);
+        }
+        if (_curveTimeLength <= 0) {
+            throw new IllegalArgumentException("invalid curve time length : " + _curveTimeLength);
+        }
+        if (_fragmentationThreshold == null) {
+            throw new IllegalArgumentException("fragmentation threshold must not be null");
+        }
+        if ((int) (_curveTimeLength / _fragmentationTimeResolution) < 2) {
+            throw new IllegalArgumentException("invalid fragmentation time resolution : " + _fragmentationTimeResolution);
+        }
+        if (_fbcCreator == null) {
+            throw new IllegalArgumentException("fbc creator must not be null");
+        }
+        return new AllocationFreeSurfaceFrictionCalculator(
+                _inputInterval, _curveTimeLength, _stiffness,
+                _maxFrictionForce, _maxFrictionThreshold,
+                _fragmentationThreshold, _fragmentationTimeResolution,
+                _fbcCreator
+        );
+    }
+
+    /**
+     * 直近に生成したファジィベジェ曲線を返します。
+     * 呼び出しのたびに曲線を生成するため、力の計算には用いないでください。
+     * @return ファジィベジェ曲線 (生成されていない場合はnull)
+     */
+    public BezierCurve getFbc() {
+        if (!m_fbcAvailable) {
+            return null;
+        }
+        Point[] cp = new Point[m_degree + 1];
+        for (int i = 0; i < cp.length; ++i) {
+            cp[i] = Point.createXYZTF(
+                    m_controlPoints[i * 4], m_controlPoints[i * 4 + 1], m_controlPoints[i * 4 + 2],
+                    0, m_controlPoints[i * 4 + 3]);
+        }
+        return BezierCurve.create(cp, Range.zeroToOne());
+    }
+
+    /**
+     * 設定されている表面を返します。
+     * @return 表面
+     */
+    public ArrayList<FrictionSurface> getSurfaces() {
+        ArrayList<FrictionSurface> surfaces = new ArrayList<>(m_surfaceNum);
+        for (int i = 0; i < m_surfaceNum; ++i) {
+            surfaces.add(m_surfaces[i]);
+        }
+        return surfaces;
+    }
+
+    /**
+     * 表面ごとの静止摩擦状態を返します。
+     * @return 静止摩擦状態
+     */
+    public HashMap<FrictionSurface, Boolean> getFlags() {
+        HashMap<FrictionSurface, Boolean> flags = new HashMap<>();
+        for (int i = 0; i < m_surfaceNum; ++i) {
+            flags.put(m_surfaces[i], m_flags[i]);
+        }
+        return flags;
+    }
+
+    /**
+     * 表面の静止摩擦状態を返します。オブジェクトを生成しません。
+     * @param _index 表面の番号 (追加した順の添字)
+     * @return 静止摩擦状態の場合はtrue
+     * @throws IndexOutOfBoundsException 番号が範囲外の場合
+     */
+    public boolean getFlag(int _index) {
+        if (_index < 0 || _index >= m_surfaceNum) {
+            throw new IndexOutOfBoundsException("index : " + _index + ", size : " + m_surfaceNum);
+        }
+        return m_flags[_index];
+    }
+
+    /**
+     * 表面を追加します。
+     * @param _surface 表面
+     */
+    public void add(FrictionSurface _surface) {
+        if (m_surfaceNum == m_surfaces.length) {
+            int capacity = Math.max(m_surfaces.length * 2, 4);
+            m_surfaces = Arrays.copyOf(m_surfaces, capacity);
+            m_flags = Arrays.copyOf(m_flags, capacity);
+            m_labels = Arrays.copyOf(m_labels, capacity);
+        }
+        m_surfaces[m_surfaceNum] = _surface;
+        m_flags[m_surfaceNum] = false;
+        m_labels[m_surfaceNum] = UNKNOWN;
+        ++m_surfaceNum;
+        m_broadPhase.invalidate();
+    }
+
+    /**
+     * 表面を追加します。
+     * @param _surfaces 表面
+     */
+    public void addAll(FrictionSurface... _surfaces) {
+        for (FrictionSurface surface : _surfaces) {
+            add(surface);
+        }
+    }
+
+    /**
+     * 表面を削除します。
+     * @param _surface 表面
+     */
+    public void remove(FrictionSurface _surface) {
+        for (int i = 0; i < m_surfaceNum; ++i) {
+            if (m_surfaces[i].equals(_surface)) {
+                int moved = m_surfaceNum - i - 1;
+                System.arraycopy(m_surfaces, i + 1, m_surfaces, i, moved);
+                System.arraycopy(m_flags, i + 1, m_flags, i, moved);
+                System.arraycopy(m_labels, i + 1, m_labels, i, moved);
+                --m_surfaceNum;
+                m_surfaces[m_surfaceNum] = null;
+                m_labels[m_surfaceNum] = null;
+                m_broadPhase.invalidate();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 表面を全て削除します。
+     */
+    public void removeAll() {
+        Arrays.fill(m_surfaces, 0, m_surfaceNum, null);
+        Arrays.fill(m_labels, 0, m_surfaceNum, null);
+        m_surfaceNum = 0;
+        m_broadPhase.invalidate();
+    }
+
+    @Override
+    public Vector calculate(Point _point) {
+        update(_point.x(), _point.y(), _point.z(), _point.time(), _point.fuzziness(), m_force);
+        return Vector.createXYZ(m_force[0], m_force[1], m_force[2]);
+    }
+
+    /**
+     * 力を計算します。オブジェクトを生成しません。
+     * @param _x    X座標
+     * @param _y    Y座標
+     * @param _z    Z座標
+     * @param _time 時刻 (s)
+     * @param _out  力の格納先 [x, y, z]
+     */
+    public void calculate(double _x, double _y, double _z, double _time, double[] _out) {
+        update(_x, _y, _z, _time, 0.0, _out);
+    }
+
+    /**
+     * 静止摩擦状態の表面ごとに、現在の点を表面へ投影した点をアンカー点、表面の法線を法線とする要素を格納します。
+     * 表面の法線を求めるため、静止摩擦状態の表面ごとにオブジェクトを生成します。
+     * @param _out 格納先 (既存の要素は削除します)
+     * @return モデルで表せた場合はtrue
+     */
+    @Override
+    public boolean impedance(ImpedanceModel _out) {
+        _out.clear();
+        _out.setReleaseThreshold(m_maxFrictionThreshold);
+        final double[] current = m_current;
+        for (int k = 0; k < m_surfaceNum; ++k) {
+            if (!m_flags[k]) {
+                continue;
+            }
+            m_surfaces[k].projection(current[0], current[1], current[2], m_projection);
+            Vector normal = m_surfaces[k].normal(Point.createXYZ(current[0], current[1], current[2]));
+            if (!_out.add(m_projection[0], m_projection[1], m_projection[2], normal.x(), normal.y(), normal.z(),
+                    m_stiffness, m_maxFrictionForce, current[3] * m_stiffness)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 入力点で状態を更新して力を求めます。
+     * @param _x         X座標
+     * @param _y         Y座標
+     * @param _z         Z座標
+     * @param _time      時刻 (s)
+     * @param _fuzziness ファジネス
+     * @param _out       力の格納先 [x, y, z]
+     */
+    private void update(double _x, double _y, double _z, double _time, double _fuzziness, double[] _out) {
+        // 一定時間間隔でサンプリングする
+        if (_time - m_preTime > m_inputInterval) {
+            m_window.add(_x, _y, _z, _time);
+            m_preTime = _time;
+        }
+        // 一定時間以前の点を削除する
+        m_window.removeBefore(_time - m_curveTimeLength);
+
+        if (!m_broadPhase.isValid()) {
+            // 表面の追加・削除後のみオブジェクトを生成する
+            m_broadPhase.rebuild(m_surfaces, m_surfaceNum);
+            for (int k = 0; k < m_surfaceNum; ++k) {
+                m_broadPhase.track(k, m_flags[k]);
+            }
+        }
+        double[] current = m_current;
+        int candidateNum;
+        current[0] = _x;
+        current[1] = _y;
+        current[2] = _z;
+        current[3] = _fuzziness;
+        m_fbcAvailable = m_window.createFBC(m_controlPoints);
+        // fbcが生成された場合は停止性を計算
+        if (m_fbcAvailable) {
+            final int num = m_pointNum;
+            final double[] points = m_points;
+            for (int i = 0; i < num; ++i) {
+                double t = (i == num - 1) ? 1.0 : i * (1.0 / (num - 1));
+                evaluate(t, points, i * 4);
+                m_xs[i] = points[i * 4];
+                m_ys[i] = points[i * 4 + 1];
+                m_zs[i] = points[i * 4 + 2];
+            }
+            System.arraycopy(points, (num - 1) * 4, current, 0, 4);
+            // 終点の近くの表面と静止摩擦状態の表面に絞り込む (それ以外の表面は移動と判定され、力も生じない)
+            candidateNum = m_broadPhase.select(current[0], current[1], current[2],
+                    m_cullable ? current[3] : Double.POSITIVE_INFINITY, m_surfaceNum);
+            // 平面ごとに処理をする
+            final double[] distances = m_distances;
+            for (int c = 0; c < candidateNum; ++c) {
+                int k = m_broadPhase.candidate(c);
+                FrictionSurface surface = m_surfaces[k];
+                // 平面との距離をまとめて計算
+                surface.distances(m_xs, m_ys, m_zs, num, distances);
+                // 平面ごとの停止性を更新
+                m_labels[k] = fragmentation(distances, points, num);
+            }
+        } else {
+            // 停止性は更新されないため、静止摩擦状態の表面のみが力を生じうる
+            candidateNum = m_broadPhase.selectTracked();
+        }
+        updateState(current, candidateNum, _out);
+    }
+
+    /**
+     * ファジィベジェ曲線を評価します。
+     * @param _t      パラメータ
+     * @param _out    評価点の格納先 [x, y, z, ファジネス]
+     * @param _offset 格納位置
+     */
+    private void evaluate(double _t, double[] _out, int _offset) {
+        final int degree = m_degree;
+        final double[] work = m_work;
+        System.arraycopy(m_controlPoints, 0, work, 0, (degree + 1) * 4);
+        for (int i = 0; i < degree; ++i) {
+            for (int j = 0; j < degree - i; ++j) {
+                for (int c = 0; c < 4; ++c) {
+                    work[j * 4 + c] = (1 - _t) * work[j * 4 + c] + _t * work[(j + 1) * 4 + c];
+                }
+            }
+        }
+        System.arraycopy(work, 0, _out, _offset, 4);
+    }
+
+    /**
+     * チャンクのラベルを返す
+     * @param _distances 表面との距離 (ファジィ数の頂点)
+     * @param _points    評価点列 [x, y, z, ファジネス] (ファジネスがファジィ数のファジネス)
+     * @param _num       評価点数
+     * @return チャンクラベル
+     */
+    private FuzzyFragmentation.State fragmentation(double[] _distances, double[] _points, int _num) {
+        double lastVertex = _distances[_num - 1];
+        double lastFuzziness = _points[(_num - 1) * 4 + 3];
+        double nec = Math.max((lastFuzziness - lastVertex) / lastFuzziness, 0.0);
+        double pos = nec;
+        // 必然性値が0の場合は平面上に無い
+        if (nec != 0) {
+            for (int i = 0; i < _num - 1; ++i) {
+                // FuzzyValue#includedIn と同じ計算
+                double fuzziness = _points[i * 4 + 3];
+                double distance = Math.abs(_distances[i] - lastVertex);
+                double sum = lastFuzziness + fuzziness;
+                double n;
+                double p;
+                if (Double.isInfinite(sum)) {
+                    n = 0.0;
+                    p = 1.0;
+                } else {
+                    n = Math.max((fuzziness - distance) / sum, 0.0);
+                    p = Math.max((sum - distance) / sum, 0.0);
+                    if (Double.isNaN(n) && Double.isNaN(p)) {
+                        n = 0.5;
+                        p = 1.0;
+                    }
+                }
+                nec = Math.min(nec, n);
+                pos = Math.min(pos, p);
+            }
+        }
+        if (nec < m_fragmentationThreshold.necessity() && pos < m_fragmentationThreshold.possibility()) {
+            return FuzzyFragmentation.State.MOVE;
+        } else if (m_fragmentationThreshold.necessity() < nec && m_fragmentationThreshold.possibility() < pos) {
+            return FuzzyFragmentation.State.STAY;
+        } else {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * 各表面の状態を更新して最終的な力を求める。
+     * @param _current      現在のファジィポイント [x, y, z, ファジネス]
+     * @param _candidateNum 絞り込んだ表面の数
+     * @param _out          合成力の格納先 [x, y, z]
+     */
+    private void updateState(double[] _current, int _candidateNum, double[] _out) {
+        final double[] projection = m_projection;
+        double fx = 0.0;
+        double fy = 0.0;
+        double fz = 0.0;
+        // 平面ごとに計算
+        for (int c = 0; c < _candidateNum; ++c) {
+            int k = m_broadPhase.candidate(c);
+            // この平面のファジィ力
+            m_surfaces[k].projection(_current[0], _current[1], _current[2], projection);
+            double vx = projection[0] - _current[0];
+            double vy = projection[1] - _current[1];
+            double vz = projection[2] - _current[2];
+            double vertex = Math.sqrt(vx * vx + vy * vy + vz * vz) * m_stiffness;
+            double nec = calcForceNecessity(vertex, _current[3] * m_stiffness);
+            FuzzyFragmentation.State label = m_labels[k];
+            if (m_flags[k]) {
+                if (nec >= m_maxFrictionThreshold && label != FuzzyFragmentation.State.STAY) {
+                    m_flags[k] = false;
+                    m_broadPhase.track(k, false);
+                    // この平面の力は計算しない
+                    continue;
+                }
+            } else {
+                if (label == FuzzyFragmentation.State.STAY) {
+                    m_flags[k] = true;
+                    m_broadPhase.track(k, true);
+                } else {
+                    // この平面の力は計算しない
+                    continue;
+                }
+            }
+            // この平面による力を合成
+            double ratio = 1 - nec;
+            fx += vx * ratio;
+            fy += vy * ratio;
+            fz += vz * ratio;
+        }
+        _out[0] = fx * m_stiffness;
+        _out[1] = fy * m_stiffness;
+        _out[2] = fz * m_stiffness;
+    }
+
+    /**
+     * ファジィ力が最大静止摩擦力を超えている可能性値の計算
+     * @param _vertex    ファジィ力の頂点
+     * @param _fuzziness ファジィ力のファジネス
+     * @return 可能性値
+     */
+    private double calcForceNecessity(double _vertex, double _fuzziness) {
+        return Math.min(Math.max((Math.abs(_vertex) - m_maxFrictionForce) / _fuzziness, 0.0), 1.0);
+    }
+
+    private AllocationFreeSurfaceFrictionCalculator(
+            double _inputInterval,
+            double _curveTimeLength,
+            double _stiffness,
+            double _maxFrictionForce,
+            double _maxFrictionThreshold,
+            TruthValue _fragmentationThreshold,
+            double _fragmentationTimeResolution,
+            FuzzyBezierCurveCreator _fbcCreator
+    ) {
+        this.m_inputInterval = _inputInterval;
+        this.m_curveTimeLength = _curveTimeLength;
+        this.m_stiffness = _stiffness;
+        this.m_maxFrictionForce = _maxFrictionForce;
+        this.m_maxFrictionThreshold = _maxFrictionThreshold;
+        this.m_fragmentationThreshold = _fragmentationThreshold;
+        this.m_window = StreamingFBCCreator.create(_fbcCreator, _curveTimeLength);
+        this.m_degree = _fbcCreator.degree();
+        this.m_pointNum = (int) (_curveTimeLength / _fragmentationTimeResolution);
+        this.m_controlPoints = new double[(m_degree + 1) * 4];
+        this.m_work = new double[(m_degree + 1) * 4];
+        this.m_points = new double[m_pointNum * 4];
+        this.m_distances = new double[m_pointNum];
+        this.m_xs = new double[m_pointNum];
+        this.m_ys = new double[m_pointNum];
+        this.m_zs = new double[m_pointNum];
+        // 必然性値・可能性値が0でも停止と判定される閾値では絞り込めない
+        this.m_cullable = !(_fragmentationThreshold.necessity() < 0 && _fragmentationThreshold.possibility() < 0);
+    }
+
+    /** 前回サンプリング時間 */
+    private double m_preTime = 0.0;
+    /** FBCが生成されているか */
+    private boolean m_fbcAvailable = false;
+
+    /** 表面 */
+    private FrictionSurface[] m_surfaces = new FrictionSurface[4];
+    /** 表面ごとの静止摩擦状態 */
+    private boolean[] m_flags = new boolean[4];
+    /** 表面ごとの停止性 */
+    private FuzzyFragmentation.State[] m_labels = new FuzzyFragmentation.State[4];
+    /** 表面の数 */
+    private int m_surfaceNum = 0;
+    /** 停止性を判定する表面の絞り込み */
+    private final SurfaceBroadPhase m_broadPhase = SurfaceBroadPhase.create(SurfaceFrictionCalculator.BROAD_PHASE_MARGIN);
+    /** 表面を絞り込めるか */
+    private final boolean m_cullable;
+
+    /** 入力点列のサンプリング間隔 (s) */
+    private final double m_inputInterval;
+    /** 曲線の生成に用いる点列の時間長 (s) */
+    private final double m_curveTimeLength;
+    /** バネ定数 (N/[距離]) */
+    private final double m_stiffness;
+    /** 最大静止摩擦力 (N) */
+    private final double m_maxFrictionForce;
+    /** 最大静止摩擦超過閾値 */
+    private final double m_maxFrictionThreshold;
+    /** サンプリング点列の時間窓 */
+    private final StreamingFBCCreator m_window;
+    /** FBCの次数 */
+    private final int m_degree;
+
+    /** フラグメンテーションの閾値 */
+    private final TruthValue m_fragmentationThreshold;
+    /** フラグメンテーションに用いる評価点数 */
+    private final int m_pointNum;
+
+    /** FBCの制御点 [x, y, z, ファジネス] */
+    private final double[] m_controlPoints;
+    /** FBCの評価点列 [x, y, z, ファジネス] */
+    private final double[] m_points;
+    /** 評価点列の座標 */
+    private final double[] m_xs;
+    private final double[] m_ys;
+    private final double[] m_zs;
+    /** 評価点列と表面との距離 */
+    private final double[] m_distances;
+    /** 現在のファジィポイント [x, y, z, ファジネス] */
+    private final double[] m_current = new double[4];
+    /** 表面への投影点 [x, y, z] */
+    private final double[] m_projection = new double[3];
+    /** 力 [x, y, z] */
+    private final double[] m_force = new double[3];
+    /** 作業領域 */
+    private final double[] m_work;
+}
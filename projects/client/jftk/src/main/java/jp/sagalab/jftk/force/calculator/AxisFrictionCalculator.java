@@ -1,22 +1,23 @@
 package jp.sagalab.jftk.force.calculator;
 
 import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.PointBuffer;
 import jp.sagalab.jftk.TruthValue;
 import jp.sagalab.jftk.Vector;
 import jp.sagalab.jftk.curve.BezierCurve;
 import jp.sagalab.jftk.curve.ParametricEvaluable;
 import jp.sagalab.jftk.force.FuzzyValue;
+import jp.sagalab.jftk.force.impedance.ImpedanceModel;
 import jp.sagalab.jftk.fragmentation.FuzzyFragmentation;
 import jp.sagalab.jftk.fuzzybeziercurve.FuzzyBezierCurveCreator;
-
-import java.util.ArrayList;
+import jp.sagalab.jftk.fuzzybeziercurve.StreamingFBCCreator;
 
 import static jp.sagalab.jftk.fragmentation.FuzzyFragmentation.State.UNKNOWN;
 
 /**
  * 軸別静止摩擦力の計算をします。
  */
-public class AxisFrictionCalculator implements ForceCalculator {
+public class AxisFrictionCalculator implements ImpedanceCalculator {
 
     /**
      * 軸別静止摩擦力計算機を生成します。
@@ -67,7 +68,7 @@ public class AxisFrictionCalculator implements ForceCalculator {
                 _inputInterval, _curveTimeLength, _stiffness,
                 _maxFrictionForce, _maxFrictionThreshold,
                 _fragmentationThreshold, _fragmentationTimeResolution,
-                FuzzyBezierCurveCreator.create(_curveTimeLength)
+                _fbcCreator
         );
     }
 
@@ -107,34 +108,35 @@ public class AxisFrictionCalculator implements ForceCalculator {
     public Vector calculate(Point _point) {
         // 一定時間間隔でサンプリングする
         if (_point.time() - preTime > m_inputInterval) {
-            points.add(_point);
+            m_window.add(_point);
             preTime = _point.time();
         }
         // 一定時間以前の点を削除する
-        points.removeIf((p) -> p.time() < _point.time() - m_curveTimeLength);
+        m_window.removeBefore(_point.time() - m_curveTimeLength);
 
         Point current = _point;
-        fbc = m_fbcCreator.createFBC(points.toArray(new Point[0]));
+        fbc = m_window.createFBC();
         // fbcが生成された場合は停止性を計算
         if (fbc != null) {
             int num = (int) (m_curveTimeLength / m_fragmentationTimeResolution);
-            Point[] points = fbc.evaluateAll(num, ParametricEvaluable.EvaluationType.TIME);
+            fbc.evaluateAllInto(num, ParametricEvaluable.EvaluationType.TIME, m_points);
+            int size = m_points.size();
             // 各軸方向の値に分解
-            FuzzyValue[] x = new FuzzyValue[points.length];
-            FuzzyValue[] y = new FuzzyValue[points.length];
-            FuzzyValue[] z = new FuzzyValue[points.length];
-            for (int i = 0; i < points.length; ++i) {
-                Point p = points[i];
-                x[i] = FuzzyValue.create(p.x(), p.fuzziness());
-                y[i] = FuzzyValue.create(p.y(), p.fuzziness());
-                z[i] = FuzzyValue.create(p.z(), p.fuzziness());
+            FuzzyValue[] x = new FuzzyValue[size];
+            FuzzyValue[] y = new FuzzyValue[size];
+            FuzzyValue[] z = new FuzzyValue[size];
+            for (int i = 0; i < size; ++i) {
+                double f = m_points.fuzziness(i);
+                x[i] = FuzzyValue.create(m_points.x(i), f);
+                y[i] = FuzzyValue.create(m_points.y(i), f);
+                z[i] = FuzzyValue.create(m_points.z(i), f);
             }
 
             // 各軸の停止性を計算
             labels[0] = fragmentation(x);
             labels[1] = fragmentation(y);
             labels[2] = fragmentation(z);
-            current = points[points.length - 1];
+            current = m_points.get(size - 1);
         }
 
         if (anchor == null) {
@@ -146,10 +148,34 @@ public class AxisFrictionCalculator implements ForceCalculator {
         double x = updateState(0, current, vector);
         double y = updateState(1, current, vector);
         double z = updateState(2, current, vector);
+        m_current = current;
 
         return Vector.createXYZ(x, y, z);
     }
 
+    /**
+     * 静止摩擦状態の軸ごとに、アンカーポイントをアンカー点、軸方向を法線とする要素を格納します。
+     * @param _out 格納先 (既存の要素は削除します)
+     * @return モデルで表せた場合はtrue
+     */
+    @Override
+    public boolean impedance(ImpedanceModel _out) {
+        _out.clear();
+        _out.setReleaseThreshold(m_maxFrictionThreshold);
+        if (m_current == null) {
+            return true;
+        }
+        double band = m_current.fuzziness() * m_stiffness;
+        for (int i = 0; i < flags.length; ++i) {
+            if (flags[i]) {
+                _out.add(anchor.x(), anchor.y(), anchor.z(),
+                        i == 0 ? 1 : 0, i == 1 ? 1 : 0, i == 2 ? 1 : 0,
+                        m_stiffness, m_maxFrictionForce, band);
+            }
+        }
+        return true;
+    }
+
     /**
      * チャンクのラベルを返す
      * @param values ファジィ数
@@ -243,20 +269,23 @@ public class AxisFrictionCalculator implements ForceCalculator {
         this.m_fragmentationThreshold = _fragmentationThreshold;
         this.m_fragmentationTimeResolution = _fragmentationTimeResolution;
         this.m_fbcCreator = _fbcCreator;
+        this.m_window = StreamingFBCCreator.create(_fbcCreator, _curveTimeLength);
     }
 
     /** ファジィベジェ曲線 */
     private BezierCurve fbc = null;
-    /** サンプリング点列 */
-    private final ArrayList<Point> points = new ArrayList<>();
     /** 前回サンプリング時間 */
     private double preTime = 0.0;
     /** アンカーポイント */
     private Point anchor = null;
+    /** 直前の計算に用いたファジィポイント */
+    private Point m_current = null;
     /** 静止摩擦状態　[x, y, z] */
     private final boolean[] flags = new boolean[]{false, false, false};
     /** 停止性 [x, y, z] */
     private final FuzzyFragmentation.State[] labels = new FuzzyFragmentation.State[]{UNKNOWN, UNKNOWN, UNKNOWN};
+    /** 評価点列 */
+    private final PointBuffer m_points = PointBuffer.create(0);
 
     /** 入力点列のサンプリング間隔 (s) */
     private final double m_inputInterval;
@@ -270,6 +299,8 @@ public class AxisFrictionCalculator implements ForceCalculator {
     private final double m_maxFrictionThreshold;
     /** FBC生成器 */
     private final FuzzyBezierCurveCreator m_fbcCreator;
+    /** サンプリング点列の時間窓 */
+    private final StreamingFBCCreator m_window;
 
     /** フラグメンテーションの閾値 */
     private final TruthValue m_fragmentationThreshold;
@@ -0,0 +1,16 @@
+package jp.sagalab.jftk.force.calculator;
+
+import jp.sagalab.jftk.force.impedance.ImpedanceModel;
+
+/**
+ * 力に加えて、デバイス側で描画できるインピーダンスモデルを返せる計算機のインタフェースです。
+ */
+public interface ImpedanceCalculator extends ForceCalculator {
+
+    /**
+     * 直前の {@link #calculate} の後の状態をインピーダンスモデルとして格納します。
+     * @param _out 格納先 (既存の要素は削除します)
+     * @return モデルで表せた場合はtrue (要素数が上限を超える場合はfalse)
+     */
+    boolean impedance(ImpedanceModel _out);
+}
@@ -0,0 +1,210 @@
+package jp.sagalab.jftk.force.calculator;
+
+import jp.sagalab.jftk.force.surface.BoundingVolumeHierarchy;
+import jp.sagalab.jftk.force.surface.FrictionSurface;
+
+import java.util.Arrays;
+
+/**
+ * 表面静止摩擦力計算機で、停止性を判定する表面を絞り込みます。
+ * <p>
+ * FBCの終点と表面の距離が終点のファジネス以上であれば、必然性値は0になり、その表面は移動と判定されます。
+ * そこで、囲める表面は {@link BoundingVolumeHierarchy} に登録し、
+ * 終点からファジネスと余裕の和以内にある表面だけを候補とします。
+ * 囲めない表面 (平面など) と、静止摩擦状態の表面は常に候補とします。
+ * </p>
+ * <p>
+ * 表面の番号は計算機に追加した順の添字です。表面を追加・削除した場合は {@link #invalidate()} を呼び、
+ * 次の判定の前に {@link #rebuild(FrictionSurface[], int)} で構築し直してください。
+ * </p>
+ */
+final class SurfaceBroadPhase {
+
+    /**
+     * 絞り込みを生成します。
+     * @param _margin 余裕 (座標の単位)
+     * @return 絞り込み
+     */
+    static SurfaceBroadPhase create(double _margin) {
+        if (!(_margin >= 0)) {
+            throw new IllegalArgumentException("invalid margin : " + _margin);
+        }
+        return new SurfaceBroadPhase(_margin);
+    }
+
+    /**
+     * 表面の追加・削除により、構築し直す必要があることを記録します。
+     */
+    void invalidate() {
+        m_valid = false;
+    }
+
+    /**
+     * 構築済みかを返します。
+     * @return 構築済みの場合はtrue
+     */
+    boolean isValid() {
+        return m_valid;
+    }
+
+    /**
+     * 表面の集合から構築し直します。静止摩擦状態の表面は全て解除されるため、{@link #track(int, boolean)} で設定し直してください。
+     * @param _surfaces 表面
+     * @param _num      表面の数
+     */
+    void rebuild(FrictionSurface[] _surfaces, int _num) {
+        if (m_tracked.length < _num) {
+            int capacity = Math.max(_num, m_tracked.length * 2);
+            m_tracked = new boolean[capacity];
+            m_trackedIndexes = new int[capacity];
+            m_marked = new boolean[capacity];
+            m_candidates = new int[capacity];
+            m_unbounded = new int[capacity];
+        } else {
+            Arrays.fill(m_tracked, false);
+        }
+        m_trackedNum = 0;
+        m_unboundedNum = 0;
+        final double[] bounds = new double[_num * 6];
+        final double[] box = new double[6];
+        final int[] boundedIndexes = new int[_num];
+        int boundedNum = 0;
+        for (int i = 0; i < _num; ++i) {
+            if (_surfaces[i].bounds(box)) {
+                System.arraycopy(box, 0, bounds, boundedNum * 6, 6);
+                boundedIndexes[boundedNum++] = i;
+            } else {
+                m_unbounded[m_unboundedNum++] = i;
+            }
+        }
+        m_tree = BoundingVolumeHierarchy.create(bounds, boundedNum);
+        m_boundedIndexes = boundedIndexes;
+        m_hits = new int[boundedNum];
+        m_valid = true;
+    }
+
+    /**
+     * 表面が静止摩擦状態かを設定します。静止摩擦状態の表面は常に候補になります。
+     * @param _index    表面の番号
+     * @param _tracked  静止摩擦状態の場合はtrue
+     */
+    void track(int _index, boolean _tracked) {
+        if (m_tracked[_index] == _tracked) {
+            return;
+        }
+        m_tracked[_index] = _tracked;
+        if (_tracked) {
+            m_trackedIndexes[m_trackedNum++] = _index;
+        } else {
+            for (int i = 0; i < m_trackedNum; ++i) {
+                if (m_trackedIndexes[i] == _index) {
+                    m_trackedIndexes[i] = m_trackedIndexes[--m_trackedNum];
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 停止性を判定する表面を選びます。結果は {@link #candidate(int)} で番号の昇順に取り出せます。
+     * ファジネスが有限でない場合は全ての表面を選びます。
+     * @param _x         FBCの終点のX座標
+     * @param _y         FBCの終点のY座標
+     * @param _z         FBCの終点のZ座標
+     * @param _fuzziness FBCの終点のファジネス
+     * @param _num       表面の数
+     * @return 選んだ表面の数
+     */
+    int select(double _x, double _y, double _z, double _fuzziness, int _num) {
+        if (Double.isNaN(_fuzziness) || Double.isInfinite(_fuzziness)) {
+            for (int i = 0; i < _num; ++i) {
+                m_candidates[i] = i;
+            }
+            m_candidateNum = _num;
+            return _num;
+        }
+        m_candidateNum = 0;
+        for (int i = 0; i < m_unboundedNum; ++i) {
+            mark(m_unbounded[i]);
+        }
+        for (int i = 0; i < m_trackedNum; ++i) {
+            mark(m_trackedIndexes[i]);
+        }
+        final int hitNum = m_tree.query(_x, _y, _z, Math.max(_fuzziness, 0.0) + m_margin, m_hits);
+        for (int i = 0; i < hitNum; ++i) {
+            mark(m_boundedIndexes[m_hits[i]]);
+        }
+        return finish();
+    }
+
+    /**
+     * 静止摩擦状態の表面だけを選びます。FBCが生成されず停止性が更新されない場合に用います。
+     * @return 選んだ表面の数
+     */
+    int selectTracked() {
+        m_candidateNum = 0;
+        for (int i = 0; i < m_trackedNum; ++i) {
+            mark(m_trackedIndexes[i]);
+        }
+        return finish();
+    }
+
+    /**
+     * 選んだ表面の番号を返します。
+     * @param _k 何番目か
+     * @return 表面の番号
+     */
+    int candidate(int _k) {
+        return m_candidates[_k];
+    }
+
+    private void mark(int _index) {
+        if (!m_marked[_index]) {
+            m_marked[_index] = true;
+            m_candidates[m_candidateNum++] = _index;
+        }
+    }
+
+    /**
+     * 選んだ表面を番号の昇順に並べ、印を消します。
+     * 力の合成順を全ての表面を処理する場合と揃えるためです。
+     */
+    private int finish() {
+        Arrays.sort(m_candidates, 0, m_candidateNum);
+        for (int i = 0; i < m_candidateNum; ++i) {
+            m_marked[m_candidates[i]] = false;
+        }
+        return m_candidateNum;
+    }
+
+    private SurfaceBroadPhase(double _margin) {
+        m_margin = _margin;
+    }
+
+    /** ファジネスに加える余裕 */
+    private final double m_margin;
+    /** 構築済みか */
+    private boolean m_valid = false;
+
+    /** 囲める表面のBVH */
+    private BoundingVolumeHierarchy m_tree = BoundingVolumeHierarchy.create(new double[0], 0);
+    /** BVHの直方体の番号から表面の番号への対応 */
+    private int[] m_boundedIndexes = new int[0];
+    /** BVHの探索結果 */
+    private int[] m_hits = new int[0];
+    /** 囲めない表面の番号 */
+    private int[] m_unbounded = new int[0];
+    private int m_unboundedNum = 0;
+
+    /** 表面ごとの静止摩擦状態 */
+    private boolean[] m_tracked = new boolean[0];
+    /** 静止摩擦状態の表面の番号 */
+    private int[] m_trackedIndexes = new int[0];
+    private int m_trackedNum = 0;
+
+    /** 選んだ表面の番号 */
+    private int[] m_candidates = new int[0];
+    private int m_candidateNum = 0;
+    /** 選んだ表面の印 (重複を除くため) */
+    private boolean[] m_marked = new boolean[0];
+}
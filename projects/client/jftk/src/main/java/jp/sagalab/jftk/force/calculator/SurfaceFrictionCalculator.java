@@ -1,21 +1,24 @@
 package jp.sagalab.jftk.force.calculator;
 
 import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.PointBuffer;
 import jp.sagalab.jftk.TruthValue;
 import jp.sagalab.jftk.Vector;
 import jp.sagalab.jftk.curve.BezierCurve;
 import jp.sagalab.jftk.curve.ParametricEvaluable;
 import jp.sagalab.jftk.force.FuzzyValue;
+import jp.sagalab.jftk.force.impedance.ImpedanceModel;
 import jp.sagalab.jftk.force.surface.FrictionSurface;
 import jp.sagalab.jftk.fragmentation.FuzzyFragmentation;
 import jp.sagalab.jftk.fuzzybeziercurve.FuzzyBezierCurveCreator;
+import jp.sagalab.jftk.fuzzybeziercurve.StreamingFBCCreator;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 
 import static jp.sagalab.jftk.fragmentation.FuzzyFragmentation.State.UNKNOWN;
 
-public class SurfaceFrictionCalculator implements ForceCalculator {
+public class SurfaceFrictionCalculator implements ImpedanceCalculator {
 
     /**
      * 表面静止摩擦力計算機を生成します
@@ -59,6 +62,9 @@ public class SurfaceFrictionCalculator implements ForceCalculator {
         if (_curveTimeLength <= 0) {
             throw new IllegalArgumentException("invalid curve time length : " + _inputInterval);
         }
+        if (_fragmentationThreshold == null) {
+            throw new IllegalArgumentException("fragmentation threshold must not be null");
+        }
         if (_fbcCreator == null) {
             throw new IllegalArgumentException("fbc creator must not be null");
         }
@@ -66,7 +72,7 @@ public class SurfaceFrictionCalculator implements ForceCalculator {
                 _inputInterval, _curveTimeLength, _stiffness,
                 _maxFrictionForce, _maxFrictionThreshold,
                 _fragmentationThreshold, _fragmentationTimeResolution,
-                FuzzyBezierCurveCreator.create(_curveTimeLength)
+                _fbcCreator
         );
     }
 
@@ -102,6 +108,7 @@ public class SurfaceFrictionCalculator implements ForceCalculator {
         surfaces.add(_surface);
         flags.put(_surface, false);
         labels.put(_surface, UNKNOWN);
+        m_broadPhase.invalidate();
     }
 
     /**
@@ -122,6 +129,7 @@ public class SurfaceFrictionCalculator implements ForceCalculator {
         surfaces.remove(_surface);
         flags.remove(_surface);
         labels.remove(_surface);
+        m_broadPhase.invalidate();
     }
 
     /**
@@ -131,38 +139,93 @@ public class SurfaceFrictionCalculator implements ForceCalculator {
         surfaces.clear();
         flags.clear();
         labels.clear();
+        m_broadPhase.invalidate();
     }
 
     @Override
     public Vector calculate(Point _point) {
         // 一定時間間隔でサンプリングする
         if (_point.time() - preTime > m_inputInterval) {
-            points.add(_point);
+            m_window.add(_point);
             preTime = _point.time();
         }
         // 一定時間以前の点を削除する
-        points.removeIf((p) -> p.time() < _point.time() - m_curveTimeLength);
+        m_window.removeBefore(_point.time() - m_curveTimeLength);
 
+        if (!m_broadPhase.isValid()) {
+            rebuildBroadPhase();
+        }
         Point current = _point;
-        fbc = m_fbcCreator.createFBC(points.toArray(new Point[0]));
+        int candidateNum;
+        fbc = m_window.createFBC();
         // fbcが生成された場合は停止性を計算
         if (fbc != null) {
             int num = (int) (m_curveTimeLength / m_fragmentationTimeResolution);
-            Point[] points = fbc.evaluateAll(num, ParametricEvaluable.EvaluationType.TIME);
-            current = points[points.length - 1];
+            fbc.evaluateAllInto(num, ParametricEvaluable.EvaluationType.TIME, m_points);
+            int size = m_points.size();
+            current = m_points.get(size - 1);
+            // 終点の近くの表面と静止摩擦状態の表面に絞り込む (それ以外の表面は移動と判定され、力も生じない)
+            candidateNum = m_broadPhase.select(current.x(), current.y(), current.z(),
+                    m_cullable ? current.fuzziness() : Double.POSITIVE_INFINITY, surfaces.size());
+            if (m_distances.length < size) {
+                m_distances = new double[size];
+            }
+            double[] fuzzinesses = m_points.fuzzinesses();
             // 平面ごとに処理をする
-            for (FrictionSurface surface : surfaces) {
-                FuzzyValue[] distance = new FuzzyValue[points.length];
-                for (int i = 0; i < points.length; ++i) {
-                    Point p = points[i];
-                    // 平面との距離を計算
-                    distance[i] = FuzzyValue.create(surface.distance(p), p.fuzziness());
+            for (int k = 0; k < candidateNum; ++k) {
+                FrictionSurface surface = surfaces.get(m_broadPhase.candidate(k));
+                // 平面との距離をまとめて計算
+                surface.distances(m_points.xs(), m_points.ys(), m_points.zs(), size, m_distances);
+                FuzzyValue[] distance = new FuzzyValue[size];
+                for (int i = 0; i < size; ++i) {
+                    distance[i] = FuzzyValue.create(m_distances[i], fuzzinesses[i]);
                 }
                 // 平面ごとの停止性を更新
                 labels.put(surface, fragmentation(distance));
             }
+        } else {
+            // 停止性は更新されないため、静止摩擦状態の表面のみが力を生じうる
+            candidateNum = m_broadPhase.selectTracked();
+        }
+        m_current = current;
+        return updateState(current, candidateNum);
+    }
+
+    /**
+     * 静止摩擦状態の表面ごとに、現在の点を表面へ投影した点をアンカー点、表面の法線を法線とする要素を格納します。
+     * 平面では表面上を滑っても力が変わらないため、静止摩擦状態が変わるまで同じモデルで描画できます。
+     * @param _out 格納先 (既存の要素は削除します)
+     * @return モデルで表せた場合はtrue
+     */
+    @Override
+    public boolean impedance(ImpedanceModel _out) {
+        _out.clear();
+        _out.setReleaseThreshold(m_maxFrictionThreshold);
+        if (m_current == null) {
+            return true;
+        }
+        for (FrictionSurface surface : surfaces) {
+            if (!flags.get(surface)) {
+                continue;
+            }
+            Point anchor = surface.projection(m_current);
+            Vector normal = surface.normal(m_current);
+            if (!_out.add(anchor.x(), anchor.y(), anchor.z(), normal.x(), normal.y(), normal.z(),
+                    m_stiffness, m_maxFrictionForce, m_current.fuzziness() * m_stiffness)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 表面の絞り込みを構築し直します。
+     */
+    private void rebuildBroadPhase() {
+        m_broadPhase.rebuild(surfaces.toArray(new FrictionSurface[0]), surfaces.size());
+        for (int i = 0; i < surfaces.size(); ++i) {
+            m_broadPhase.track(i, flags.get(surfaces.get(i)));
         }
-        return updateState(current);
     }
 
     /**
@@ -193,13 +256,16 @@ public class SurfaceFrictionCalculator implements ForceCalculator {
 
     /**
      * 各軸の状態を更新して最終的な力を返す。
-     * @param current 　現在のファジィポイント
+     * @param current      　現在のファジィポイント
+     * @param candidateNum 絞り込んだ表面の数
      * @return 合成力
      */
-    private Vector updateState(Point current) {
+    private Vector updateState(Point current, int candidateNum) {
         Vector resultValue = Vector.createXYZ(0, 0, 0);
         // 平面ごとに計算
-        for (FrictionSurface surface : surfaces) {
+        for (int k = 0; k < candidateNum; ++k) {
+            int index = m_broadPhase.candidate(k);
+            FrictionSurface surface = surfaces.get(index);
             // この平面のファジィ力
             Vector v = Vector.createSE(current, surface.projection(current));
             FuzzyValue value = FuzzyValue.create(v.length() * m_stiffness, current.fuzziness() * m_stiffness);
@@ -209,6 +275,7 @@ public class SurfaceFrictionCalculator implements ForceCalculator {
             if (flag) {
                 if (nec >= m_maxFrictionThreshold && label != FuzzyFragmentation.State.STAY) {
                     flags.put(surface, false);
+                    m_broadPhase.track(index, false);
                     System.out.println(m_maxFrictionForce + " " + m_stiffness);
                     // この平面の力は計算しない
                     continue;
@@ -216,6 +283,7 @@ public class SurfaceFrictionCalculator implements ForceCalculator {
             } else {
                 if (label == FuzzyFragmentation.State.STAY) {
                     flags.put(surface, true);
+                    m_broadPhase.track(index, true);
                 } else {
                     // この平面の力は計算しない
                     continue;
@@ -254,14 +322,20 @@ public class SurfaceFrictionCalculator implements ForceCalculator {
         this.m_fragmentationThreshold = _fragmentationThreshold;
         this.m_fragmentationTimeResolution = _fragmentationTimeResolution;
         this.m_fbcCreator = _fbcCreator;
+        this.m_window = StreamingFBCCreator.create(_fbcCreator, _curveTimeLength);
+        // 必然性値・可能性値が0でも停止と判定される閾値では絞り込めない
+        this.m_cullable = !(_fragmentationThreshold.necessity() < 0 && _fragmentationThreshold.possibility() < 0);
     }
 
+    /** 表面の絞り込みでファジネスに加える余裕 (座標の単位) */
+    static final double BROAD_PHASE_MARGIN = 1e-3;
+
     /** ファジィベジェ曲線 */
     private BezierCurve fbc = null;
-    /** サンプリング点列 */
-    private final ArrayList<Point> points = new ArrayList<>();
     /** 前回サンプリング時間 */
     private double preTime = 0.0;
+    /** 直前の計算に用いたファジィポイント */
+    private Point m_current = null;
 
     /** 表面 */
     private final ArrayList<FrictionSurface> surfaces = new ArrayList<>();
@@ -269,6 +343,14 @@ public class SurfaceFrictionCalculator implements ForceCalculator {
     private final HashMap<FrictionSurface, Boolean> flags = new HashMap<>();
     /** 表面ごとの停止性 */
     private final HashMap<FrictionSurface, FuzzyFragmentation.State> labels = new HashMap<>();
+    /** 評価点列 */
+    private final PointBuffer m_points = PointBuffer.create(0);
+    /** 評価点列と表面との距離 */
+    private double[] m_distances = new double[0];
+    /** 停止性を判定する表面の絞り込み */
+    private final SurfaceBroadPhase m_broadPhase = SurfaceBroadPhase.create(BROAD_PHASE_MARGIN);
+    /** 表面を絞り込めるか */
+    private final boolean m_cullable;
 
     /** 入力点列のサンプリング間隔 (s) */
     private final double m_inputInterval;
@@ -282,6 +364,8 @@ public class SurfaceFrictionCalculator implements ForceCalculator {
     private final double m_maxFrictionThreshold;
     /** FBC生成器 */
     private final FuzzyBezierCurveCreator m_fbcCreator;
+    /** サンプリング点列の時間窓 */
+    private final StreamingFBCCreator m_window;
 
     /** フラグメンテーションの閾値 */
     private final TruthValue m_fragmentationThreshold;
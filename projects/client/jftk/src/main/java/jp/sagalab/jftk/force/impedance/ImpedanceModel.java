@@ -0,0 +1,430 @@
+package jp.sagalab.jftk.force.impedance;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * デバイス側のサーボループで描画する局所的なインピーダンスモデルです。
+ * <p>
+ * 力の代わりにこのモデルを送ることで、デバイスはモデルが変わるまで自身のサーボ周期で力を求められます。
+ * モデルは静止摩擦状態のバネ (要素) の並びで、各要素は次の値を持ちます。
+ * </p>
+ * <ul>
+ * <li>アンカー点 a : バネの自然長の位置を通る点</li>
+ * <li>法線 n : 変位を測る方向 (単位ベクトル)</li>
+ * <li>力の方向 f : 力を加える方向 (座標系の変換によっては法線と一致しません)</li>
+ * <li>バネ定数 k、最大静止摩擦力 F、ファジネス B</li>
+ * </ul>
+ * <p>
+ * 点 x における要素の力は s = k n・(a - x) に対して s (1 - nec) f です。
+ * nec = min(max((|s| - F) / B, 0), 1) は力が最大静止摩擦力を超えている必然性値で、
+ * 静止摩擦力計算機の静止摩擦状態の力と同じです。
+ * nec が離脱閾値以上になった要素は、次のモデルを受け取るまで力を生じません (離脱)。
+ * 計算機は停止性が STAY の間は離脱させないため、このときのみ計算機の力と異なります。
+ * </p>
+ * <p>
+ * 通信では要素数 (1バイト)、離脱閾値、要素ごとの12個の値を順に書き込みます。
+ * このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public class ImpedanceModel {
+
+    /** 要素数の上限 */
+    public static final int MAX_ELEMENTS = 16;
+    /** 要素ごとの値の数 (アンカー点、法線、力の方向、バネ定数、最大静止摩擦力、ファジネス) */
+    static final int STRIDE = 12;
+
+    /**
+     * 空のモデルを生成します。
+     * @return モデル
+     */
+    public static ImpedanceModel create() {
+        return new ImpedanceModel();
+    }
+
+    /**
+     * 要素の数を指定した時の符号化後のバイト数を返します。
+     * @param _num 要素の数
+     * @return バイト数
+     */
+    public static int encodedSize(int _num) {
+        return 1 + 8 + _num * STRIDE * 8;
+    }
+
+    /**
+     * 要素を全て削除します。
+     */
+    public void clear() {
+        m_num = 0;
+    }
+
+    /**
+     * 要素を追加します。
+     * 法線は正規化し、力の方向はそのまま用います。
+     * @param _ax        アンカー点のX座標
+     * @param _ay        アンカー点のY座標
+     * @param _az        アンカー点のZ座標
+     * @param _nx        法線のX成分
+     * @param _ny        法線のY成分
+     * @param _nz        法線のZ成分
+     * @param _fx        力の方向のX成分
+     * @param _fy        力の方向のY成分
+     * @param _fz        力の方向のZ成分
+     * @param _stiffness バネ定数
+     * @param _limit     最大静止摩擦力
+     * @param _band      ファジネス (0以下の場合は最大静止摩擦力を超えた時点で離脱します)
+     * @return 追加できた場合はtrue (要素数が上限に達しているか、法線が零ベクトルの場合はfalse)
+     */
+    public boolean add(double _ax, double _ay, double _az,
+                       double _nx, double _ny, double _nz,
+                       double _fx, double _fy, double _fz,
+                       double _stiffness, double _limit, double _band) {
+        final double length = Math.sqrt(_nx * _nx + _ny * _ny + _nz * _nz);
+        if (m_num == MAX_ELEMENTS || length == 0) {
+            return false;
+        }
+        final int o = m_num * STRIDE;
+        m_values[o] = _ax;
+        m_values[o + 1] = _ay;
+        m_values[o + 2] = _az;
+        m_values[o + 3] = _nx / length;
+        m_values[o + 4] = _ny / length;
+        m_values[o + 5] = _nz / length;
+        m_values[o + 6] = _fx;
+        m_values[o + 7] = _fy;
+        m_values[o + 8] = _fz;
+        m_values[o + 9] = _stiffness;
+        m_values[o + 10] = _limit;
+        m_values[o + 11] = _band;
+        m_released[m_num] = false;
+        ++m_num;
+        return true;
+    }
+
+    /**
+     * 法線方向に力を加える要素を追加します。
+     * @param _ax        アンカー点のX座標
+     * @param _ay        アンカー点のY座標
+     * @param _az        アンカー点のZ座標
+     * @param _nx        法線のX成分
+     * @param _ny        法線のY成分
+     * @param _nz        法線のZ成分
+     * @param _stiffness バネ定数
+     * @param _limit     最大静止摩擦力
+     * @param _band      ファジネス
+     * @return 追加できた場合はtrue (要素数が上限に達しているか、法線が零ベクトルの場合はfalse)
+     */
+    public boolean add(double _ax, double _ay, double _az,
+                       double _nx, double _ny, double _nz,
+                       double _stiffness, double _limit, double _band) {
+        final double length = Math.sqrt(_nx * _nx + _ny * _ny + _nz * _nz);
+        if (length == 0) {
+            return false;
+        }
+        return add(_ax, _ay, _az, _nx, _ny, _nz, _nx / length, _ny / length, _nz / length, _stiffness, _limit, _band);
+    }
+
+    /**
+     * 要素の数を返します。
+     * @return 要素の数
+     */
+    public int size() {
+        return m_num;
+    }
+
+    /**
+     * 離脱閾値を返します。
+     * @return 離脱閾値
+     */
+    public double getReleaseThreshold() {
+        return m_releaseThreshold;
+    }
+
+    /**
+     * 離脱閾値を設定します。
+     * @param _threshold 離脱閾値
+     */
+    public void setReleaseThreshold(double _threshold) {
+        m_releaseThreshold = _threshold;
+    }
+
+    /**
+     * アンカー点のX座標を返します。
+     * @param _i 要素の添字
+     * @return X座標
+     */
+    public double anchorX(int _i) {
+        return value(_i, 0);
+    }
+
+    /**
+     * アンカー点のY座標を返します。
+     * @param _i 要素の添字
+     * @return Y座標
+     */
+    public double anchorY(int _i) {
+        return value(_i, 1);
+    }
+
+    /**
+     * アンカー点のZ座標を返します。
+     * @param _i 要素の添字
+     * @return Z座標
+     */
+    public double anchorZ(int _i) {
+        return value(_i, 2);
+    }
+
+    /**
+     * 法線のX成分を返します。
+     * @param _i 要素の添字
+     * @return X成分
+     */
+    public double normalX(int _i) {
+        return value(_i, 3);
+    }
+
+    /**
+     * 法線のY成分を返します。
+     * @param _i 要素の添字
+     * @return Y成分
+     */
+    public double normalY(int _i) {
+        return value(_i, 4);
+    }
+
+    /**
+     * 法線のZ成分を返します。
+     * @param _i 要素の添字
+     * @return Z成分
+     */
+    public double normalZ(int _i) {
+        return value(_i, 5);
+    }
+
+    /**
+     * 力の方向のX成分を返します。
+     * @param _i 要素の添字
+     * @return X成分
+     */
+    public double directionX(int _i) {
+        return value(_i, 6);
+    }
+
+    /**
+     * 力の方向のY成分を返します。
+     * @param _i 要素の添字
+     * @return Y成分
+     */
+    public double directionY(int _i) {
+        return value(_i, 7);
+    }
+
+    /**
+     * 力の方向のZ成分を返します。
+     * @param _i 要素の添字
+     * @return Z成分
+     */
+    public double directionZ(int _i) {
+        return value(_i, 8);
+    }
+
+    /**
+     * バネ定数を返します。
+     * @param _i 要素の添字
+     * @return バネ定数
+     */
+    public double stiffness(int _i) {
+        return value(_i, 9);
+    }
+
+    /**
+     * 最大静止摩擦力を返します。
+     * @param _i 要素の添字
+     * @return 最大静止摩擦力
+     */
+    public double limit(int _i) {
+        return value(_i, 10);
+    }
+
+    /**
+     * ファジネスを返します。
+     * @param _i 要素の添字
+     * @return ファジネス
+     */
+    public double band(int _i) {
+        return value(_i, 11);
+    }
+
+    /**
+     * 要素が離脱したかを返します。
+     * @param _i 要素の添字
+     * @return 離脱した場合はtrue
+     */
+    public boolean isReleased(int _i) {
+        if (_i < 0 || _i >= m_num) {
+            throw new IndexOutOfBoundsException("index : " + _i + ", size : " + m_num);
+        }
+        return m_released[_i];
+    }
+
+    /**
+     * 点における力を求めます (デバイス側の描画の参照実装)。
+     * 離脱閾値を超えた要素は離脱させ、以降は力を生じません。オブジェクトを生成しません。
+     * @param _x   X座標
+     * @param _y   Y座標
+     * @param _z   Z座標
+     * @param _out 力の格納先 [x, y, z]
+     */
+    public void render(double _x, double _y, double _z, double[] _out) {
+        double fx = 0.0;
+        double fy = 0.0;
+        double fz = 0.0;
+        final double[] v = m_values;
+        for (int i = 0; i < m_num; ++i) {
+            if (m_released[i]) {
+                continue;
+            }
+            final int o = i * STRIDE;
+            double s = v[o + 9] * (v[o + 3] * (v[o] - _x) + v[o + 4] * (v[o + 1] - _y) + v[o + 5] * (v[o + 2] - _z));
+            final double excess = Math.abs(s) - v[o + 10];
+            final double nec = v[o + 11] > 0
+                    ? Math.min(Math.max(excess / v[o + 11], 0.0), 1.0)
+                    : excess > 0 ? 1.0 : 0.0;
+            if (nec >= m_releaseThreshold) {
+                m_released[i] = true;
+                continue;
+            }
+            s *= 1 - nec;
+            fx += s * v[o + 6];
+            fy += s * v[o + 7];
+            fz += s * v[o + 8];
+        }
+        _out[0] = fx;
+        _out[1] = fy;
+        _out[2] = fz;
+    }
+
+    /**
+     * 点の近くで、別のモデルと描画される力の差が許容誤差以内かを判定します。
+     * 要素ごとに、最大静止摩擦力に達する変位での力の差で比較します。
+     * アンカー点は法線方向の位置のみを比較するため、平面上を滑るアンカー点の移動は変化とみなしません。
+     * ファジネスは最大静止摩擦力を超えた時のみ力に影響するため、点でのバネの力が最大静止摩擦力に近い場合のみ比較します。
+     * @param _other     モデル
+     * @param _tolerance 許容誤差 (力の単位)
+     * @param _x         X座標
+     * @param _y         Y座標
+     * @param _z         Z座標
+     * @return 許容誤差以内の場合はtrue
+     */
+    public boolean approximates(ImpedanceModel _other, double _tolerance, double _x, double _y, double _z) {
+        if (m_num != _other.m_num || m_releaseThreshold != _other.m_releaseThreshold) {
+            return false;
+        }
+        final double[] a = m_values;
+        final double[] b = _other.m_values;
+        for (int i = 0; i < m_num; ++i) {
+            final int o = i * STRIDE;
+            final double limit = Math.max(Math.abs(a[o + 10]), Math.abs(b[o + 10]));
+            // 法線方向のアンカー点の位置
+            final double offsetA = a[o] * a[o + 3] + a[o + 1] * a[o + 4] + a[o + 2] * a[o + 5];
+            final double offsetB = b[o] * a[o + 3] + b[o + 1] * a[o + 4] + b[o + 2] * a[o + 5];
+            final double stiffness = Math.max(Math.abs(a[o + 9]), Math.abs(b[o + 9]));
+            if (Math.abs(offsetA - offsetB) * stiffness > _tolerance
+                    || Math.abs(a[o + 10] - b[o + 10]) > _tolerance) {
+                return false;
+            }
+            // 最大静止摩擦力に達する変位でのバネ定数・方向の差による力の差
+            if (stiffness > 0 && Math.abs(a[o + 9] - b[o + 9]) * limit / stiffness > _tolerance) {
+                return false;
+            }
+            for (int c = 3; c < 9; ++c) {
+                if (Math.abs(a[o + c] - b[o + c]) * limit > _tolerance) {
+                    return false;
+                }
+            }
+            // 点でのバネの力が最大静止摩擦力に近ければファジネスを比較する
+            final double spring = Math.abs(a[o + 9] * (a[o + 3] * (a[o] - _x) + a[o + 4] * (a[o + 1] - _y) + a[o + 5] * (a[o + 2] - _z)));
+            if (spring + _tolerance >= Math.min(a[o + 10], b[o + 10])
+                    && Math.abs(a[o + 11] - b[o + 11]) > _tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 別のモデルの内容を複製します。離脱の状態は初期化します。
+     * @param _other モデル
+     */
+    public void copyFrom(ImpedanceModel _other) {
+        m_num = _other.m_num;
+        m_releaseThreshold = _other.m_releaseThreshold;
+        System.arraycopy(_other.m_values, 0, m_values, 0, m_num * STRIDE);
+        Arrays.fill(m_released, false);
+    }
+
+    /**
+     * モデルを符号化してバッファに書き込みます。
+     * @param _buffer 書き込み先 ({@link #encodedSize(int)} 以上の残りが必要)
+     */
+    public void write(ByteBuffer _buffer) {
+        _buffer.put((byte) m_num);
+        _buffer.putDouble(m_releaseThreshold);
+        for (int i = 0; i < m_num * STRIDE; ++i) {
+            _buffer.putDouble(m_values[i]);
+        }
+    }
+
+    /**
+     * 符号化されたモデルをバッファから読み込み、このモデルを置き換えます (デコーダの参照実装)。
+     * 離脱の状態は初期化します。オブジェクトを生成しません。
+     * @param _buffer 読み込み元
+     * @throws IllegalArgumentException 要素数が上限を超えている場合
+     */
+    public void read(ByteBuffer _buffer) {
+        final int num = _buffer.get() & 0xff;
+        if (num > MAX_ELEMENTS) {
+            throw new IllegalArgumentException("too many elements : " + num);
+        }
+        m_releaseThreshold = _buffer.getDouble();
+        for (int i = 0; i < num * STRIDE; ++i) {
+            m_values[i] = _buffer.getDouble();
+        }
+        m_num = num;
+        Arrays.fill(m_released, false);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("ImpedanceModel{threshold=").append(m_releaseThreshold);
+        for (int i = 0; i < m_num; ++i) {
+            final int o = i * STRIDE;
+            builder.append(", [a=(").append(m_values[o]).append(", ").append(m_values[o + 1]).append(", ").append(m_values[o + 2])
+                    .append(") n=(").append(m_values[o + 3]).append(", ").append(m_values[o + 4]).append(", ").append(m_values[o + 5])
+                    .append(") f=(").append(m_values[o + 6]).append(", ").append(m_values[o + 7]).append(", ").append(m_values[o + 8])
+                    .append(") k=").append(m_values[o + 9]).append(" F=").append(m_values[o + 10]).append(" B=").append(m_values[o + 11])
+                    .append(']');
+        }
+        return builder.append('}').toString();
+    }
+
+    private double value(int _i, int _component) {
+        if (_i < 0 || _i >= m_num) {
+            throw new IndexOutOfBoundsException("index : " + _i + ", size : " + m_num);
+        }
+        return m_values[_i * STRIDE + _component];
+    }
+
+    private ImpedanceModel() {
+    }
+
+    /** 要素の値 (要素ごとに {@link #STRIDE} 個) */
+    private final double[] m_values = new double[MAX_ELEMENTS * STRIDE];
+    /** 要素ごとの離脱状態 */
+    private final boolean[] m_released = new boolean[MAX_ELEMENTS];
+    /** 要素の数 */
+    private int m_num = 0;
+    /** 離脱閾値 */
+    private double m_releaseThreshold = 1.0;
+}
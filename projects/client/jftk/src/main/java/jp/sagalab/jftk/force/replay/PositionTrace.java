@@ -0,0 +1,179 @@
+package jp.sagalab.jftk.force.replay;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * 記録された位置の時系列です。
+ * <p>
+ * 座標と時刻を成分ごとの配列で保持し、生成後は変更されません。
+ * 複数の再生で同じインスタンスを共有できます。
+ * </p>
+ */
+public final class PositionTrace {
+
+    /**
+     * 成分ごとの配列から時系列を生成します。配列は複製されます。
+     * @param _xs    X座標
+     * @param _ys    Y座標
+     * @param _zs    Z座標
+     * @param _times 時刻 (s)
+     * @return 時系列
+     * @throws IllegalArgumentException 配列の長さが揃っていない場合
+     */
+    public static PositionTrace create(double[] _xs, double[] _ys, double[] _zs, double[] _times) {
+        return create(_xs, _ys, _zs, _times, _times.length);
+    }
+
+    /**
+     * 成分ごとの配列の先頭から時系列を生成します。配列は複製されます。
+     * @param _xs    X座標
+     * @param _ys    Y座標
+     * @param _zs    Z座標
+     * @param _times 時刻 (s)
+     * @param _num   点の数
+     * @return 時系列
+     * @throws IllegalArgumentException 点の数が負の場合、配列が足りない場合
+     */
+    public static PositionTrace create(double[] _xs, double[] _ys, double[] _zs, double[] _times, int _num) {
+        if (_num < 0 || _xs.length < _num || _ys.length < _num || _zs.length < _num || _times.length < _num) {
+            throw new IllegalArgumentException("invalid trace size : " + _num);
+        }
+        return new PositionTrace(
+                Arrays.copyOf(_xs, _num), Arrays.copyOf(_ys, _num),
+                Arrays.copyOf(_zs, _num), Arrays.copyOf(_times, _num));
+    }
+
+    /**
+     * 1行に "x y z time" の形式のテキストから時系列を読み込みます。空行は読み飛ばします。
+     * @param _path ファイル
+     * @return 時系列
+     * @throws IOException 読み込めなかった場合
+     * @throws IllegalArgumentException 形式が異なる行がある場合
+     */
+    public static PositionTrace load(Path _path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(_path, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    /**
+     * 1行に "x y z time" の形式のテキストから時系列を読み込みます。空行は読み飛ばします。
+     * @param _reader 読み込み元 (閉じません)
+     * @return 時系列
+     * @throws IOException 読み込めなかった場合
+     * @throws IllegalArgumentException 形式が異なる行がある場合
+     */
+    public static PositionTrace read(Reader _reader) throws IOException {
+        BufferedReader reader = _reader instanceof BufferedReader ? (BufferedReader) _reader : new BufferedReader(_reader);
+        double[] xs = new double[1024];
+        double[] ys = new double[1024];
+        double[] zs = new double[1024];
+        double[] times = new double[1024];
+        int num = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            ++lineNumber;
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            if (tokens.length != 4) {
+                throw new IllegalArgumentException("invalid line " + lineNumber + " : " + line);
+            }
+            if (num == xs.length) {
+                xs = Arrays.copyOf(xs, num * 2);
+                ys = Arrays.copyOf(ys, num * 2);
+                zs = Arrays.copyOf(zs, num * 2);
+                times = Arrays.copyOf(times, num * 2);
+            }
+            try {
+                xs[num] = Double.parseDouble(tokens[0]);
+                ys[num] = Double.parseDouble(tokens[1]);
+                zs[num] = Double.parseDouble(tokens[2]);
+                times[num] = Double.parseDouble(tokens[3]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid line " + lineNumber + " : " + line, e);
+            }
+            ++num;
+        }
+        return new PositionTrace(
+                Arrays.copyOf(xs, num), Arrays.copyOf(ys, num),
+                Arrays.copyOf(zs, num), Arrays.copyOf(times, num));
+    }
+
+    /**
+     * 点の数を返します。
+     * @return 点の数
+     */
+    public int size() {
+        return m_times.length;
+    }
+
+    /**
+     * X座標を返します。
+     * @param _index 何番目の点か
+     * @return X座標
+     */
+    public double x(int _index) {
+        return m_xs[_index];
+    }
+
+    /**
+     * Y座標を返します。
+     * @param _index 何番目の点か
+     * @return Y座標
+     */
+    public double y(int _index) {
+        return m_ys[_index];
+    }
+
+    /**
+     * Z座標を返します。
+     * @param _index 何番目の点か
+     * @return Z座標
+     */
+    public double z(int _index) {
+        return m_zs[_index];
+    }
+
+    /**
+     * 時刻を返します。
+     * @param _index 何番目の点か
+     * @return 時刻 (s)
+     */
+    public double time(int _index) {
+        return m_times[_index];
+    }
+
+    /**
+     * 最初の点から最後の点までの時間を返します。
+     * @return 時間 (s)。点が2個未満の場合は0
+     */
+    public double duration() {
+        return m_times.length < 2 ? 0.0 : m_times[m_times.length - 1] - m_times[0];
+    }
+
+    private PositionTrace(double[] _xs, double[] _ys, double[] _zs, double[] _times) {
+        m_xs = _xs;
+        m_ys = _ys;
+        m_zs = _zs;
+        m_times = _times;
+    }
+
+    /** X座標 */
+    private final double[] m_xs;
+    /** Y座標 */
+    private final double[] m_ys;
+    /** Z座標 */
+    private final double[] m_zs;
+    /** 時刻 */
+    private final double[] m_times;
+}
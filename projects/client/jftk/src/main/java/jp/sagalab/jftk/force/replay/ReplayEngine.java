@@ -0,0 +1,220 @@
+package jp.sagalab.jftk.force.replay;
+
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.Vector;
+import jp.sagalab.jftk.force.calculator.AllocationFreeSurfaceFrictionCalculator;
+import jp.sagalab.jftk.force.calculator.AxisFrictionCalculator;
+import jp.sagalab.jftk.force.calculator.ForceCalculator;
+import jp.sagalab.jftk.force.calculator.SurfaceFrictionCalculator;
+import jp.sagalab.jftk.force.surface.FrictionSurface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 記録された時系列を力計算機に入力し、力と静止摩擦状態の時系列を求めます。
+ * <p>
+ * 実時間を待たず、CPUの許す限り速く再生します。
+ * 計算機は時系列の時刻のみを用いるため、同じ入力と設定からは常にビット単位で同じ結果が得られます。
+ * 一つの再生は一つのスレッドで順に行い、複数の再生 (パラメータの組や記録) はスレッドプールで並列に行います。
+ * </p>
+ * <p>
+ * 静止摩擦状態は {@link SurfaceFrictionCalculator}, {@link AllocationFreeSurfaceFrictionCalculator},
+ * {@link AxisFrictionCalculator} から読み出します。それ以外の計算機は力のみを記録します。
+ * </p>
+ */
+public final class ReplayEngine implements AutoCloseable {
+
+    /**
+     * 利用できるプロセッサ数のスレッドで再生器を生成します。
+     * @return 再生器
+     */
+    public static ReplayEngine create() {
+        return create(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 再生器を生成します。
+     * @param _threads 並列に再生するスレッドの数
+     * @return 再生器
+     */
+    public static ReplayEngine create(int _threads) {
+        if (_threads <= 0) {
+            throw new IllegalArgumentException("invalid threads : " + _threads);
+        }
+        return new ReplayEngine(_threads);
+    }
+
+    /**
+     * 呼び出したスレッドで再生します。
+     * @param _job 再生の単位
+     * @return 結果
+     */
+    public static ReplayResult replay(ReplayJob _job) {
+        long start = System.nanoTime();
+        ForceCalculator calculator = _job.createCalculator();
+        PositionTrace trace = _job.getTrace();
+        int num = trace.size();
+        double[] forceXs = new double[num];
+        double[] forceYs = new double[num];
+        double[] forceZs = new double[num];
+        long[] stayFlags = new long[num];
+        StayProbe probe = StayProbe.of(calculator);
+        if (calculator instanceof AllocationFreeSurfaceFrictionCalculator) {
+            AllocationFreeSurfaceFrictionCalculator fast = (AllocationFreeSurfaceFrictionCalculator) calculator;
+            double[] force = new double[3];
+            for (int i = 0; i < num; ++i) {
+                fast.calculate(trace.x(i), trace.y(i), trace.z(i), trace.time(i), force);
+                forceXs[i] = force[0];
+                forceYs[i] = force[1];
+                forceZs[i] = force[2];
+                stayFlags[i] = probe.read();
+            }
+        } else {
+            for (int i = 0; i < num; ++i) {
+                Vector force = calculator.calculate(Point.createXYZT(trace.x(i), trace.y(i), trace.z(i), trace.time(i)));
+                forceXs[i] = force.x();
+                forceYs[i] = force.y();
+                forceZs[i] = force.z();
+                stayFlags[i] = probe.read();
+            }
+        }
+        return new ReplayResult(_job.getName(), trace, forceXs, forceYs, forceZs,
+                stayFlags, probe.count(), System.nanoTime() - start);
+    }
+
+    /**
+     * 全ての再生の単位を並列に再生します。
+     * @param _jobs 再生の単位
+     * @return 結果 (再生の単位と同じ順)
+     * @throws InterruptedException 待機中に割り込まれた場合
+     * @throws RuntimeException 再生中に計算機が例外を投げた場合 (残りの再生は中止します)
+     */
+    public List<ReplayResult> replayAll(List<ReplayJob> _jobs) throws InterruptedException {
+        List<Future<ReplayResult>> futures = new ArrayList<>(_jobs.size());
+        for (ReplayJob job : _jobs) {
+            futures.add(m_executor.submit((Callable<ReplayResult>) () -> replay(job)));
+        }
+        List<ReplayResult> results = new ArrayList<>(_jobs.size());
+        try {
+            for (Future<ReplayResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            for (Future<ReplayResult> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * スレッドプールを停止します。実行中の再生は最後まで行います。
+     */
+    @Override
+    public void close() {
+        m_executor.shutdown();
+    }
+
+    private ReplayEngine(int _threads) {
+        AtomicInteger count = new AtomicInteger();
+        m_executor = Executors.newFixedThreadPool(_threads, r -> {
+            Thread thread = new Thread(r, "replay-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 計算機から静止摩擦状態を読み出します。
+     */
+    private static abstract class StayProbe {
+
+        static StayProbe of(ForceCalculator _calculator) {
+            if (_calculator instanceof AllocationFreeSurfaceFrictionCalculator) {
+                AllocationFreeSurfaceFrictionCalculator calculator = (AllocationFreeSurfaceFrictionCalculator) _calculator;
+                int num = Math.min(calculator.getSurfaces().size(), Long.SIZE);
+                return new StayProbe(num) {
+                    @Override
+                    long read() {
+                        long flags = 0;
+                        for (int i = 0; i < num; ++i) {
+                            if (calculator.getFlag(i)) {
+                                flags |= 1L << i;
+                            }
+                        }
+                        return flags;
+                    }
+                };
+            }
+            if (_calculator instanceof SurfaceFrictionCalculator) {
+                SurfaceFrictionCalculator calculator = (SurfaceFrictionCalculator) _calculator;
+                List<FrictionSurface> surfaces = calculator.getSurfaces();
+                int num = Math.min(surfaces.size(), Long.SIZE);
+                return new StayProbe(num) {
+                    @Override
+                    long read() {
+                        Map<FrictionSurface, Boolean> states = calculator.getFlags();
+                        long flags = 0;
+                        for (int i = 0; i < num; ++i) {
+                            if (Boolean.TRUE.equals(states.get(surfaces.get(i)))) {
+                                flags |= 1L << i;
+                            }
+                        }
+                        return flags;
+                    }
+                };
+            }
+            if (_calculator instanceof AxisFrictionCalculator) {
+                AxisFrictionCalculator calculator = (AxisFrictionCalculator) _calculator;
+                return new StayProbe(3) {
+                    @Override
+                    long read() {
+                        return (calculator.getXFlag() ? 1L : 0L)
+                                | (calculator.getYFlag() ? 2L : 0L)
+                                | (calculator.getZFlag() ? 4L : 0L);
+                    }
+                };
+            }
+            return new StayProbe(0) {
+                @Override
+                long read() {
+                    return 0;
+                }
+            };
+        }
+
+        /** 静止摩擦状態のビット列を読み出す */
+        abstract long read();
+
+        int count() {
+            return m_count;
+        }
+
+        StayProbe(int _count) {
+            m_count = _count;
+        }
+
+        /** 静止摩擦状態を持つ表面 (または軸) の数 */
+        private final int m_count;
+    }
+
+    /** 再生を行うスレッドプール */
+    private final ExecutorService m_executor;
+}
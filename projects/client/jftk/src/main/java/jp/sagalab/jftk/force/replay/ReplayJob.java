@@ -0,0 +1,76 @@
+package jp.sagalab.jftk.force.replay;
+
+import jp.sagalab.jftk.force.calculator.ForceCalculator;
+
+import java.util.function.Supplier;
+
+/**
+ * 再生の単位です。時系列と、それを入力する力計算機の生成方法の組です。
+ * <p>
+ * 力計算機は状態を持つため、再生のたびに生成器から新しく生成します。
+ * 生成器は並列に呼び出されることがあり、呼び出すたびに同じ設定の計算機を返さなければなりません。
+ * </p>
+ */
+public final class ReplayJob {
+
+    /**
+     * 再生の単位を生成します。
+     * @param _name       名前 (結果の識別に用います)
+     * @param _trace      時系列
+     * @param _calculator 力計算機の生成器
+     * @return 再生の単位
+     */
+    public static ReplayJob create(String _name, PositionTrace _trace, Supplier<? extends ForceCalculator> _calculator) {
+        if (_name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        if (_trace == null) {
+            throw new IllegalArgumentException("trace must not be null");
+        }
+        if (_calculator == null) {
+            throw new IllegalArgumentException("calculator supplier must not be null");
+        }
+        return new ReplayJob(_name, _trace, _calculator);
+    }
+
+    /**
+     * 名前を返します。
+     * @return 名前
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * 時系列を返します。
+     * @return 時系列
+     */
+    public PositionTrace getTrace() {
+        return m_trace;
+    }
+
+    /**
+     * 新しい力計算機を生成します。
+     * @return 力計算機
+     */
+    ForceCalculator createCalculator() {
+        ForceCalculator calculator = m_calculator.get();
+        if (calculator == null) {
+            throw new IllegalStateException("calculator supplier returned null : " + m_name);
+        }
+        return calculator;
+    }
+
+    private ReplayJob(String _name, PositionTrace _trace, Supplier<? extends ForceCalculator> _calculator) {
+        m_name = _name;
+        m_trace = _trace;
+        m_calculator = _calculator;
+    }
+
+    /** 名前 */
+    private final String m_name;
+    /** 時系列 */
+    private final PositionTrace m_trace;
+    /** 力計算機の生成器 */
+    private final Supplier<? extends ForceCalculator> m_calculator;
+}
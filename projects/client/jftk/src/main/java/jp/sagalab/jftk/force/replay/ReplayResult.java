@@ -0,0 +1,246 @@
+package jp.sagalab.jftk.force.replay;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * 再生の結果です。時系列の各点に対する力と静止摩擦状態を保持します。
+ * <p>
+ * 静止摩擦状態は点ごとのビット列で、i番目のビットがi番目の表面 (または軸) が静止摩擦状態であることを表します。
+ * 表面は計算機に追加した順、軸はX, Y, Zの順です。
+ * 同じ時系列と同じ設定の計算機による再生は常に同じ結果になるため、
+ * {@link #checksum()} や {@link #firstDifference(ReplayResult)} で回帰を検出できます。
+ * </p>
+ */
+public final class ReplayResult {
+
+    /**
+     * 名前を返します。
+     * @return 名前
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * 入力した時系列を返します。
+     * @return 時系列
+     */
+    public PositionTrace getTrace() {
+        return m_trace;
+    }
+
+    /**
+     * 点の数を返します。
+     * @return 点の数
+     */
+    public int size() {
+        return m_forceXs.length;
+    }
+
+    /**
+     * 時刻を返します。
+     * @param _index 何番目の点か
+     * @return 時刻 (s)
+     */
+    public double time(int _index) {
+        return m_trace.time(_index);
+    }
+
+    /**
+     * 力のX成分を返します。
+     * @param _index 何番目の点か
+     * @return 力のX成分
+     */
+    public double forceX(int _index) {
+        return m_forceXs[_index];
+    }
+
+    /**
+     * 力のY成分を返します。
+     * @param _index 何番目の点か
+     * @return 力のY成分
+     */
+    public double forceY(int _index) {
+        return m_forceYs[_index];
+    }
+
+    /**
+     * 力のZ成分を返します。
+     * @param _index 何番目の点か
+     * @return 力のZ成分
+     */
+    public double forceZ(int _index) {
+        return m_forceZs[_index];
+    }
+
+    /**
+     * 静止摩擦状態のビット列を返します。
+     * @param _index 何番目の点か
+     * @return 静止摩擦状態
+     */
+    public long stayFlags(int _index) {
+        return m_stayFlags[_index];
+    }
+
+    /**
+     * 表面 (または軸) が静止摩擦状態かを返します。
+     * @param _index   何番目の点か
+     * @param _surface 何番目の表面 (または軸) か
+     * @return 静止摩擦状態の場合はtrue
+     */
+    public boolean isStay(int _index, int _surface) {
+        return (m_stayFlags[_index] >>> _surface & 1L) != 0;
+    }
+
+    /**
+     * 静止摩擦状態を持つ表面 (または軸) の数を返します。64を超える表面は記録しません。
+     * @return 表面の数
+     */
+    public int getStayFlagCount() {
+        return m_stayFlagCount;
+    }
+
+    /**
+     * 表面 (または軸) が静止摩擦状態だった区間を返します。
+     * 区間は静止摩擦状態になった点の時刻から、解除された点 (なければ最後の点) の時刻までです。
+     * @param _surface 何番目の表面 (または軸) か
+     * @return 区間の並び [始め, 終わり] × 区間の数
+     */
+    public double[] stayIntervals(int _surface) {
+        double[] intervals = new double[8];
+        int num = 0;
+        int start = -1;
+        for (int i = 0; i <= size(); ++i) {
+            boolean stay = i < size() && isStay(i, _surface);
+            if (stay && start < 0) {
+                start = i;
+            } else if (!stay && start >= 0) {
+                if (num + 2 > intervals.length) {
+                    intervals = Arrays.copyOf(intervals, intervals.length * 2);
+                }
+                intervals[num++] = time(start);
+                intervals[num++] = time(Math.min(i, size() - 1));
+                start = -1;
+            }
+        }
+        return Arrays.copyOf(intervals, num);
+    }
+
+    /**
+     * 表面 (または軸) が静止摩擦状態だった点の割合を返します。
+     * @param _surface 何番目の表面 (または軸) か
+     * @return 割合 (点がない場合は0)
+     */
+    public double stayRatio(int _surface) {
+        if (size() == 0) {
+            return 0.0;
+        }
+        int count = 0;
+        for (int i = 0; i < size(); ++i) {
+            if (isStay(i, _surface)) {
+                ++count;
+            }
+        }
+        return (double) count / size();
+    }
+
+    /**
+     * 再生にかかった時間を返します。計算機の生成を含みます。
+     * @return 時間 (ns)
+     */
+    public long getElapsedNanos() {
+        return m_elapsedNanos;
+    }
+
+    /**
+     * 実時間に対する再生の速さを返します。
+     * @return 時系列の時間 / 再生にかかった時間
+     */
+    public double getSpeedRatio() {
+        return m_elapsedNanos == 0 ? Double.POSITIVE_INFINITY : m_trace.duration() / (m_elapsedNanos * 1e-9);
+    }
+
+    /**
+     * 力と静止摩擦状態のチェックサムを返します。
+     * ビット単位で同じ結果は同じ値になります。
+     * @return チェックサム
+     */
+    public long checksum() {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < size(); ++i) {
+            hash = 31 * hash + Double.doubleToLongBits(m_forceXs[i]);
+            hash = 31 * hash + Double.doubleToLongBits(m_forceYs[i]);
+            hash = 31 * hash + Double.doubleToLongBits(m_forceZs[i]);
+            hash = 31 * hash + m_stayFlags[i];
+        }
+        return 31 * hash + size();
+    }
+
+    /**
+     * 他の結果と力・静止摩擦状態をビット単位で比較し、最初に異なる点を返します。
+     * @param _other 比較する結果
+     * @return 最初に異なる点の番号。全て同じ場合は-1 (点の数が異なる場合は短い方の点の数)
+     */
+    public int firstDifference(ReplayResult _other) {
+        int num = Math.min(size(), _other.size());
+        for (int i = 0; i < num; ++i) {
+            if (Double.doubleToLongBits(m_forceXs[i]) != Double.doubleToLongBits(_other.m_forceXs[i])
+                    || Double.doubleToLongBits(m_forceYs[i]) != Double.doubleToLongBits(_other.m_forceYs[i])
+                    || Double.doubleToLongBits(m_forceZs[i]) != Double.doubleToLongBits(_other.m_forceZs[i])
+                    || m_stayFlags[i] != _other.m_stayFlags[i]) {
+                return i;
+            }
+        }
+        return size() == _other.size() ? -1 : num;
+    }
+
+    /**
+     * 1行に "time fx fy fz stayFlags" の形式で書き出します。静止摩擦状態は2進数で書き出します。
+     * @param _writer 書き出し先 (閉じません)
+     * @throws IOException 書き出せなかった場合
+     */
+    public void write(Writer _writer) throws IOException {
+        for (int i = 0; i < size(); ++i) {
+            _writer.write(time(i) + " " + m_forceXs[i] + " " + m_forceYs[i] + " " + m_forceZs[i]
+                    + " " + Long.toBinaryString(m_stayFlags[i]) + "\n");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return m_name + " : " + size() + " points, " + String.format("%.1f", getSpeedRatio())
+                + "x realtime, checksum " + Long.toHexString(checksum());
+    }
+
+    ReplayResult(String _name, PositionTrace _trace,
+                 double[] _forceXs, double[] _forceYs, double[] _forceZs,
+                 long[] _stayFlags, int _stayFlagCount, long _elapsedNanos) {
+        m_name = _name;
+        m_trace = _trace;
+        m_forceXs = _forceXs;
+        m_forceYs = _forceYs;
+        m_forceZs = _forceZs;
+        m_stayFlags = _stayFlags;
+        m_stayFlagCount = _stayFlagCount;
+        m_elapsedNanos = _elapsedNanos;
+    }
+
+    /** 名前 */
+    private final String m_name;
+    /** 入力した時系列 */
+    private final PositionTrace m_trace;
+    /** 力のX成分 */
+    private final double[] m_forceXs;
+    /** 力のY成分 */
+    private final double[] m_forceYs;
+    /** 力のZ成分 */
+    private final double[] m_forceZs;
+    /** 静止摩擦状態 */
+    private final long[] m_stayFlags;
+    /** 静止摩擦状態を持つ表面 (または軸) の数 */
+    private final int m_stayFlagCount;
+    /** 再生にかかった時間 (ns) */
+    private final long m_elapsedNanos;
+}
@@ -0,0 +1,213 @@
+package jp.sagalab.jftk.force.surface;
+
+/**
+ * 軸平行直方体の階層 (BVH) です。
+ * <p>
+ * 直方体の集合を、重心の広がりが最も大きい軸の中央値で再帰的に二分して構築します。
+ * 節点は配列に格納し、{@link #query(double, double, double, double, int[])} はオブジェクトを生成しません。
+ * 直方体を追加・削除する場合は構築し直してください。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public final class BoundingVolumeHierarchy {
+
+    /**
+     * BVHを構築します。
+     * @param _bounds 直方体の並び [最小X, 最小Y, 最小Z, 最大X, 最大Y, 最大Z] × 直方体の数
+     * @param _num    直方体の数
+     * @return BVH
+     * @throws IllegalArgumentException 直方体の数が負の場合、配列が足りない場合
+     */
+    public static BoundingVolumeHierarchy create(double[] _bounds, int _num) {
+        if (_num < 0 || _bounds.length < _num * 6) {
+            throw new IllegalArgumentException("invalid bounds size : " + _num);
+        }
+        return new BoundingVolumeHierarchy(_bounds, _num);
+    }
+
+    /**
+     * 点からの距離が指定した値以下の直方体を探します。
+     * 直方体の内部の点の距離は0とします。
+     * @param _x      X座標
+     * @param _y      Y座標
+     * @param _z      Z座標
+     * @param _radius 距離
+     * @param _out    見つかった直方体の番号 (構築時の並びの添字) の格納先。直方体の数以上の長さが必要です
+     * @return 見つかった直方体の数
+     */
+    public int query(double _x, double _y, double _z, double _radius, int[] _out) {
+        if (m_nodeNum == 0 || !(_radius >= 0)) {
+            return 0;
+        }
+        final double squared = _radius * _radius;
+        final int[] stack = m_stack;
+        int top = 0;
+        int found = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            if (squaredDistance(m_nodeBounds, node, _x, _y, _z) > squared) {
+                continue;
+            }
+            final int count = m_count[node];
+            if (count > 0) {
+                // 葉
+                final int start = m_first[node];
+                for (int i = start; i < start + count; ++i) {
+                    final int item = m_items[i];
+                    if (squaredDistance(m_bounds, item, _x, _y, _z) <= squared) {
+                        _out[found++] = item;
+                    }
+                }
+            } else {
+                stack[top++] = m_first[node];
+                stack[top++] = m_first[node] + 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 直方体の数を返します。
+     * @return 直方体の数
+     */
+    public int size() {
+        return m_items.length;
+    }
+
+    /**
+     * 点と直方体の距離の自乗を返します。
+     */
+    private static double squaredDistance(double[] _bounds, int _index, double _x, double _y, double _z) {
+        final int offset = _index * 6;
+        final double dx = Math.max(Math.max(_bounds[offset] - _x, _x - _bounds[offset + 3]), 0.0);
+        final double dy = Math.max(Math.max(_bounds[offset + 1] - _y, _y - _bounds[offset + 4]), 0.0);
+        final double dz = Math.max(Math.max(_bounds[offset + 2] - _z, _z - _bounds[offset + 5]), 0.0);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * 直方体の並びの区間 [_start, _end) を囲む節点を作り、必要なら二分します。
+     * @param _node  節点の番号
+     * @param _start 区間の始め
+     * @param _end   区間の終わり
+     */
+    private void build(int _node, int _start, int _end) {
+        // 節点の直方体と重心の範囲
+        final int offset = _node * 6;
+        final double[] centroidMin = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        final double[] centroidMax = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int c = 0; c < 3; ++c) {
+            m_nodeBounds[offset + c] = Double.POSITIVE_INFINITY;
+            m_nodeBounds[offset + c + 3] = Double.NEGATIVE_INFINITY;
+        }
+        for (int i = _start; i < _end; ++i) {
+            final int item = m_items[i] * 6;
+            for (int c = 0; c < 3; ++c) {
+                m_nodeBounds[offset + c] = Math.min(m_nodeBounds[offset + c], m_bounds[item + c]);
+                m_nodeBounds[offset + c + 3] = Math.max(m_nodeBounds[offset + c + 3], m_bounds[item + c + 3]);
+                final double centroid = (m_bounds[item + c] + m_bounds[item + c + 3]) * 0.5;
+                centroidMin[c] = Math.min(centroidMin[c], centroid);
+                centroidMax[c] = Math.max(centroidMax[c], centroid);
+            }
+        }
+        int axis = 0;
+        for (int c = 1; c < 3; ++c) {
+            if (centroidMax[c] - centroidMin[c] > centroidMax[axis] - centroidMin[axis]) {
+                axis = c;
+            }
+        }
+        // 少数の直方体か、重心が一致して分けられない場合は葉にする
+        if (_end - _start <= LEAF_SIZE || !(centroidMax[axis] > centroidMin[axis])) {
+            m_first[_node] = _start;
+            m_count[_node] = _end - _start;
+            return;
+        }
+        final int middle = (_start + _end) >>> 1;
+        select(_start, _end, middle, axis);
+        final int left = m_nodeNum;
+        m_nodeNum += 2;
+        m_first[_node] = left;
+        m_count[_node] = 0;
+        build(left, _start, middle);
+        build(left + 1, middle, _end);
+    }
+
+    /**
+     * 区間 [_start, _end) を、_k 番目に重心の小さい直方体で分割されるよう並べ替えます (クイックセレクト)。
+     */
+    private void select(int _start, int _end, int _k, int _axis) {
+        int low = _start;
+        int high = _end - 1;
+        while (low < high) {
+            final double pivot = centroid(m_items[(low + high) >>> 1], _axis);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (centroid(m_items[i], _axis) < pivot) {
+                    ++i;
+                }
+                while (centroid(m_items[j], _axis) > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    final int swap = m_items[i];
+                    m_items[i] = m_items[j];
+                    m_items[j] = swap;
+                    ++i;
+                    --j;
+                }
+            }
+            if (_k <= j) {
+                high = j;
+            } else if (_k >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double centroid(int _item, int _axis) {
+        return (m_bounds[_item * 6 + _axis] + m_bounds[_item * 6 + _axis + 3]) * 0.5;
+    }
+
+    private BoundingVolumeHierarchy(double[] _bounds, int _num) {
+        m_bounds = new double[_num * 6];
+        System.arraycopy(_bounds, 0, m_bounds, 0, _num * 6);
+        m_items = new int[_num];
+        for (int i = 0; i < _num; ++i) {
+            m_items[i] = i;
+        }
+        // 葉が1個以上の直方体を持つ二分木の節点数は 2 × 直方体の数 - 1 以下
+        final int capacity = Math.max(2 * _num - 1, 1);
+        m_nodeBounds = new double[capacity * 6];
+        m_first = new int[capacity];
+        m_count = new int[capacity];
+        m_stack = new int[capacity + 1];
+        if (_num > 0) {
+            m_nodeNum = 1;
+            build(0, 0, _num);
+        }
+    }
+
+    /** 葉に入れる直方体の最大数 */
+    private static final int LEAF_SIZE = 4;
+
+    /** 直方体の並び */
+    private final double[] m_bounds;
+    /** 葉の順に並べた直方体の番号 */
+    private final int[] m_items;
+    /** 節点の直方体の並び */
+    private final double[] m_nodeBounds;
+    /** 内部節点は左の子の番号 (右の子はその次)、葉は直方体の番号の並びの始め */
+    private final int[] m_first;
+    /** 葉は直方体の数、内部節点は0 */
+    private final int[] m_count;
+    /** 節点の数 */
+    private int m_nodeNum = 0;
+    /** 探索の作業領域 */
+    private final int[] m_stack;
+}
@@ -26,4 +26,82 @@ public interface FrictionSurface extends Transformable<FrictionSurface> {
      * @return 法線ベクトル
      */
     Vector normal(Point _p);
+
+    /**
+     * この表面との距離を返します。
+     * 既定の実装は {@link #distance(Point)} に委譲します。
+     * オブジェクトを生成せずに計算できる表面はオーバーライドしてください。
+     * @param _x X座標
+     * @param _y Y座標
+     * @param _z Z座標
+     * @return 距離
+     */
+    default double distance(double _x, double _y, double _z) {
+        return distance(Point.createXYZ(_x, _y, _z));
+    }
+
+    /**
+     * この表面へ投影された点を配列に格納します。
+     * 既定の実装は {@link #projection(Point)} に委譲します。
+     * オブジェクトを生成せずに計算できる表面はオーバーライドしてください。
+     * @param _x   X座標
+     * @param _y   Y座標
+     * @param _z   Z座標
+     * @param _out 投影された点の格納先 [x, y, z]
+     */
+    default void projection(double _x, double _y, double _z, double[] _out) {
+        Point p = projection(Point.createXYZ(_x, _y, _z));
+        _out[0] = p.x();
+        _out[1] = p.y();
+        _out[2] = p.z();
+    }
+
+    /**
+     * 複数の点とこの表面との距離をまとめて求めます。
+     * 点は座標ごとの配列で渡します。既定の実装は {@link #distance(double, double, double)} を点ごとに呼び出します。
+     * 一様な計算で求められる表面は、JITコンパイラがベクトル化できる単純なループでオーバーライドしてください。
+     * @param _xs  X座標の並び
+     * @param _ys  Y座標の並び
+     * @param _zs  Z座標の並び
+     * @param _num 点数
+     * @param _out 距離の格納先
+     */
+    default void distances(double[] _xs, double[] _ys, double[] _zs, int _num, double[] _out) {
+        for (int i = 0; i < _num; ++i) {
+            _out[i] = distance(_xs[i], _ys[i], _zs[i]);
+        }
+    }
+
+    /**
+     * 複数の点をこの表面へまとめて投影します。
+     * 点は座標ごとの配列で渡します。既定の実装は {@link #projection(double, double, double, double[])} を点ごとに呼び出します。
+     * @param _xs   X座標の並び
+     * @param _ys   Y座標の並び
+     * @param _zs   Z座標の並び
+     * @param _num  点数
+     * @param _outX 投影された点のX座標の格納先
+     * @param _outY 投影された点のY座標の格納先
+     * @param _outZ 投影された点のZ座標の格納先
+     */
+    default void projectAll(double[] _xs, double[] _ys, double[] _zs, int _num,
+                            double[] _outX, double[] _outY, double[] _outZ) {
+        final double[] p = new double[3];
+        for (int i = 0; i < _num; ++i) {
+            projection(_xs[i], _ys[i], _zs[i], p);
+            _outX[i] = p[0];
+            _outY[i] = p[1];
+            _outZ[i] = p[2];
+        }
+    }
+
+    /**
+     * この表面を囲む軸平行直方体を配列に格納します。
+     * 空間索引による絞り込みに用います。
+     * 既定の実装は囲めない (無限に広がる) 表面としてfalseを返します。
+     * @param _out 直方体の格納先 [最小X, 最小Y, 最小Z, 最大X, 最大Y, 最大Z]
+     * @return 囲める場合はtrue
+     */
+    default boolean bounds(double[] _out) {
+        return false;
+    }
 }
@@ -52,6 +52,54 @@ public class Plane implements FrictionSurface {
         return m_normalVector;
     }
 
+    @Override
+    public double distance(double _x, double _y, double _z) {
+        return m_normalVector.x() * (_x - m_base.x())
+                + m_normalVector.y() * (_y - m_base.y())
+                + m_normalVector.z() * (_z - m_base.z());
+    }
+
+    @Override
+    public void projection(double _x, double _y, double _z, double[] _out) {
+        double d = distance(_x, _y, _z);
+        _out[0] = _x - m_normalVector.x() * d;
+        _out[1] = _y - m_normalVector.y() * d;
+        _out[2] = _z - m_normalVector.z() * d;
+    }
+
+    @Override
+    public void distances(double[] _xs, double[] _ys, double[] _zs, int _num, double[] _out) {
+        final double nx = m_normalVector.x();
+        final double ny = m_normalVector.y();
+        final double nz = m_normalVector.z();
+        final double bx = m_base.x();
+        final double by = m_base.y();
+        final double bz = m_base.z();
+        for (int i = 0; i < _num; ++i) {
+            _out[i] = nx * (_xs[i] - bx) + ny * (_ys[i] - by) + nz * (_zs[i] - bz);
+        }
+    }
+
+    @Override
+    public void projectAll(double[] _xs, double[] _ys, double[] _zs, int _num,
+                           double[] _outX, double[] _outY, double[] _outZ) {
+        final double nx = m_normalVector.x();
+        final double ny = m_normalVector.y();
+        final double nz = m_normalVector.z();
+        final double bx = m_base.x();
+        final double by = m_base.y();
+        final double bz = m_base.z();
+        for (int i = 0; i < _num; ++i) {
+            final double x = _xs[i];
+            final double y = _ys[i];
+            final double z = _zs[i];
+            final double d = nx * (x - bx) + ny * (y - by) + nz * (z - bz);
+            _outX[i] = x - nx * d;
+            _outY[i] = y - ny * d;
+            _outZ[i] = z - nz * d;
+        }
+    }
+
     private Plane(Point _base, Vector _normal) {
         this.m_base = _base;
         this.m_normalVector = _normal;
@@ -48,6 +48,90 @@ public class Sphere implements FrictionSurface {
         return Vector.createSE(m_base, _p).normalize();
     }
 
+    @Override
+    public double distance(double _x, double _y, double _z) {
+        double dx = _x - m_base.x();
+        double dy = _y - m_base.y();
+        double dz = _z - m_base.z();
+        return Math.abs(Math.sqrt(dx * dx + dy * dy + dz * dz) - m_radius);
+    }
+
+    @Override
+    public void projection(double _x, double _y, double _z, double[] _out) {
+        double dx = _x - m_base.x();
+        double dy = _y - m_base.y();
+        double dz = _z - m_base.z();
+        double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        double nx = dx / length;
+        double ny = dy / length;
+        double nz = dz / length;
+        // 正規化できない場合は中心に投影する (normalと同じ扱い)
+        if (Double.isInfinite(nx) || Double.isNaN(nx)
+                || Double.isInfinite(ny) || Double.isNaN(ny)
+                || Double.isInfinite(nz) || Double.isNaN(nz)) {
+            nx = dx;
+            ny = dy;
+            nz = dz;
+        }
+        _out[0] = m_base.x() + nx * m_radius;
+        _out[1] = m_base.y() + ny * m_radius;
+        _out[2] = m_base.z() + nz * m_radius;
+    }
+
+    @Override
+    public void distances(double[] _xs, double[] _ys, double[] _zs, int _num, double[] _out) {
+        final double bx = m_base.x();
+        final double by = m_base.y();
+        final double bz = m_base.z();
+        final double r = m_radius;
+        for (int i = 0; i < _num; ++i) {
+            final double dx = _xs[i] - bx;
+            final double dy = _ys[i] - by;
+            final double dz = _zs[i] - bz;
+            _out[i] = Math.abs(Math.sqrt(dx * dx + dy * dy + dz * dz) - r);
+        }
+    }
+
+    @Override
+    public void projectAll(double[] _xs, double[] _ys, double[] _zs, int _num,
+                           double[] _outX, double[] _outY, double[] _outZ) {
+        final double bx = m_base.x();
+        final double by = m_base.y();
+        final double bz = m_base.z();
+        final double r = m_radius;
+        for (int i = 0; i < _num; ++i) {
+            final double dx = _xs[i] - bx;
+            final double dy = _ys[i] - by;
+            final double dz = _zs[i] - bz;
+            final double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            _outX[i] = bx + dx / length * r;
+            _outY[i] = by + dy / length * r;
+            _outZ[i] = bz + dz / length * r;
+        }
+        // 正規化できなかった点のみ個別に投影し直す (projectionと同じ扱い)
+        for (int i = 0; i < _num; ++i) {
+            if (Double.isNaN(_outX[i]) || Double.isNaN(_outY[i]) || Double.isNaN(_outZ[i])
+                    || Double.isInfinite(_outX[i]) || Double.isInfinite(_outY[i]) || Double.isInfinite(_outZ[i])) {
+                final double[] p = new double[3];
+                projection(_xs[i], _ys[i], _zs[i], p);
+                _outX[i] = p[0];
+                _outY[i] = p[1];
+                _outZ[i] = p[2];
+            }
+        }
+    }
+
+    @Override
+    public boolean bounds(double[] _out) {
+        _out[0] = m_base.x() - m_radius;
+        _out[1] = m_base.y() - m_radius;
+        _out[2] = m_base.z() - m_radius;
+        _out[3] = m_base.x() + m_radius;
+        _out[4] = m_base.y() + m_radius;
+        _out[5] = m_base.z() + m_radius;
+        return true;
+    }
+
     private Sphere(Point _base, double _radius) {
         this.m_base = _base;
         this.m_radius = _radius;
@@ -2,10 +2,13 @@ package jp.sagalab.jftk.fuzzybeziercurve;
 
 import jp.sagalab.jftk.Matrix;
 import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.curve.BernsteinBasis;
 import jp.sagalab.jftk.curve.BezierCurve;
 import jp.sagalab.jftk.curve.ParametricEvaluable;
+import jp.sagalab.jftk.curve.Range;
 import jp.sagalab.jftk.curve.interporation.BezierCurveInterpolator;
 import jp.sagalab.jftk.fuzzysplinecurve.FuzzySplineCurveCreater;
+import jp.sagalab.jftk.fuzzysplinecurve.NNLSSolver;
 
 public class FuzzyBezierCurveCreator {
 
@@ -48,36 +51,124 @@ public class FuzzyBezierCurveCreator {
     }
 
     public BezierCurve createFBC(BezierCurve _bezier) {
-        BezierCurve vb = _bezier.differentiate();
-        BezierCurve ab = vb.differentiate();
-
-        Point origin = Point.createXYZ(0, 0, 0);
-        Point[] points = vb.evaluateAll(m_pointNum, ParametricEvaluable.EvaluationType.TIME);
+        Point[] controlPoints = _bezier.controlPoints();
         double[] fuzziness = new double[m_pointNum];
-        for (int i = 0; i < points.length; ++i) {
-            Point point = points[i];
-            double v = origin.distance(vb.evaluateAt(point.time())) * 10;
-            double a = origin.distance(ab.evaluateAt(point.time())) * 100;
-            fuzziness[i] = m_velocityCoefficient * v + m_accelerationCoefficient * a;
+        double[] times;
+        Range range = _bezier.range();
+        if (range.start() == 0.0 && range.end() == 1.0 && controlPoints.length == m_degree + 1) {
+            // 評価点は曲線によらないため、速度・加速度は基底の表と制御点の積で求める
+            double[] cp = new double[controlPoints.length * 3];
+            for (int i = 0; i < controlPoints.length; ++i) {
+                cp[i * 3] = controlPoints[i].x();
+                cp[i * 3 + 1] = controlPoints[i].y();
+                cp[i * 3 + 2] = controlPoints[i].z();
+            }
+            double[] velocity = new double[m_pointNum * 3];
+            double[] acceleration = new double[m_pointNum * 3];
+            m_velocityBasis.product(cp, 3, velocity);
+            m_accelerationBasis.product(cp, 3, acceleration);
+            for (int i = 0; i < m_pointNum; ++i) {
+                double v = norm(velocity, i) * 10;
+                double a = norm(acceleration, i) * 100;
+                fuzziness[i] = m_velocityCoefficient * v + m_accelerationCoefficient * a;
+            }
+            times = m_parameters;
+        } else {
+            BezierCurve vb = _bezier.differentiate();
+            BezierCurve ab = vb.differentiate();
+
+            Point origin = Point.createXYZ(0, 0, 0);
+            Point[] points = vb.evaluateAll(m_pointNum, ParametricEvaluable.EvaluationType.TIME);
+            for (int i = 0; i < points.length; ++i) {
+                Point point = points[i];
+                double v = origin.distance(vb.evaluateAt(point.time())) * 10;
+                double a = origin.distance(ab.evaluateAt(point.time())) * 100;
+                fuzziness[i] = m_velocityCoefficient * v + m_accelerationCoefficient * a;
+            }
+            times = BezierCurveInterpolator.createNormalizedTimes(points);
         }
 
-        double[] times = BezierCurveInterpolator.createNormalizedTimes(points);
-        Matrix matrix = BezierCurveInterpolator.createWeightMatrix(times, m_degree);
-        double[] elements = FuzzySplineCurveCreater.nnls(matrix, fuzziness);
-        Point[] controlPoints = _bezier.controlPoints();
-        for (int i = 0; i < controlPoints.length; ++i) {
-            Point p = controlPoints[i];
-            controlPoints[i] = Point.createXYZTF(p.x(), p.y(), p.z(), p.time(), elements[i]);
+        synchronized (m_nnls) {
+            double[] elements = m_controlFuzziness;
+            // 評価点の正規化時刻は曲線によらないため、重み行列は生成時に求めたものを使う
+            m_nnls.normalEquation(m_weights, m_pointNum, fuzziness, m_gram, m_rhs);
+            if (!m_nnls.solve(m_gram, m_rhs, elements, true)) {
+                // 小規模ソルバで解けない場合は汎用のNNLSで解く
+                Matrix matrix = BezierCurveInterpolator.createWeightMatrix(times, m_degree);
+                System.arraycopy(FuzzySplineCurveCreater.nnls(matrix, fuzziness), 0, elements, 0, elements.length);
+            }
+            for (int i = 0; i < controlPoints.length; ++i) {
+                Point p = controlPoints[i];
+                controlPoints[i] = Point.createXYZTF(p.x(), p.y(), p.z(), p.time(), elements[i]);
+            }
         }
 
         return BezierCurve.create(controlPoints, _bezier.range());
     }
 
+    /**
+     * 評価点ごとに [x, y, z] を並べた配列から、指定した評価点の原点からの距離を返します。
+     * @param _values 評価点ごとの値
+     * @param _index  評価点の番号
+     * @return 原点からの距離
+     */
+    private static double norm(double[] _values, int _index) {
+        double x = _values[_index * 3];
+        double y = _values[_index * 3 + 1];
+        double z = _values[_index * 3 + 2];
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * 生成するベジェ曲線の次数を返します。
+     * @return 次数
+     */
+    public int degree() {
+        return m_degree;
+    }
+
+    /**
+     * ファジネス生成に用いる点数を返します。
+     * @return 点数
+     */
+    int pointNum() {
+        return m_pointNum;
+    }
+
+    /**
+     * ファジネス生成速度係数を返します。
+     * @return 速度係数
+     */
+    double velocityCoefficient() {
+        return m_velocityCoefficient;
+    }
+
+    /**
+     * ファジネス生成加速度係数を返します。
+     * @return 加速度係数
+     */
+    double accelerationCoefficient() {
+        return m_accelerationCoefficient;
+    }
+
     FuzzyBezierCurveCreator(int _degree, double _curveTimeLength, double _velocityCoefficient, double _accelerationCoefficient) {
         this.m_degree = _degree;
         this.m_pointNum = (int) Math.max(_curveTimeLength * 100, 4);
         this.m_velocityCoefficient = _velocityCoefficient;
         this.m_accelerationCoefficient = _accelerationCoefficient;
+        int n = _degree + 1;
+        BernsteinBasis basis = BernsteinBasis.get(_degree, m_pointNum, 0);
+        this.m_weights = basis.toArray();
+        this.m_parameters = new double[m_pointNum];
+        for (int i = 0; i < m_pointNum; ++i) {
+            m_parameters[i] = basis.parameter(i);
+        }
+        this.m_velocityBasis = BernsteinBasis.get(_degree, m_pointNum, 1);
+        this.m_accelerationBasis = BernsteinBasis.get(_degree, m_pointNum, 2);
+        this.m_nnls = NNLSSolver.create(n);
+        this.m_gram = new double[n * n];
+        this.m_rhs = new double[n];
+        this.m_controlFuzziness = new double[n];
     }
 
     /** 生成するベジェ曲線の次数 */
@@ -88,5 +179,20 @@ public class FuzzyBezierCurveCreator {
     private final double m_velocityCoefficient;
     /** ファジネス生成加速度係数 */
     private final double m_accelerationCoefficient;
+    /** 正規化時刻で等間隔な評価点に対する重み行列 (評価点数×(次数+1), 行優先) */
+    private final double[] m_weights;
+    /** 評価点の正規化時刻 */
+    private final double[] m_parameters;
+    /** 評価点における速度の基底 */
+    private final BernsteinBasis m_velocityBasis;
+    /** 評価点における加速度の基底 */
+    private final BernsteinBasis m_accelerationBasis;
+    /** 制御点のファジネスを求めるNNLSソルバ (前回の解を初期値に用いる) */
+    private final NNLSSolver m_nnls;
+
+    // 作業領域 (m_nnlsで同期する)
+    private final double[] m_gram;
+    private final double[] m_rhs;
+    private final double[] m_controlFuzziness;
 
 }
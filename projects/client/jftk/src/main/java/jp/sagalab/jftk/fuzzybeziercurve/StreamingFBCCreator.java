@@ -0,0 +1,502 @@
+package jp.sagalab.jftk.fuzzybeziercurve;
+
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.curve.BernsteinBasis;
+import jp.sagalab.jftk.curve.BezierCurve;
+import jp.sagalab.jftk.curve.Range;
+import jp.sagalab.jftk.fuzzysplinecurve.NNLSSolver;
+
+import java.util.Arrays;
+
+/**
+ * 時間窓内の点列からファジィベジェ曲線を逐次生成します。
+ * <p>
+ * 点列の追加・削除のたびに正規方程式の累積値を更新するため、曲線の生成にかかる計算量は
+ * 時間窓内の点数によらず次数のみで決まります。
+ * 生成されるベジェ曲線は {@link jp.sagalab.jftk.curve.interporation.BezierCurveInterpolator#interpolate}
+ * に時間窓内の点列を与えた場合と (丸め誤差を除いて) 同じです。
+ * </p>
+ * <p>
+ * 時刻 t の点を基準時刻 t0 からの経過時間 s = (t - t0) / (時間尺度) の単項式基底で累積し、
+ * 生成時に正規化時刻のバーンスタイン基底へ変換します。
+ * 削除による桁落ちを抑えるため、時間窓の先頭が基準時刻から時間尺度以上離れたら累積値を作り直します。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public class StreamingFBCCreator {
+
+    /**
+     * 逐次FBC生成器を生成します。
+     * @param _creator   FBC生成器
+     * @param _timeScale 時間尺度 (時間窓の長さ程度, s)
+     * @return 逐次FBC生成器
+     */
+    public static StreamingFBCCreator create(FuzzyBezierCurveCreator _creator, double _timeScale) {
+        if (_creator == null) {
+            throw new IllegalArgumentException("fbc creator must not be null");
+        }
+        if (!(_timeScale > 0) || Double.isInfinite(_timeScale)) {
+            throw new IllegalArgumentException("invalid time scale : " + _timeScale);
+        }
+        if (_creator.degree() < 1 || _creator.degree() > MAX_DEGREE) {
+            throw new IllegalArgumentException("invalid degree : " + _creator.degree());
+        }
+        return new StreamingFBCCreator(_creator, _timeScale);
+    }
+
+    /**
+     * 点を追加します。点は時刻の昇順に追加してください。
+     * @param _point 点
+     */
+    public void add(Point _point) {
+        add(_point.x(), _point.y(), _point.z(), _point.time());
+    }
+
+    /**
+     * 点を追加します。点は時刻の昇順に追加してください。
+     * @param _x    X座標
+     * @param _y    Y座標
+     * @param _z    Z座標
+     * @param _time 時刻
+     */
+    public void add(double _x, double _y, double _z, double _time) {
+        if (m_size == m_t.length) {
+            grow();
+        }
+        if (m_size == 0) {
+            m_origin = _time;
+        }
+        int index = (m_head + m_size) & (m_t.length - 1);
+        m_x[index] = _x;
+        m_y[index] = _y;
+        m_z[index] = _z;
+        m_t[index] = _time;
+        ++m_size;
+        accumulate(_x, _y, _z, _time, 1.0);
+    }
+
+    /**
+     * 指定した時刻より前の点を削除します。
+     * @param _time 時刻
+     */
+    public void removeBefore(double _time) {
+        boolean removed = false;
+        while (m_size > 0 && m_t[m_head] < _time) {
+            accumulate(m_x[m_head], m_y[m_head], m_z[m_head], m_t[m_head], -1.0);
+            m_head = (m_head + 1) & (m_t.length - 1);
+            --m_size;
+            removed = true;
+        }
+        if (m_size == 0) {
+            clearSums();
+        } else if (removed && (m_t[m_head] - m_origin) > m_timeScale) {
+            rebase();
+        }
+    }
+
+    /**
+     * 全ての点を削除します。
+     */
+    public void clear() {
+        m_head = 0;
+        m_size = 0;
+        clearSums();
+    }
+
+    /**
+     * 時間窓内の点数を返します。
+     * @return 点数
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * 時間窓内の点列を最小自乗法でベジェ曲線補間します。
+     * @return ベジェ曲線 (点数が次数以下の場合、または時間窓の長さが0の場合はnull)
+     */
+    public BezierCurve interpolate() {
+        if (!fit()) {
+            return null;
+        }
+        final int n = m_degree + 1;
+        final double[] ntp = m_rhs;
+        Point[] cp = new Point[n];
+        for (int i = 0; i < n; ++i) {
+            cp[i] = Point.createXYZ(ntp[i * 3], ntp[i * 3 + 1], ntp[i * 3 + 2]);
+        }
+        return BezierCurve.create(cp, Range.zeroToOne());
+    }
+
+    /**
+     * 時間窓内の点列からファジィベジェ曲線を生成します。
+     * @return ファジィベジェ曲線 (点数が次数以下の場合はnull)
+     */
+    public BezierCurve createFBC() {
+        BezierCurve bezier = interpolate();
+        if (bezier == null) {
+            return null;
+        }
+        return m_creator.createFBC(bezier);
+    }
+
+    /**
+     * 時間窓内の点列からファジィベジェ曲線を生成し、制御点を配列に格納します。
+     * <p>
+     * {@link #createFBC()} と同じ曲線を求めますが、オブジェクトを生成しません。
+     * 制御点は [x, y, z, ファジネス] の順に (次数 + 1) 個並びます。
+     * </p>
+     * @param _controlPoints 制御点の格納先 (長さ 4 × (次数 + 1) 以上)
+     * @return 生成できた場合はtrue (点数が次数以下の場合、時間窓の長さが0の場合はfalse)
+     */
+    public boolean createFBC(double[] _controlPoints) {
+        if (!fit()) {
+            return false;
+        }
+        final int n = m_degree + 1;
+        final double[] cp = m_rhs;
+        // 等時間間隔の評価点における速度・加速度を基底の表と制御点の積で求める
+        final double[] velocity = m_velocity;
+        final double[] acceleration = m_acceleration;
+        m_velocityBasis.product(cp, 3, velocity);
+        m_accelerationBasis.product(cp, 3, acceleration);
+        // 等時間間隔の評価点におけるファジネス
+        final int pointNum = m_creator.pointNum();
+        final double vCoeff = m_creator.velocityCoefficient();
+        final double aCoeff = m_creator.accelerationCoefficient();
+        final double[] fuzziness = m_fuzziness;
+        for (int i = 0; i < pointNum; ++i) {
+            double v = norm(velocity, i) * 10;
+            double a = norm(acceleration, i) * 100;
+            fuzziness[i] = vCoeff * v + aCoeff * a;
+        }
+        // 制御点のファジネスを非負最小自乗法で求める
+        // 前回の解を初期値とし、解けなければ初期値なしで解き直す
+        m_nnls.normalEquation(m_weights, pointNum, fuzziness, m_gram, m_gramRhs);
+        if (!m_nnls.solve(m_gram, m_gramRhs, m_controlFuzziness, true)
+                && !m_nnls.solve(m_gram, m_gramRhs, m_controlFuzziness, false)) {
+            return false;
+        }
+        for (int i = 0; i < n; ++i) {
+            _controlPoints[i * 4] = cp[i * 3];
+            _controlPoints[i * 4 + 1] = cp[i * 3 + 1];
+            _controlPoints[i * 4 + 2] = cp[i * 3 + 2];
+            _controlPoints[i * 4 + 3] = m_controlFuzziness[i];
+        }
+        return true;
+    }
+
+    /**
+     * 時間窓内の点列を最小自乗法でベジェ曲線補間します。
+     * 制御点は {@link #m_rhs} に [x, y, z] の順で格納されます。
+     * @return 補間できた場合はtrue
+     */
+    private boolean fit() {
+        final int degree = m_degree;
+        final int n = degree + 1;
+        if (m_size <= degree) {
+            return false;
+        }
+        double start = m_t[m_head];
+        double end = m_t[(m_head + m_size - 1) & (m_t.length - 1)];
+        // 正規化時刻 u = (s - a) / h
+        double a = (start - m_origin) / m_timeScale;
+        double h = (end - start) / m_timeScale;
+        if (!(h > 0)) {
+            return false;
+        }
+
+        // 単項式基底の変換 u^k = Σ_j T[k][j] s^j
+        double[] t = m_transform;
+        Arrays.fill(t, 0.0);
+        double invH = 1.0 / h;
+        double hk = 1.0;
+        for (int k = 0; k < n; ++k) {
+            double na = 1.0;
+            for (int j = k; j >= 0; --j) {
+                t[k * n + j] = BINOMIAL[k][j] * na * hk;
+                na *= -a;
+            }
+            hk *= invH;
+        }
+        // バーンスタイン基底 B_i(u) = Σ_k C[i][k] u^k を合成し M = C T
+        double[] m = m_basis;
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                double sum = 0.0;
+                for (int k = Math.max(i, j); k < n; ++k) {
+                    sum += m_bernstein[i * n + k] * t[k * n + j];
+                }
+                m[i * n + j] = sum;
+            }
+        }
+        // NtN = M H Mt (Hはべき和のハンケル行列), NtP = M G
+        double[] mh = m_product;
+        for (int i = 0; i < n; ++i) {
+            for (int l = 0; l < n; ++l) {
+                double sum = 0.0;
+                for (int j = 0; j < n; ++j) {
+                    sum += m[i * n + j] * m_powerSums[j + l];
+                }
+                mh[i * n + l] = sum;
+            }
+        }
+        double[] ntn = m_normal;
+        double[] ntp = m_rhs;
+        for (int i = 0; i < n; ++i) {
+            for (int r = 0; r < n; ++r) {
+                double sum = 0.0;
+                for (int l = 0; l < n; ++l) {
+                    sum += mh[i * n + l] * m[r * n + l];
+                }
+                ntn[i * n + r] = sum;
+            }
+            for (int c = 0; c < 3; ++c) {
+                double sum = 0.0;
+                for (int j = 0; j < n; ++j) {
+                    sum += m[i * n + j] * m_momentSums[j * 3 + c];
+                }
+                ntp[i * 3 + c] = sum;
+            }
+        }
+        return solve(ntn, ntp, n);
+    }
+
+    /**
+     * 評価点ごとに [x, y, z] を並べた配列から、指定した評価点の原点からの距離を返します。
+     * @param _values 評価点ごとの値
+     * @param _index  評価点の番号
+     * @return 原点からの距離
+     */
+    private static double norm(double[] _values, int _index) {
+        double x = _values[_index * 3];
+        double y = _values[_index * 3 + 1];
+        double z = _values[_index * 3 + 2];
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * 累積値に点を加算 (減算) します。
+     * @param _x    X座標
+     * @param _y    Y座標
+     * @param _z    Z座標
+     * @param _time 時刻
+     * @param _sign 加算の場合は1、減算の場合は-1
+     */
+    private void accumulate(double _x, double _y, double _z, double _time, double _sign) {
+        final int degree = m_degree;
+        double s = (_time - m_origin) / m_timeScale;
+        double power = _sign;
+        for (int k = 0; k <= 2 * degree; ++k) {
+            m_powerSums[k] += power;
+            if (k <= degree) {
+                m_momentSums[k * 3] += power * _x;
+                m_momentSums[k * 3 + 1] += power * _y;
+                m_momentSums[k * 3 + 2] += power * _z;
+            }
+            power *= s;
+        }
+    }
+
+    /**
+     * 時間窓の先頭を基準時刻として累積値を作り直します。
+     */
+    private void rebase() {
+        clearSums();
+        m_origin = m_t[m_head];
+        int mask = m_t.length - 1;
+        for (int i = 0; i < m_size; ++i) {
+            int index = (m_head + i) & mask;
+            accumulate(m_x[index], m_y[index], m_z[index], m_t[index], 1.0);
+        }
+    }
+
+    private void clearSums() {
+        Arrays.fill(m_powerSums, 0.0);
+        Arrays.fill(m_momentSums, 0.0);
+    }
+
+    /**
+     * 点列の格納領域を倍に拡張します。
+     */
+    private void grow() {
+        int length = m_t.length;
+        double[] x = new double[length * 2];
+        double[] y = new double[length * 2];
+        double[] z = new double[length * 2];
+        double[] t = new double[length * 2];
+        for (int i = 0; i < m_size; ++i) {
+            int index = (m_head + i) & (length - 1);
+            x[i] = m_x[index];
+            y[i] = m_y[index];
+            z[i] = m_z[index];
+            t[i] = m_t[index];
+        }
+        m_x = x;
+        m_y = y;
+        m_z = z;
+        m_t = t;
+        m_head = 0;
+    }
+
+    /**
+     * 部分ピボット付きガウスの消去法で A X = B を解きます。結果はBに格納されます。
+     * @param _a 係数行列 (n×n, 破壊されます)
+     * @param _b 右辺 (n×3)
+     * @param _n 次元
+     * @return 解けた場合はtrue
+     */
+    private static boolean solve(double[] _a, double[] _b, int _n) {
+        for (int i = 0; i < _n; ++i) {
+            int pivot = i;
+            double max = Math.abs(_a[i * _n + i]);
+            for (int r = i + 1; r < _n; ++r) {
+                double v = Math.abs(_a[r * _n + i]);
+                if (v > max) {
+                    max = v;
+                    pivot = r;
+                }
+            }
+            if (!(max > 0)) {
+                return false;
+            }
+            if (pivot != i) {
+                for (int c = 0; c < _n; ++c) {
+                    double tmp = _a[i * _n + c];
+                    _a[i * _n + c] = _a[pivot * _n + c];
+                    _a[pivot * _n + c] = tmp;
+                }
+                for (int c = 0; c < 3; ++c) {
+                    double tmp = _b[i * 3 + c];
+                    _b[i * 3 + c] = _b[pivot * 3 + c];
+                    _b[pivot * 3 + c] = tmp;
+                }
+            }
+            double diag = _a[i * _n + i];
+            for (int r = i + 1; r < _n; ++r) {
+                double f = _a[r * _n + i] / diag;
+                if (f != 0.0) {
+                    for (int c = i; c < _n; ++c) {
+                        _a[r * _n + c] -= f * _a[i * _n + c];
+                    }
+                    for (int c = 0; c < 3; ++c) {
+                        _b[r * 3 + c] -= f * _b[i * 3 + c];
+                    }
+                }
+            }
+        }
+        for (int i = _n - 1; i >= 0; --i) {
+            for (int c = 0; c < 3; ++c) {
+                double v = _b[i * 3 + c];
+                for (int k = i + 1; k < _n; ++k) {
+                    v -= _a[i * _n + k] * _b[k * 3 + c];
+                }
+                v /= _a[i * _n + i];
+                if (Double.isNaN(v) || Double.isInfinite(v)) {
+                    return false;
+                }
+                _b[i * 3 + c] = v;
+            }
+        }
+        return true;
+    }
+
+    private StreamingFBCCreator(FuzzyBezierCurveCreator _creator, double _timeScale) {
+        this.m_creator = _creator;
+        this.m_degree = _creator.degree();
+        this.m_timeScale = _timeScale;
+        int n = m_degree + 1;
+        this.m_powerSums = new double[2 * m_degree + 1];
+        this.m_momentSums = new double[n * 3];
+        this.m_transform = new double[n * n];
+        this.m_basis = new double[n * n];
+        this.m_product = new double[n * n];
+        this.m_normal = new double[n * n];
+        this.m_rhs = new double[n * 3];
+        this.m_bernstein = new double[n * n];
+        for (int i = 0; i < n; ++i) {
+            for (int k = i; k < n; ++k) {
+                double sign = ((k - i) % 2 == 0) ? 1.0 : -1.0;
+                m_bernstein[i * n + k] = BINOMIAL[m_degree][i] * BINOMIAL[m_degree - i][k - i] * sign;
+            }
+        }
+        // ファジネスの評価点 (等時間間隔) における基底の表
+        int pointNum = _creator.pointNum();
+        this.m_weights = BernsteinBasis.get(m_degree, pointNum, 0).toArray();
+        this.m_velocityBasis = BernsteinBasis.get(m_degree, pointNum, 1);
+        this.m_accelerationBasis = BernsteinBasis.get(m_degree, pointNum, 2);
+        this.m_nnls = NNLSSolver.create(n);
+        this.m_velocity = new double[pointNum * 3];
+        this.m_acceleration = new double[pointNum * 3];
+        this.m_fuzziness = new double[pointNum];
+        this.m_gram = new double[n * n];
+        this.m_gramRhs = new double[n];
+        this.m_controlFuzziness = new double[n];
+    }
+
+    /** 二項係数表の大きさ */
+    private static final int MAX_DEGREE = 20;
+    /** 二項係数 */
+    private static final double[][] BINOMIAL = new double[MAX_DEGREE + 1][];
+
+    static {
+        for (int n = 0; n <= MAX_DEGREE; ++n) {
+            BINOMIAL[n] = new double[n + 1];
+            BINOMIAL[n][0] = 1.0;
+            BINOMIAL[n][n] = 1.0;
+            for (int k = 1; k < n; ++k) {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+            }
+        }
+    }
+
+    /** FBC生成器 */
+    private final FuzzyBezierCurveCreator m_creator;
+    /** 次数 */
+    private final int m_degree;
+    /** 時間尺度 (s) */
+    private final double m_timeScale;
+    /** 基準時刻 */
+    private double m_origin = 0.0;
+
+    /** 時間窓内の点列 (リングバッファ) */
+    private double[] m_x = new double[128];
+    private double[] m_y = new double[128];
+    private double[] m_z = new double[128];
+    private double[] m_t = new double[128];
+    /** 先頭の位置 */
+    private int m_head = 0;
+    /** 点数 */
+    private int m_size = 0;
+
+    /** べき和 Σ s^k (k = 0 .. 2×次数) */
+    private final double[] m_powerSums;
+    /** モーメント和 Σ s^k P (k = 0 .. 次数) */
+    private final double[] m_momentSums;
+    /** バーンスタイン基底の単項式係数 */
+    private final double[] m_bernstein;
+
+    /** ファジネスの重み行列 (評価点数×(次数+1), 行優先) */
+    private final double[] m_weights;
+    /** 評価点における速度の基底 */
+    private final BernsteinBasis m_velocityBasis;
+    /** 評価点における加速度の基底 */
+    private final BernsteinBasis m_accelerationBasis;
+    /** 制御点のファジネスを求めるNNLSソルバ */
+    private final NNLSSolver m_nnls;
+
+    // 作業領域
+    private final double[] m_transform;
+    private final double[] m_basis;
+    private final double[] m_product;
+    private final double[] m_normal;
+    private final double[] m_rhs;
+    private final double[] m_velocity;
+    private final double[] m_acceleration;
+    private final double[] m_fuzziness;
+    private final double[] m_gram;
+    private final double[] m_gramRhs;
+    private final double[] m_controlFuzziness;
+}
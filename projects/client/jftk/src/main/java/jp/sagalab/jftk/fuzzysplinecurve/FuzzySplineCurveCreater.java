@@ -1,10 +1,13 @@
 package jp.sagalab.jftk.fuzzysplinecurve;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
+import jp.sagalab.jftk.BandMatrix;
 import jp.sagalab.jftk.Matrix;
+import jp.sagalab.jftk.MatrixWorkspace;
 import jp.sagalab.jftk.Point;
 import jp.sagalab.jftk.curve.ParametricEvaluable.EvaluationType;
 import jp.sagalab.jftk.curve.Range;
@@ -75,7 +78,7 @@ public final class FuzzySplineCurveCreater {
     // 節点列
     double[] knots = _spline.knots();
     // 重み行列
-    Matrix weightMatrix = SplineCurveInterpolator.createWeightMatrix(_observations, degree, knots);
+    BandMatrix weightMatrix = SplineCurveInterpolator.createBandWeightMatrix(_observations, degree, knots);
 
     // 非負制約条件下の最小自乗法により，ファジネスを求める
     double[] fuzzinessElements = nnls(weightMatrix, observations);
@@ -207,6 +210,202 @@ public final class FuzzySplineCurveCreater {
     return resultElements[0];
   }
 
+  /**
+   * 非負制約条件下で最小自乗問題を解きます。<br>
+   * {@link #nnls(Matrix, double[])} と同じPQN-LBFGSアルゴリズムを、帯行列のまま配列上で行います。
+   * 1反復の計算量は行数×幅+列数×幅に比例し、密な行列は作りません。
+   * 正規方程式が解けず初期解が求まらない場合は {@link #nnls(Matrix, double[])} で解きます。
+   *
+   * @param _matrix      重み行列
+   * @param _observation 点列
+   * @return 最小自乗問題の解
+   */
+  public static double[] nnls(BandMatrix _matrix, double[] _observation) {
+    int rowSize = _matrix.rowSize();
+    int columnSize = _matrix.columnSize();
+    int width = _matrix.width();
+
+    // 正規方程式の係数行列(下側の帯)と右辺
+    double[] transposedProductMatrix = new double[columnSize * width];
+    _matrix.gram(transposedProductMatrix);
+    double[] transposedProductObservation = new double[columnSize];
+    _matrix.transposeProduct(_observation, 1, transposedProductObservation);
+
+    // 初期解
+    double[] factor = transposedProductMatrix.clone();
+    if (!MatrixWorkspace.bandCholesky(factor, columnSize, width)) {
+      return nnls(_matrix.toMatrix(), _observation);
+    }
+    double[] vector = transposedProductObservation.clone();
+    MatrixWorkspace.bandCholeskySolve(factor, columnSize, width, vector, 1);
+    for (int i = 0; i < columnSize; ++i) {
+      vector[i] = Math.max(vector[i], 0);
+    }
+
+    double[] gradVector = new double[columnSize];
+    calculateGradient(transposedProductMatrix, width, transposedProductObservation, vector, gradVector);
+    double[] directionVector = gradVector.clone();
+    double[] nextVector = new double[columnSize];
+    double[] nextGradVector = new double[columnSize];
+    double[] residual = new double[rowSize];
+    int[] freeIndexes = new int[columnSize];
+    double tolerance = 1.0E-14;
+    // APA rule のステップ間隔を決定する数値。開区間(0, 1)に含まれる任意の数値。
+    double stepRatio = 0.5;
+    // 開区間(0, 0.5)に含まれる任意の数値
+    double tau = 0.25;
+    int maxStoredSize = 7;
+    LinkedList<double[]> vectorQueue = new LinkedList<double[]>();
+    LinkedList<double[]> gradVectorQueue = new LinkedList<double[]>();
+    LinkedList<Double> denominatorQueue = new LinkedList<Double>();
+    int iterateCount = 0;
+    while (iterateCount < NNLS_MAX_ITERATE_TIMES) {
+      // compute free variable set indexes
+      // 自由変数でない成分は0のため、以降は全成分のベクトルのまま扱う
+      int freeSize = 0;
+      for (int i = 0; i < columnSize; ++i) {
+        if (!(vector[i] == 0.0 && gradVector[i] > 0.0)) {
+          freeIndexes[freeSize++] = i;
+        }
+      }
+
+      // the Armijo along projection arc (APA) rule
+      double freeError = estimateError(_matrix, vector, _observation, residual);
+      double element = 0.0;
+      for (int i = 0; i < freeSize; ++i) {
+        int freeIndex = freeIndexes[i];
+        element += gradVector[freeIndex] * vector[freeIndex];
+      }
+      double ratio = 1.0;
+      double gradProjected;
+      do {
+        Arrays.fill(nextVector, 0.0);
+        gradProjected = 0.0;
+        for (int i = 0; i < freeSize; ++i) {
+          int freeIndex = freeIndexes[i];
+          double projected = Math.max(vector[freeIndex] - directionVector[freeIndex] * ratio, 0.0);
+          nextVector[freeIndex] = projected;
+          gradProjected += gradVector[freeIndex] * projected;
+        }
+        ratio *= stepRatio;
+      }
+      while (!(freeError - estimateError(_matrix, nextVector, _observation, residual)
+          >= tau * (element - gradProjected)));
+
+      // update free variable set
+      calculateGradient(transposedProductMatrix, width, transposedProductObservation, nextVector, nextGradVector);
+
+      double squaredNorm = 0.0;
+      for (int i = 0; i < freeSize; ++i) {
+        int freeIndex = freeIndexes[i];
+        double diff = nextVector[freeIndex] - vector[freeIndex];
+        squaredNorm += diff * diff;
+      }
+      if (squaredNorm < tolerance) {
+        break;
+      }
+
+      // the limited memory BFGS (L-BFGS) method
+      double[] diffVector;
+      double[] diffGradVector;
+      if (vectorQueue.size() >= maxStoredSize) {
+        diffVector = vectorQueue.poll();
+        diffGradVector = gradVectorQueue.poll();
+        denominatorQueue.poll();
+      } else {
+        diffVector = new double[columnSize];
+        diffGradVector = new double[columnSize];
+      }
+      double denominator = 0.0;
+      for (int i = 0; i < columnSize; ++i) {
+        diffVector[i] = nextVector[i] - vector[i];
+        diffGradVector[i] = nextGradVector[i] - gradVector[i];
+        denominator += diffGradVector[i] * diffVector[i];
+      }
+      vectorQueue.offer(diffVector);
+      gradVectorQueue.offer(diffGradVector);
+      denominatorQueue.offer(denominator);
+
+      calculateDirection(vectorQueue, gradVectorQueue, denominatorQueue, nextGradVector, directionVector);
+
+      double[] tmp = gradVector;
+      gradVector = nextGradVector;
+      nextGradVector = tmp;
+      tmp = vector;
+      vector = nextVector;
+      nextVector = tmp;
+      ++iterateCount;
+    }
+    if (iterateCount >= NNLS_MAX_ITERATE_TIMES) {
+      System.err.println("Warnning: nnls iterate count reach " + iterateCount);
+    }
+
+    return vector;
+  }
+
+  /**
+   * 勾配 A<sup>T</sup>A x - A<sup>T</sup>b を求めます。
+   */
+  private static void calculateGradient(double[] _transposedProductMatrix, int _width,
+                                        double[] _transposedProductObservation, double[] _vector, double[] _result) {
+    int size = _vector.length;
+    MatrixWorkspace.bandProduct(_transposedProductMatrix, size, _width, _vector, _result);
+    for (int i = 0; i < size; ++i) {
+      _result[i] -= _transposedProductObservation[i];
+    }
+  }
+
+  private static void calculateDirection(List<double[]> _vectors, List<double[]> _gradVectors,
+                                         List<Double> _denominators, double[] _nextGradVector, double[] _result) {
+    int size = _vectors.size();
+    int length = _nextGradVector.length;
+    double[] alpha = new double[size];
+
+    double[] direction = _result;
+    System.arraycopy(_nextGradVector, 0, direction, 0, length);
+    //逆順で処理を行う
+    for (int i = size - 1; i >= 0; --i) {
+      double[] vector = _vectors.get(i);
+      double element = 0.0;
+      for (int j = 0; j < length; ++j) {
+        element += vector[j] * direction[j];
+      }
+      alpha[i] = element / _denominators.get(i);
+      if (Double.isInfinite(alpha[i]) || Double.isNaN(alpha[i])) {
+        alpha[i] = 1.0;
+      }
+      double[] gradVector = _gradVectors.get(i);
+      for (int j = 0; j < length; ++j) {
+        direction[j] -= gradVector[j] * alpha[i];
+      }
+    }
+    for (int i = 0; i < size; ++i) {
+      double[] gradVector = _gradVectors.get(i);
+      double element = 0.0;
+      for (int j = 0; j < length; ++j) {
+        element += gradVector[j] * direction[j];
+      }
+      double beta = element / _denominators.get(i);
+      if (Double.isInfinite(beta) || Double.isNaN(beta)) {
+        beta = 1.0;
+      }
+      double[] vector = _vectors.get(i);
+      for (int j = 0; j < length; ++j) {
+        direction[j] += vector[j] * (alpha[i] - beta);
+      }
+    }
+  }
+
+  private static double estimateError(BandMatrix _matrix, double[] _vector, double[] _observation, double[] _residual) {
+    _matrix.product(_vector, _residual);
+    double result = 0.0;
+    for (int i = 0; i < _residual.length; ++i) {
+      double element = _residual[i] - _observation[i];
+      result += element * element;
+    }
+    return result / 2.0;
+  }
+
   private static int[] searchFreeIndexes(Matrix _vector, Matrix _gradVector) {
     int rowSize = _vector.rowSize();
     List<Integer> indexList = new ArrayList<Integer>(rowSize);
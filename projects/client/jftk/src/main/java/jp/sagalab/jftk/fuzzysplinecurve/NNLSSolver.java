@@ -0,0 +1,315 @@
+package jp.sagalab.jftk.fuzzysplinecurve;
+
+import java.util.Arrays;
+
+/**
+ * 未知数の少ない密な非負制約付き最小自乗問題を解くためのクラスです。
+ * <p>
+ * Lawson-Hanson の有効制約法を正規方程式 (A<sup>T</sup>A, A<sup>T</sup>b) の上で行います。
+ * 作業領域は生成時に確保し、呼び出しごとに再利用するため、
+ * {@link #solve(double[], double[], double[], boolean)} はオブジェクトを生成しません。
+ * 毎周期よく似た問題を解く場合は、前回の解と自由変数の集合を初期値にできます。
+ * 未知数が多い場合や疎な場合は {@link FuzzySplineCurveCreater#nnls} を利用してください。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public final class NNLSSolver {
+
+  /**
+   * NNLSソルバを生成します。
+   *
+   * @param _size 未知数の数
+   * @return NNLSソルバ
+   * @throws IllegalArgumentException 未知数の数が1未満の場合
+   */
+  public static NNLSSolver create(int _size) {
+    if (_size < 1) {
+      throw new IllegalArgumentException("invalid size : " + _size);
+    }
+    return new NNLSSolver(_size);
+  }
+
+  /**
+   * 正規方程式を重み行列と観測値から構成します。
+   *
+   * @param _matrix      重み行列 (行数×未知数の数, 行優先)
+   * @param _rowSize     行数
+   * @param _observation 観測値
+   * @param _gram        A<sup>T</sup>A の格納先 (未知数の数×未知数の数, 行優先)
+   * @param _rhs         A<sup>T</sup>b の格納先
+   */
+  public void normalEquation(double[] _matrix, int _rowSize, double[] _observation,
+      double[] _gram, double[] _rhs) {
+    final int n = m_size;
+    for (int i = 0; i < n; ++i) {
+      for (int j = i; j < n; ++j) {
+        double sum = 0.0;
+        for (int r = 0; r < _rowSize; ++r) {
+          sum += _matrix[r * n + i] * _matrix[r * n + j];
+        }
+        _gram[i * n + j] = sum;
+        _gram[j * n + i] = sum;
+      }
+      double sum = 0.0;
+      for (int r = 0; r < _rowSize; ++r) {
+        sum += _matrix[r * n + i] * _observation[r];
+      }
+      _rhs[i] = sum;
+    }
+  }
+
+  /**
+   * 非負制約条件下で最小自乗問題を解きます。
+   *
+   * @param _gram 正規方程式の係数行列 A<sup>T</sup>A (未知数の数×未知数の数, 行優先)
+   * @param _rhs  正規方程式の右辺 A<sup>T</sup>b
+   * @param _x    解の格納先
+   * @return 解けた場合はtrue (部分問題が特異な場合、反復回数の上限に達した場合はfalse)
+   */
+  public boolean solve(double[] _gram, double[] _rhs, double[] _x) {
+    return solve(_gram, _rhs, _x, false);
+  }
+
+  /**
+   * 非負制約条件下で最小自乗問題を解きます。
+   * <p>
+   * 前回の解を初期値とする場合は、前回の解を格納したままの配列を渡してください。
+   * 前回の自由変数の集合のうち、値が正のものから反復を始めます。
+   * 係数行列が前回からあまり変わらない場合は、数回の部分問題で収束します。
+   * </p>
+   *
+   * @param _gram      正規方程式の係数行列 A<sup>T</sup>A (未知数の数×未知数の数, 行優先)
+   * @param _rhs       正規方程式の右辺 A<sup>T</sup>b
+   * @param _x         前回の解 (前回の解を用いない場合は任意), 解の格納先
+   * @param _warmStart 前回の解と自由変数の集合を初期値とする場合はtrue
+   * @return 解けた場合はtrue (部分問題が特異な場合、反復回数の上限に達した場合はfalse)
+   */
+  public boolean solve(double[] _gram, double[] _rhs, double[] _x, boolean _warmStart) {
+    final int n = m_size;
+    final boolean[] passive = m_passive;
+    final double[] w = m_gradient;
+    if (_warmStart && m_solved) {
+      for (int i = 0; i < n; ++i) {
+        if (!passive[i] || !(_x[i] > 0.0)) {
+          passive[i] = false;
+          _x[i] = 0.0;
+        }
+      }
+    } else {
+      Arrays.fill(_x, 0, n, 0.0);
+      Arrays.fill(passive, false);
+    }
+    m_solved = false;
+    m_iterateCount = 0;
+
+    double scale = 0.0;
+    for (int i = 0; i < n; ++i) {
+      scale = Math.max(scale, Math.abs(_rhs[i]));
+    }
+    final double tolerance = TOLERANCE * Math.max(scale, Double.MIN_NORMAL);
+
+    // 初期の自由変数で部分問題を解いておく
+    for (int i = 0; i < n; ++i) {
+      if (passive[i]) {
+        if (!reduce(_gram, _rhs, _x)) {
+          return false;
+        }
+        break;
+      }
+    }
+    while (m_iterateCount < m_maxIterate) {
+      // 勾配 w = A^T b - A^T A x
+      gradient(_gram, _rhs, _x, w);
+      // 勾配が最大の束縛変数を自由変数にする
+      int index = -1;
+      double max = tolerance;
+      for (int i = 0; i < n; ++i) {
+        if (!passive[i] && w[i] > max) {
+          max = w[i];
+          index = i;
+        }
+      }
+      if (index < 0) {
+        m_solved = true;
+        return true;
+      }
+      passive[index] = true;
+      if (!reduce(_gram, _rhs, _x)) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 直前の {@link #solve} で解いた部分問題の数を返します。
+   *
+   * @return 部分問題の数
+   */
+  public int iterateCount() {
+    return m_iterateCount;
+  }
+
+  /**
+   * 未知数の数を返します。
+   *
+   * @return 未知数の数
+   */
+  public int size() {
+    return m_size;
+  }
+
+  /**
+   * 自由変数のみで制約なしの最小自乗問題を解き、解が非負になるまで自由変数を減らします。
+   *
+   * @param _gram 正規方程式の係数行列
+   * @param _rhs  正規方程式の右辺
+   * @param _x    現在の解 (非負), 更新後の解の格納先
+   * @return 非負の解が得られた場合はtrue
+   */
+  private boolean reduce(double[] _gram, double[] _rhs, double[] _x) {
+    final int n = m_size;
+    final boolean[] passive = m_passive;
+    final double[] z = m_candidate;
+    while (m_iterateCount < m_maxIterate) {
+      ++m_iterateCount;
+      if (!solvePassive(_gram, _rhs, z)) {
+        return false;
+      }
+      double alpha = Double.POSITIVE_INFINITY;
+      int blocking = -1;
+      for (int i = 0; i < n; ++i) {
+        if (passive[i] && z[i] <= 0.0) {
+          double ratio = _x[i] / (_x[i] - z[i]);
+          if (ratio < alpha) {
+            alpha = ratio;
+            blocking = i;
+          }
+        }
+      }
+      if (blocking < 0) {
+        for (int i = 0; i < n; ++i) {
+          _x[i] = passive[i] ? z[i] : 0.0;
+        }
+        return true;
+      }
+      for (int i = 0; i < n; ++i) {
+        if (passive[i]) {
+          _x[i] += alpha * (z[i] - _x[i]);
+          if (i == blocking || _x[i] <= 0.0) {
+            _x[i] = 0.0;
+            passive[i] = false;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 勾配 A<sup>T</sup>b - A<sup>T</sup>A x を計算します。
+   */
+  private void gradient(double[] _gram, double[] _rhs, double[] _x, double[] _w) {
+    final int n = m_size;
+    for (int i = 0; i < n; ++i) {
+      double sum = _rhs[i];
+      for (int j = 0; j < n; ++j) {
+        sum -= _gram[i * n + j] * _x[j];
+      }
+      _w[i] = sum;
+    }
+  }
+
+  /**
+   * 自由変数に対する部分問題をコレスキー分解で解きます。束縛変数の成分は0になります。
+   *
+   * @param _gram 正規方程式の係数行列
+   * @param _rhs  正規方程式の右辺
+   * @param _z    解の格納先
+   * @return 解けた場合はtrue
+   */
+  private boolean solvePassive(double[] _gram, double[] _rhs, double[] _z) {
+    final int n = m_size;
+    final int[] indexes = m_indexes;
+    final double[] l = m_factor;
+    final double[] y = m_work;
+    int k = 0;
+    for (int i = 0; i < n; ++i) {
+      _z[i] = 0.0;
+      if (m_passive[i]) {
+        indexes[k++] = i;
+      }
+    }
+    // L L^T = (A^T A)_PP
+    for (int i = 0; i < k; ++i) {
+      for (int j = 0; j <= i; ++j) {
+        double sum = _gram[indexes[i] * n + indexes[j]];
+        for (int p = 0; p < j; ++p) {
+          sum -= l[i * n + p] * l[j * n + p];
+        }
+        if (i == j) {
+          if (!(sum > 0.0)) {
+            return false;
+          }
+          l[i * n + i] = Math.sqrt(sum);
+        } else {
+          l[i * n + j] = sum / l[j * n + j];
+        }
+      }
+    }
+    // 前進代入 L y = (A^T b)_P
+    for (int i = 0; i < k; ++i) {
+      double sum = _rhs[indexes[i]];
+      for (int p = 0; p < i; ++p) {
+        sum -= l[i * n + p] * y[p];
+      }
+      y[i] = sum / l[i * n + i];
+    }
+    // 後退代入 L^T z = y
+    for (int i = k - 1; i >= 0; --i) {
+      double sum = y[i];
+      for (int p = i + 1; p < k; ++p) {
+        sum -= l[p * n + i] * y[p];
+      }
+      y[i] = sum / l[i * n + i];
+    }
+    for (int i = 0; i < k; ++i) {
+      _z[indexes[i]] = y[i];
+    }
+    return true;
+  }
+
+  private NNLSSolver(int _size) {
+    m_size = _size;
+    m_maxIterate = Math.max(3 * _size, 30);
+    m_passive = new boolean[_size];
+    m_gradient = new double[_size];
+    m_candidate = new double[_size];
+    m_indexes = new int[_size];
+    m_factor = new double[_size * _size];
+    m_work = new double[_size];
+  }
+
+  /** 勾配の許容誤差 (右辺の最大値に対する比) */
+  private static final double TOLERANCE = 1.0E-12;
+
+  /** 未知数の数 */
+  private final int m_size;
+  /** 反復回数の上限 */
+  private final int m_maxIterate;
+  /** 自由変数か (直前に解いた問題の自由変数の集合を保持します) */
+  private final boolean[] m_passive;
+  /** 直前の問題が解けたか */
+  private boolean m_solved = false;
+  /** 直前の問題で解いた部分問題の数 */
+  private int m_iterateCount = 0;
+
+  // 作業領域
+  private final double[] m_gradient;
+  private final double[] m_candidate;
+  private final int[] m_indexes;
+  private final double[] m_factor;
+  private final double[] m_work;
+}
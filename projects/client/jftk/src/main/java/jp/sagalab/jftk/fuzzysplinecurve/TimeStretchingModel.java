@@ -1,6 +1,7 @@
 package jp.sagalab.jftk.fuzzysplinecurve;
 
 import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.PointBuffer;
 import jp.sagalab.jftk.curve.ParametricEvaluable;
 import jp.sagalab.jftk.curve.Range;
 import jp.sagalab.jftk.curve.SplineCurve;
@@ -115,6 +116,16 @@ public final class TimeStretchingModel {
     for (int i = 0; i < samples.length; ++i) {
       times[i] = samples[i].time();
     }
+    // 評価時刻は単調増加のため、積分したFSCは節点区間をたどりながらまとめて評価する
+    PointBuffer iFuz = PointBuffer.create(times.length);
+    PointBuffer iVel = PointBuffer.create(times.length);
+    PointBuffer iAcc = PointBuffer.create(times.length);
+    iFuzSpline.evaluateSortedInto(times, times.length, iFuz);
+    iVelSpline.evaluateSortedInto(times, times.length, iVel);
+    iAccSpline.evaluateSortedInto(times, times.length, iAcc);
+    double[] fuzIntegral = iFuz.fuzzinesses();
+    double[] velIntegral = iVel.fuzzinesses();
+    double[] accIntegral = iAcc.fuzzinesses();
     double delta = 0;
     double start = 0;
     double end = 0;
@@ -122,19 +133,13 @@ public final class TimeStretchingModel {
       int pre = i - 1;
       int post = i;
       // 点列間の平均ファジネスを求める
-      double f0 = iFuzSpline.evaluate(times[pre]).fuzziness();
-      double f1 = iFuzSpline.evaluate(times[post]).fuzziness();
-      double fuz = (f1 - f0) / (times[post] - times[pre]);
+      double fuz = (fuzIntegral[post] - fuzIntegral[pre]) / (times[post] - times[pre]);
 
       // 点列間の平均速度を求める
-      f0 = iVelSpline.evaluate(times[pre]).fuzziness();
-      f1 = iVelSpline.evaluate(times[post]).fuzziness();
-      double vel = (f1 - f0) / (times[post] - times[pre]);
+      double vel = (velIntegral[post] - velIntegral[pre]) / (times[post] - times[pre]);
 
       // 点列間の平均加速度を求める
-      f0 = iAccSpline.evaluate(times[pre]).fuzziness();
-      f1 = iAccSpline.evaluate(times[post]).fuzziness();
-      double acc = (f1 - f0) / (times[post] - times[pre]);
+      double acc = (accIntegral[post] - accIntegral[pre]) / (times[post] - times[pre]);
 
 
       // 二次方程式 a*ratio^2 + b*ratio = c を解く
@@ -0,0 +1,292 @@
+package jp.sagalab.jftk.fuzzysplinecurve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import jp.sagalab.jftk.Matrix;
+import jp.sagalab.jftk.Point;
+import jp.sagalab.jftk.curve.BernsteinBasis;
+import jp.sagalab.jftk.curve.BezierCurve;
+import jp.sagalab.jftk.curve.Range;
+import jp.sagalab.jftk.curve.interporation.BezierCurveInterpolator;
+import jp.sagalab.jftk.fuzzybeziercurve.FuzzyBezierCurveCreator;
+import org.junit.Test;
+
+/**
+ * {@link NNLSSolver} と {@link FuzzySplineCurveCreater#nnls(Matrix, double[])} を比較するテストです。
+ * <p>
+ * 問題は {@link FuzzyBezierCurveCreator} の既定と同じ形
+ * (3次のバーンスタイン基底を10点の等間隔な正規化時刻で評価した重み行列) とし、乱数の種は固定します。
+ * NNLSSolver は有効制約法で厳密解を求め、nnls は PQN-LBFGS の停止条件で打ち切った近似解を返すため、
+ * 解の一致ではなく、最適性条件・目的関数の大小・係数の差の上限を確かめます。
+ * </p>
+ */
+public class NNLSSolverTest {
+
+  /**
+   * 前回の解を用いない場合、最適性条件を満たし、nnls より残差が大きくならないことを確かめます。
+   * 束縛変数が生じる観測値も含めます。
+   */
+  @Test
+  public void coldStartIsOptimalAndNoWorseThanPQN() {
+    Random random = new Random(SEED);
+    NNLSSolver solver = NNLSSolver.create(N);
+    double[] x = new double[N];
+    int activeCount = 0;
+    for (int k = 0; k < 600; ++k) {
+      double[] observation = randomObservation(random, k % 3);
+      solver.normalEquation(WEIGHTS, POINT_NUM, observation, m_gram, m_rhs);
+      assertTrue(solver.solve(m_gram, m_rhs, x));
+      assertOptimal(x);
+
+      double[] pqn = FuzzySplineCurveCreater.nnls(WEIGHT_MATRIX, observation);
+      for (int i = 0; i < N; ++i) {
+        assertTrue(pqn[i] >= 0.0);
+        if (x[i] == 0.0) {
+          ++activeCount;
+        }
+      }
+      double error = error(x, observation);
+      assertTrue("problem " + k, error <= error(pqn, observation) * (1 + 1e-12) + 1e-15);
+    }
+    // 束縛変数が生じる問題を解いていること
+    assertTrue(activeCount > 0);
+  }
+
+  /**
+   * FBC生成と同じ観測値 (速度・加速度から求めたファジネス) について、
+   * {@link FuzzyBezierCurveCreator#createFBC(BezierCurve)} の制御点のファジネスと nnls の解の差が
+   * 最大の係数の5%以内であり、残差が nnls より大きくならないことを確かめます。
+   * createFBC は前回の解を初期値に用いるため、同じ問題を前回の解を用いずに解いた結果とも比べます。
+   */
+  @Test
+  public void createFBCStaysCloseToPQN() {
+    Random random = new Random(SEED);
+    FuzzyBezierCurveCreator creator = FuzzyBezierCurveCreator.create(3, 0.1, VELOCITY_COEFFICIENT, ACCELERATION_COEFFICIENT);
+    NNLSSolver cold = NNLSSolver.create(N);
+    double[] x = new double[N];
+    double maxDifference = 0.0;
+    for (int k = 0; k < 500; ++k) {
+      BezierCurve bezier = randomBezier(random);
+      Point[] cp = creator.createFBC(bezier).controlPoints();
+      double[] fbc = new double[N];
+      double scale = 0.0;
+      for (int i = 0; i < N; ++i) {
+        fbc[i] = cp[i].fuzziness();
+        scale = Math.max(scale, fbc[i]);
+      }
+
+      double[] observation = fbcObservation(bezier);
+      cold.normalEquation(WEIGHTS, POINT_NUM, observation, m_gram, m_rhs);
+      assertTrue(cold.solve(m_gram, m_rhs, x));
+      double[] pqn = FuzzySplineCurveCreater.nnls(WEIGHT_MATRIX, observation);
+      for (int i = 0; i < N; ++i) {
+        assertEquals("problem " + k, x[i], fbc[i], 1e-9 * scale);
+        maxDifference = Math.max(maxDifference, Math.abs(fbc[i] - pqn[i]) / scale);
+      }
+      assertTrue("problem " + k, error(fbc, observation) <= error(pqn, observation) * (1 + 1e-9));
+    }
+    assertTrue("max difference " + maxDifference, maxDifference <= 0.05);
+  }
+
+  /**
+   * 少しずつ変化する問題を前回の解を初期値にして解いた結果が、前回の解を用いずに解いた結果と一致し、
+   * 部分問題の数の合計が多くならないことを確かめます。
+   */
+  @Test
+  public void warmStartMatchesColdStart() {
+    Random random = new Random(SEED);
+    NNLSSolver warm = NNLSSolver.create(N);
+    NNLSSolver cold = NNLSSolver.create(N);
+    double[] xWarm = new double[N];
+    double[] xCold = new double[N];
+    double[] observation = randomObservation(random, 2);
+    int warmCount = 0;
+    int coldCount = 0;
+    for (int k = 0; k < 1000; ++k) {
+      // 観測値を少しずつ動かし、束縛変数の集合も時々入れ替わるようにする
+      for (int i = 0; i < POINT_NUM; ++i) {
+        observation[i] = Math.max(0.0, observation[i] + 0.02 * random.nextGaussian());
+      }
+      warm.normalEquation(WEIGHTS, POINT_NUM, observation, m_gram, m_rhs);
+      assertTrue(warm.solve(m_gram, m_rhs, xWarm, true));
+      assertTrue(cold.solve(m_gram, m_rhs, xCold, false));
+      double scale = maxAbs(m_rhs);
+      for (int i = 0; i < N; ++i) {
+        assertEquals("problem " + k, xCold[i], xWarm[i], 1e-12 * Math.max(scale, 1.0));
+      }
+      warmCount += warm.iterateCount();
+      coldCount += cold.iterateCount();
+    }
+    assertTrue(warmCount + " > " + coldCount, warmCount <= coldCount);
+  }
+
+  /**
+   * 部分問題が特異な場合に失敗を返し (createFBC は nnls に切り替えます)、
+   * 失敗の直後に前回の解を初期値に指定しても、失敗した状態を用いずに解くことを確かめます。
+   */
+  @Test
+  public void failureFallsBackToColdStart() {
+    NNLSSolver solver = NNLSSolver.create(N);
+    // 対角成分が0で右辺が正の変数は、自由変数にした時点で部分問題が解けない
+    double[] singular = new double[N * N];
+    for (int i = 1; i < N; ++i) {
+      singular[i * N + i] = 1.0;
+    }
+    double[] rhs = new double[] {1.0, 1.0, 1.0, 1.0};
+    double[] x = new double[N];
+    assertFalse(solver.solve(singular, rhs, x, false));
+
+    Random random = new Random(SEED);
+    double[] observation = randomObservation(random, 0);
+    solver.normalEquation(WEIGHTS, POINT_NUM, observation, m_gram, m_rhs);
+    // 失敗した解の値が残っていても使われない
+    for (int i = 0; i < N; ++i) {
+      x[i] = 1.0e6;
+    }
+    assertTrue(solver.solve(m_gram, m_rhs, x, true));
+    double[] expected = new double[N];
+    assertTrue(NNLSSolver.create(N).solve(m_gram, m_rhs, expected, false));
+    for (int i = 0; i < N; ++i) {
+      assertEquals(expected[i], x[i], 0.0);
+    }
+
+    // 切り替え先の nnls も同じ問題で非負の解を返し、残差は厳密解と同程度であること
+    double[] pqn = FuzzySplineCurveCreater.nnls(WEIGHT_MATRIX, observation);
+    for (int i = 0; i < N; ++i) {
+      assertTrue(pqn[i] >= 0.0);
+    }
+    assertTrue(error(pqn, observation) <= error(x, observation) * 1.1 + 1e-15);
+  }
+
+  /**
+   * 最適性条件 (KKT条件) を満たすことを確かめます。
+   * 勾配 w = A<sup>T</sup>b - A<sup>T</sup>A x は全ての成分で非正、解が正の成分で0になります。
+   */
+  private void assertOptimal(double[] _x) {
+    double tolerance = 1e-9 * Math.max(maxAbs(m_rhs), 1e-12);
+    for (int i = 0; i < N; ++i) {
+      assertTrue(_x[i] >= 0.0);
+      double w = m_rhs[i];
+      for (int j = 0; j < N; ++j) {
+        w -= m_gram[i * N + j] * _x[j];
+      }
+      assertTrue("gradient " + w, w <= tolerance);
+      if (_x[i] > 0.0) {
+        assertEquals(0.0, w, tolerance);
+      }
+    }
+  }
+
+  /**
+   * 乱数で観測値を生成します。
+   *
+   * @param _random 乱数
+   * @param _kind   0: 正の一様乱数, 1: 振動して0付近まで下がる値, 2: 中央が0の値 (束縛変数が生じやすい)
+   * @return 観測値
+   */
+  private static double[] randomObservation(Random _random, int _kind) {
+    double[] observation = new double[POINT_NUM];
+    double phase = _random.nextDouble() * 2 * Math.PI;
+    for (int i = 0; i < POINT_NUM; ++i) {
+      double t = PARAMETERS[i];
+      switch (_kind) {
+        case 0:
+          observation[i] = 0.05 + 0.3 * _random.nextDouble();
+          break;
+        case 1:
+          observation[i] = Math.max(0.0, 0.5 * _random.nextDouble() * Math.cos(6 * t + phase)) + 0.001;
+          break;
+        default:
+          observation[i] = (t < 0.3 || t > 0.7) ? _random.nextDouble() : 0.0;
+          break;
+      }
+    }
+    return observation;
+  }
+
+  /**
+   * 乱数で3次のベジェ曲線 (範囲[0, 1]) を生成します。
+   */
+  private static BezierCurve randomBezier(Random _random) {
+    Point[] cp = new Point[N];
+    double size = 5 + 40 * _random.nextDouble();
+    for (int i = 0; i < N; ++i) {
+      cp[i] = Point.createXYZ(size * _random.nextGaussian(), size * _random.nextGaussian(), size * _random.nextGaussian());
+    }
+    return BezierCurve.create(cp, Range.zeroToOne());
+  }
+
+  /**
+   * FBC生成と同じく、速度・加速度の大きさからファジネスの観測値を求めます。
+   */
+  private static double[] fbcObservation(BezierCurve _bezier) {
+    BezierCurve velocity = _bezier.differentiate();
+    BezierCurve acceleration = velocity.differentiate();
+    Point origin = Point.createXYZ(0, 0, 0);
+    double[] observation = new double[POINT_NUM];
+    for (int i = 0; i < POINT_NUM; ++i) {
+      double v = origin.distance(velocity.evaluateAt(PARAMETERS[i])) * 10;
+      double a = origin.distance(acceleration.evaluateAt(PARAMETERS[i])) * 100;
+      observation[i] = VELOCITY_COEFFICIENT * v + ACCELERATION_COEFFICIENT * a;
+    }
+    return observation;
+  }
+
+  /**
+   * 残差の二乗和の半分 |A x - b|<sup>2</sup> / 2 を返します。
+   */
+  private static double error(double[] _x, double[] _observation) {
+    double sum = 0.0;
+    for (int r = 0; r < POINT_NUM; ++r) {
+      double residual = -_observation[r];
+      for (int i = 0; i < N; ++i) {
+        residual += WEIGHTS[r * N + i] * _x[i];
+      }
+      sum += residual * residual;
+    }
+    return sum / 2.0;
+  }
+
+  private static double maxAbs(double[] _values) {
+    double max = 0.0;
+    for (double value : _values) {
+      max = Math.max(max, Math.abs(value));
+    }
+    return max;
+  }
+
+  /** 乱数の種 */
+  private static final long SEED = 20210202L;
+  /** 次数 */
+  private static final int DEGREE = 3;
+  /** 未知数の数 */
+  private static final int N = DEGREE + 1;
+  /** 評価点数 (時間長0.1秒のFBC生成器と同じ) */
+  private static final int POINT_NUM = 10;
+  /** ファジネス生成速度係数 ({@link FuzzyBezierCurveCreator#create()} と同じ) */
+  private static final double VELOCITY_COEFFICIENT = 0.008581 * 6;
+  /** ファジネス生成加速度係数 ({@link FuzzyBezierCurveCreator#create()} と同じ) */
+  private static final double ACCELERATION_COEFFICIENT = 0.007742 * 0.25;
+  /** 評価点の基底 */
+  private static final BernsteinBasis BASIS = BernsteinBasis.get(DEGREE, POINT_NUM, 0);
+  /** 重み行列 (評価点数×未知数の数, 行優先) */
+  private static final double[] WEIGHTS = BASIS.toArray();
+  /** 評価点の正規化時刻 */
+  private static final double[] PARAMETERS = new double[POINT_NUM];
+  /** nnls に渡す重み行列 */
+  private static final Matrix WEIGHT_MATRIX;
+
+  static {
+    for (int i = 0; i < POINT_NUM; ++i) {
+      PARAMETERS[i] = BASIS.parameter(i);
+    }
+    WEIGHT_MATRIX = BezierCurveInterpolator.createWeightMatrix(PARAMETERS, DEGREE);
+  }
+
+  private final double[] m_gram = new double[N * N];
+  private final double[] m_rhs = new double[N];
+}